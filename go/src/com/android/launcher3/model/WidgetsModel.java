@@ -16,6 +16,7 @@
 
 package com.android.launcher3.model;
 
+import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.os.UserHandle;
@@ -27,6 +28,7 @@ import com.android.launcher3.icons.ComponentWithLabelAndIcon;
 import com.android.launcher3.model.data.PackageItemInfo;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.widget.model.WidgetsListBaseEntry;
+import com.android.launcher3.widget.picker.search.WidgetsSearchIndex;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -47,6 +49,8 @@ public class WidgetsModel {
 
     private static final ArrayList<WidgetsListBaseEntry> EMPTY_WIDGET_LIST = new ArrayList<>();
 
+    private final WidgetsSearchIndex mSearchIndex = new WidgetsSearchIndex();
+
     /**
      * Returns a list of {@link WidgetsListBaseEntry}. All {@link WidgetItem} in a single row are
      * sorted (based on label and user), but the overall list of {@link WidgetsListBaseEntry}s is
@@ -59,6 +63,11 @@ public class WidgetsModel {
         return EMPTY_WIDGET_LIST;
     }
 
+    /** Returns an empty search index, as there are no widgets. */
+    public WidgetsSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
     /** Returns a mapping of packages to their widgets without static shortcuts. */
     public synchronized Map<PackageUserKey, List<WidgetItem>> getAllWidgetsWithoutShortcuts() {
         return Map.of();
@@ -73,6 +82,15 @@ public class WidgetsModel {
         return Collections.emptyList();
     }
 
+    /**
+     * Same as {@link #update(LauncherAppState, PackageUserKey)}
+     */
+    public List<ComponentWithLabelAndIcon> update(LauncherAppState app,
+            @Nullable PackageUserKey packageUser,
+            @Nullable List<AppWidgetProviderInfo> providers) {
+        return Collections.emptyList();
+    }
+
 
     public void onPackageIconsUpdated(Set<String> packageNames, UserHandle user,
             LauncherAppState app) {
@@ -30,17 +30,22 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.UserHandle;
 import android.text.TextUtils;
+import android.util.Log;
 import android.util.SparseArray;
 import android.view.accessibility.AccessibilityManager;
 
 import androidx.annotation.WorkerThread;
 
+import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.R;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.icons.BaseIconFactory;
 import com.android.launcher3.icons.BaseIconFactory.IconOptions;
 import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.IconAtlas;
+import com.android.launcher3.icons.IconAtlas.IconRecord;
 import com.android.launcher3.icons.IconProvider;
+import com.android.launcher3.pm.UserCache;
 import com.android.launcher3.util.DisplayController;
 import com.android.launcher3.util.DisplayController.DisplayInfoChangeListener;
 import com.android.launcher3.util.DisplayController.Info;
@@ -52,14 +57,27 @@ import com.android.systemui.shared.recents.model.Task;
 import com.android.systemui.shared.recents.model.Task.TaskKey;
 import com.android.systemui.shared.system.PackageManagerWrapper;
 
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 /**
  * Manages the caching of task icons and related data.
+ *
+ * Icons missing from the memory cache are looked up in the persisted task icons if the task
+ * description has an icon, and in the launcher icon db otherwise, before being rendered.
  */
 public class TaskIconCache implements DisplayInfoChangeListener {
 
+    private static final String TAG = "TaskIconCache";
+
+    private static final String TASK_ICON_ATLAS_FILE_NAME = "task_icon_atlas";
+
     private final Executor mBgExecutor;
     private final AccessibilityManager mAccessibilityManager;
 
@@ -70,7 +88,11 @@ public class TaskIconCache implements DisplayInfoChangeListener {
 
     private final IconProvider mIconProvider;
 
+    // Rendered task description icons, only accessed on the background executor
+    private final IconAtlas mTaskIconAtlas;
+
     private BaseIconFactory mIconFactory;
+    private String mSystemIconState;
 
     @Nullable
     public TaskVisualsChangeListener mTaskVisualsChangeListener = null;
@@ -85,6 +107,8 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         int cacheSize = res.getInteger(R.integer.recentsIconCacheSize);
 
         mIconCache = new TaskKeyLruCache<>(cacheSize);
+        mTaskIconAtlas = new IconAtlas(new File(context.getCacheDir(), TASK_ICON_ATLAS_FILE_NAME),
+                getIconSize());
 
         DisplayController.INSTANCE.get(mContext).addChangeListener(this);
     }
@@ -93,6 +117,7 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     public void onDisplayInfoChanged(Context context, Info info, int flags) {
         if ((flags & CHANGE_DENSITY) != 0) {
             clearCache();
+            mBgExecutor.execute(() -> mTaskIconAtlas.clear(getIconSize()));
         }
     }
 
@@ -140,8 +165,11 @@ public class TaskIconCache implements DisplayInfoChangeListener {
     }
 
     void invalidateCacheEntries(String pkg, UserHandle handle) {
-        mBgExecutor.execute(() -> mIconCache.removeAll(key ->
-                pkg.equals(key.getPackageName()) && handle.getIdentifier() == key.userId));
+        mBgExecutor.execute(() -> {
+            mIconCache.removeAll(key ->
+                    pkg.equals(key.getPackageName()) && handle.getIdentifier() == key.userId);
+            mTaskIconAtlas.removePackages(Collections.singleton(pkg), getUserSerial(handle));
+        });
     }
 
     @WorkerThread
@@ -160,13 +188,12 @@ public class TaskIconCache implements DisplayInfoChangeListener {
 
         // Load icon
         // TODO: Load icon resource (b/143363444)
-        Bitmap icon = getIcon(desc, key.userId);
-        if (icon != null) {
-            entry.icon = getBitmapInfo(
-                    new BitmapDrawable(mContext.getResources(), icon),
-                    key.userId,
-                    desc.getPrimaryColor(),
-                    false /* isInstantApp */).newIcon(mContext);
+        BitmapInfo taskIcon = getTaskDescriptionIcon(desc, key);
+        BitmapInfo appIcon = taskIcon == null ? getLauncherIcon(key) : null;
+        if (taskIcon != null) {
+            entry.icon = taskIcon.newIcon(mContext);
+        } else if (appIcon != null) {
+            entry.icon = appIcon.newIcon(mContext);
         } else {
             activityInfo = PackageManagerWrapper.getInstance().getActivityInfo(
                     key.getComponent(), key.userId);
@@ -199,12 +226,94 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         return entry;
     }
 
-    private Bitmap getIcon(ActivityManager.TaskDescription desc, int userId) {
-        if (desc.getInMemoryIcon() != null) {
-            return desc.getInMemoryIcon();
+    /**
+     * Returns the icon of the task description, or null if it has no icon. Rendered icons are
+     * persisted, keyed by the source of the icon and everything the rendering depends on, so that
+     * they are not rendered again after the process restarts.
+     */
+    @WorkerThread
+    @Nullable
+    private BitmapInfo getTaskDescriptionIcon(TaskDescription desc, TaskKey key) {
+        Bitmap icon = desc.getInMemoryIcon();
+        String iconSource = icon != null ? getPixelsHash(icon) : desc.getIconFilename();
+        String iconState = iconSource == null || key.getComponent() == null
+                ? null : getSystemIconState() + ","
+                + Integer.toHexString(desc.getPrimaryColor()) + "," + iconSource;
+        long userSerial = getUserSerial(UserHandle.of(key.userId));
+        if (iconState != null) {
+            IconAtlas.Icon persisted = mTaskIconAtlas.getIcon(
+                    key.getComponent(), userSerial, iconState);
+            if (persisted != null) {
+                return persisted.bitmap;
+            }
+        }
+
+        if (icon == null) {
+            icon = ActivityManager.TaskDescription.loadTaskDescriptionIcon(
+                    desc.getIconFilename(), key.userId);
         }
-        return ActivityManager.TaskDescription.loadTaskDescriptionIcon(
-                desc.getIconFilename(), userId);
+        if (icon == null) {
+            return null;
+        }
+        BitmapInfo bitmapInfo = getBitmapInfo(
+                new BitmapDrawable(mContext.getResources(), icon),
+                key.userId,
+                desc.getPrimaryColor(),
+                false /* isInstantApp */);
+        // Badged icons are not persisted, as the atlas does not keep the flags
+        if (iconState != null && bitmapInfo.flags == 0
+                && bitmapInfo.icon.getConfig() == Bitmap.Config.ARGB_8888) {
+            mTaskIconAtlas.putIcon(new IconRecord(key.getComponent(), userSerial, iconState,
+                    "" /* title */, null /* contentDescription */, bitmapInfo.icon,
+                    bitmapInfo.color));
+        }
+        return bitmapInfo;
+    }
+
+    /**
+     * Returns the icon of the task component in the launcher icon db, or null if the launcher
+     * is not running or does not have an icon for it.
+     */
+    @WorkerThread
+    @Nullable
+    private BitmapInfo getLauncherIcon(TaskKey key) {
+        LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+        if (app == null || key.getComponent() == null) {
+            return null;
+        }
+        UserHandle user = UserHandle.of(key.userId);
+        BitmapInfo icon = app.getIconCache().getIconFromDb(key.getComponent(), user);
+        if (icon == null) {
+            return null;
+        }
+        try (BaseIconFactory bif = getIconFactory()) {
+            return icon.withFlags(bif.getBitmapFlagOp(new IconOptions().setUser(user)));
+        }
+    }
+
+    /**
+     * Returns a hash of the pixels of {@param icon}, or null if they cannot be read
+     */
+    @Nullable
+    private static String getPixelsHash(Bitmap icon) {
+        if (icon.getConfig() == Bitmap.Config.HARDWARE) {
+            return null;
+        }
+        try {
+            ByteBuffer pixels = ByteBuffer.allocate(icon.getByteCount());
+            icon.copyPixelsToBuffer(pixels);
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(pixels.array(), 0, pixels.position());
+            return icon.getWidth() + "x" + icon.getHeight() + ":"
+                    + new BigInteger(1, digest.digest()).toString(16);
+        } catch (NoSuchAlgorithmException | RuntimeException e) {
+            Log.e(TAG, "Unable to hash task icon", e);
+            return null;
+        }
+    }
+
+    private long getUserSerial(UserHandle user) {
+        return UserCache.INSTANCE.get(mContext).getSerialNumberForUser(user);
     }
 
     private String getBadgedContentDescription(ActivityInfo info, int userId, TaskDescription td) {
@@ -264,15 +373,28 @@ public class TaskIconCache implements DisplayInfoChangeListener {
         if (mIconFactory == null) {
             mIconFactory = new BaseIconFactory(mContext,
                     DisplayController.INSTANCE.get(mContext).getInfo().getDensityDpi(),
-                    mContext.getResources().getDimensionPixelSize(
-                            R.dimen.task_icon_cache_default_icon_size));
+                    getIconSize());
         }
         return mIconFactory;
     }
 
+    private int getIconSize() {
+        return mContext.getResources().getDimensionPixelSize(
+                R.dimen.task_icon_cache_default_icon_size);
+    }
+
+    @WorkerThread
+    private String getSystemIconState() {
+        if (mSystemIconState == null) {
+            mSystemIconState = mIconProvider.getSystemIconState();
+        }
+        return mSystemIconState;
+    }
+
     @WorkerThread
     private void resetFactory() {
         mIconFactory = null;
+        mSystemIconState = null;
         mIconCache.evictAll();
     }
 
@@ -15,18 +15,25 @@
  */
 package com.android.quickstep;
 
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_COMPLETE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW;
+import static android.content.ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN;
+
 import android.content.Context;
 import android.content.res.Resources;
 
 import com.android.launcher3.R;
 import com.android.launcher3.util.Preconditions;
 import com.android.quickstep.util.CancellableTask;
-import com.android.quickstep.util.TaskKeyLruCache;
+import com.android.quickstep.util.TaskKeyByteLruCache;
 import com.android.systemui.shared.recents.model.Task;
 import com.android.systemui.shared.recents.model.Task.TaskKey;
 import com.android.systemui.shared.recents.model.ThumbnailData;
 import com.android.systemui.shared.system.ActivityManagerWrapper;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.concurrent.Executor;
 import java.util.function.Consumer;
@@ -36,9 +43,13 @@ public class TaskThumbnailCache {
     private final Executor mBgExecutor;
 
     private final int mCacheSize;
-    private final TaskKeyLruCache<ThumbnailData> mCache;
+    // Thumbnails are cached in two tiers, so that the large high-res thumbnails do not evict the
+    // low-res ones which are used while flinging
+    private final TaskKeyByteLruCache<ThumbnailData> mHighResCache;
+    private final TaskKeyByteLruCache<ThumbnailData> mLowResCache;
     private final HighResLoadingState mHighResLoadingState;
     private final boolean mEnableTaskSnapshotPreloading;
+    private final TaskThumbnailPrefetcher mPrefetcher;
 
     public static class HighResLoadingState {
         private boolean mForceHighResThumbnails;
@@ -97,7 +108,13 @@ public class TaskThumbnailCache {
         Resources res = context.getResources();
         mCacheSize = res.getInteger(R.integer.recentsThumbnailCacheSize);
         mEnableTaskSnapshotPreloading = res.getBoolean(R.bool.config_enableTaskSnapshotPreloading);
-        mCache = new TaskKeyLruCache<>(mCacheSize);
+        mHighResCache = new TaskKeyByteLruCache<>(
+                res.getInteger(R.integer.recentsThumbnailCacheHighResKb) * 1024L,
+                TaskThumbnailCache::getThumbnailBytes);
+        mLowResCache = new TaskKeyByteLruCache<>(
+                res.getInteger(R.integer.recentsThumbnailCacheLowResKb) * 1024L,
+                TaskThumbnailCache::getThumbnailBytes);
+        mPrefetcher = new TaskThumbnailPrefetcher(this);
     }
 
     /**
@@ -120,7 +137,15 @@ public class TaskThumbnailCache {
      */
     public void updateTaskSnapShot(int taskId, ThumbnailData thumbnail) {
         Preconditions.assertUIThread();
-        mCache.updateIfAlreadyInCache(taskId, thumbnail);
+        TaskKey key = mHighResCache.getKey(taskId);
+        if (key == null) {
+            key = mLowResCache.getKey(taskId);
+        }
+        if (key != null) {
+            // The previous thumbnails are stale, only keep the new one
+            remove(key);
+            putInCache(key, thumbnail);
+        }
     }
 
     /**
@@ -148,11 +173,46 @@ public class TaskThumbnailCache {
         });
     }
 
+    /**
+     * Asynchronously fetches the high resolution thumbnail for the given {@param key} and puts it
+     * in the cache, without updating the task.
+     *
+     * @return A cancelable handle to the request, or null if the thumbnail is already cached
+     */
+    CancellableTask loadHighResThumbnail(TaskKey key, Consumer<ThumbnailData> callback) {
+        return updateThumbnailInBackground(key, false /* lowResolution */, callback);
+    }
+
+    /**
+     * Returns true if the high resolution thumbnail for the {@param task} is already loaded,
+     * either on the task itself or in the cache.
+     */
+    boolean hasHighResThumbnail(Task task) {
+        if (isHighRes(task.thumbnail)) {
+            return true;
+        }
+        return isHighRes(mHighResCache.peek(task.key));
+    }
+
+    /**
+     * Returns true if recents is visible, so that thumbnails can be prefetched.
+     */
+    boolean isPrefetchEnabled() {
+        return mHighResLoadingState.mVisible;
+    }
+
+    private static boolean isHighRes(ThumbnailData data) {
+        return data != null && data.thumbnail != null && !data.reducedResolution;
+    }
+
     private CancellableTask updateThumbnailInBackground(TaskKey key, boolean lowResolution,
             Consumer<ThumbnailData> callback) {
         Preconditions.assertUIThread();
 
-        ThumbnailData cachedThumbnail = mCache.getAndInvalidateIfModified(key);
+        ThumbnailData cachedThumbnail = mHighResCache.getAndInvalidateIfModified(key);
+        if (cachedThumbnail == null && lowResolution) {
+            cachedThumbnail = mLowResCache.getAndInvalidateIfModified(key);
+        }
         if (cachedThumbnail != null &&  cachedThumbnail.thumbnail != null
                 && (!cachedThumbnail.reducedResolution || lowResolution)) {
             // Already cached, lets use that thumbnail
@@ -169,7 +229,7 @@ public class TaskThumbnailCache {
 
             @Override
             public void handleResult(ThumbnailData result) {
-                mCache.put(key, result);
+                putInCache(key, result);
                 callback.accept(result);
             }
         };
@@ -177,18 +237,42 @@ public class TaskThumbnailCache {
         return request;
     }
 
+    private void putInCache(TaskKey key, ThumbnailData thumbnail) {
+        if (thumbnail != null && thumbnail.reducedResolution) {
+            mLowResCache.put(key, thumbnail);
+        } else {
+            mHighResCache.put(key, thumbnail);
+        }
+    }
+
     /**
      * Clears the cache.
      */
     public void clear() {
-        mCache.evictAll();
+        mHighResCache.evictAll();
+        mLowResCache.evictAll();
     }
 
     /**
      * Removes the cached thumbnail for the given task.
      */
     public void remove(Task.TaskKey key) {
-        mCache.remove(key);
+        mHighResCache.remove(key);
+        mLowResCache.remove(key);
+    }
+
+    /**
+     * Releases the cached thumbnails according to the trim memory {@param level}. The high-res
+     * thumbnails are released first as they can be reloaded when recents is shown again.
+     */
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_RUNNING_CRITICAL || level >= TRIM_MEMORY_COMPLETE) {
+            clear();
+        } else if (level == TRIM_MEMORY_RUNNING_LOW || level >= TRIM_MEMORY_MODERATE) {
+            mHighResCache.evictAll();
+        } else if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            mHighResCache.trimToSize(mHighResCache.getMaxBytes() / 2);
+        }
     }
 
     /**
@@ -205,6 +289,13 @@ public class TaskThumbnailCache {
         return mHighResLoadingState;
     }
 
+    /**
+     * @return The prefetcher loading the high-res thumbnails ahead of the recents scroll.
+     */
+    public TaskThumbnailPrefetcher getPrefetcher() {
+        return mPrefetcher;
+    }
+
     /**
      * @return Whether to enable background preloading of task thumbnails.
      */
@@ -212,6 +303,19 @@ public class TaskThumbnailCache {
         return mEnableTaskSnapshotPreloading && mHighResLoadingState.mVisible;
     }
 
+    private static int getThumbnailBytes(ThumbnailData data) {
+        return data.thumbnail == null ? 0 : data.thumbnail.getAllocationByteCount();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "TaskThumbnailCache:");
+        writer.println(prefix + "  highRes: count=" + mHighResCache.size()
+                + " bytes=" + mHighResCache.getSizeBytes() + "/" + mHighResCache.getMaxBytes());
+        writer.println(prefix + "  lowRes: count=" + mLowResCache.size()
+                + " bytes=" + mLowResCache.getSizeBytes() + "/" + mLowResCache.getMaxBytes());
+        mPrefetcher.dump(prefix + "  ", writer);
+    }
+
     /**
      * @return Whether device supports low-res thumbnails. Low-res files are an optimization
      * for faster load times of snapshots. Devices can optionally disable low-res files so that
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import androidx.annotation.UiThread;
+
+import com.android.launcher3.util.IntSet;
+import com.android.launcher3.util.Preconditions;
+import com.android.quickstep.util.CancellableTask;
+import com.android.systemui.shared.recents.model.Task;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Loads the high resolution thumbnails of the tasks which are about to become visible in
+ * overview, so that they are already in the {@link TaskThumbnailCache} when the user scrolls to
+ * them. Requests for tasks which are no longer ahead of the scroll are cancelled.
+ */
+public class TaskThumbnailPrefetcher {
+
+    private static final int MIN_PREFETCH_COUNT = 2;
+    private static final int MAX_PREFETCH_COUNT = 6;
+
+    private final TaskThumbnailCache mCache;
+
+    // Pending requests, keyed on the task id
+    private final SparseArray<CancellableTask> mPendingRequests = new SparseArray<>();
+    // Tasks which were requested and not cancelled, until they become visible
+    private final IntSet mRequestedTaskIds = new IntSet();
+
+    private int mRequestCount;
+    private int mCancelCount;
+    private int mHitCount;
+    private int mMissCount;
+    private int mLoadedCount;
+    private long mTotalLatencyMs;
+    private long mMaxLatencyMs;
+
+    TaskThumbnailPrefetcher(TaskThumbnailCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Returns the number of tasks to prefetch ahead of the visible ones when scrolling at
+     * {@param velocity}, so that faster flings look further ahead.
+     */
+    public static int getPrefetchCount(float velocity, float fastFlingVelocity) {
+        if (fastFlingVelocity <= 0) {
+            return MIN_PREFETCH_COUNT;
+        }
+        int count = MIN_PREFETCH_COUNT + (int) (Math.abs(velocity) / fastFlingVelocity);
+        return Math.min(count, MAX_PREFETCH_COUNT);
+    }
+
+    /**
+     * Requests the high resolution thumbnails for the {@param tasks}, ordered by priority, and
+     * cancels the pending requests for any other task.
+     */
+    @UiThread
+    public void prefetch(List<Task> tasks) {
+        Preconditions.assertUIThread();
+        if (!mCache.isPrefetchEnabled()) {
+            cancelAll();
+            return;
+        }
+        for (int i = mPendingRequests.size() - 1; i >= 0; i--) {
+            int taskId = mPendingRequests.keyAt(i);
+            if (!containsTask(tasks, taskId)) {
+                mPendingRequests.valueAt(i).cancel();
+                mPendingRequests.removeAt(i);
+                mRequestedTaskIds.remove(taskId);
+                mCancelCount++;
+            }
+        }
+
+        for (Task task : tasks) {
+            if (mPendingRequests.get(task.key.id) != null || mCache.hasHighResThumbnail(task)) {
+                continue;
+            }
+            final int taskId = task.key.id;
+            final long startTime = SystemClock.uptimeMillis();
+            CancellableTask request = mCache.loadHighResThumbnail(task.key, thumbnail -> {
+                mPendingRequests.remove(taskId);
+                long latency = SystemClock.uptimeMillis() - startTime;
+                mLoadedCount++;
+                mTotalLatencyMs += latency;
+                mMaxLatencyMs = Math.max(mMaxLatencyMs, latency);
+            });
+            if (request != null) {
+                mPendingRequests.put(taskId, request);
+                mRequestedTaskIds.add(taskId);
+                mRequestCount++;
+            }
+        }
+    }
+
+    private static boolean containsTask(List<Task> tasks, int taskId) {
+        for (Task task : tasks) {
+            if (task.key.id == taskId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels all the pending requests
+     */
+    @UiThread
+    public void cancelAll() {
+        for (int i = 0; i < mPendingRequests.size(); i++) {
+            mPendingRequests.valueAt(i).cancel();
+        }
+        mCancelCount += mPendingRequests.size();
+        mPendingRequests.clear();
+        mRequestedTaskIds.clear();
+    }
+
+    /**
+     * Records whether the high resolution thumbnail was ready when the {@param task} became
+     * visible, if it was prefetched.
+     */
+    @UiThread
+    public void onTaskVisible(Task task) {
+        if (!mRequestedTaskIds.contains(task.key.id)) {
+            return;
+        }
+        mRequestedTaskIds.remove(task.key.id);
+        if (mCache.hasHighResThumbnail(task)) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the average time to load a prefetched thumbnail, in milliseconds
+     */
+    public long getAverageLatencyMs() {
+        return mLoadedCount == 0 ? 0 : mTotalLatencyMs / mLoadedCount;
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "TaskThumbnailPrefetcher:");
+        writer.println(prefix + "  hits=" + mHitCount + " misses=" + mMissCount);
+        writer.println(prefix + "  requests=" + mRequestCount + " cancelled=" + mCancelCount
+                + " loaded=" + mLoadedCount + " pending=" + mPendingRequests.size());
+        writer.println(prefix + "  latency avg=" + getAverageLatencyMs() + "ms max="
+                + mMaxLatencyMs + "ms");
+    }
+}
@@ -17,6 +17,7 @@ package com.android.quickstep.util;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.launcher3.config.FeatureFlags;
 
@@ -52,12 +53,23 @@ public class ActiveGestureLog {
     private static final int TYPE_INPUT_CONSUMER = 5;
     private static final int TYPE_GESTURE_EVENT = 6;
 
+    // Fixed so that logging during a gesture never allocates, later events are dropped
+    private static final int MAX_EVENTS_PER_GESTURE = 256;
+
     private final EventLog[] logs;
     private int nextIndex;
     private int mCurrentLogId = 100;
 
     private ActiveGestureLog() {
+        this(MAX_EVENTS_PER_GESTURE);
+    }
+
+    @VisibleForTesting
+    ActiveGestureLog(int maxEventsPerGesture) {
         this.logs = new EventLog[MAX_GESTURES_TRACKED];
+        for (int i = 0; i < logs.length; i++) {
+            logs[i] = new EventLog(maxEventsPerGesture);
+        }
         this.nextIndex = 0;
     }
 
@@ -120,38 +132,26 @@ public class ActiveGestureLog {
             int type,
             String event,
             float extras,
-            CompoundString compoundString,
+            @NonNull CompoundString compoundString,
             @Nullable ActiveGestureErrorDetector.GestureEvent gestureEvent) {
-        EventLog lastEventLog = logs[(nextIndex + logs.length - 1) % logs.length];
-        if (lastEventLog == null || mCurrentLogId != lastEventLog.logId) {
-            EventLog eventLog = new EventLog(mCurrentLogId);
-            EventEntry eventEntry = new EventEntry();
-
-            eventEntry.update(type, event, extras, compoundString, gestureEvent);
-            eventLog.eventEntries.add(eventEntry);
-            logs[nextIndex] = eventLog;
+        EventLog eventLog = logs[(nextIndex + logs.length - 1) % logs.length];
+        if (!eventLog.isInUse || mCurrentLogId != eventLog.logId) {
+            // Reuse the oldest EventLog for the new log ID
+            eventLog = logs[nextIndex];
+            eventLog.reset(mCurrentLogId);
             nextIndex = (nextIndex + 1) % logs.length;
+        } else if (eventLog.isLastEntrySame(type, event, extras, compoundString, gestureEvent)) {
+            // Update the last entry if it's a duplicate
+            eventLog.duplicateCounts[eventLog.size - 1]++;
             return;
         }
-
-        // Update the last EventLog
-        List<EventEntry> lastEventEntries = lastEventLog.eventEntries;
-        EventEntry lastEntry = lastEventEntries.size() > 0
-                ? lastEventEntries.get(lastEventEntries.size() - 1) : null;
-
-        // Update the last EventEntry if it's a duplicate
-        if (isEntrySame(lastEntry, type, event, extras, compoundString, gestureEvent)) {
-            lastEntry.duplicateCount++;
-            return;
-        }
-        EventEntry eventEntry = new EventEntry();
-
-        eventEntry.update(type, event, extras, compoundString, gestureEvent);
-        lastEventEntries.add(eventEntry);
+        eventLog.add(type, event, extras, compoundString, gestureEvent);
     }
 
     public void clear() {
-        Arrays.fill(logs, null);
+        for (EventLog eventLog : logs) {
+            eventLog.clear();
+        }
     }
 
     public void dump(String prefix, PrintWriter writer) {
@@ -159,7 +159,7 @@ public class ActiveGestureLog {
             writer.println(prefix + "ActiveGestureErrorDetector:");
             for (int i = 0; i < logs.length; i++) {
                 EventLog eventLog = logs[(nextIndex + i) % logs.length];
-                if (eventLog == null) {
+                if (!eventLog.isInUse) {
                     continue;
                 }
                 ActiveGestureErrorDetector.analyseAndDump(prefix + '\t', writer, eventLog);
@@ -171,17 +171,17 @@ public class ActiveGestureLog {
         Date date = new Date();
         for (int i = 0; i < logs.length; i++) {
             EventLog eventLog = logs[(nextIndex + i) % logs.length];
-            if (eventLog == null) {
+            if (!eventLog.isInUse) {
                 continue;
             }
 
             writer.println(prefix + "\tLogs for logId: " + eventLog.logId);
-            for (EventEntry eventEntry : eventLog.eventEntries) {
-                date.setTime(eventEntry.time);
+            for (int j = 0; j < eventLog.size; j++) {
+                date.setTime(eventLog.times[j]);
 
                 StringBuilder msg = new StringBuilder(prefix + "\t\t").append(sdf.format(date))
-                        .append(eventEntry.event);
-                switch (eventEntry.type) {
+                        .append(eventLog.events[j]);
+                switch (eventLog.types[j]) {
                     case TYPE_BOOL_FALSE:
                         msg.append(": false");
                         break;
@@ -189,23 +189,28 @@ public class ActiveGestureLog {
                         msg.append(": true");
                         break;
                     case TYPE_FLOAT:
-                        msg.append(": ").append(eventEntry.extras);
+                        msg.append(": ").append(eventLog.extras[j]);
                         break;
                     case TYPE_INTEGER:
-                        msg.append(": ").append((int) eventEntry.extras);
+                        msg.append(": ").append((int) eventLog.extras[j]);
                         break;
                     case TYPE_INPUT_CONSUMER:
-                        msg.append(eventEntry.mCompoundString);
+                        msg.append(eventLog.compoundStrings[j]);
                         break;
                     case TYPE_GESTURE_EVENT:
                         continue;
                     default: // fall out
                 }
-                if (eventEntry.duplicateCount > 0) {
-                    msg.append(" & ").append(eventEntry.duplicateCount).append(" similar events");
+                if (eventLog.duplicateCounts[j] > 0) {
+                    msg.append(" & ").append(eventLog.duplicateCounts[j])
+                            .append(" similar events");
                 }
                 writer.println(msg);
             }
+            if (eventLog.droppedCount > 0) {
+                writer.println(prefix + "\t\t" + eventLog.droppedCount
+                        + " more events not logged");
+            }
         }
     }
 
@@ -222,63 +227,95 @@ public class ActiveGestureLog {
         return mCurrentLogId;
     }
 
-    private boolean isEntrySame(
-            EventEntry entry,
-            int type,
-            String event,
-            float extras,
-            CompoundString compoundString,
-            ActiveGestureErrorDetector.GestureEvent gestureEvent) {
-        return entry != null
-                && entry.type == type
-                && entry.event.equals(event)
-                && Float.compare(entry.extras, extras) == 0
-                && entry.mCompoundString.equals(compoundString)
-                && entry.gestureEvent == gestureEvent;
-    }
-
-    /** A single event entry. */
-    protected static class EventEntry {
+    /**
+     * An entire log of entries associated with a single log ID. Entries are stored in parallel
+     * arrays allocated once, and the log is reset when it is reused for a new log ID.
+     */
+    protected static class EventLog {
 
-        private int type;
-        private String event;
-        private float extras;
-        @NonNull private CompoundString mCompoundString;
-        private ActiveGestureErrorDetector.GestureEvent gestureEvent;
-        private long time;
-        private int duplicateCount;
+        protected int logId;
+        private boolean isInUse;
+
+        private final int[] types;
+        private final String[] events;
+        private final float[] extras;
+        private final CompoundString[] compoundStrings;
+        private final ActiveGestureErrorDetector.GestureEvent[] gestureEvents;
+        private final long[] times;
+        private final int[] duplicateCounts;
+        private int size;
+        // Events logged after the log was full
+        private int droppedCount;
+
+        private EventLog(int capacity) {
+            types = new int[capacity];
+            events = new String[capacity];
+            extras = new float[capacity];
+            compoundStrings = new CompoundString[capacity];
+            gestureEvents = new ActiveGestureErrorDetector.GestureEvent[capacity];
+            times = new long[capacity];
+            duplicateCounts = new int[capacity];
+        }
 
-        private EventEntry() {}
+        /** Returns the number of entries in this log. */
+        protected int size() {
+            return size;
+        }
 
         @Nullable
-        protected ActiveGestureErrorDetector.GestureEvent getGestureEvent() {
-            return gestureEvent;
+        protected ActiveGestureErrorDetector.GestureEvent getGestureEvent(int index) {
+            return gestureEvents[index];
+        }
+
+        private void reset(int logId) {
+            clear();
+            this.logId = logId;
+            isInUse = true;
         }
 
-        private void update(
+        private void clear() {
+            // Release the references held from the previous gesture
+            Arrays.fill(events, 0, size, null);
+            Arrays.fill(compoundStrings, 0, size, null);
+            Arrays.fill(gestureEvents, 0, size, null);
+            size = 0;
+            droppedCount = 0;
+            isInUse = false;
+        }
+
+        private boolean isLastEntrySame(
                 int type,
                 String event,
                 float extras,
-                @NonNull CompoundString compoundString,
+                CompoundString compoundString,
                 ActiveGestureErrorDetector.GestureEvent gestureEvent) {
-            this.type = type;
-            this.event = event;
-            this.extras = extras;
-            this.mCompoundString = compoundString;
-            this.gestureEvent = gestureEvent;
-            time = System.currentTimeMillis();
-            duplicateCount = 0;
+            int last = size - 1;
+            return last >= 0
+                    && types[last] == type
+                    && events[last].equals(event)
+                    && Float.compare(this.extras[last], extras) == 0
+                    && compoundStrings[last].equals(compoundString)
+                    && gestureEvents[last] == gestureEvent;
         }
-    }
-
-    /** An entire log of entries associated with a single log ID */
-    protected static class EventLog {
-
-        protected final List<EventEntry> eventEntries = new ArrayList<>();
-        protected final int logId;
 
-        private EventLog(int logId) {
-            this.logId = logId;
+        private void add(
+                int type,
+                String event,
+                float extras,
+                @NonNull CompoundString compoundString,
+                ActiveGestureErrorDetector.GestureEvent gestureEvent) {
+            if (size == types.length) {
+                droppedCount++;
+                return;
+            }
+            types[size] = type;
+            events[size] = event;
+            this.extras[size] = extras;
+            compoundStrings[size] = compoundString;
+            gestureEvents[size] = gestureEvent;
+            times[size] = System.currentTimeMillis();
+            duplicateCounts[size] = 0;
+            size++;
         }
     }
 
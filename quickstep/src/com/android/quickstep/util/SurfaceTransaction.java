@@ -17,9 +17,12 @@ package com.android.quickstep.util;
 
 import android.graphics.Matrix;
 import android.graphics.Rect;
+import android.util.ArrayMap;
 import android.view.SurfaceControl;
 import android.view.SurfaceControl.Transaction;
 
+import androidx.annotation.Nullable;
+
 /**
  * Helper class for building a {@link Transaction}.
  */
@@ -28,11 +31,32 @@ public class SurfaceTransaction {
     private final Transaction mTransaction = new Transaction();
     private final float[] mTmpValues = new float[9];
 
+    @Nullable
+    private final AppliedProperties mAppliedProperties;
+    // Number of properties not set as the surfaces already have these values
+    private int mSkippedCount;
+
+    public SurfaceTransaction() {
+        this(null);
+    }
+
+    /**
+     * @param appliedProperties if not null, the properties which have the same value as in the
+     *                          previous transaction built with it are not set again
+     */
+    public SurfaceTransaction(@Nullable AppliedProperties appliedProperties) {
+        mAppliedProperties = appliedProperties;
+    }
+
     /**
      * Creates a new builder for the provided surface
      */
     public SurfaceProperties forSurface(SurfaceControl surface) {
-        return surface.isValid() ? new SurfaceProperties(surface) : new MockProperties();
+        if (!surface.isValid()) {
+            return new MockProperties();
+        }
+        return new SurfaceProperties(surface,
+                mAppliedProperties == null ? null : mAppliedProperties.getState(surface));
     }
 
     /**
@@ -42,15 +66,39 @@ public class SurfaceTransaction {
         return mTransaction;
     }
 
+    /**
+     * Returns the number of properties which were not set as they did not change
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Called when the transaction is dropped instead of being applied, so that the properties it
+     * sets are not skipped by the next transactions
+     */
+    public void onDropped() {
+        if (mAppliedProperties != null) {
+            mAppliedProperties.clear();
+        }
+    }
+
     /**
      * Utility class to update surface params in a transaction
      */
     public class SurfaceProperties {
 
         private final SurfaceControl mSurface;
+        @Nullable
+        private final SurfaceState mState;
 
         SurfaceProperties(SurfaceControl surface) {
+            this(surface, null);
+        }
+
+        SurfaceProperties(SurfaceControl surface, @Nullable SurfaceState state) {
             mSurface = surface;
+            mState = state;
         }
 
         /**
@@ -58,6 +106,10 @@ public class SurfaceTransaction {
          * @return this Builder
          */
         public SurfaceProperties setAlpha(float alpha) {
+            if (mState != null && !mState.updateAlpha(alpha)) {
+                mSkippedCount++;
+                return this;
+            }
             mTransaction.setAlpha(mSurface, alpha);
             return this;
         }
@@ -67,6 +119,10 @@ public class SurfaceTransaction {
          * @return this Builder
          */
         public SurfaceProperties setMatrix(Matrix matrix) {
+            if (mState != null && !mState.updateMatrix(matrix)) {
+                mSkippedCount++;
+                return this;
+            }
             mTransaction.setMatrix(mSurface, matrix, mTmpValues);
             return this;
         }
@@ -76,6 +132,10 @@ public class SurfaceTransaction {
          * @return this Builder
          */
         public SurfaceProperties setWindowCrop(Rect windowCrop) {
+            if (mState != null && !mState.updateWindowCrop(windowCrop)) {
+                mSkippedCount++;
+                return this;
+            }
             mTransaction.setWindowCrop(mSurface, windowCrop);
             return this;
         }
@@ -94,6 +154,10 @@ public class SurfaceTransaction {
          * @return this Builder
          */
         public SurfaceProperties setCornerRadius(float radius) {
+            if (mState != null && !mState.updateCornerRadius(radius)) {
+                mSkippedCount++;
+                return this;
+            }
             mTransaction.setCornerRadius(mSurface, radius);
             return this;
         }
@@ -158,4 +222,90 @@ public class SurfaceTransaction {
             return this;
         }
     }
+
+    /**
+     * Last properties set on the surfaces by the transactions built with it, so that unchanged
+     * properties are not set again on every frame. It must be cleared when the surfaces are
+     * changed by other means.
+     */
+    public static class AppliedProperties {
+
+        private final ArrayMap<SurfaceControl, SurfaceState> mStates = new ArrayMap<>();
+
+        SurfaceState getState(SurfaceControl surface) {
+            SurfaceState state = mStates.get(surface);
+            if (state == null) {
+                state = new SurfaceState();
+                mStates.put(surface, state);
+            }
+            return state;
+        }
+
+        /**
+         * Forgets all the properties, so that they are all set by the next transaction
+         */
+        public void clear() {
+            mStates.clear();
+        }
+    }
+
+    private static class SurfaceState {
+
+        private static final int FLAG_ALPHA = 1 << 0;
+        private static final int FLAG_MATRIX = 1 << 1;
+        private static final int FLAG_WINDOW_CROP = 1 << 2;
+        private static final int FLAG_CORNER_RADIUS = 1 << 3;
+
+        // Properties which were set
+        private int mFlags;
+        private float mAlpha;
+        private final Matrix mMatrix = new Matrix();
+        private final Rect mWindowCrop = new Rect();
+        private float mCornerRadius;
+
+        /**
+         * Each update method returns false if the property already has the value, and saves the
+         * value otherwise.
+         */
+        boolean updateAlpha(float alpha) {
+            if ((mFlags & FLAG_ALPHA) != 0 && Float.compare(mAlpha, alpha) == 0) {
+                return false;
+            }
+            mFlags |= FLAG_ALPHA;
+            mAlpha = alpha;
+            return true;
+        }
+
+        boolean updateMatrix(Matrix matrix) {
+            if ((mFlags & FLAG_MATRIX) != 0 && mMatrix.equals(matrix)) {
+                return false;
+            }
+            mFlags |= FLAG_MATRIX;
+            mMatrix.set(matrix);
+            return true;
+        }
+
+        boolean updateWindowCrop(@Nullable Rect windowCrop) {
+            if (windowCrop == null) {
+                // Removes the crop, which is not tracked
+                mFlags &= ~FLAG_WINDOW_CROP;
+                return true;
+            }
+            if ((mFlags & FLAG_WINDOW_CROP) != 0 && mWindowCrop.equals(windowCrop)) {
+                return false;
+            }
+            mFlags |= FLAG_WINDOW_CROP;
+            mWindowCrop.set(windowCrop);
+            return true;
+        }
+
+        boolean updateCornerRadius(float radius) {
+            if ((mFlags & FLAG_CORNER_RADIUS) != 0 && Float.compare(mCornerRadius, radius) == 0) {
+                return false;
+            }
+            mFlags |= FLAG_CORNER_RADIUS;
+            mCornerRadius = radius;
+            return true;
+        }
+    }
 }
@@ -19,6 +19,7 @@ import android.annotation.TargetApi;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Message;
+import android.os.Trace;
 import android.view.SurfaceControl;
 import android.view.SurfaceControl.Transaction;
 import android.view.View;
@@ -26,6 +27,7 @@ import android.view.ViewRootImpl;
 
 import com.android.quickstep.RemoteAnimationTargets.ReleaseCheck;
 
+import java.util.ArrayList;
 import java.util.function.Consumer;
 
 
@@ -33,18 +35,35 @@ import java.util.function.Consumer;
  * Helper class to apply surface transactions in sync with RenderThread similar to
  *   android.view.SyncRtSurfaceTransactionApplier
  * with some Launcher specific utility methods
+ *
+ * All the transactions scheduled before a frame, like the ones of every remote target of a
+ * gesture, are merged in a single transaction applied with that frame.
  */
 @TargetApi(Build.VERSION_CODES.R)
 public class SurfaceTransactionApplier extends ReleaseCheck {
 
     private static final int MSG_UPDATE_SEQUENCE_NUMBER = 0;
 
+    private static final String COUNTER_TRANSACTIONS = "SurfaceTransactionApplier#transactions";
+    private static final String COUNTER_SKIPPED_PROPERTIES =
+            "SurfaceTransactionApplier#skippedProperties";
+
     private final SurfaceControl mBarrierSurfaceControl;
     private final ViewRootImpl mTargetViewRootImpl;
     private final Handler mApplyHandler;
 
     private int mLastSequenceNumber = 0;
 
+    // Transaction of the next frame, in which the transactions scheduled until the frame is drawn
+    // are merged
+    private final Object mPendingLock = new Object();
+    private Transaction mPendingTransaction;
+    private int mPendingSequenceNumber;
+    private int mPendingTransactionCount;
+    private int mPendingSkippedCount;
+    // Transactions merged in mPendingTransaction, notified if it ends up not being applied
+    private final ArrayList<SurfaceTransaction> mPendingSources = new ArrayList<>();
+
     /**
      * @param targetView The view in the surface that acts as synchronization anchor.
      */
@@ -73,6 +92,7 @@ public class SurfaceTransactionApplier extends ReleaseCheck {
     public void scheduleApply(SurfaceTransaction params) {
         View view = mTargetViewRootImpl.getView();
         if (view == null) {
+            params.onDropped();
             return;
         }
         Transaction t = params.getTransaction();
@@ -80,14 +100,48 @@ public class SurfaceTransactionApplier extends ReleaseCheck {
         mLastSequenceNumber++;
         final int toApplySeqNo = mLastSequenceNumber;
         setCanRelease(false);
+        synchronized (mPendingLock) {
+            mPendingSequenceNumber = toApplySeqNo;
+            mPendingTransactionCount++;
+            mPendingSkippedCount += params.getSkippedCount();
+            mPendingSources.add(params);
+            if (mPendingTransaction != null) {
+                // A frame callback is already registered, apply with the other transactions
+                if (mPendingTransaction != t) {
+                    mPendingTransaction.merge(t);
+                }
+                return;
+            }
+            mPendingTransaction = t;
+        }
         mTargetViewRootImpl.registerRtFrameCallback(frame -> {
-            if (mBarrierSurfaceControl == null || !mBarrierSurfaceControl.isValid()) {
-                Message.obtain(mApplyHandler, MSG_UPDATE_SEQUENCE_NUMBER, toApplySeqNo, 0)
+            boolean canApply = mBarrierSurfaceControl != null && mBarrierSurfaceControl.isValid();
+            Transaction transaction;
+            int seqNo;
+            final ArrayList<SurfaceTransaction> dropped;
+            synchronized (mPendingLock) {
+                transaction = mPendingTransaction;
+                seqNo = mPendingSequenceNumber;
+                Trace.setCounter(COUNTER_TRANSACTIONS, mPendingTransactionCount);
+                Trace.setCounter(COUNTER_SKIPPED_PROPERTIES, mPendingSkippedCount);
+                mPendingTransaction = null;
+                mPendingTransactionCount = 0;
+                mPendingSkippedCount = 0;
+                dropped = canApply ? null : new ArrayList<>(mPendingSources);
+                mPendingSources.clear();
+            }
+            if (!canApply) {
+                // The properties of the dropped transactions need to be set again, reset them on
+                // the thread building the transactions
+                mApplyHandler.post(() -> dropped.forEach(SurfaceTransaction::onDropped));
+                Message.obtain(mApplyHandler, MSG_UPDATE_SEQUENCE_NUMBER, seqNo, 0)
                         .sendToTarget();
                 return;
             }
-            mTargetViewRootImpl.mergeWithNextTransaction(t, frame);
-            Message.obtain(mApplyHandler, MSG_UPDATE_SEQUENCE_NUMBER, toApplySeqNo, 0)
+            Trace.beginSection("SurfaceTransactionApplier#merge");
+            mTargetViewRootImpl.mergeWithNextTransaction(transaction, frame);
+            Trace.endSection();
+            Message.obtain(mApplyHandler, MSG_UPDATE_SEQUENCE_NUMBER, seqNo, 0)
                     .sendToTarget();
         });
 
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * An LRU cache for task key entries which is bounded by the total size of its values in bytes,
+ * rather than by the number of entries.
+ *
+ * Lookups do not take any lock, so that a reader is never blocked by a writer. Only
+ * modifications are serialized, and entries are evicted in least recently accessed order when
+ * the cache grows over its budget. The most recently added entry is always kept, even if it is
+ * larger than the budget on its own.
+ *
+ * @param <V> The type of the value
+ */
+public class TaskKeyByteLruCache<V> {
+
+    private static final String TAG = "TaskKeyByteLruCache";
+
+    private final ConcurrentHashMap<Integer, Entry<V>> mMap = new ConcurrentHashMap<>();
+    private final AtomicLong mAccessCounter = new AtomicLong();
+    private final ToIntFunction<V> mSizeOf;
+    private final long mMaxBytes;
+
+    // Guards the modifications of mMap and mSizeBytes
+    private final Object mWriteLock = new Object();
+    private volatile long mSizeBytes;
+
+    /**
+     * @param maxBytes the size budget of the cache
+     * @param sizeOf returns the size in bytes of a value
+     */
+    public TaskKeyByteLruCache(long maxBytes, ToIntFunction<V> sizeOf) {
+        mMaxBytes = maxBytes;
+        mSizeOf = sizeOf;
+    }
+
+    /**
+     * Removes all entries from the cache
+     */
+    public void evictAll() {
+        synchronized (mWriteLock) {
+            mMap.clear();
+            mSizeBytes = 0;
+        }
+    }
+
+    /**
+     * Removes a particular entry from the cache
+     */
+    public void remove(TaskKey key) {
+        synchronized (mWriteLock) {
+            removeLocked(mMap.get(key.id));
+        }
+    }
+
+    /**
+     * Removes all entries matching keyCheck
+     */
+    public void removeAll(Predicate<TaskKey> keyCheck) {
+        synchronized (mWriteLock) {
+            for (Entry<V> entry : mMap.values()) {
+                if (keyCheck.test(entry.mKey)) {
+                    removeLocked(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the entry if it is still valid
+     */
+    @Nullable
+    public V getAndInvalidateIfModified(TaskKey key) {
+        Entry<V> entry = mMap.get(key.id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.mKey.windowingMode == key.windowingMode
+                && entry.mKey.lastActiveTime == key.lastActiveTime) {
+            entry.mLastAccess = mAccessCounter.incrementAndGet();
+            return entry.mValue;
+        }
+        synchronized (mWriteLock) {
+            removeLocked(entry);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the entry if it is still valid, without removing it otherwise or changing its
+     * access order
+     */
+    @Nullable
+    public V peek(TaskKey key) {
+        Entry<V> entry = mMap.get(key.id);
+        return entry != null && entry.mKey.windowingMode == key.windowingMode
+                && entry.mKey.lastActiveTime == key.lastActiveTime ? entry.mValue : null;
+    }
+
+    /**
+     * Returns the key of the entry cached for the {@param taskId}, or null if there is none
+     */
+    @Nullable
+    public TaskKey getKey(int taskId) {
+        Entry<V> entry = mMap.get(taskId);
+        return entry == null ? null : entry.mKey;
+    }
+
+    /**
+     * Adds an entry to the cache, evicting the least recently accessed entries if the cache
+     * grows over its budget
+     */
+    public void put(TaskKey key, V value) {
+        if (key == null || value == null) {
+            Log.e(TAG, "Unexpected null key or value: " + key + ", " + value);
+            return;
+        }
+        Entry<V> entry = new Entry<>(key, value, mSizeOf.applyAsInt(value),
+                mAccessCounter.incrementAndGet());
+        synchronized (mWriteLock) {
+            Entry<V> old = mMap.put(key.id, entry);
+            if (old != null) {
+                mSizeBytes -= old.mSize;
+            }
+            mSizeBytes += entry.mSize;
+            trimToSizeLocked(mMaxBytes, entry);
+        }
+    }
+
+    /**
+     * Evicts the least recently accessed entries until the cache is at most {@param maxBytes}
+     */
+    public void trimToSize(long maxBytes) {
+        synchronized (mWriteLock) {
+            trimToSizeLocked(maxBytes, null);
+        }
+    }
+
+    private void trimToSizeLocked(long maxBytes, @Nullable Entry<V> keep) {
+        while (mSizeBytes > maxBytes) {
+            Entry<V> eldest = null;
+            for (Entry<V> entry : mMap.values()) {
+                if (entry != keep
+                        && (eldest == null || entry.mLastAccess < eldest.mLastAccess)) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            removeLocked(eldest);
+        }
+    }
+
+    private void removeLocked(@Nullable Entry<V> entry) {
+        if (entry != null && mMap.remove(entry.mKey.id, entry)) {
+            mSizeBytes -= entry.mSize;
+        }
+    }
+
+    /**
+     * @return the total size of the cached values in bytes
+     */
+    public long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    /**
+     * @return the size budget of the cache in bytes
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        return mMap.size();
+    }
+
+    private static class Entry<V> {
+
+        final TaskKey mKey;
+        final V mValue;
+        final int mSize;
+        volatile long mLastAccess;
+
+        Entry(TaskKey key, V value, int size, long lastAccess) {
+            mKey = key;
+            mValue = value;
+            mSize = size;
+            mLastAccess = lastAccess;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import android.view.SurfaceControl;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.anim.Interpolators;
 import com.android.quickstep.RemoteAnimationTargets;
+import com.android.quickstep.util.SurfaceTransaction.AppliedProperties;
 import com.android.quickstep.util.SurfaceTransaction.SurfaceProperties;
 
 public class TransformParams {
@@ -62,6 +63,8 @@ public class TransformParams {
     private RemoteAnimationTargets mTargetSet;
     private SurfaceTransactionApplier mSyncTransactionApplier;
     private SurfaceControl mRecentsSurface;
+    // Properties of the targets set by the previous frame, which are not set again if unchanged
+    private final AppliedProperties mAppliedProperties = new AppliedProperties();
 
     private BuilderProxy mHomeBuilderProxy = BuilderProxy.ALWAYS_VISIBLE;
     private BuilderProxy mBaseBuilderProxy = BuilderProxy.ALWAYS_VISIBLE;
@@ -108,6 +111,7 @@ public class TransformParams {
      */
     public TransformParams setTargetSet(RemoteAnimationTargets targetSet) {
         mTargetSet = targetSet;
+        mAppliedProperties.clear();
         return this;
     }
 
@@ -117,6 +121,7 @@ public class TransformParams {
      */
     public TransformParams setSyncTransactionApplier(SurfaceTransactionApplier applier) {
         mSyncTransactionApplier = applier;
+        mAppliedProperties.clear();
         return this;
     }
 
@@ -140,7 +145,7 @@ public class TransformParams {
 
     public SurfaceTransaction createSurfaceParams(BuilderProxy proxy) {
         RemoteAnimationTargets targets = mTargetSet;
-        SurfaceTransaction transaction = new SurfaceTransaction();
+        SurfaceTransaction transaction = new SurfaceTransaction(mAppliedProperties);
         if (targets == null) return transaction;
         mRecentsSurface = getRecentsSurface(targets);
 
@@ -105,6 +105,7 @@ import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.util.FloatProperty;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.Pair;
 import android.util.SparseBooleanArray;
 import android.view.HapticFeedbackConstants;
@@ -178,6 +179,7 @@ import com.android.quickstep.RotationTouchHelper;
 import com.android.quickstep.SystemUiProxy;
 import com.android.quickstep.TaskOverlayFactory;
 import com.android.quickstep.TaskThumbnailCache;
+import com.android.quickstep.TaskThumbnailPrefetcher;
 import com.android.quickstep.TaskViewUtils;
 import com.android.quickstep.TopTaskTracker;
 import com.android.quickstep.ViewUtils;
@@ -490,6 +492,8 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
 
     // Keeps track of the previously known visible tasks for purposes of loading/unloading task data
     private final SparseBooleanArray mHasVisibleTaskData = new SparseBooleanArray();
+    // Scroll position when the high res thumbnails were last prefetched
+    private int mLastPrefetchScroll;
 
     private final InvariantDeviceProfile mIdp;
 
@@ -522,6 +526,8 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
     private boolean mShowAsGridLastOnLayout = false;
     private final IntSet mTopRowIdSet = new IntSet();
     private int mClearAllShortTotalWidthTranslation = 0;
+    // Horizontal grid translation of each task, reused by updateGridProperties
+    private float[] mGridTranslations = new float[0];
 
     // The GestureEndTarget that is still in progress.
     @Nullable
@@ -1576,9 +1582,6 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
             currentTaskId = currentTaskView.getTask().key.id;
         }
 
-        // Unload existing visible task data
-        unloadVisibleTaskData(TaskView.FLAG_UPDATE_ALL);
-
         TaskView ignoreResetTaskView =
                 mIgnoreResetTaskId == INVALID_TASK_ID
                         ? null : getTaskViewByTaskId(mIgnoreResetTaskId);
@@ -1591,6 +1594,98 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         // Removing views sets the currentPage to 0, so we save this and restore it after
         // the new set of views are added
         int previousCurrentPage = mCurrentPage;
+        if (!reconcileTaskViews(taskGroups)) {
+            rebindTaskViews(taskGroups);
+        }
+
+        // Keep same previous focused task
+        TaskView newFocusedTaskView = getTaskViewByTaskId(focusedTaskId);
+        // If the list changed, maybe the focused task doesn't exist anymore
+        if (newFocusedTaskView == null && getTaskViewCount() > 0) {
+            newFocusedTaskView = getTaskViewAt(0);
+            // Check if the first task is the desktop.
+            // If first task is desktop, try to find another task to set as the focused task
+            if (newFocusedTaskView != null && newFocusedTaskView.isDesktopTask()
+                    && getTaskViewCount() > 1) {
+                newFocusedTaskView = getTaskViewAt(1);
+            }
+        }
+        mFocusedTaskViewId = newFocusedTaskView != null && !ENABLE_GRID_ONLY_OVERVIEW.get()
+                ? newFocusedTaskView.getTaskViewId() : INVALID_TASK_ID;
+        updateTaskSize();
+        updateChildTaskOrientations();
+
+        TaskView newRunningTaskView = null;
+        if (runningTaskId != INVALID_TASK_ID) {
+            // Update mRunningTaskViewId to be the new TaskView that was assigned by binding
+            // the full list of tasks to taskViews
+            newRunningTaskView = getTaskViewByTaskId(runningTaskId);
+            if (newRunningTaskView != null) {
+                mRunningTaskViewId = newRunningTaskView.getTaskViewId();
+            } else {
+                mRunningTaskViewId = INVALID_TASK_ID;
+            }
+        }
+
+        int targetPage = -1;
+        if (mNextPage != INVALID_PAGE) {
+            // Restore mCurrentPage but don't call setCurrentPage() as that clobbers the scroll.
+            mCurrentPage = previousCurrentPage;
+            if (currentTaskId != INVALID_TASK_ID) {
+                currentTaskView = getTaskViewByTaskId(currentTaskId);
+                if (currentTaskView != null) {
+                    targetPage = indexOfChild(currentTaskView);
+                }
+            }
+        } else {
+            // Set the current page to the running task, but not if settling on new task.
+            if (runningTaskId != INVALID_TASK_ID) {
+                targetPage = indexOfChild(newRunningTaskView);
+            } else if (getTaskViewCount() > 0) {
+                TaskView taskView = requireTaskViewAt(0);
+                // If first task id desktop, try to find another task to set the target page
+                if (taskView.isDesktopTask() && getTaskViewCount() > 1) {
+                    taskView = requireTaskViewAt(1);
+                }
+                targetPage = indexOfChild(taskView);
+            }
+        }
+        if (targetPage != -1 && mCurrentPage != targetPage) {
+            int finalTargetPage = targetPage;
+            runOnPageScrollsInitialized(() -> {
+                // TODO(b/246283207): Remove logging once root cause of flake detected.
+                if (Utilities.isRunningInTestHarness()) {
+                    Log.d("b/246283207", "RecentsView#applyLoadPlan() -> "
+                            + "previousCurrentPage: " + previousCurrentPage
+                            + ", targetPage: " + finalTargetPage
+                            + ", getScrollForPage(targetPage): "
+                            + getScrollForPage(finalTargetPage));
+                }
+                setCurrentPage(finalTargetPage);
+            });
+        }
+
+        if (mIgnoreResetTaskId != INVALID_TASK_ID &&
+                getTaskViewByTaskId(mIgnoreResetTaskId) != ignoreResetTaskView) {
+            // If the taskView mapping is changing, do not preserve the visuals. Since we are
+            // mostly preserving the first task, and new taskViews are added to the end, it should
+            // generally map to the same task.
+            mIgnoreResetTaskId = INVALID_TASK_ID;
+        }
+        resetTaskVisuals();
+        onTaskStackUpdated();
+        updateEnabledOverlays();
+        if (isPageScrollsInitialized()) {
+            onPageScrollsInitialized();
+        }
+    }
+
+    /**
+     * Removes all the task views and binds new ones for {@param taskGroups}
+     */
+    private void rebindTaskViews(ArrayList<GroupTask> taskGroups) {
+        // Unload existing visible task data
+        unloadVisibleTaskData(TaskView.FLAG_UPDATE_ALL);
         removeAllViews();
 
         // If we are entering Overview as a result of initiating a split from somewhere else
@@ -1678,86 +1773,134 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
                 }
             }
         }
+    }
 
-        // Keep same previous focused task
-        TaskView newFocusedTaskView = getTaskViewByTaskId(focusedTaskId);
-        // If the list changed, maybe the focused task doesn't exist anymore
-        if (newFocusedTaskView == null && getTaskViewCount() > 0) {
-            newFocusedTaskView = getTaskViewAt(0);
-            // Check if the first task is the desktop.
-            // If first task is desktop, try to find another task to set as the focused task
-            if (newFocusedTaskView != null && newFocusedTaskView.isDesktopTask()
-                    && getTaskViewCount() > 1) {
-                newFocusedTaskView = getTaskViewAt(1);
+    /**
+     * Updates the task views in place for {@param taskGroups}: views of the tasks which are still
+     * in the list are kept, with their loaded thumbnails and icons, and only moved if needed,
+     * views are only created for the new tasks, and removed for the tasks which are gone.
+     *
+     * @return false if the task views cannot be updated in place, and need to be rebound
+     */
+    private boolean reconcileTaskViews(ArrayList<GroupTask> taskGroups) {
+        if (mSplitSelectSource != null || mSplitHiddenTaskView != null
+                || mDesktopTaskView != null) {
+            return false;
+        }
+        for (GroupTask groupTask : taskGroups) {
+            if (groupTask instanceof DesktopTask) {
+                return false;
             }
         }
-        mFocusedTaskViewId = newFocusedTaskView != null && !ENABLE_GRID_ONLY_OVERVIEW.get()
-                ? newFocusedTaskView.getTaskViewId() : INVALID_TASK_ID;
-        updateTaskSize();
-        updateChildTaskOrientations();
 
-        TaskView newRunningTaskView = null;
-        if (runningTaskId != INVALID_TASK_ID) {
-            // Update mRunningTaskViewId to be the new TaskView that was assigned by binding
-            // the full list of tasks to taskViews
-            newRunningTaskView = getTaskViewByTaskId(runningTaskId);
-            if (newRunningTaskView != null) {
-                mRunningTaskViewId = newRunningTaskView.getTaskViewId();
+        // Existing task views, keyed by the ids of their tasks
+        LongSparseArray<TaskView> existingTaskViews = new LongSparseArray<>();
+        for (int i = 0; i < getTaskViewCount(); i++) {
+            TaskView taskView = requireTaskViewAt(i);
+            int[] taskIds = taskView.getTaskIds();
+            existingTaskViews.put(getTaskViewKey(taskIds[0], taskIds[1]), taskView);
+        }
+
+        mFilterState.updateInstanceCountMap(taskGroups);
+
+        // Task views in child order, null for the ones to create. Looping through taskGroups
+        // backwards populates the thumbnail grid from least recent to most recent.
+        int count = taskGroups.size();
+        TaskView[] taskViews = new TaskView[count];
+        Task[][] tasks = new Task[count][];
+        for (int i = 0; i < count; i++) {
+            GroupTask groupTask = taskGroups.get(count - 1 - i);
+            if (groupTask.taskViewType == TaskView.Type.GROUPED) {
+                boolean firstTaskIsLeftTopTask =
+                        groupTask.mSplitBounds.leftTopTaskId == groupTask.task1.key.id;
+                tasks[i] = firstTaskIsLeftTopTask
+                        ? new Task[] {groupTask.task1, groupTask.task2}
+                        : new Task[] {groupTask.task2, groupTask.task1};
             } else {
-                mRunningTaskViewId = INVALID_TASK_ID;
+                tasks[i] = new Task[] {groupTask.task1};
             }
+            long key = getTaskViewKey(tasks[i][0].key.id,
+                    tasks[i].length > 1 ? tasks[i][1].key.id : INVALID_TASK_ID);
+            taskViews[i] = existingTaskViews.get(key);
+            existingTaskViews.remove(key);
         }
 
-        int targetPage = -1;
-        if (mNextPage != INVALID_PAGE) {
-            // Restore mCurrentPage but don't call setCurrentPage() as that clobbers the scroll.
-            mCurrentPage = previousCurrentPage;
-            if (currentTaskId != INVALID_TASK_ID) {
-                currentTaskView = getTaskViewByTaskId(currentTaskId);
-                if (currentTaskView != null) {
-                    targetPage = indexOfChild(currentTaskView);
-                }
+        // Remove the task views of the tasks which are gone
+        for (int i = 0; i < existingTaskViews.size(); i++) {
+            TaskView taskView = existingTaskViews.valueAt(i);
+            Task task = taskView.getTask();
+            if (task != null && mHasVisibleTaskData.get(task.key.id)) {
+                taskView.onTaskListVisibilityChanged(false /* visible */, TaskView.FLAG_UPDATE_ALL);
             }
-        } else {
-            // Set the current page to the running task, but not if settling on new task.
-            if (runningTaskId != INVALID_TASK_ID) {
-                targetPage = indexOfChild(newRunningTaskView);
-            } else if (getTaskViewCount() > 0) {
-                TaskView taskView = requireTaskViewAt(0);
-                // If first task id desktop, try to find another task to set the target page
-                if (taskView.isDesktopTask() && getTaskViewCount() > 1) {
-                    taskView = requireTaskViewAt(1);
+            removeView(taskView);
+        }
+
+        for (int i = 0; i < count; i++) {
+            TaskView taskView = taskViews[i];
+            if (taskView == null) {
+                taskView = getTaskViewFromPool(tasks[i].length > 1
+                        ? TaskView.Type.GROUPED : TaskView.Type.SINGLE);
+                addView(taskView, i);
+            } else {
+                if (indexOfChild(taskView) != i) {
+                    mMovingTaskView = taskView;
+                    removeView(taskView);
+                    mMovingTaskView = null;
+                    addView(taskView, i);
                 }
-                targetPage = indexOfChild(taskView);
+                // Keep the loaded data, the new task objects only have the task description
+                TaskIdAttributeContainer[] containers = taskView.getTaskIdAttributeContainers();
+                for (int j = 0; j < tasks[i].length && j < containers.length; j++) {
+                    if (containers[j] != null) {
+                        transferLoadedTaskData(containers[j], tasks[i][j]);
+                    }
+                    // Binding cancels any pending load, the data is applied again or loaded
+                    // once the task views are updated
+                    mHasVisibleTaskData.delete(tasks[i][j].key.id);
+                }
+            }
+
+            if (taskView instanceof GroupedTaskView) {
+                GroupTask groupTask = taskGroups.get(count - 1 - i);
+                ((GroupedTaskView) taskView).bind(tasks[i][0], tasks[i][1], mOrientationState,
+                        groupTask.mSplitBounds);
+            } else {
+                taskView.bind(tasks[i][0], mOrientationState);
+            }
+
+            // enables instance filtering if the feature flag for it is on
+            if (FeatureFlags.ENABLE_MULTI_INSTANCE.get()) {
+                taskView.setUpShowAllInstancesListener();
             }
         }
-        if (targetPage != -1 && mCurrentPage != targetPage) {
-            int finalTargetPage = targetPage;
-            runOnPageScrollsInitialized(() -> {
-                // TODO(b/246283207): Remove logging once root cause of flake detected.
-                if (Utilities.isRunningInTestHarness()) {
-                    Log.d("b/246283207", "RecentsView#applyLoadPlan() -> "
-                            + "previousCurrentPage: " + previousCurrentPage
-                            + ", targetPage: " + finalTargetPage
-                            + ", getScrollForPage(targetPage): "
-                            + getScrollForPage(finalTargetPage));
-                }
-                setCurrentPage(finalTargetPage);
-            });
+
+        if (indexOfChild(mClearAllButton) == -1) {
+            addView(mClearAllButton);
         }
+        return true;
+    }
 
-        if (mIgnoreResetTaskId != INVALID_TASK_ID &&
-                getTaskViewByTaskId(mIgnoreResetTaskId) != ignoreResetTaskView) {
-            // If the taskView mapping is changing, do not preserve the visuals. Since we are
-            // mostly preserving the first task, and new taskViews are added to the end, it should
-            // generally map to the same task.
-            mIgnoreResetTaskId = INVALID_TASK_ID;
+    private static long getTaskViewKey(int taskId1, int taskId2) {
+        return ((long) taskId1 << 32) | (taskId2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Moves the thumbnail and icon loaded for the task of {@param container} to {@param newTask},
+     * which is the same task in a new task list.
+     */
+    private static void transferLoadedTaskData(TaskIdAttributeContainer container, Task newTask) {
+        Task oldTask = container.getTask();
+        if (oldTask == null || oldTask == newTask || oldTask.key.id != newTask.key.id) {
+            return;
         }
-        resetTaskVisuals();
-        onTaskStackUpdated();
-        updateEnabledOverlays();
-        if (isPageScrollsInitialized()) {
-            onPageScrollsInitialized();
+        if (newTask.thumbnail == null) {
+            // Snapshots taken while in overview only update the view, not the task, so use the
+            // thumbnail currently shown
+            newTask.thumbnail = container.getThumbnailView().getThumbnailData();
+        }
+        if (newTask.icon == null) {
+            newTask.icon = oldTask.icon;
+            newTask.titleDescription = oldTask.titleDescription;
         }
     }
 
@@ -2078,6 +2221,7 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
 
             // After scrolling, update the visible task's data
             loadVisibleTaskData(TaskView.FLAG_UPDATE_ALL);
+            prefetchTaskThumbnails(scrolling);
         }
 
         // Update ActionsView's visibility when scroll changes.
@@ -2215,6 +2359,8 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
                     int changes = dataChanges;
                     if (taskView == getRunningTaskView() && mGestureActive) {
                         changes &= ~TaskView.FLAG_UPDATE_THUMBNAIL;
+                    } else if ((changes & TaskView.FLAG_UPDATE_THUMBNAIL) != 0) {
+                        mModel.getThumbnailCache().getPrefetcher().onTaskVisible(task);
                     }
                     taskView.onTaskListVisibilityChanged(true /* visible */, changes);
                 }
@@ -2228,10 +2374,54 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         }
     }
 
+    /**
+     * Prefetches the high res thumbnails of the tasks ahead of the visible ones in the scroll
+     * direction, looking further ahead the faster the user is flinging.
+     */
+    private void prefetchTaskThumbnails(boolean scrolling) {
+        int scroll = mOrientationHandler.getPrimaryScroll(this);
+        int delta = scroll - mLastPrefetchScroll;
+        mLastPrefetchScroll = scroll;
+        if (delta == 0) {
+            return;
+        }
+
+        int firstVisible = -1;
+        int lastVisible = -1;
+        int taskViewCount = getTaskViewCount();
+        for (int i = 0; i < taskViewCount; i++) {
+            Task task = requireTaskViewAt(i).getTask();
+            if (task != null && mHasVisibleTaskData.get(task.key.id)) {
+                if (firstVisible == -1) {
+                    firstVisible = i;
+                }
+                lastVisible = i;
+            }
+        }
+        if (firstVisible == -1) {
+            return;
+        }
+
+        int count = TaskThumbnailPrefetcher.getPrefetchCount(
+                scrolling ? mScroller.getCurrVelocity() : 0, mFastFlingVelocity);
+        boolean towardsEnd = (delta > 0) != mIsRtl;
+        int step = towardsEnd ? 1 : -1;
+        ArrayList<Task> tasks = new ArrayList<>(count);
+        for (int i = towardsEnd ? lastVisible + 1 : firstVisible - 1;
+                i >= 0 && i < taskViewCount && tasks.size() < count; i += step) {
+            Task task = requireTaskViewAt(i).getTask();
+            if (task != null) {
+                tasks.add(task);
+            }
+        }
+        mModel.getThumbnailCache().getPrefetcher().prefetch(tasks);
+    }
+
     /**
      * Unloads any associated data from the currently visible tasks
      */
     private void unloadVisibleTaskData(@TaskView.TaskDataChanges int dataChanges) {
+        mModel.getThumbnailCache().getPrefetcher().cancelAll();
         for (int i = 0; i < mHasVisibleTaskData.size(); i++) {
             if (mHasVisibleTaskData.valueAt(i)) {
                 TaskView taskView = getTaskViewByTaskId(mHasVisibleTaskData.keyAt(i));
@@ -2735,13 +2925,20 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         float topAccumulatedTranslationX = 0;
         float bottomAccumulatedTranslationX = 0;
 
-        // Contains whether the child index is in top or bottom of grid (for non-focused task)
-        // Different from mTopRowIdSet, which contains the taskViewId of what task is in top row
-        IntSet topSet = new IntSet();
-        IntSet bottomSet = new IntSet();
+        // Width of the tasks placed in the other row since the last task of each row, by which
+        // the next task of the row is moved horizontally into empty space
+        int topRowGapWidth = 0;
+        int bottomRowGapWidth = 0;
+        // Whether the last task is in the top or bottom row of the grid (for non-focused task)
+        boolean isLastTaskInTopRow = false;
+        boolean isLastTaskInBottomRow = false;
 
         // Horizontal grid translation for each task
-        float[] gridTranslations = new float[taskCount];
+        if (mGridTranslations.length < taskCount) {
+            mGridTranslations = new float[taskCount];
+        }
+        float[] gridTranslations = mGridTranslations;
+        Arrays.fill(gridTranslations, 0, taskCount, 0);
 
         int focusedTaskIndex = Integer.MAX_VALUE;
         int focusedTaskShift = 0;
@@ -2752,8 +2949,6 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         TaskView homeTaskView = getHomeTaskView();
         TaskView nextFocusedTaskView = null;
 
-        int desktopTaskIndex = Integer.MAX_VALUE;
-
         if (!isTaskDismissal) {
             mTopRowIdSet.clear();
         }
@@ -2782,7 +2977,6 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
                 }
             } else if (taskView.isDesktopTask()) {
                 // Desktop task was not focused. Pin it to the right of focused
-                desktopTaskIndex = i;
                 if (taskView.getVisibility() == View.GONE) {
                     // Desktop task view is hidden, skip it from grid calculations
                     continue;
@@ -2827,38 +3021,30 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
                     } else {
                         topRowWidth += taskWidthAndSpacing;
                     }
-                    topSet.add(i);
+                    isLastTaskInTopRow = i == taskCount - 1;
                     mTopRowIdSet.add(taskViewId);
 
                     taskView.setGridTranslationY(mTaskGridVerticalDiff);
 
                     // Move horizontally into empty space.
-                    float widthOffset = 0;
-                    for (int j = i - 1; !topSet.contains(j) && j >= 0; j--) {
-                        if (j == focusedTaskIndex || j == desktopTaskIndex) {
-                            continue;
-                        }
-                        widthOffset += requireTaskViewAt(j).getLayoutParams().width + mPageSpacing;
-                    }
+                    float widthOffset = topRowGapWidth;
+                    topRowGapWidth = 0;
+                    bottomRowGapWidth += taskWidthAndSpacing;
 
                     float currentTaskTranslationX = mIsRtl ? widthOffset : -widthOffset;
                     gridTranslations[i] += topAccumulatedTranslationX + currentTaskTranslationX;
                     topAccumulatedTranslationX += currentTaskTranslationX;
                 } else {
                     bottomRowWidth += taskWidthAndSpacing;
-                    bottomSet.add(i);
+                    isLastTaskInBottomRow = i == taskCount - 1;
 
                     // Move into bottom row.
                     taskView.setGridTranslationY(mTopBottomRowHeightDiff + mTaskGridVerticalDiff);
 
                     // Move horizontally into empty space.
-                    float widthOffset = 0;
-                    for (int j = i - 1; !bottomSet.contains(j) && j >= 0; j--) {
-                        if (j == focusedTaskIndex || j == desktopTaskIndex) {
-                            continue;
-                        }
-                        widthOffset += requireTaskViewAt(j).getLayoutParams().width + mPageSpacing;
-                    }
+                    float widthOffset = bottomRowGapWidth;
+                    bottomRowGapWidth = 0;
+                    topRowGapWidth += taskWidthAndSpacing;
 
                     float currentTaskTranslationX = mIsRtl ? widthOffset : -widthOffset;
                     gridTranslations[i] += bottomAccumulatedTranslationX + currentTaskTranslationX;
@@ -2882,18 +3068,18 @@ public abstract class RecentsView<ACTIVITY_TYPE extends StatefulActivity<STATE_T
         }
 
         // Use the accumulated translation of the row containing the last task.
-        float clearAllAccumulatedTranslation = topSet.contains(taskCount - 1)
+        float clearAllAccumulatedTranslation = isLastTaskInTopRow
                 ? topAccumulatedTranslationX : bottomAccumulatedTranslationX;
 
         // If the last task is on the shorter row, ClearAllButton will embed into the shorter row
         // which is not what we want. Compensate the width difference of the 2 rows in that case.
         float shorterRowCompensation = 0;
         if (topRowWidth <= bottomRowWidth) {
-            if (topSet.contains(taskCount - 1)) {
+            if (isLastTaskInTopRow) {
                 shorterRowCompensation = bottomRowWidth - topRowWidth;
             }
         } else {
-            if (bottomSet.contains(taskCount - 1)) {
+            if (isLastTaskInBottomRow) {
                 shorterRowCompensation = topRowWidth - bottomRowWidth;
             }
         }
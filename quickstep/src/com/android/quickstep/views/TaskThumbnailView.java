@@ -585,6 +585,14 @@ public class TaskThumbnailView extends View {
         return mThumbnailData.thumbnail;
     }
 
+    /**
+     * Returns the thumbnail data currently shown or null if none is set.
+     */
+    @Nullable
+    public ThumbnailData getThumbnailData() {
+        return mThumbnailData;
+    }
+
     /**
      * Returns whether the snapshot is real. If the device is locked for the user of the task,
      * the snapshot used will be an app-theme generated snapshot instead of a real snapshot.
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.quickstep;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Intent;
+import android.util.SparseArray;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.quickstep.util.CancellableTask;
+import com.android.systemui.shared.recents.model.Task;
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+import com.android.systemui.shared.recents.model.ThumbnailData;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+@SmallTest
+public class TaskThumbnailPrefetcherTest {
+
+    private static final float FAST_FLING_VELOCITY = 1000;
+
+    private final Task mTask1 = createTask(1);
+    private final Task mTask2 = createTask(2);
+    private final Task mTask3 = createTask(3);
+
+    private final TaskThumbnailCache mCache = mock(TaskThumbnailCache.class);
+    // Requests made to the cache and their callback, keyed on the task id
+    private final SparseArray<CancellableTask> mRequests = new SparseArray<>();
+    private final SparseArray<Consumer<ThumbnailData>> mCallbacks = new SparseArray<>();
+
+    private TaskThumbnailPrefetcher mPrefetcher;
+
+    @Before
+    public void setup() {
+        when(mCache.isPrefetchEnabled()).thenReturn(true);
+        when(mCache.loadHighResThumbnail(any(), any())).thenAnswer(invocation -> {
+            TaskKey key = invocation.getArgument(0);
+            CancellableTask request = mock(CancellableTask.class);
+            mRequests.put(key.id, request);
+            mCallbacks.put(key.id, invocation.getArgument(1));
+            return request;
+        });
+        mPrefetcher = new TaskThumbnailPrefetcher(mCache);
+    }
+
+    @Test
+    public void getPrefetchCount_idle_returnsMinimum() {
+        assertEquals(2, TaskThumbnailPrefetcher.getPrefetchCount(0, FAST_FLING_VELOCITY));
+        assertEquals(2, TaskThumbnailPrefetcher.getPrefetchCount(999, FAST_FLING_VELOCITY));
+    }
+
+    @Test
+    public void getPrefetchCount_scalesWithVelocity() {
+        assertEquals(3, TaskThumbnailPrefetcher.getPrefetchCount(1000, FAST_FLING_VELOCITY));
+        assertEquals(4, TaskThumbnailPrefetcher.getPrefetchCount(-2500, FAST_FLING_VELOCITY));
+    }
+
+    @Test
+    public void getPrefetchCount_clampedToMaximum() {
+        assertEquals(6, TaskThumbnailPrefetcher.getPrefetchCount(100000, FAST_FLING_VELOCITY));
+        assertEquals(2, TaskThumbnailPrefetcher.getPrefetchCount(100000, 0));
+    }
+
+    @Test
+    public void prefetch_skipsHighResThumbnails() {
+        when(mCache.hasHighResThumbnail(mTask1)).thenReturn(true);
+        prefetch(mTask1, mTask2);
+
+        verify(mCache, never()).loadHighResThumbnail(argThat(key -> key.id == 1), any());
+        verify(mCache).loadHighResThumbnail(argThat(key -> key.id == 2), any());
+    }
+
+    @Test
+    public void prefetch_recentsNotVisible_skipsAndCancelsRequests() {
+        prefetch(mTask1);
+        when(mCache.isPrefetchEnabled()).thenReturn(false);
+        prefetch(mTask1, mTask2);
+
+        verify(mRequests.get(1)).cancel();
+        verify(mCache, never()).loadHighResThumbnail(argThat(key -> key.id == 2), any());
+    }
+
+    @Test
+    public void prefetch_scroll_cancelsTasksNoLongerAhead() {
+        prefetch(mTask1, mTask2);
+        prefetch(mTask2, mTask3);
+
+        verify(mRequests.get(1)).cancel();
+        verify(mRequests.get(2), never()).cancel();
+        verify(mCache, times(1)).loadHighResThumbnail(argThat(key -> key.id == 2), any());
+        verify(mCache).loadHighResThumbnail(argThat(key -> key.id == 3), any());
+    }
+
+    @Test
+    public void prefetch_loadedRequestNotCancelled() {
+        prefetch(mTask1);
+        getInstrumentation().runOnMainSync(() -> mCallbacks.get(1).accept(new ThumbnailData()));
+        prefetch(mTask2);
+
+        verify(mRequests.get(1), never()).cancel();
+    }
+
+    @Test
+    public void cancelAll_reset_cancelsPendingRequests() {
+        prefetch(mTask1, mTask2);
+        getInstrumentation().runOnMainSync(mPrefetcher::cancelAll);
+
+        verify(mRequests.get(1)).cancel();
+        verify(mRequests.get(2)).cancel();
+
+        // Tasks are requested again after a reset
+        prefetch(mTask1);
+        verify(mCache, times(2)).loadHighResThumbnail(argThat(key -> key.id == 1), any());
+    }
+
+    @Test
+    public void onTaskVisible_countsOnlyRequestedTasks() {
+        when(mCache.hasHighResThumbnail(mTask1)).thenReturn(true);
+        prefetch(mTask1, mTask2, mTask3);
+        getInstrumentation().runOnMainSync(() -> {
+            mPrefetcher.onTaskVisible(mTask1);
+            mPrefetcher.onTaskVisible(mTask2);
+        });
+        assertEquals(0, mPrefetcher.getHitCount());
+        assertEquals(1, mPrefetcher.getMissCount());
+
+        getInstrumentation().runOnMainSync(() -> mCallbacks.get(3).accept(new ThumbnailData()));
+        when(mCache.hasHighResThumbnail(mTask3)).thenReturn(true);
+        getInstrumentation().runOnMainSync(() -> mPrefetcher.onTaskVisible(mTask3));
+        assertEquals(1, mPrefetcher.getHitCount());
+        assertEquals(1, mPrefetcher.getMissCount());
+    }
+
+    @Test
+    public void onTaskVisible_cancelledRequest_notCounted() {
+        prefetch(mTask1);
+        prefetch(mTask2);
+        getInstrumentation().runOnMainSync(() -> mPrefetcher.onTaskVisible(mTask1));
+
+        assertEquals(0, mPrefetcher.getMissCount());
+    }
+
+    private void prefetch(Task... tasks) {
+        List<Task> taskList = Arrays.asList(tasks);
+        getInstrumentation().runOnMainSync(() -> mPrefetcher.prefetch(taskList));
+    }
+
+    private static Task createTask(int taskId) {
+        return new Task(new TaskKey(taskId, 0, new Intent(), null, 0, 0));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Debug;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.quickstep.util.ActiveGestureErrorDetector.GestureEvent;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+public class ActiveGestureLogTest {
+
+    private static final int CAPACITY = 16;
+
+    private final ActiveGestureLog mLog = new ActiveGestureLog(CAPACITY);
+
+    @Test
+    public void dump_collapsesDuplicateEvents() {
+        mLog.incrementLogId();
+        mLog.addLog("onMotionEvent", 1);
+        mLog.addLog("onMotionEvent", 1);
+        mLog.addLog("onMotionEvent", 1);
+        mLog.addLog("setEndTarget", true);
+        mLog.addLog(new ActiveGestureLog.CompoundString("inputConsumer: ").append("Other"));
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("onMotionEvent: 1 & 2 similar events\n"));
+        assertTrue(dump, dump.contains("setEndTarget: true\n"));
+        assertTrue(dump, dump.contains("inputConsumer: Other\n"));
+        assertFalse(dump, dump.contains("not logged"));
+    }
+
+    @Test
+    public void dump_reportsEventsOverCapacity() {
+        mLog.incrementLogId();
+        for (int i = 0; i < CAPACITY + 5; i++) {
+            mLog.addLog("onMotionEvent", i);
+        }
+
+        String dump = dump();
+        assertTrue(dump, dump.contains("onMotionEvent: " + (CAPACITY - 1) + "\n"));
+        assertFalse(dump, dump.contains("onMotionEvent: " + CAPACITY + "\n"));
+        assertTrue(dump, dump.contains("5 more events not logged"));
+    }
+
+    @Test
+    public void dump_keepsLastGesturesOnly() {
+        int firstLogId = mLog.getLogId();
+        for (int i = 0; i < 12; i++) {
+            mLog.addLog("gesture", i);
+            mLog.incrementLogId();
+        }
+
+        String dump = dump();
+        assertFalse(dump, dump.contains("Logs for logId: " + (firstLogId + 1) + "\n"));
+        assertTrue(dump, dump.contains("Logs for logId: " + (firstLogId + 2) + "\n"));
+        assertTrue(dump, dump.contains("Logs for logId: " + (firstLogId + 11) + "\n"));
+
+        mLog.clear();
+        assertFalse(dump(), dump().contains("Logs for logId"));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void addLog_doesNotAllocate() {
+        // Let every log of the ring be used once, as a gesture would
+        logGestures(20);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        logGestures(100);
+        Debug.stopAllocCounting();
+
+        assertEquals(0, Debug.getThreadAllocCount());
+    }
+
+    private void logGestures(int count) {
+        for (int i = 0; i < count; i++) {
+            mLog.incrementLogId();
+            mLog.trackEvent(GestureEvent.MOTION_DOWN);
+            for (int j = 0; j < CAPACITY * 4; j++) {
+                mLog.addLog("onMotionEvent", j);
+                mLog.addLog("onMotionEvent", j);
+                mLog.addLog("isLikelyToStartNewTask", (j & 1) == 0);
+            }
+            mLog.addLog("onGestureEnded", GestureEvent.MOTION_UP);
+        }
+    }
+
+    private String dump() {
+        StringWriter out = new StringWriter();
+        mLog.dump("", new PrintWriter(out));
+        return out.toString();
+    }
+}
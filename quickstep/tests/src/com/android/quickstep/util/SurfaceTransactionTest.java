@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.view.SurfaceControl;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.quickstep.util.SurfaceTransaction.AppliedProperties;
+
+import org.junit.After;
+import org.junit.Test;
+
+@SmallTest
+public class SurfaceTransactionTest {
+
+    private final SurfaceControl mSurface =
+            new SurfaceControl.Builder().setName("SurfaceTransactionTest").build();
+    private final AppliedProperties mAppliedProperties = new AppliedProperties();
+
+    @After
+    public void tearDown() {
+        mSurface.release();
+    }
+
+    @Test
+    public void unchangedProperties_skipped() {
+        Matrix matrix = new Matrix();
+        matrix.setScale(0.5f, 0.5f);
+        assertEquals(0, build(matrix, new Rect(0, 0, 100, 200), 1f, 10f).getSkippedCount());
+        assertEquals(4, build(matrix, new Rect(0, 0, 100, 200), 1f, 10f).getSkippedCount());
+
+        matrix.postTranslate(10, 0);
+        assertEquals(2, build(matrix, new Rect(0, 0, 100, 100), 1f, 10f).getSkippedCount());
+    }
+
+    @Test
+    public void droppedTransaction_propertiesSetAgain() {
+        Matrix matrix = new Matrix();
+        build(matrix, new Rect(0, 0, 100, 200), 1f, 10f).onDropped();
+
+        assertEquals(0, build(matrix, new Rect(0, 0, 100, 200), 1f, 10f).getSkippedCount());
+    }
+
+    @Test
+    public void withoutAppliedProperties_nothingSkipped() {
+        Matrix matrix = new Matrix();
+        for (int i = 0; i < 2; i++) {
+            SurfaceTransaction transaction = new SurfaceTransaction();
+            transaction.forSurface(mSurface).setMatrix(matrix).setAlpha(1f);
+            assertEquals(0, transaction.getSkippedCount());
+        }
+    }
+
+    private SurfaceTransaction build(Matrix matrix, Rect crop, float alpha, float radius) {
+        SurfaceTransaction transaction = new SurfaceTransaction(mAppliedProperties);
+        transaction.forSurface(mSurface)
+                .setMatrix(matrix)
+                .setWindowCrop(crop)
+                .setAlpha(alpha)
+                .setCornerRadius(radius);
+        return transaction;
+    }
+}
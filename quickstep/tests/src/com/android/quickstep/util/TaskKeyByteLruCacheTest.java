@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.quickstep.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.content.Intent;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.systemui.shared.recents.model.Task.TaskKey;
+
+import org.junit.Test;
+
+@SmallTest
+public class TaskKeyByteLruCacheTest {
+
+    private final TaskKeyByteLruCache<Integer> mCache =
+            new TaskKeyByteLruCache<>(100, Integer::intValue);
+
+    @Test
+    public void put_evictsLeastRecentlyAccessed() {
+        TaskKey key1 = createKey(1, 0);
+        TaskKey key2 = createKey(2, 0);
+        TaskKey key3 = createKey(3, 0);
+        mCache.put(key1, 40);
+        mCache.put(key2, 40);
+        mCache.getAndInvalidateIfModified(key1);
+        mCache.put(key3, 40);
+
+        assertEquals(Integer.valueOf(40), mCache.getAndInvalidateIfModified(key1));
+        assertNull(mCache.getAndInvalidateIfModified(key2));
+        assertEquals(Integer.valueOf(40), mCache.getAndInvalidateIfModified(key3));
+        assertEquals(80, mCache.getSizeBytes());
+    }
+
+    @Test
+    public void put_keepsEntryLargerThanBudget() {
+        mCache.put(createKey(1, 0), 40);
+        mCache.put(createKey(2, 0), 150);
+
+        assertEquals(1, mCache.size());
+        assertEquals(150, mCache.getSizeBytes());
+    }
+
+    @Test
+    public void put_replacesEntrySize() {
+        mCache.put(createKey(1, 0), 40);
+        mCache.put(createKey(1, 0), 10);
+
+        assertEquals(1, mCache.size());
+        assertEquals(10, mCache.getSizeBytes());
+    }
+
+    @Test
+    public void getAndInvalidateIfModified_removesStaleEntry() {
+        mCache.put(createKey(1, 0), 40);
+
+        assertNull(mCache.getAndInvalidateIfModified(createKey(1, 5)));
+        assertEquals(0, mCache.size());
+        assertEquals(0, mCache.getSizeBytes());
+    }
+
+    @Test
+    public void peek_keepsStaleEntry() {
+        mCache.put(createKey(1, 0), 40);
+
+        assertNull(mCache.peek(createKey(1, 5)));
+        assertEquals(Integer.valueOf(40), mCache.peek(createKey(1, 0)));
+        assertEquals(1, mCache.size());
+    }
+
+    @Test
+    public void trimToSize_evictsUntilUnderBudget() {
+        mCache.put(createKey(1, 0), 30);
+        mCache.put(createKey(2, 0), 30);
+        mCache.put(createKey(3, 0), 30);
+        mCache.trimToSize(50);
+
+        assertEquals(1, mCache.size());
+        assertEquals(createKey(3, 0).id, mCache.getKey(3).id);
+        assertEquals(30, mCache.getSizeBytes());
+    }
+
+    private static TaskKey createKey(int taskId, long lastActiveTime) {
+        return new TaskKey(taskId, 0, new Intent(), null, 0, lastActiveTime);
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.launcher3;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 
 public class Alarm implements Runnable{
@@ -36,6 +37,13 @@ public class Alarm implements Runnable{
         mHandler = new Handler();
     }
 
+    /**
+     * Creates an alarm which runs on {@param looper}, so that it can be created on another thread
+     */
+    public Alarm(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
     public void setOnAlarmListener(OnAlarmListener alarmListener) {
         mAlarmListener = alarmListener;
     }
@@ -205,6 +205,7 @@ import com.android.launcher3.util.Themes;
 import com.android.launcher3.util.Thunk;
 import com.android.launcher3.util.TouchController;
 import com.android.launcher3.util.TraceHelper;
+import com.android.launcher3.util.ViewCache;
 import com.android.launcher3.util.ViewOnDrawExecutor;
 import com.android.launcher3.views.ActivityContext;
 import com.android.launcher3.views.FloatingIconView;
@@ -219,6 +220,7 @@ import com.android.launcher3.widget.PendingAddWidgetInfo;
 import com.android.launcher3.widget.PendingAppWidgetHostView;
 import com.android.launcher3.widget.WidgetAddFlowHandler;
 import com.android.launcher3.widget.WidgetManagerHelper;
+import com.android.launcher3.widget.WidgetPreviewCache;
 import com.android.launcher3.widget.custom.CustomWidgetManager;
 import com.android.launcher3.widget.model.WidgetsListBaseEntry;
 import com.android.launcher3.widget.picker.WidgetsFullSheet;
@@ -306,6 +308,9 @@ public class Launcher extends StatefulActivity<LauncherState>
     private static final int NEW_APPS_ANIMATION_INACTIVE_TIMEOUT_SECONDS = 5;
     @Thunk @VisibleForTesting public static final int NEW_APPS_ANIMATION_DELAY = 500;
 
+    // Maximum number of pages worth of item views inflated ahead of the initial bind
+    private static final int MAX_PRE_INFLATED_PAGES = 4;
+
     private static final String DISPLAY_WORKSPACE_TRACE_METHOD_NAME = "DisplayWorkspaceFirstFrame";
     private static final String DISPLAY_ALL_APPS_TRACE_METHOD_NAME = "DisplayAllApps";
     public static final int DISPLAY_WORKSPACE_TRACE_COOKIE = 0;
@@ -736,6 +741,8 @@ public class Launcher extends StatefulActivity<LauncherState>
         }
 
         mDeviceProfile = deviceProfile;
+        // Views inflated ahead of time used the previous device profile
+        getViewCache().clearPreInflated();
         if (isInMultiWindowMode()) {
             mDeviceProfile = mDeviceProfile.getMultiWindowProfile(
                     this, getMultiWindowDisplaySize());
@@ -1425,8 +1432,8 @@ public class Launcher extends StatefulActivity<LauncherState>
      * @return A View inflated from layoutResId.
      */
     public View createShortcut(ViewGroup parent, WorkspaceItemInfo info) {
-        BubbleTextView favorite = (BubbleTextView) LayoutInflater.from(parent.getContext())
-                .inflate(R.layout.app_icon, parent, false);
+        BubbleTextView favorite = getViewCache().getView(
+                R.layout.app_icon, parent.getContext(), parent);
         favorite.applyFromWorkspaceItem(info);
         favorite.setOnClickListener(getItemOnClickListener());
         favorite.setOnFocusChangeListener(mFocusHandler);
@@ -2254,6 +2261,9 @@ public class Launcher extends StatefulActivity<LauncherState>
 
             // This clears all widget bitmaps from the widget tray
             // TODO(hyunyoungs)
+
+            // Generated widget previews are still available from the disk cache
+            WidgetPreviewCache.INSTANCE.get(this).clearMemoryCache();
         }
     }
 
@@ -2349,6 +2359,26 @@ public class Launcher extends StatefulActivity<LauncherState>
         }
     }
 
+    /**
+     * Inflates the views of the items about to be bound on a background thread, up to a few
+     * pages of the grid.
+     *
+     * Implementation of the method from LauncherModel.Callbacks.
+     */
+    @Override
+    public void preInflateItemViews(int iconCount, int folderCount, int folderContentCount) {
+        InvariantDeviceProfile idp = LauncherAppState.getIDP(this);
+        int maxPageItems = idp.numColumns * idp.numRows * MAX_PRE_INFLATED_PAGES;
+        ViewCache viewCache = getViewCache();
+        viewCache.preInflate(R.layout.app_icon, this,
+                Math.min(iconCount, maxPageItems + idp.numDatabaseHotseatIcons));
+        viewCache.preInflate(R.layout.folder_icon, this, Math.min(folderCount, maxPageItems));
+        viewCache.preInflate(R.layout.user_folder_icon_normalized, this,
+                Math.min(folderCount, maxPageItems));
+        viewCache.preInflate(R.layout.folder_application, this, Math.min(folderContentCount,
+                idp.numFolderColumns * idp.numFolderRows * MAX_PRE_INFLATED_PAGES));
+    }
+
     /**
      * Refreshes the shortcuts shown on the workspace.
      *
@@ -3130,6 +3160,7 @@ public class Launcher extends StatefulActivity<LauncherState>
         writer.println(prefix + "\tmRotationHelper: " + mRotationHelper);
         writer.println(prefix + "\tmAppWidgetHolder.isListening: "
                 + mAppWidgetHolder.isListening());
+        getViewCache().dump(prefix + "\t", writer);
 
         // Extra logging for general debugging
         mDragLayer.dump(prefix, writer);
@@ -189,6 +189,7 @@ public class LauncherAppState implements SafeCloseable {
         LauncherIcons.clearPool();
         mIconCache.updateIconParams(
                 mInvariantDeviceProfile.fillResIconDpi, mInvariantDeviceProfile.iconBitmapSize);
+        mIconCache.clearIconAtlas(mInvariantDeviceProfile.iconBitmapSize);
         mModel.forceReload();
     }
 
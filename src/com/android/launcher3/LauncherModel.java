@@ -50,6 +50,7 @@ import com.android.launcher3.model.BgDataModel.Callbacks;
 import com.android.launcher3.model.CacheDataUpdatedTask;
 import com.android.launcher3.model.ItemInstallQueue;
 import com.android.launcher3.model.LauncherBinder;
+import com.android.launcher3.model.LoaderMetrics;
 import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.model.ModelDelegate;
 import com.android.launcher3.model.ModelWriter;
@@ -59,6 +60,7 @@ import com.android.launcher3.model.PackageUpdatedTask;
 import com.android.launcher3.model.ReloadStringCacheTask;
 import com.android.launcher3.model.ShortcutsChangedTask;
 import com.android.launcher3.model.UserLockStateChangedTask;
+import com.android.launcher3.model.WorkspaceSnapshot;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
@@ -71,6 +73,7 @@ import com.android.launcher3.util.IntSet;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
+import com.android.launcher3.widget.picker.search.WidgetsSearchIndex;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
@@ -79,6 +82,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -129,6 +133,18 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
     @NonNull
     private final ModelDelegate mModelDelegate;
 
+    // Snapshot of the workspace used to bind it faster on the next start, only kept by the
+    // primary instance
+    @Nullable
+    private final WorkspaceSnapshot mWorkspaceSnapshot;
+
+    // Metrics of the successful loads, only recorded by the primary instance
+    @Nullable
+    private final LoaderMetrics mLoaderMetrics;
+
+    // Incremented every time the model might change, used to invalidate derived caches
+    private final AtomicInteger mModelGeneration = new AtomicInteger();
+
     // Runnable to check if the shortcuts permission has changed.
     @NonNull
     private final Runnable mDataValidationCheck = new Runnable() {
@@ -147,6 +163,9 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         mBgAllAppsList = new AllAppsList(iconCache, appFilter, AppLockHelper.getInstance(context));
         mModelDelegate = ModelDelegate.newInstance(context, app, mBgAllAppsList, mBgDataModel,
                 isPrimaryInstance);
+        mWorkspaceSnapshot = isPrimaryInstance
+                ? new WorkspaceSnapshot(app, this, mBgDataModel) : null;
+        mLoaderMetrics = isPrimaryInstance ? new LoaderMetrics(context) : null;
     }
 
     @NonNull
@@ -154,6 +173,43 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         return mModelDelegate;
     }
 
+    @Nullable
+    public WorkspaceSnapshot getWorkspaceSnapshot() {
+        return mWorkspaceSnapshot;
+    }
+
+    @Nullable
+    public LoaderMetrics getLoaderMetrics() {
+        return mLoaderMetrics;
+    }
+
+    /**
+     * Returns the search index of the widgets bound to the widget picker
+     */
+    @NonNull
+    public WidgetsSearchIndex getWidgetsSearchIndex() {
+        return mBgDataModel.widgetsModel.getSearchIndex();
+    }
+
+    /**
+     * Returns a number which changes every time the model or the workspace database might have
+     * changed.
+     */
+    public int getModelGeneration() {
+        return mModelGeneration.get();
+    }
+
+    /**
+     * Called after workspace items have been written to the database
+     */
+    @WorkerThread
+    public void onWorkspaceChanged() {
+        mModelGeneration.incrementAndGet();
+        if (mWorkspaceSnapshot != null) {
+            mWorkspaceSnapshot.onWorkspaceChanged();
+        }
+    }
+
     /**
      * Adds the provided items to the workspace.
      */
@@ -326,6 +382,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             stopLoader();
             mModelLoaded = false;
         }
+        mModelGeneration.incrementAndGet();
 
         // Start the loader if launcher is already running, otherwise the loader will run,
         // the next time launcher starts
@@ -585,6 +642,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             @NonNull final UserHandle user) {
         // If any package icon has changed (app was updated while launcher was dead),
         // update the corresponding shortcuts.
+        mApp.getIconCache().removeFromIconAtlas(updatedPackages, user);
         enqueueModelUpdateTask(new CacheDataUpdatedTask(
                 CacheDataUpdatedTask.OP_CACHE_UPDATE, user, updatedPackages));
     }
@@ -609,6 +667,7 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
             return;
         }
         task.init(mApp, this, mBgDataModel, mBgAllAppsList, MAIN_EXECUTOR);
+        mModelGeneration.incrementAndGet();
         MODEL_EXECUTOR.execute(task);
     }
 
@@ -686,6 +745,9 @@ public class LauncherModel extends LauncherApps.Callback implements InstallSessi
         }
         mModelDelegate.dump(prefix, fd, writer, args);
         mBgDataModel.dump(prefix, fd, writer, args);
+        if (mLoaderMetrics != null) {
+            mLoaderMetrics.dump(prefix, writer);
+        }
     }
 
     /**
@@ -61,6 +61,7 @@ import com.android.launcher3.LauncherSettings.Favorites;
 import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.logging.FileLog;
 import com.android.launcher3.model.DbDowngradeHelper;
+import com.android.launcher3.model.LoaderMetrics;
 import com.android.launcher3.pm.UserCache;
 import com.android.launcher3.provider.LauncherDbUtils;
 import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
@@ -495,6 +496,12 @@ public class LauncherProvider extends ContentProvider {
                 app.getModel().forceReload();
                 return null;
             }
+            case LauncherSettings.Settings.METHOD_GET_LOADER_METRICS: {
+                LauncherAppState app = LauncherAppState.getInstanceNoCreate();
+                LoaderMetrics metrics = app == null ? null : app.getModel().getLoaderMetrics();
+                // The metrics are persisted, read them directly when the model is not created
+                return (metrics != null ? metrics : new LoaderMetrics(getContext())).toBundle();
+            }
         }
         return null;
     }
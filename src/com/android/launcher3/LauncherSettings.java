@@ -416,6 +416,12 @@ public class LauncherSettings {
 
         public static final String METHOD_SWITCH_DATABASE = "switch_database";
 
+        /**
+         * Returns a summary of the loader metrics, as a bundle per metric
+         * @see com.android.launcher3.model.LoaderMetrics#toBundle
+         */
+        public static final String METHOD_GET_LOADER_METRICS = "get_loader_metrics";
+
         public static final String EXTRA_VALUE = "value";
 
         public static final String EXTRA_DB_NAME = "db_name";
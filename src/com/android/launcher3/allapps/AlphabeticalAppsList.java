@@ -15,25 +15,32 @@
  */
 package com.android.launcher3.allapps;
 
+import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
+import static com.android.launcher3.util.Executors.UI_HELPER_EXECUTOR;
+
 import android.content.Context;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.recyclerview.widget.DiffUtil;
 
 import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
 import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.LabelComparator;
 import com.android.launcher3.views.ActivityContext;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.TreeMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * The alphabetically sorted list of applications.
@@ -45,6 +52,10 @@ public class AlphabeticalAppsList<T extends Context & ActivityContext> implement
 
     public static final String TAG = "AlphabeticalAppsList";
 
+    // Minimum number of changed apps for which the previous order is updated in place, rather
+    // than sorting all the apps again
+    private static final int MIN_INCREMENTAL_SORT_CHANGES = 8;
+
     private final WorkProfileManager mWorkProviderManager;
 
     /**
@@ -66,8 +77,13 @@ public class AlphabeticalAppsList<T extends Context & ActivityContext> implement
 
     private final T mActivityContext;
 
-    // The set of apps from the system
-    private final List<AppInfo> mApps = new ArrayList<>();
+    // The sorted set of apps from the system, replaced as a whole on every update
+    private List<AppInfo> mApps = Collections.emptyList();
+    // The filter which was applied to mApps
+    @Nullable
+    private Predicate<ItemInfo> mAppsFilter;
+    // Incremented for every update of the apps, to discard the results of stale updates
+    private int mAppsGeneration;
     @Nullable
     private final AllAppsStore mAllAppsStore;
 
@@ -183,43 +199,176 @@ public class AlphabeticalAppsList<T extends Context & ActivityContext> implement
     }
 
     /**
-     * Updates internals when the set of apps are updated.
+     * Updates internals when the set of apps are updated. The apps are sorted and the adapter
+     * items are computed in the background, and applied on the main thread if no newer update
+     * was requested in the meantime.
      */
     @Override
     public void onAppsUpdated() {
         if (mAllAppsStore == null) {
             return;
         }
-        // Sort the list of apps
-        mApps.clear();
-
-        Stream<AppInfo> appSteam = Stream.of(mAllAppsStore.getApps());
-        if (!hasSearchResults() && mItemFilter != null) {
-            appSteam = appSteam.filter(mItemFilter);
-        }
-        appSteam = appSteam.sorted(mAppNameComparator);
+        final int generation = ++mAppsGeneration;
+        final AppInfo[] apps = mAllAppsStore.getApps();
+        final Predicate<ItemInfo> filter = hasSearchResults() ? null : mItemFilter;
 
         // As a special case for some languages (currently only Simplified Chinese), we may need to
         // coalesce sections
         Locale curLocale = mActivityContext.getResources().getConfiguration().locale;
-        boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
-        if (localeRequiresSectionSorting) {
-            // Compute the section headers. We use a TreeMap with the section name comparator to
-            // ensure that the sections are ordered when we iterate over it later
-            appSteam = appSteam.collect(Collectors.groupingBy(
-                    info -> info.sectionName,
-                    () -> new TreeMap<>(new LabelComparator()),
-                    Collectors.toCollection(ArrayList::new)))
-                    .values()
-                    .stream()
-                    .flatMap(ArrayList::stream);
+        final boolean localeRequiresSectionSorting = curLocale.equals(Locale.SIMPLIFIED_CHINESE);
+        // The previous order can only be reused if it was computed the same way
+        final List<AppInfo> previousApps = !localeRequiresSectionSorting && filter == mAppsFilter
+                ? mApps : null;
+
+        // Recompose the set of adapter items from the current set of apps, unless they are
+        // replaced by search results
+        final boolean updateItems = mSearchResults.isEmpty();
+        final ArrayList<AdapterItem> headerItems = new ArrayList<>();
+        final boolean addApps = addHeaderItems(headerItems);
+        final List<AdapterItem> oldItems = new ArrayList<>(mAdapterItems);
+        final boolean hasAdapter = mAdapter != null;
+
+        UI_HELPER_EXECUTOR.execute(() -> {
+            List<AppInfo> sortedApps = sortApps(apps, filter, mAppNameComparator, previousApps);
+            if (localeRequiresSectionSorting) {
+                // Compute the section headers. We use a TreeMap with the section name comparator
+                // to ensure that the sections are ordered when we iterate over it later
+                sortedApps = sortedApps.stream().collect(Collectors.groupingBy(
+                        info -> info.sectionName,
+                        () -> new TreeMap<>(new LabelComparator()),
+                        Collectors.toCollection(ArrayList::new)))
+                        .values()
+                        .stream()
+                        .flatMap(ArrayList::stream)
+                        .collect(Collectors.toList());
+            }
+
+            AdapterItems items = null;
+            DiffUtil.DiffResult diff = null;
+            if (updateItems) {
+                items = new AdapterItems(headerItems, addApps ? sortedApps : null,
+                        mNumAppsPerRowAllApps);
+                if (hasAdapter) {
+                    diff = DiffUtil.calculateDiff(new MyDiffCallback(oldItems, items.items), false);
+                }
+            }
+
+            final List<AppInfo> result = sortedApps;
+            final AdapterItems newItems = items;
+            final DiffUtil.DiffResult newDiff = diff;
+            MAIN_EXECUTOR.execute(() -> {
+                if (generation != mAppsGeneration) {
+                    // A newer update is already in progress
+                    return;
+                }
+                mApps = result;
+                mAppsFilter = filter;
+                if (!mSearchResults.isEmpty()) {
+                    return;
+                }
+                if (newItems != null && (!hasAdapter || mAdapter != null)
+                        && isSameItems(oldItems, mAdapterItems)) {
+                    applyAdapterItems(newItems, newDiff);
+                } else {
+                    // The adapter items changed while this update was computed
+                    updateAdapterItems();
+                }
+            });
+        });
+    }
+
+    /**
+     * Returns the {@param apps} matching the {@param filter}, sorted with the
+     * {@param comparator}. If {@param previousApps} is the sorted result of a previous call with
+     * the same filter and only a few apps changed since, the changed apps are inserted into the
+     * previous order instead of sorting all the apps again.
+     */
+    @VisibleForTesting
+    static List<AppInfo> sortApps(AppInfo[] apps, @Nullable Predicate<ItemInfo> filter,
+            Comparator<AppInfo> comparator, @Nullable List<AppInfo> previousApps) {
+        ArrayList<AppInfo> filteredApps = new ArrayList<>(apps.length);
+        for (AppInfo app : apps) {
+            if (filter == null || filter.test(app)) {
+                filteredApps.add(app);
+            }
+        }
+        if (previousApps != null) {
+            List<AppInfo> result = updateSortedApps(previousApps, filteredApps, comparator);
+            if (result != null) {
+                return result;
+            }
+        }
+        filteredApps.sort(comparator);
+        return filteredApps;
+    }
+
+    /**
+     * Returns {@param apps} sorted by updating the {@param previousApps} order, or null if too
+     * many apps changed for it to be worth it.
+     */
+    @Nullable
+    private static List<AppInfo> updateSortedApps(List<AppInfo> previousApps,
+            List<AppInfo> apps, Comparator<AppInfo> comparator) {
+        HashMap<ComponentKey, AppInfo> newApps = new HashMap<>(apps.size());
+        for (AppInfo app : apps) {
+            newApps.put(new ComponentKey(app.componentName, app.user), app);
+        }
+        if (newApps.size() != apps.size()) {
+            return null;
+        }
+
+        int maxChanges = Math.max(MIN_INCREMENTAL_SORT_CHANGES, apps.size() / 16);
+        int changes = 0;
+        ArrayList<AppInfo> result = new ArrayList<>(apps.size());
+        for (AppInfo previous : previousApps) {
+            ComponentKey key = new ComponentKey(previous.componentName, previous.user);
+            AppInfo app = newApps.get(key);
+            if (app == null || !getTitle(app).equals(getTitle(previous))) {
+                // The app was removed or its position can change, in which case it is inserted
+                // along with the new apps
+                if (++changes > maxChanges) {
+                    return null;
+                }
+                continue;
+            }
+            newApps.remove(key);
+            result.add(app);
+        }
+        if (newApps.size() > maxChanges) {
+            return null;
+        }
+        for (AppInfo app : newApps.values()) {
+            int index = Collections.binarySearch(result, app, comparator);
+            result.add(index < 0 ? -index - 1 : index, app);
         }
+        return result;
+    }
+
+    private static String getTitle(AppInfo app) {
+        return app.title == null ? "" : app.title.toString();
+    }
+
+    /**
+     * Adds the items shown before the apps, and returns whether the apps should be shown
+     */
+    private boolean addHeaderItems(ArrayList<AdapterItem> items) {
+        if (mWorkProviderManager != null) {
+            mWorkProviderManager.addWorkItems(items);
+            return mWorkProviderManager.shouldShowWorkApps();
+        }
+        return true;
+    }
 
-        appSteam.forEachOrdered(mApps::add);
-        // Recompose the set of adapter items from the current set of apps
-        if (mSearchResults.isEmpty()) {
-            updateAdapterItems();
+    private static boolean isSameItems(List<AdapterItem> a, List<AdapterItem> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
@@ -228,67 +377,91 @@ public class AlphabeticalAppsList<T extends Context & ActivityContext> implement
      */
     public void updateAdapterItems() {
         List<AdapterItem> oldItems = new ArrayList<>(mAdapterItems);
-        // Prepare to update the list of sections, filtered apps, etc.
-        mFastScrollerSections.clear();
-        mAdapterItems.clear();
-        mAccessibilityResultsCount = 0;
-
+        AdapterItems items;
         // Recreate the filtered and sectioned apps (for convenience for the grid layout) from the
         // ordered set of sections
         if (hasSearchResults()) {
-            mAdapterItems.addAll(mSearchResults);
+            items = new AdapterItems(mSearchResults, null, mNumAppsPerRowAllApps);
         } else {
-            int position = 0;
-            boolean addApps = true;
-            if (mWorkProviderManager != null) {
-                position += mWorkProviderManager.addWorkItems(mAdapterItems);
-                addApps = mWorkProviderManager.shouldShowWorkApps();
-            }
-            if (addApps) {
+            ArrayList<AdapterItem> headerItems = new ArrayList<>();
+            boolean addApps = addHeaderItems(headerItems);
+            items = new AdapterItems(headerItems, addApps ? mApps : null, mNumAppsPerRowAllApps);
+        }
+        applyAdapterItems(items, mAdapter == null ? null
+                : DiffUtil.calculateDiff(new MyDiffCallback(oldItems, items.items), false));
+    }
+
+    private void applyAdapterItems(AdapterItems items, @Nullable DiffUtil.DiffResult diff) {
+        mAdapterItems.clear();
+        mAdapterItems.addAll(items.items);
+        mFastScrollerSections.clear();
+        mFastScrollerSections.addAll(items.sections);
+        mAccessibilityResultsCount = items.accessibilityResultsCount;
+        if (mNumAppsPerRowAllApps != 0) {
+            mNumAppRowsInAdapter = items.numAppRows;
+        }
+
+        if (mAdapter != null && diff != null) {
+            diff.dispatchUpdatesTo(mAdapter);
+        }
+    }
+
+    /**
+     * Adapter items for a set of apps, along with the derived sections and row info. This can be
+     * computed on any thread.
+     */
+    @VisibleForTesting
+    static class AdapterItems {
+
+        final ArrayList<AdapterItem> items = new ArrayList<>();
+        final ArrayList<FastScrollSectionInfo> sections = new ArrayList<>();
+        final int accessibilityResultsCount;
+        int numAppRows;
+
+        AdapterItems(List<AdapterItem> headerItems, @Nullable List<AppInfo> apps,
+                int numAppsPerRow) {
+            items.addAll(headerItems);
+            if (apps != null) {
+                int position = items.size();
                 String lastSectionName = null;
-                for (AppInfo info : mApps) {
-                    mAdapterItems.add(AdapterItem.asApp(info));
+                for (AppInfo info : apps) {
+                    items.add(AdapterItem.asApp(info));
 
                     String sectionName = info.sectionName;
                     // Create a new section if the section names do not match
                     if (!sectionName.equals(lastSectionName)) {
                         lastSectionName = sectionName;
-                        mFastScrollerSections.add(new FastScrollSectionInfo(sectionName, position));
+                        sections.add(new FastScrollSectionInfo(sectionName, position));
                     }
                     position++;
                 }
             }
-        }
-        mAccessibilityResultsCount = (int) mAdapterItems.stream()
-                .filter(AdapterItem::isCountedForAccessibility).count();
-
-        if (mNumAppsPerRowAllApps != 0) {
-            // Update the number of rows in the adapter after we do all the merging (otherwise, we
-            // would have to shift the values again)
-            int numAppsInSection = 0;
-            int numAppsInRow = 0;
-            int rowIndex = -1;
-            for (AdapterItem item : mAdapterItems) {
-                item.rowIndex = 0;
-                if (BaseAllAppsAdapter.isDividerViewType(item.viewType)) {
-                    numAppsInSection = 0;
-                } else if (BaseAllAppsAdapter.isIconViewType(item.viewType)) {
-                    if (numAppsInSection % mNumAppsPerRowAllApps == 0) {
-                        numAppsInRow = 0;
-                        rowIndex++;
+            accessibilityResultsCount = (int) items.stream()
+                    .filter(AdapterItem::isCountedForAccessibility).count();
+
+            if (numAppsPerRow != 0) {
+                // Update the number of rows in the adapter after we do all the merging
+                // (otherwise, we would have to shift the values again)
+                int numAppsInSection = 0;
+                int numAppsInRow = 0;
+                int rowIndex = -1;
+                for (AdapterItem item : items) {
+                    item.rowIndex = 0;
+                    if (BaseAllAppsAdapter.isDividerViewType(item.viewType)) {
+                        numAppsInSection = 0;
+                    } else if (BaseAllAppsAdapter.isIconViewType(item.viewType)) {
+                        if (numAppsInSection % numAppsPerRow == 0) {
+                            numAppsInRow = 0;
+                            rowIndex++;
+                        }
+                        item.rowIndex = rowIndex;
+                        item.rowAppIndex = numAppsInRow;
+                        numAppsInSection++;
+                        numAppsInRow++;
                     }
-                    item.rowIndex = rowIndex;
-                    item.rowAppIndex = numAppsInRow;
-                    numAppsInSection++;
-                    numAppsInRow++;
                 }
+                numAppRows = rowIndex + 1;
             }
-            mNumAppRowsInAdapter = rowIndex + 1;
-        }
-
-        if (mAdapter != null) {
-            DiffUtil.calculateDiff(new MyDiffCallback(oldItems, mAdapterItems), false)
-                    .dispatchUpdatesTo(mAdapter);
         }
     }
 
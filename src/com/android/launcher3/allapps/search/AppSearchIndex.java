@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import static com.android.launcher3.search.StringMatcherUtility.StringMatcher.NO_PRIMARY_ORDER;
+import static com.android.launcher3.search.StringMatcherUtility.getMatchStartPositions;
+import static com.android.launcher3.search.StringMatcherUtility.matches;
+import static com.android.launcher3.search.StringMatcherUtility.requestSimpleFuzzySearch;
+
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+import com.android.launcher3.util.IntArray;
+
+import java.util.List;
+
+/**
+ * Precomputed search data for a snapshot of all apps, so that each keystroke does not need to
+ * recompute the word breaks of every title.
+ *
+ * Every title is indexed by the primary collation order of the first character of each of its
+ * words. A query then only needs to be compared against the apps sharing the primary order of
+ * its first character. The index is not thread safe and is expected to be built and queried on
+ * the model thread.
+ */
+@WorkerThread
+public class AppSearchIndex {
+
+    private final int mGeneration;
+    private final StringMatcher mMatcher;
+
+    private final AppInfo[] mApps;
+    private final String[] mTitles;
+    private final IntArray[] mMatchStarts;
+
+    // Sorted indices of the apps, keyed on the primary order of the start of their words
+    private final SparseArray<IntArray> mAppsByPrimaryOrder = new SparseArray<>();
+    // Sorted indices of the apps having a word starting with an ignorable character
+    private final IntArray mUnorderedApps = new IntArray();
+
+    public AppSearchIndex(List<AppInfo> apps, int generation, StringMatcher matcher) {
+        mGeneration = generation;
+        mMatcher = matcher;
+
+        int count = apps.size();
+        mApps = apps.toArray(new AppInfo[count]);
+        mTitles = new String[count];
+        mMatchStarts = new IntArray[count];
+
+        for (int i = 0; i < count; i++) {
+            CharSequence title = mApps[i].title;
+            String target = title == null ? "" : title.toString();
+            IntArray starts = getMatchStartPositions(target, matcher);
+            mTitles[i] = target;
+            mMatchStarts[i] = starts;
+
+            for (int j = 0; j < starts.size(); j++) {
+                int order = matcher.getPrimaryOrder(target, starts.get(j));
+                IntArray bucket;
+                if (order == NO_PRIMARY_ORDER) {
+                    bucket = mUnorderedApps;
+                } else {
+                    bucket = mAppsByPrimaryOrder.get(order);
+                    if (bucket == null) {
+                        bucket = new IntArray();
+                        mAppsByPrimaryOrder.put(order, bucket);
+                    }
+                }
+                // Apps are added in order, so only the last entry can be a duplicate
+                if (bucket.isEmpty() || bucket.get(bucket.size() - 1) != i) {
+                    bucket.add(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link com.android.launcher3.model.AllAppsList} generation this index was
+     * built for.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public AppInfo getApp(int index) {
+        return mApps[index];
+    }
+
+    /**
+     * Returns the indices of apps matching the {@param query}, in the order of the original list.
+     *
+     * @param candidates if not null, only these indices are considered. This can be the result of
+     *                   a previous query which is a prefix of {@param query}.
+     */
+    public IntArray query(String query, @Nullable IntArray candidates) {
+        if (candidates == null && !query.isEmpty() && !requestSimpleFuzzySearch(query)) {
+            int order = mMatcher.getPrimaryOrder(query, 0);
+            if (order != NO_PRIMARY_ORDER) {
+                candidates = union(mAppsByPrimaryOrder.get(order), mUnorderedApps);
+            }
+        }
+
+        IntArray result = new IntArray();
+        if (candidates == null) {
+            for (int i = 0; i < mApps.length; i++) {
+                if (matches(query, mTitles[i], mMatchStarts[i], mMatcher)) {
+                    result.add(i);
+                }
+            }
+        } else {
+            for (int j = 0; j < candidates.size(); j++) {
+                int i = candidates.get(j);
+                if (matches(query, mTitles[i], mMatchStarts[i], mMatcher)) {
+                    result.add(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Merges two sorted arrays, either of which can be null
+     */
+    private static IntArray union(@Nullable IntArray a, IntArray b) {
+        if (a == null) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        IntArray result = new IntArray(a.size() + b.size());
+        int i = 0, j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j >= b.size() || (i < a.size() && a.get(i) < b.get(j))) {
+                result.add(a.get(i++));
+            } else if (i >= a.size() || b.get(j) < a.get(i)) {
+                result.add(b.get(j++));
+            } else {
+                result.add(a.get(i++));
+                j++;
+            }
+        }
+        return result;
+    }
+}
@@ -23,6 +23,7 @@ import android.os.Handler;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
@@ -33,6 +34,7 @@ import com.android.launcher3.model.data.AppInfo;
 import com.android.launcher3.search.SearchAlgorithm;
 import com.android.launcher3.search.SearchCallback;
 import com.android.launcher3.search.StringMatcherUtility;
+import com.android.launcher3.util.IntArray;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -46,6 +48,11 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
     private final Handler mResultHandler;
     private final boolean mAddNoResultsMessage;
 
+    // Following fields are only accessed on the model thread
+    private AppSearchIndex mSearchIndex;
+    private String mLastQuery;
+    private IntArray mLastMatches;
+
     public DefaultAppSearchAlgorithm(Context context) {
         this(context, false);
     }
@@ -69,7 +76,7 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
             @Override
             public void execute(@NonNull final LauncherAppState app,
                     @NonNull final BgDataModel dataModel, @NonNull final AllAppsList apps) {
-                ArrayList<AdapterItem> result = getTitleMatchResult(apps.data, query);
+                ArrayList<AdapterItem> result = getIndexedTitleMatchResult(apps, query);
                 if (mAddNoResultsMessage && result.isEmpty()) {
                     result.add(getEmptyMessageAdapterItem(query));
                 }
@@ -78,6 +85,38 @@ public class DefaultAppSearchAlgorithm implements SearchAlgorithm<AdapterItem> {
         });
     }
 
+    /**
+     * Same as {@link #getTitleMatchResult}, but uses a search index which is rebuilt only when
+     * {@param apps} changes. When the query extends the previous query, only the previous results
+     * are filtered.
+     */
+    @WorkerThread
+    private ArrayList<AdapterItem> getIndexedTitleMatchResult(AllAppsList apps, String query) {
+        final String queryTextLower = query.toLowerCase();
+        if (mSearchIndex == null || mSearchIndex.getGeneration() != apps.getGeneration()) {
+            mSearchIndex = new AppSearchIndex(apps.data, apps.getGeneration(),
+                    StringMatcherUtility.StringMatcher.getInstance());
+            mLastQuery = null;
+            mLastMatches = null;
+        }
+
+        IntArray candidates = null;
+        if (mLastQuery != null && !mLastQuery.isEmpty() && queryTextLower.startsWith(mLastQuery)
+                && StringMatcherUtility.requestSimpleFuzzySearch(queryTextLower)
+                == StringMatcherUtility.requestSimpleFuzzySearch(mLastQuery)) {
+            candidates = mLastMatches;
+        }
+        IntArray matches = mSearchIndex.query(queryTextLower, candidates);
+        mLastQuery = queryTextLower;
+        mLastMatches = matches;
+
+        final ArrayList<AdapterItem> result = new ArrayList<>(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            result.add(AdapterItem.asApp(mSearchIndex.getApp(matches.get(i))));
+        }
+        return result;
+    }
+
     private static AdapterItem getEmptyMessageAdapterItem(String query) {
         AdapterItem item = new AdapterItem(VIEW_TYPE_EMPTY_SEARCH);
         // Add a place holder info to propagate the query
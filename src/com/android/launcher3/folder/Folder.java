@@ -38,6 +38,7 @@ import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
+import android.os.Looper;
 import android.text.InputType;
 import android.text.Selection;
 import android.text.TextUtils;
@@ -47,7 +48,6 @@ import android.util.Pair;
 import android.util.TypedValue;
 import android.view.FocusFinder;
 import android.view.KeyEvent;
-import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewDebug;
@@ -163,10 +163,10 @@ public class Folder extends AbstractFloatingView implements ClipPathView, DragSo
     private static final Rect sTempRect = new Rect();
     private static final int MIN_FOLDERS_FOR_HARDWARE_OPTIMIZATION = 10;
 
-    private final Alarm mReorderAlarm = new Alarm();
-    private final Alarm mOnExitAlarm = new Alarm();
-    private final Alarm mOnScrollHintAlarm = new Alarm();
-    final Alarm mScrollPauseAlarm = new Alarm();
+    private final Alarm mReorderAlarm = new Alarm(Looper.getMainLooper());
+    private final Alarm mOnExitAlarm = new Alarm(Looper.getMainLooper());
+    private final Alarm mOnScrollHintAlarm = new Alarm(Looper.getMainLooper());
+    final Alarm mScrollPauseAlarm = new Alarm(Looper.getMainLooper());
 
     final ArrayList<View> mItemsInReadingOrder = new ArrayList<View>();
 
@@ -554,8 +554,8 @@ public class Folder extends AbstractFloatingView implements ClipPathView, DragSo
      */
     @SuppressLint("InflateParams")
     static <T extends Context & ActivityContext> Folder fromXml(T activityContext) {
-        return (Folder) LayoutInflater.from(activityContext).cloneInContext(activityContext)
-                .inflate(R.layout.user_folder_icon_normalized, null);
+        return activityContext.getViewCache().getView(
+                R.layout.user_folder_icon_normalized, activityContext, null);
     }
 
     private void startAnimation(final AnimatorSet a) {
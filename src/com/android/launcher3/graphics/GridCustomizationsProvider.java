@@ -72,8 +72,11 @@ public class GridCustomizationsProvider extends ContentProvider {
 
     private final ArrayMap<IBinder, PreviewLifecycleObserver> mActivePreviews = new ArrayMap<>();
 
+    private PreviewCache mPreviewCache;
+
     @Override
     public boolean onCreate() {
+        mPreviewCache = new PreviewCache(getContext());
         return true;
     }
 
@@ -174,7 +177,8 @@ public class GridCustomizationsProvider extends ContentProvider {
     private synchronized Bundle getPreview(Bundle request) {
         PreviewLifecycleObserver observer = null;
         try {
-            PreviewSurfaceRenderer renderer = new PreviewSurfaceRenderer(getContext(), request);
+            PreviewSurfaceRenderer renderer = new PreviewSurfaceRenderer(
+                    getContext(), mPreviewCache, request);
 
             // Destroy previous
             destroyObserver(mActivePreviews.get(renderer.getHostToken()));
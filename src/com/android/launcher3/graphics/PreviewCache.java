@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import android.app.WallpaperColors;
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Size;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.UiThread;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.DeviceProfile;
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.InvariantDeviceProfile.GridOption;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherSettings;
+import com.android.launcher3.Workspace;
+import com.android.launcher3.graphics.LauncherPreviewRenderer.PreviewContext;
+import com.android.launcher3.model.BgDataModel;
+import com.android.launcher3.model.GridSizeMigrationUtil;
+import com.android.launcher3.model.LoaderTask;
+import com.android.launcher3.util.ComponentKey;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+
+/**
+ * Cache of the grid previews shown by {@link GridCustomizationsProvider}.
+ *
+ * It keeps the models loaded for the grids other than the current one, so that switching back
+ * and forth between grid options does not migrate and load the workspace again, and the last
+ * rendered previews, which are shown while a preview is rendered again. Both are keyed on the
+ * model generation, so that entries become unused as soon as the workspace changes, and are
+ * evicted as new ones are added.
+ */
+class PreviewCache {
+
+    private static final String TAG = "PreviewCache";
+
+    private static final int MAX_MODEL_COUNT = 3;
+    private static final int MAX_BITMAP_BYTES = 16 * 1024 * 1024;
+
+    // Delay before prewarming the adjacent grids, so that going through the grid options only
+    // prewarms around the one the user stops at
+    private static final long PREWARM_DELAY_MS = 1000;
+
+    // Models of the non-current grids, only accessed on the model thread
+    private final LinkedHashMap<String, LoadedModel> mModels =
+            new LinkedHashMap<String, LoadedModel>(MAX_MODEL_COUNT, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, LoadedModel> eldest) {
+                    return size() > MAX_MODEL_COUNT;
+                }
+            };
+
+    private final LruCache<RenderKey, Bitmap> mBitmaps =
+            new LruCache<RenderKey, Bitmap>(MAX_BITMAP_BYTES) {
+                @Override
+                protected int sizeOf(RenderKey key, Bitmap value) {
+                    return value.getByteCount();
+                }
+            };
+
+    private final Context mContext;
+    private final IntSupplier mModelGeneration;
+    private final Function<InvariantDeviceProfile, LoadedModel> mModelLoader;
+
+    @Nullable
+    private Runnable mPendingPrewarm;
+
+    PreviewCache(Context context) {
+        mContext = context;
+        mModelGeneration = () ->
+                LauncherAppState.getInstance(mContext).getModel().getModelGeneration();
+        mModelLoader = this::loadModel;
+    }
+
+    @VisibleForTesting
+    PreviewCache(Context context, IntSupplier modelGeneration,
+            Function<InvariantDeviceProfile, LoadedModel> modelLoader) {
+        mContext = context;
+        mModelGeneration = modelGeneration;
+        mModelLoader = modelLoader;
+    }
+
+    /**
+     * Returns the current generation of the launcher model
+     */
+    int getModelGeneration() {
+        return mModelGeneration.getAsInt();
+    }
+
+    /**
+     * Returns the model of a grid which is not the current grid, migrating and loading it if it
+     * is not cached, or null if the migration failed.
+     */
+    @WorkerThread
+    @Nullable
+    LoadedModel getOrLoadModel(InvariantDeviceProfile idp, String gridName) {
+        String key = getModelKey(gridName);
+        LoadedModel model = mModels.get(key);
+        if (model == null) {
+            model = mModelLoader.apply(idp);
+            if (model != null) {
+                mModels.put(key, model);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Migrates and loads the models of the grid options next to {@param gridName} in the
+     * background, one at a time so that other model tasks can run in between. Requests made
+     * in quick succession only prewarm around the last grid.
+     */
+    @UiThread
+    void prewarmAdjacentGrids(String gridName) {
+        Handler handler = MODEL_EXECUTOR.getHandler();
+        if (mPendingPrewarm != null) {
+            handler.removeCallbacks(mPendingPrewarm);
+        }
+        mPendingPrewarm = () -> {
+            List<GridOption> options = InvariantDeviceProfile.INSTANCE.get(mContext)
+                    .parseAllGridOptions(mContext);
+            for (int i = 0; i < options.size(); i++) {
+                if (!options.get(i).name.equals(gridName)) {
+                    continue;
+                }
+                if (i + 1 < options.size()) {
+                    String next = options.get(i + 1).name;
+                    MODEL_EXECUTOR.execute(() -> prewarmGrid(next));
+                }
+                if (i > 0) {
+                    String previous = options.get(i - 1).name;
+                    MODEL_EXECUTOR.execute(() -> prewarmGrid(previous));
+                }
+                return;
+            }
+        };
+        handler.postDelayed(mPendingPrewarm, PREWARM_DELAY_MS);
+    }
+
+    @WorkerThread
+    private void prewarmGrid(String gridName) {
+        if (mModels.containsKey(getModelKey(gridName))) {
+            return;
+        }
+        try {
+            InvariantDeviceProfile idp = new InvariantDeviceProfile(mContext, gridName);
+            if (GridSizeMigrationUtil.needsToMigrate(mContext, idp)) {
+                getOrLoadModel(idp, gridName);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to prewarm grid " + gridName, e);
+        }
+    }
+
+    @WorkerThread
+    @Nullable
+    private LoadedModel loadModel(InvariantDeviceProfile idp) {
+        if (!GridSizeMigrationUtil.migrateGridIfNeeded(mContext, idp)) {
+            return null;
+        }
+
+        PreviewContext previewContext = new PreviewContext(mContext, idp);
+        LoadedModel result = new LoadedModel();
+        new LoaderTask(
+                LauncherAppState.getInstance(previewContext),
+                /* bgAllAppsList= */ null,
+                result.dataModel,
+                LauncherAppState.getInstance(previewContext).getModel().getModelDelegate(),
+                /* results= */ null) {
+
+            @Override
+            public void run() {
+                DeviceProfile deviceProfile = idp.getDeviceProfile(previewContext);
+                String query =
+                        LauncherSettings.Favorites.SCREEN + " = " + Workspace.FIRST_SCREEN_ID
+                                + " or " + LauncherSettings.Favorites.CONTAINER + " = "
+                                + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+                if (deviceProfile.isTwoPanels) {
+                    query += " or " + LauncherSettings.Favorites.SCREEN + " = "
+                            + Workspace.SECOND_SCREEN_ID;
+                }
+                loadWorkspace(new ArrayList<>(), LauncherSettings.Favorites.PREVIEW_CONTENT_URI,
+                        query);
+                result.widgetProviders = mWidgetProvidersMap;
+            }
+        }.run();
+        result.widgetSpanInfo =
+                PreviewSurfaceRenderer.getLoadedLauncherWidgetInfo(previewContext.getBaseContext());
+        previewContext.onDestroy();
+        return result;
+    }
+
+    private String getModelKey(String gridName) {
+        return gridName + "/" + InvariantDeviceProfile.getCurrentGridName(mContext)
+                + "/" + getModelGeneration();
+    }
+
+    @Nullable
+    Bitmap getBitmap(RenderKey key) {
+        return mBitmaps.get(key);
+    }
+
+    void putBitmap(RenderKey key, Bitmap bitmap) {
+        mBitmaps.put(key, bitmap);
+    }
+
+    /**
+     * Workspace loaded for a grid preview
+     */
+    static class LoadedModel {
+        final BgDataModel dataModel = new BgDataModel();
+        Map<ComponentKey, AppWidgetProviderInfo> widgetProviders;
+        @Nullable
+        SparseArray<Size> widgetSpanInfo;
+    }
+
+    /**
+     * Everything a rendered preview depends on
+     */
+    static class RenderKey {
+        private final String mGridName;
+        private final int mModelGeneration;
+        private final int mDisplayId;
+        private final int mWidth;
+        private final int mHeight;
+        @Nullable
+        private final WallpaperColors mWallpaperColors;
+        private final boolean mHideBottomRow;
+        private final boolean mThemedIcons;
+
+        RenderKey(String gridName, int modelGeneration, int displayId, int width, int height,
+                @Nullable WallpaperColors wallpaperColors, boolean hideBottomRow,
+                boolean themedIcons) {
+            mGridName = gridName;
+            mModelGeneration = modelGeneration;
+            mDisplayId = displayId;
+            mWidth = width;
+            mHeight = height;
+            mWallpaperColors = wallpaperColors;
+            mHideBottomRow = hideBottomRow;
+            mThemedIcons = themedIcons;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RenderKey)) {
+                return false;
+            }
+            RenderKey other = (RenderKey) o;
+            return mGridName.equals(other.mGridName)
+                    && mModelGeneration == other.mModelGeneration
+                    && mDisplayId == other.mDisplayId
+                    && mWidth == other.mWidth
+                    && mHeight == other.mHeight
+                    && Objects.equals(mWallpaperColors, other.mWallpaperColors)
+                    && mHideBottomRow == other.mHideBottomRow
+                    && mThemedIcons == other.mThemedIcons;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mGridName, mModelGeneration, mDisplayId, mWidth, mHeight,
+                    mWallpaperColors, mHideBottomRow, mThemedIcons);
+        }
+    }
+}
@@ -23,6 +23,7 @@ import android.app.WallpaperColors;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.Context;
 import android.database.Cursor;
+import android.graphics.Bitmap;
 import android.hardware.display.DisplayManager;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -36,28 +37,28 @@ import android.view.SurfaceControlViewHost.SurfacePackage;
 import android.view.View;
 import android.view.WindowManager.LayoutParams;
 import android.view.animation.AccelerateDecelerateInterpolator;
+import android.widget.ImageView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 import androidx.annotation.WorkerThread;
 
-import com.android.launcher3.DeviceProfile;
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherSettings;
 import com.android.launcher3.Utilities;
-import com.android.launcher3.Workspace;
 import com.android.launcher3.graphics.LauncherPreviewRenderer.PreviewContext;
+import com.android.launcher3.graphics.PreviewCache.LoadedModel;
+import com.android.launcher3.graphics.PreviewCache.RenderKey;
+import com.android.launcher3.icons.BitmapRenderer;
 import com.android.launcher3.model.BgDataModel;
 import com.android.launcher3.model.GridSizeMigrationUtil;
-import com.android.launcher3.model.LoaderTask;
 import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.RunnableList;
 import com.android.launcher3.util.Themes;
 import com.android.launcher3.widget.LocalColorExtractor;
 
-import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -76,6 +77,8 @@ public class PreviewSurfaceRenderer {
     private static final String KEY_COLORS = "wallpaper_colors";
 
     private final Context mContext;
+    private final PreviewCache mCache;
+    private final String mGridName;
     private final InvariantDeviceProfile mIdp;
     private final IBinder mHostToken;
     private final int mWidth;
@@ -89,9 +92,12 @@ public class PreviewSurfaceRenderer {
     private boolean mDestroyed = false;
     private LauncherPreviewRenderer mRenderer;
     private boolean mHideQsb;
+    private boolean mShowingCachedPreview;
 
-    public PreviewSurfaceRenderer(Context context, Bundle bundle) throws Exception {
+    public PreviewSurfaceRenderer(Context context, PreviewCache cache, Bundle bundle)
+            throws Exception {
         mContext = context;
+        mCache = cache;
 
         String gridName = bundle.getString("name");
         bundle.remove("name");
@@ -100,6 +106,7 @@ public class PreviewSurfaceRenderer {
         }
         mWallpaperColors = bundle.getParcelable(KEY_COLORS);
         mHideQsb = bundle.getBoolean(GridCustomizationsProvider.KEY_HIDE_BOTTOM_ROW);
+        mGridName = gridName;
         mIdp = new InvariantDeviceProfile(context, gridName);
 
         mHostToken = bundle.getBinder(KEY_HOST_TOKEN);
@@ -139,7 +146,7 @@ public class PreviewSurfaceRenderer {
      */
     @WorkerThread
     @Nullable
-    public SparseArray<Size> getLoadedLauncherWidgetInfo(
+    public static SparseArray<Size> getLoadedLauncherWidgetInfo(
             @NonNull final Context context) {
         final SparseArray<Size> widgetInfo = new SparseArray<>();
         final String query = LauncherSettings.Favorites.ITEM_TYPE + " = "
@@ -171,9 +178,14 @@ public class PreviewSurfaceRenderer {
     }
 
     /**
-     * Generates the preview in background
+     * Generates the preview in background. If the same preview was rendered before, it is shown
+     * right away until the new one is ready.
      */
     public void loadAsync() {
+        Bitmap cachedPreview = mCache.getBitmap(newRenderKey(mCache.getModelGeneration()));
+        if (cachedPreview != null) {
+            MAIN_EXECUTOR.execute(() -> showCachedPreview(cachedPreview));
+        }
         MODEL_EXECUTOR.execute(this::loadModelData);
     }
 
@@ -190,7 +202,9 @@ public class PreviewSurfaceRenderer {
 
     @WorkerThread
     private void loadModelData() {
-        final boolean migrated = doGridMigrationIfNecessary();
+        final LoadedModel migratedModel = GridSizeMigrationUtil.needsToMigrate(mContext, mIdp)
+                ? mCache.getOrLoadModel(mIdp, mGridName) : null;
+        final RenderKey renderKey = newRenderKey(mCache.getModelGeneration());
 
         final Context inflationContext;
         if (mWallpaperColors != null) {
@@ -209,43 +223,20 @@ public class PreviewSurfaceRenderer {
                     Themes.getActivityThemeRes(mContext));
         }
 
-        if (migrated) {
+        if (migratedModel != null) {
             PreviewContext previewContext = new PreviewContext(inflationContext, mIdp);
-            new LoaderTask(
-                    LauncherAppState.getInstance(previewContext),
-                    /* bgAllAppsList= */ null,
-                    new BgDataModel(),
-                    LauncherAppState.getInstance(previewContext).getModel().getModelDelegate(),
-                    /* results= */ null) {
-
-                @Override
-                public void run() {
-                    DeviceProfile deviceProfile = mIdp.getDeviceProfile(previewContext);
-                    String query =
-                            LauncherSettings.Favorites.SCREEN + " = " + Workspace.FIRST_SCREEN_ID
-                                    + " or " + LauncherSettings.Favorites.CONTAINER + " = "
-                                    + LauncherSettings.Favorites.CONTAINER_HOTSEAT;
-                    if (deviceProfile.isTwoPanels) {
-                        query += " or " + LauncherSettings.Favorites.SCREEN + " = "
-                                + Workspace.SECOND_SCREEN_ID;
-                    }
-                    loadWorkspace(new ArrayList<>(), LauncherSettings.Favorites.PREVIEW_CONTENT_URI,
-                            query);
-
-                    final SparseArray<Size> spanInfo =
-                            getLoadedLauncherWidgetInfo(previewContext.getBaseContext());
-
-                    MAIN_EXECUTOR.execute(() -> {
-                        renderView(previewContext, mBgDataModel, mWidgetProvidersMap, spanInfo);
-                        mOnDestroyCallbacks.add(previewContext::onDestroy);
-                    });
-                }
-            }.run();
+            MAIN_EXECUTOR.execute(() -> {
+                renderView(previewContext, migratedModel.dataModel,
+                        migratedModel.widgetProviders, migratedModel.widgetSpanInfo, renderKey);
+                mOnDestroyCallbacks.add(previewContext::onDestroy);
+                // The user is going through the other grid options, prepare the next ones
+                mCache.prewarmAdjacentGrids(mGridName);
+            });
         } else {
             LauncherAppState.getInstance(inflationContext).getModel().loadAsync(dataModel -> {
                 if (dataModel != null) {
                     MAIN_EXECUTOR.execute(() -> renderView(inflationContext, dataModel, null,
-                            null));
+                            null, renderKey));
                 } else {
                     Log.e(TAG, "Model loading failed");
                 }
@@ -253,18 +244,26 @@ public class PreviewSurfaceRenderer {
         }
     }
 
-    @WorkerThread
-    private boolean doGridMigrationIfNecessary() {
-        if (!GridSizeMigrationUtil.needsToMigrate(mContext, mIdp)) {
-            return false;
+    private RenderKey newRenderKey(int modelGeneration) {
+        return new RenderKey(mGridName, modelGeneration, mDisplay.getDisplayId(), mWidth,
+                mHeight, mWallpaperColors, mHideQsb, Themes.isThemedIconEnabled(mContext));
+    }
+
+    @UiThread
+    private void showCachedPreview(Bitmap preview) {
+        if (mDestroyed || mRenderer != null) {
+            return;
         }
-        return GridSizeMigrationUtil.migrateGridIfNeeded(mContext, mIdp);
+        ImageView view = new ImageView(mContext);
+        view.setImageBitmap(preview);
+        mShowingCachedPreview = true;
+        mSurfaceControlViewHost.setView(view, mWidth, mHeight);
     }
 
     @UiThread
     private void renderView(Context inflationContext, BgDataModel dataModel,
             Map<ComponentKey, AppWidgetProviderInfo> widgetProviderInfoMap,
-            @Nullable final SparseArray<Size> launcherWidgetSpanInfo) {
+            @Nullable final SparseArray<Size> launcherWidgetSpanInfo, RenderKey renderKey) {
         if (mDestroyed) {
             return;
         }
@@ -281,11 +280,21 @@ public class PreviewSurfaceRenderer {
         view.setPivotY(0);
         view.setTranslationX((mWidth - scale * view.getWidth()) / 2);
         view.setTranslationY((mHeight - scale * view.getHeight()) / 2);
-        view.setAlpha(0);
-        view.animate().alpha(1)
-                .setInterpolator(new AccelerateDecelerateInterpolator())
-                .setDuration(FADE_IN_ANIMATION_DURATION)
-                .start();
+        if (!mShowingCachedPreview) {
+            view.setAlpha(0);
+            view.animate().alpha(1)
+                    .setInterpolator(new AccelerateDecelerateInterpolator())
+                    .setDuration(FADE_IN_ANIMATION_DURATION)
+                    .start();
+        }
         mSurfaceControlViewHost.setView(view, view.getMeasuredWidth(), view.getMeasuredHeight());
+
+        // Keep a copy of the preview to show it right away the next time. Drawing the view
+        // directly ignores its alpha.
+        mCache.putBitmap(renderKey, BitmapRenderer.createHardwareBitmap(mWidth, mHeight, c -> {
+            c.translate(view.getTranslationX(), view.getTranslationY());
+            c.scale(scale, scale);
+            view.draw(c);
+        }));
     }
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file of decoded icons, used to load the icons of the first screen without querying
+ * the icon db and decoding the icons, and the icons of recent tasks without rendering them again.
+ *
+ * The file is memory mapped when the first icon is requested, and the pixels of an icon are
+ * copied into its bitmap right from the mapped buffer. Icons are indexed by component, user and
+ * icon system state of their package. Updated icons are appended, and the file is rewritten with
+ * only the icons in use once most of it is unused.
+ */
+public class IconAtlas {
+
+    private static final String TAG = "IconAtlas";
+
+    private static final int MAGIC = 0x49434154; // ICAT
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private static final byte RECORD_ICON = 1;
+    private static final byte RECORD_REMOVE_PACKAGE = 2;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final File mFile;
+    private int mIconBitmapSize;
+
+    // Index of the icons in the file, loaded lazily and reset after every write
+    @Nullable
+    private HashMap<String, Slot> mSlots;
+    @Nullable
+    private MappedByteBuffer mBuffer;
+    // Length of the valid part of the file, which can end with a partially written record
+    private long mValidLength;
+
+    public IconAtlas(File file, int iconBitmapSize) {
+        mFile = file;
+        mIconBitmapSize = iconBitmapSize;
+    }
+
+    /**
+     * Returns the icon of {@param component} if it is in the atlas and was saved with the same
+     * icon system state, or null otherwise.
+     */
+    @WorkerThread
+    @Nullable
+    public synchronized Icon getIcon(ComponentName component, long userSerial,
+            String systemState) {
+        ensureLoaded();
+        Slot slot = mSlots.get(getKey(component, userSerial));
+        if (slot == null || !slot.systemState.equals(systemState) || mBuffer == null) {
+            return null;
+        }
+        ByteBuffer pixels = mBuffer.duplicate();
+        pixels.position(slot.pixelsOffset);
+        pixels.limit(slot.pixelsOffset + slot.width * slot.height * BYTES_PER_PIXEL);
+        Bitmap bitmap = Bitmap.createBitmap(slot.width, slot.height, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(pixels);
+        return new Icon(slot.title, slot.contentDescription, BitmapInfo.of(bitmap, slot.color));
+    }
+
+    /**
+     * Saves the icons which are not in the atlas yet. If most of the file would be unused, it is
+     * rewritten with only {@param records}.
+     */
+    @WorkerThread
+    public synchronized void putIcons(List<IconRecord> records) {
+        ensureLoaded();
+        // The same app can be both in the hotseat and on the workspace
+        LinkedHashMap<String, IconRecord> icons = new LinkedHashMap<>();
+        for (IconRecord icon : records) {
+            icons.put(getKey(icon.component, icon.userSerial), icon);
+        }
+
+        long usedLength = HEADER_SIZE;
+        ByteArrayOutputStream missing = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(missing);
+            for (Map.Entry<String, IconRecord> entry : icons.entrySet()) {
+                IconRecord icon = entry.getValue();
+                Slot slot = mSlots.get(entry.getKey());
+                if (slot != null && slot.systemState.equals(icon.systemState)) {
+                    usedLength += slot.length;
+                } else {
+                    usedLength += writeRecord(out, icon);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode icons", e);
+            return;
+        }
+
+        if (mValidLength + missing.size() > 2 * usedLength) {
+            rewrite(icons.values());
+        } else if (missing.size() > 0) {
+            append(missing.toByteArray());
+        }
+    }
+
+    /**
+     * Saves {@param icon} if it is not in the atlas yet, replacing the icon of the same component.
+     * Unlike {@link #putIcons}, the other icons are kept, and the file is compacted once most of
+     * it is unused.
+     */
+    @WorkerThread
+    public synchronized void putIcon(IconRecord icon) {
+        ensureLoaded();
+        Slot replaced = mSlots.get(getKey(icon.component, icon.userSerial));
+        if (replaced != null && replaced.systemState.equals(icon.systemState)) {
+            return;
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        long usedLength = HEADER_SIZE;
+        try {
+            DataOutputStream out = new DataOutputStream(record);
+            usedLength += writeRecord(out, icon);
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode icon", e);
+            return;
+        }
+        for (Slot slot : mSlots.values()) {
+            if (slot != replaced) {
+                usedLength += slot.length;
+            }
+        }
+
+        if (mValidLength + record.size() > 2 * usedLength) {
+            compact(replaced, record.toByteArray());
+        } else {
+            append(record.toByteArray());
+        }
+    }
+
+    /**
+     * Removes the icons of {@param packages}, which are outdated
+     */
+    @WorkerThread
+    public synchronized void removePackages(Collection<String> packages, long userSerial) {
+        ensureLoaded();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (String packageName : packages) {
+                if (hasPackage(packageName, userSerial)) {
+                    byte[] key = getKey(packageName, userSerial).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(1 + 4 + key.length);
+                    out.writeByte(RECORD_REMOVE_PACKAGE);
+                    out.writeInt(key.length);
+                    out.write(key);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode removed packages", e);
+            return;
+        }
+        if (bytes.size() > 0) {
+            append(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Deletes all the icons, the next ones being of size {@param iconBitmapSize}
+     */
+    @WorkerThread
+    public synchronized void clear(int iconBitmapSize) {
+        mIconBitmapSize = iconBitmapSize;
+        mFile.delete();
+        reset();
+    }
+
+    private boolean hasPackage(String packageName, long userSerial) {
+        for (Slot slot : mSlots.values()) {
+            if (slot.userSerial == userSerial && slot.packageName.equals(packageName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void ensureLoaded() {
+        if (mSlots != null) {
+            return;
+        }
+        mSlots = new HashMap<>();
+        mValidLength = 0;
+        if (!mFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            readIndex(mBuffer);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Invalid icon atlas, resetting", e);
+            mFile.delete();
+            mSlots.clear();
+            mBuffer = null;
+            mValidLength = 0;
+        }
+    }
+
+    private void readIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC
+                || buffer.getInt() != FORMAT_VERSION || buffer.getInt() != mIconBitmapSize) {
+            throw new IOException("Unsupported icon atlas");
+        }
+        mValidLength = HEADER_SIZE;
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt();
+            int start = buffer.position();
+            if (length <= 0 || length > buffer.remaining()) {
+                // Partially written record, overwritten by the next write
+                break;
+            }
+            try {
+                readRecord(buffer, start, length);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Invalid record at " + start, e);
+            }
+            buffer.position(start + length);
+            mValidLength = start + length;
+        }
+    }
+
+    private void readRecord(ByteBuffer buffer, int start, int length) {
+        byte type = buffer.get();
+        String key = readString(buffer);
+        if (type == RECORD_REMOVE_PACKAGE) {
+            Iterator<Slot> slots = mSlots.values().iterator();
+            while (slots.hasNext()) {
+                Slot slot = slots.next();
+                if (key.equals(getKey(slot.packageName, slot.userSerial))) {
+                    slots.remove();
+                }
+            }
+            return;
+        }
+        if (type != RECORD_ICON) {
+            return;
+        }
+        Slot slot = new Slot();
+        slot.offset = start - 4;
+        slot.length = 4 + length;
+        slot.userSerial = buffer.getLong();
+        slot.packageName = readString(buffer);
+        slot.systemState = readString(buffer);
+        slot.title = readString(buffer);
+        slot.contentDescription = readString(buffer);
+        slot.color = buffer.getInt();
+        slot.width = buffer.getInt();
+        slot.height = buffer.getInt();
+        slot.pixelsOffset = buffer.position();
+        if (slot.pixelsOffset + slot.width * slot.height * BYTES_PER_PIXEL > start + length) {
+            throw new BufferUnderflowException();
+        }
+        mSlots.put(key, slot);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a record for {@param icon} and returns the number of bytes written
+     */
+    private static int writeRecord(DataOutputStream out, IconRecord icon) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(RECORD_ICON);
+        writeString(record, getKey(icon.component, icon.userSerial));
+        record.writeLong(icon.userSerial);
+        writeString(record, icon.component.getPackageName());
+        writeString(record, icon.systemState);
+        writeString(record, icon.title);
+        writeString(record, icon.contentDescription);
+        record.writeInt(icon.color);
+        record.writeInt(icon.icon.getWidth());
+        record.writeInt(icon.icon.getHeight());
+        ByteBuffer pixels = ByteBuffer.allocate(icon.icon.getByteCount());
+        icon.icon.copyPixelsToBuffer(pixels);
+        record.write(pixels.array(), 0, pixels.position());
+        record.flush();
+
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+        return 4 + bytes.size();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void append(byte[] records) {
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "rw")) {
+            if (mValidLength < HEADER_SIZE) {
+                file.setLength(0);
+                file.writeInt(MAGIC);
+                file.writeInt(FORMAT_VERSION);
+                file.writeInt(mIconBitmapSize);
+            } else {
+                // Drops any partially written record
+                file.setLength(mValidLength);
+                file.seek(mValidLength);
+            }
+            file.write(records);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to append to icon atlas", e);
+            mFile.delete();
+        }
+        reset();
+    }
+
+    private void rewrite(Collection<IconRecord> icons) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(records);
+            for (IconRecord icon : icons) {
+                writeRecord(out, icon);
+            }
+            out.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode icons", e);
+            return;
+        }
+        writeFile(records.toByteArray());
+    }
+
+    /**
+     * Rewrites the file with the records of the icons in use, except {@param replaced}, copied
+     * from the mapped file, followed by {@param record}.
+     */
+    private void compact(@Nullable Slot replaced, byte[] record) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        if (mBuffer != null) {
+            for (Slot slot : mSlots.values()) {
+                if (slot == replaced) {
+                    continue;
+                }
+                byte[] bytes = new byte[slot.length];
+                ByteBuffer buffer = mBuffer.duplicate();
+                buffer.position(slot.offset);
+                buffer.get(bytes);
+                records.write(bytes, 0, bytes.length);
+            }
+        }
+        records.write(record, 0, record.length);
+        writeFile(records.toByteArray());
+    }
+
+    private void writeFile(byte[] records) {
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(mIconBitmapSize);
+            out.write(records);
+            out.flush();
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write icon atlas", e);
+            if (fos != null) {
+                atomicFile.failWrite(fos);
+            }
+        }
+        reset();
+    }
+
+    private void reset() {
+        mSlots = null;
+        mBuffer = null;
+        mValidLength = 0;
+    }
+
+    private static String getKey(ComponentName component, long userSerial) {
+        return component.flattenToShortString() + "#" + userSerial;
+    }
+
+    private static String getKey(String packageName, long userSerial) {
+        return packageName + "#" + userSerial;
+    }
+
+    /**
+     * An icon to save in the atlas
+     */
+    public static class IconRecord {
+        final ComponentName component;
+        final long userSerial;
+        final String systemState;
+        final String title;
+        final String contentDescription;
+        final Bitmap icon;
+        final int color;
+
+        public IconRecord(ComponentName component, long userSerial, String systemState,
+                @NonNull CharSequence title, @Nullable CharSequence contentDescription,
+                Bitmap icon, int color) {
+            this.component = component;
+            this.userSerial = userSerial;
+            this.systemState = systemState;
+            this.title = title.toString();
+            this.contentDescription = contentDescription == null
+                    ? "" : contentDescription.toString();
+            this.icon = icon;
+            this.color = color;
+        }
+    }
+
+    /**
+     * An icon loaded from the atlas
+     */
+    public static class Icon {
+        public final String title;
+        public final String contentDescription;
+        public final BitmapInfo bitmap;
+
+        Icon(String title, String contentDescription, BitmapInfo bitmap) {
+            this.title = title;
+            this.contentDescription = contentDescription;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private static class Slot {
+        // Offset and length of the record, including its length
+        int offset;
+        int length;
+        long userSerial;
+        String packageName;
+        String systemState;
+        String title;
+        String contentDescription;
+        int color;
+        int width;
+        int height;
+        int pixelsOffset;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.launcher3.icons;
 
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
 import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT;
 import static com.android.launcher3.util.Executors.MAIN_EXECUTOR;
 import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
@@ -36,6 +37,7 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.ShortcutInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteException;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.os.Process;
 import android.os.Trace;
@@ -46,6 +48,7 @@ import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.core.util.Pair;
 
 import com.android.launcher3.InvariantDeviceProfile;
@@ -53,6 +56,7 @@ import com.android.launcher3.LauncherFiles;
 import com.android.launcher3.Utilities;
 import com.android.launcher3.icons.BaseIconFactory;
 import com.android.launcher3.icons.ComponentWithLabel.ComponentCachingLogic;
+import com.android.launcher3.icons.IconAtlas.IconRecord;
 import com.android.launcher3.icons.cache.BaseIconCache;
 import com.android.launcher3.icons.cache.CachingLogic;
 import com.android.launcher3.icons.cache.HandlerRunnable;
@@ -64,13 +68,19 @@ import com.android.launcher3.model.data.WorkspaceItemInfo;
 import com.android.launcher3.pm.InstallSessionHelper;
 import com.android.launcher3.pm.UserCache;
 import com.android.launcher3.shortcuts.ShortcutKey;
+import com.android.launcher3.util.ComponentKey;
 import com.android.launcher3.util.InstantAppResolver;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.Preconditions;
+import com.android.launcher3.util.Themes;
 import com.android.launcher3.widget.WidgetSections;
 import com.android.launcher3.widget.WidgetSections.WidgetSection;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -90,6 +100,8 @@ public class IconCache extends BaseIconCache {
 
     private static final String TAG = "Launcher.IconCache";
 
+    private static final String ICON_ATLAS_FILE_NAME = "icon_atlas";
+
     private final Predicate<ItemInfoWithIcon> mIsUsingFallbackOrNonDefaultIconCheck = w ->
             w.bitmap != null && (w.bitmap.isNullOrLowRes() || !isDefaultIcon(w.bitmap, w.user));
 
@@ -105,8 +117,16 @@ public class IconCache extends BaseIconCache {
 
     private final SparseArray<BitmapInfo> mWidgetCategoryBitmapInfos;
 
+    // Decoded icons of the first screen, only used with the persistent icon db
+    @Nullable
+    private final IconAtlas mIconAtlas;
+
     private int mPendingIconRequestCount = 0;
 
+    // Number of items found in the icon atlas or db, or loaded with the fallback, by bulk loads
+    private int mBulkLoadHitCount = 0;
+    private int mBulkLoadMissCount = 0;
+
     public IconCache(Context context, InvariantDeviceProfile idp) {
         this(context, idp, LauncherFiles.APP_ICONS_DB, IconProvider.INSTANCE.get(context));
     }
@@ -123,6 +143,10 @@ public class IconCache extends BaseIconCache {
         mInstantAppResolver = InstantAppResolver.newInstance(mContext);
         mIconProvider = iconProvider;
         mWidgetCategoryBitmapInfos = new SparseArray<>();
+        mIconAtlas = LauncherFiles.APP_ICONS_DB.equals(dbFileName)
+                ? new IconAtlas(new File(context.getCacheDir(), ICON_ATLAS_FILE_NAME),
+                        idp.iconBitmapSize)
+                : null;
 
         mCancelledRunnable = new HandlerRunnable(
                 mWorkerHandler, () -> null, MAIN_EXECUTOR, c -> { });
@@ -151,6 +175,7 @@ public class IconCache extends BaseIconCache {
     public synchronized void updateIconsForPkg(@NonNull final String packageName,
             @NonNull final UserHandle user) {
         removeIconsForPkg(packageName, user);
+        removeFromIconAtlas(Collections.singleton(packageName), user);
         try {
             PackageInfo info = mPackageManager.getPackageInfo(packageName,
                     PackageManager.GET_UNINSTALLED_PACKAGES);
@@ -229,6 +254,20 @@ public class IconCache extends BaseIconCache {
         }
     }
 
+    /**
+     * Returns the icon of {@param component} saved in the icon db, or null if there is none. The
+     * icon is not loaded from the package manager nor added to the memory cache.
+     */
+    @Nullable
+    public synchronized BitmapInfo getIconFromDb(ComponentName component, UserHandle user) {
+        CacheEntry entry = new CacheEntry();
+        if (!getEntryFromDB(new ComponentKey(component, user), entry, false /* lowRes */)
+                || entry.bitmap == null || entry.bitmap.isNullOrLowRes()) {
+            return null;
+        }
+        return entry.bitmap;
+    }
+
     /**
      * Fill in {@param info} with the icon and label for {@param activityInfo}
      */
@@ -311,6 +350,22 @@ public class IconCache extends BaseIconCache {
         }
     }
 
+    /**
+     * Returns the number of items which were found in the icon atlas or the icon db by
+     * {@link #getTitlesAndIconsInBulk}
+     */
+    public synchronized int getBulkLoadHitCount() {
+        return mBulkLoadHitCount;
+    }
+
+    /**
+     * Returns the number of items which were not found in the icon db by
+     * {@link #getTitlesAndIconsInBulk}, and were loaded from the package manager instead
+     */
+    public synchronized int getBulkLoadMissCount() {
+        return mBulkLoadMissCount;
+    }
+
     public synchronized String getTitleNoCache(ComponentWithLabel info) {
         CacheEntry entry = cacheLocked(info.getComponent(), info.getUser(), () -> info,
                 mComponentWithLabelCachingLogic, false /* usePackageIcon */,
@@ -360,10 +415,12 @@ public class IconCache extends BaseIconCache {
     }
 
     /**
-     * Load and fill icons requested in iconRequestInfos using a single bulk sql query.
+     * Load and fill icons requested in iconRequestInfos using a single bulk sql query. Icons
+     * found in the icon atlas are not queried.
      */
     public synchronized <T extends ItemInfoWithIcon> void getTitlesAndIconsInBulk(
             List<IconRequestInfo<T>> iconRequestInfos) {
+        iconRequestInfos = loadIconsFromAtlas(iconRequestInfos);
         Map<Pair<UserHandle, Boolean>, List<IconRequestInfo<T>>> iconLoadSubsectionsMap =
                 iconRequestInfos.stream()
                         .filter(iconRequest -> {
@@ -445,7 +502,10 @@ public class IconCache extends BaseIconCache {
 
         Trace.beginSection("loadIconSubsectionWithFallback");
         // Fallback title and icon loading
+        int requestCount = 0;
+        int missCount = 0;
         for (ComponentName cn : duplicateIconRequestsMap.keySet()) {
+            requestCount += duplicateIconRequestsMap.get(cn).size();
             IconRequestInfo<T> iconRequestInfo = duplicateIconRequestsMap.get(cn).get(0);
             ItemInfoWithIcon itemInfo = iconRequestInfo.itemInfo;
             BitmapInfo icon = itemInfo.bitmap;
@@ -490,11 +550,101 @@ public class IconCache extends BaseIconCache {
                 for (IconRequestInfo<T> iconRequest : duplicateIconRequestsMap.get(cn)) {
                     applyCacheEntry(entry, iconRequest.itemInfo);
                 }
+                missCount += duplicateIconRequestsMap.get(cn).size();
             }
         }
+        mBulkLoadHitCount += requestCount - missCount;
+        mBulkLoadMissCount += missCount;
         Trace.endSection();
     }
 
+    /**
+     * Fills the requests for which the icon atlas has an icon, and returns the other requests.
+     */
+    private <T extends ItemInfoWithIcon> List<IconRequestInfo<T>> loadIconsFromAtlas(
+            List<IconRequestInfo<T>> iconRequestInfos) {
+        if (mIconAtlas == null || Themes.isThemedIconEnabled(mContext)) {
+            // The atlas does not keep the monochrome icons
+            return iconRequestInfos;
+        }
+        Trace.beginSection("loadIconsFromAtlas");
+        HashMap<ComponentName, IconAtlas.Icon> icons = new HashMap<>();
+        ArrayList<IconRequestInfo<T>> remaining = new ArrayList<>();
+        for (IconRequestInfo<T> iconRequest : iconRequestInfos) {
+            ItemInfoWithIcon info = iconRequest.itemInfo;
+            ComponentName cn = info.getTargetComponent();
+            IconAtlas.Icon icon = null;
+            if (cn != null && info.itemType == ITEM_TYPE_APPLICATION
+                    && Process.myUserHandle().equals(info.user)) {
+                if (icons.containsKey(cn)) {
+                    icon = icons.get(cn);
+                } else {
+                    icon = mIconAtlas.getIcon(cn, getSerialNumberForUser(info.user),
+                            getIconSystemState(cn.getPackageName()));
+                    icons.put(cn, icon);
+                }
+            }
+            if (icon == null) {
+                remaining.add(iconRequest);
+                continue;
+            }
+            info.title = icon.title;
+            info.contentDescription = icon.contentDescription;
+            info.bitmap = icon.bitmap;
+            mBulkLoadHitCount++;
+        }
+        Trace.endSection();
+        return remaining;
+    }
+
+    /**
+     * Saves the current icons of {@param items} in the icon atlas, so that they are loaded from
+     * it the next time the workspace is loaded.
+     */
+    @WorkerThread
+    public void saveIconAtlas(List<WorkspaceItemInfo> items) {
+        if (mIconAtlas == null || Themes.isThemedIconEnabled(mContext)) {
+            return;
+        }
+        ArrayList<IconRecord> icons = new ArrayList<>();
+        for (WorkspaceItemInfo info : items) {
+            ComponentName cn = info.getTargetComponent();
+            BitmapInfo bitmap = info.bitmap;
+            // Badged, work profile and default icons are left to the icon db
+            if (cn == null || info.itemType != ITEM_TYPE_APPLICATION || info.isPromise()
+                    || !Process.myUserHandle().equals(info.user)
+                    || TextUtils.isEmpty(info.title)
+                    || bitmap == null || bitmap.isNullOrLowRes() || bitmap.flags != 0
+                    || bitmap.icon.getConfig() != Bitmap.Config.ARGB_8888
+                    || isDefaultIcon(bitmap, info.user)) {
+                continue;
+            }
+            icons.add(new IconRecord(cn, getSerialNumberForUser(info.user),
+                    getIconSystemState(cn.getPackageName()), info.title,
+                    info.contentDescription, bitmap.icon, bitmap.color));
+        }
+        mIconAtlas.putIcons(icons);
+    }
+
+    /**
+     * Removes the outdated icons of {@param packages} from the icon atlas
+     */
+    @WorkerThread
+    public void removeFromIconAtlas(Collection<String> packages, UserHandle user) {
+        if (mIconAtlas != null) {
+            mIconAtlas.removePackages(packages, getSerialNumberForUser(user));
+        }
+    }
+
+    /**
+     * Clears the icon atlas, after the icon size or shape changed
+     */
+    public void clearIconAtlas(int iconBitmapSize) {
+        if (mIconAtlas != null) {
+            MODEL_EXECUTOR.execute(() -> mIconAtlas.clear(iconBitmapSize));
+        }
+    }
+
     /**
      * Fill in {@param infoInOut} with the corresponding icon and label.
      */
@@ -1,13 +1,19 @@
 package com.android.launcher3.icons.pack;
 
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
+
 import android.content.ComponentName;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.util.SparseArray;
 
+import com.android.launcher3.Utilities;
+
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,12 +26,18 @@ import java.util.Map;
 class IconPack {
     private final ApplicationInfo mAi;
     private final CharSequence mPackageLabel;
+    private final File mSnapshotFile;
     private Data mData;
+    private IconPackSnapshot mSnapshot;
     private Resources mRes;
 
-    IconPack(ApplicationInfo ai, CharSequence label) {
+    // Drawable ids resolved from the parsed appfilter, so that each name is resolved once.
+    private final Map<ComponentName, Integer> mDrawableIds = new HashMap<>();
+
+    IconPack(ApplicationInfo ai, CharSequence label, File snapshotFile) {
         mAi = ai;
         mPackageLabel = label;
+        mSnapshotFile = snapshotFile;
     }
 
     ApplicationInfo getAi() {
@@ -40,20 +52,55 @@ class IconPack {
         return mPackageLabel;
     }
 
-    Data getData(PackageManager pm)
+    /**
+     * Returns the icon pack data, from the snapshot when it is up to date, otherwise by parsing
+     * the appfilter. When using the snapshot, {@link Data#drawables} is empty and lookups must
+     * go through {@link #containsActivity} and {@link #getDrawableId}.
+     */
+    synchronized Data getData(PackageManager pm)
             throws PackageManager.NameNotFoundException, XmlPullParserException, IOException {
         if (mData == null) {
-            mData = IconPackParser.parsePackage(pm, getResources(pm), getPackage());
+            long version = getPackVersion(pm);
+            mSnapshot = IconPackSnapshot.open(mSnapshotFile, version);
+            if (mSnapshot != null) {
+                mData = mSnapshot.getData();
+            } else {
+                Resources res = getResources(pm);
+                Data data = IconPackParser.parsePackage(pm, res, getPackage());
+                mData = data;
+                THREAD_POOL_EXECUTOR.execute(() -> IconPackSnapshot.write(
+                        mSnapshotFile, version, res, getPackage(), data));
+            }
         }
         return mData;
     }
 
-    int getDrawableId(PackageManager pm, ComponentName name)
+    synchronized boolean containsActivity(PackageManager pm, ComponentName name)
             throws PackageManager.NameNotFoundException, IOException, XmlPullParserException {
         Data data = getData(pm);
-        Resources res = getResources(pm);
-        String pkg = getPackage();
-        return res.getIdentifier(data.drawables.get(name), "drawable", pkg);
+        return mSnapshot != null ? mSnapshot.contains(name) : data.drawables.containsKey(name);
+    }
+
+    synchronized int getDrawableId(PackageManager pm, ComponentName name)
+            throws PackageManager.NameNotFoundException, IOException, XmlPullParserException {
+        Data data = getData(pm);
+        if (mSnapshot != null) {
+            return mSnapshot.getDrawableId(name);
+        }
+        Integer id = mDrawableIds.get(name);
+        if (id == null) {
+            id = getResources(pm).getIdentifier(data.drawables.get(name), "drawable",
+                    getPackage());
+            mDrawableIds.put(name, id);
+        }
+        return id;
+    }
+
+    private long getPackVersion(PackageManager pm) throws PackageManager.NameNotFoundException {
+        PackageInfo info = pm.getPackageInfo(getPackage(), 0);
+        long versionCode = Utilities.ATLEAST_P ? info.getLongVersionCode() : info.versionCode;
+        // Also include the update time, as the pack could be reinstalled with the same version
+        return versionCode * 31 + info.lastUpdateTime;
     }
 
     private Resources getResources(PackageManager pm) throws PackageManager.NameNotFoundException {
@@ -18,6 +18,7 @@ import com.android.launcher3.util.ComponentKey;
 
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -42,6 +43,8 @@ public class IconPackManager extends BroadcastReceiver {
     };
 
     private static final Intent[] ICON_INTENTS = new Intent[ICON_INTENT_ACTIONS.length];
+    private static final String SNAPSHOT_DIR = "icon_packs";
+
     private static IconPackManager sInstance;
 
     static {
@@ -119,6 +122,7 @@ public class IconPackManager extends BroadcastReceiver {
             }
             if (!foundPackageName) {
                 mProviders.remove(packageName);
+                getSnapshotFile(packageName).delete();
             }
         }
 
@@ -128,7 +132,8 @@ public class IconPackManager extends BroadcastReceiver {
             if (!mProviders.containsKey(packageName)) {
                 ApplicationInfo ai = ri.activityInfo.applicationInfo;
                 CharSequence label = ai.loadLabel(pm);
-                mProviders.put(packageName, new IconPack(ai, label));
+                mProviders.put(packageName,
+                        new IconPack(ai, label, getSnapshotFile(packageName)));
             }
         }
 
@@ -142,6 +147,10 @@ public class IconPackManager extends BroadcastReceiver {
         }
     }
 
+    private File getSnapshotFile(String packageName) {
+        return new File(new File(mContext.getCacheDir(), SNAPSHOT_DIR), packageName);
+    }
+
     public Map<String, CharSequence> getProviderNames() {
         Map<String, CharSequence> providerTitles = new HashMap<>();
         for (Map.Entry<String, IconPack> pack : mProviders.entrySet()) {
@@ -153,8 +162,7 @@ public class IconPackManager extends BroadcastReceiver {
     public boolean packContainsActivity(String packPackage, ComponentName componentName) {
         try {
             IconPack pack = mProviders.get(packPackage);
-            IconPack.Data data = pack.getData(mContext.getPackageManager());
-            return data.drawables.containsKey(componentName);
+            return pack.containsActivity(mContext.getPackageManager(), componentName);
         } catch (PackageManager.NameNotFoundException | XmlPullParserException | IOException ignored) {
             return false;
         }
@@ -174,7 +182,7 @@ public class IconPackManager extends BroadcastReceiver {
             try {
                 IconPack pack = mProviders.get(packPackage);
                 IconPack.Data data = pack.getData(mContext.getPackageManager());
-                if (data.drawables.containsKey(key.componentName)) {
+                if (pack.containsActivity(mContext.getPackageManager(), key.componentName)) {
                     int drawableId = pack.getDrawableId(mContext.getPackageManager(), key.componentName);
                     if (drawableId != 0) {
                         return new IconResolverExternal(mContext.getPackageManager(), pack.getAi(),
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons.pack;
+
+import android.content.ComponentName;
+import android.content.res.Resources;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary copy of a parsed icon pack, with all drawable names resolved to ids.
+ * The file is memory-mapped and components are looked up with a binary search, so that the
+ * appfilter does not need to be parsed again until the icon pack is updated.
+ *
+ * Layout: header, masking and clock data, calendar prefixes, then a table of fixed size
+ * entries (component offset, component length, drawable id) sorted by the UTF-8 bytes of the
+ * flattened component, followed by the component strings.
+ */
+class IconPackSnapshot {
+    private static final String TAG = "IconPackSnapshot";
+
+    private static final int MAGIC = 0x49504b53; // IPKS
+    private static final int FORMAT_VERSION = 1;
+    private static final int ENTRY_SIZE = 12;
+
+    private final ByteBuffer mBuffer;
+    private final int mEntryCount;
+    private final int mEntriesStart;
+    private final IconPack.Data mData = new IconPack.Data();
+
+    private IconPackSnapshot(ByteBuffer buffer) {
+        mBuffer = buffer;
+
+        mData.scale = buffer.getFloat();
+        readIds(buffer, mData.iconBacks);
+        readIds(buffer, mData.iconMasks);
+        readIds(buffer, mData.iconUpons);
+
+        int clockCount = buffer.getInt();
+        for (int i = 0; i < clockCount; i++) {
+            int drawableId = buffer.getInt();
+            mData.clockMetadata.put(drawableId, new IconPack.Clock(buffer.getInt(),
+                    buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+                    buffer.getInt()));
+        }
+
+        int calendarCount = buffer.getInt();
+        for (int i = 0; i < calendarCount; i++) {
+            ComponentName cn = ComponentName.unflattenFromString(readString(buffer));
+            String prefix = readString(buffer);
+            if (cn != null) {
+                mData.calendarPrefix.put(cn, prefix);
+            }
+        }
+
+        mEntryCount = buffer.getInt();
+        mEntriesStart = buffer.position();
+    }
+
+    /**
+     * Returns the masking, clock and calendar data of the icon pack. Drawables are not part
+     * of it and must be looked up with {@link #getDrawableId}.
+     */
+    IconPack.Data getData() {
+        return mData;
+    }
+
+    boolean contains(ComponentName name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Returns the drawable id for the component, or 0 if there is none.
+     */
+    int getDrawableId(ComponentName name) {
+        int index = indexOf(name);
+        return index < 0 ? 0 : mBuffer.getInt(mEntriesStart + index * ENTRY_SIZE + 8);
+    }
+
+    private int indexOf(ComponentName name) {
+        byte[] key = name.flattenToString().getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = mEntryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = mEntriesStart + mid * ENTRY_SIZE;
+            int cmp = compare(mBuffer.getInt(entry), mBuffer.getInt(entry + 4), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int offset, int length, byte[] key) {
+        int count = Math.min(length, key.length);
+        for (int i = 0; i < count; i++) {
+            int cmp = (mBuffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Maps the snapshot file, returning null if it is missing, invalid or was written for
+     * a different version of the icon pack.
+     */
+    static IconPackSnapshot open(File file, long packVersion) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION
+                    || buffer.getLong() != packVersion) {
+                return null;
+            }
+            return new IconPackSnapshot(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to read icon pack snapshot " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Resolves all the drawables of the parsed icon pack and writes them to the file.
+     */
+    static void write(File file, long packVersion, Resources res, String pkg,
+            IconPack.Data data) {
+        List<byte[]> keys = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (Map.Entry<ComponentName, String> entry : data.drawables.entrySet()) {
+            keys.add(entry.getKey().flattenToString().getBytes(StandardCharsets.UTF_8));
+            ids.add(res.getIdentifier(entry.getValue(), "drawable", pkg));
+        }
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compareBytes(keys.get(a), keys.get(b)));
+
+        AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream fos = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(packVersion);
+
+            out.writeFloat(data.scale);
+            writeIds(out, data.iconBacks);
+            writeIds(out, data.iconMasks);
+            writeIds(out, data.iconUpons);
+
+            out.writeInt(data.clockMetadata.size());
+            for (int i = 0; i < data.clockMetadata.size(); i++) {
+                IconPack.Clock clock = data.clockMetadata.valueAt(i);
+                out.writeInt(data.clockMetadata.keyAt(i));
+                out.writeInt(clock.hourLayerIndex);
+                out.writeInt(clock.minuteLayerIndex);
+                out.writeInt(clock.secondLayerIndex);
+                out.writeInt(clock.defaultHour);
+                out.writeInt(clock.defaultMinute);
+                out.writeInt(clock.defaultSecond);
+            }
+
+            out.writeInt(data.calendarPrefix.size());
+            for (Map.Entry<ComponentName, String> entry : data.calendarPrefix.entrySet()) {
+                writeString(out, entry.getKey().flattenToString());
+                writeString(out, entry.getValue());
+            }
+
+            out.writeInt(order.length);
+            int offset = out.size() + order.length * ENTRY_SIZE;
+            for (int index : order) {
+                out.writeInt(offset);
+                out.writeInt(keys.get(index).length);
+                out.writeInt(ids.get(index));
+                offset += keys.get(index).length;
+            }
+            for (int index : order) {
+                out.write(keys.get(index));
+            }
+            out.flush();
+
+            file.getParentFile().mkdirs();
+            fos = atomicFile.startWrite();
+            bytes.writeTo(fos);
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write icon pack snapshot " + file, e);
+            if (fos != null) {
+                atomicFile.failWrite(fos);
+            }
+        }
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int count = Math.min(a.length, b.length);
+        for (int i = 0; i < count; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static void writeIds(DataOutputStream out, List<Integer> ids) throws IOException {
+        out.writeInt(ids.size());
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    private static void readIds(ByteBuffer buffer, List<Integer> out) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            out.add(buffer.getInt());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -14,12 +14,15 @@ import com.android.launcher3.util.IOUtils;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
+import java.util.BitSet;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -27,6 +30,9 @@ import java.util.concurrent.TimeUnit;
  * Wrapper around {@link Log} to allow writing to a file.
  * This class can safely be called from main thread.
  *
+ * Logs are appended to an in-memory binary buffer, see {@link FileLogBuffer}, and written to the
+ * file in batches by a background thread. {@link #flushAll} decodes the files back to text.
+ *
  * Note: This should only be used for logging errors which have a persistent effect on user's data,
  * but whose effect may not be visible immediately.
  */
@@ -38,6 +44,9 @@ public final class FileLog {
             DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
 
     private static final long MAX_LOG_FILE_SIZE = 8 << 20;  // 4 mb
+    private static final int BUFFER_SIZE = 256 << 10;  // 256 kb
+
+    private static final FileLogBuffer sBuffer = new FileLogBuffer(BUFFER_SIZE);
 
     private static Handler sHandler = null;
     private static File sLogsDirectory = null;
@@ -85,11 +94,13 @@ public final class FileLog {
         if (!ENABLED) {
             return;
         }
-        String out = String.format("%s %s %s", DATE_FORMAT.format(new Date()), tag, msg);
         if (e != null) {
-            out += "\n" + Log.getStackTraceString(e);
+            msg += "\n" + Log.getStackTraceString(e);
+        }
+        if (sBuffer.append(System.currentTimeMillis(), tag, msg)) {
+            // All the events buffered until the message is handled are written together
+            getHandler().sendEmptyMessage(LogWriterCallback.MSG_WRITE);
         }
-        Message.obtain(getHandler(), LogWriterCallback.MSG_WRITE, out).sendToTarget();
     }
 
     @VisibleForTesting
@@ -133,58 +144,78 @@ public final class FileLog {
         private static final int MSG_FLUSH = 3;
 
         private String mCurrentFileName = null;
-        private PrintWriter mCurrentWriter = null;
+        private FileChannel mCurrentChannel = null;
+        // Tags already defined in the current file
+        private final BitSet mDefinedTags = new BitSet();
 
         private void closeWriter() {
-            IOUtils.closeSilently(mCurrentWriter);
-            mCurrentWriter = null;
+            IOUtils.closeSilently(mCurrentChannel);
+            mCurrentChannel = null;
+        }
+
+        private void writeBufferedLogs() {
+            ByteBuffer batch = sBuffer.drain();
+            if (!batch.hasRemaining()) {
+                sBuffer.recycle(batch);
+                return;
+            }
+
+            Calendar cal = Calendar.getInstance();
+            // suffix with 0 or 1 based on the day of the year.
+            String fileName = FILE_NAME_PREFIX + (cal.get(Calendar.DAY_OF_YEAR) % LOG_DAYS);
+
+            if (!fileName.equals(mCurrentFileName)) {
+                closeWriter();
+            }
+
+            try {
+                if (mCurrentChannel == null) {
+                    mCurrentFileName = fileName;
+
+                    boolean append = false;
+                    File logFile = new File(sLogsDirectory, fileName);
+                    if (logFile.exists()) {
+                        Calendar modifiedTime = Calendar.getInstance();
+                        modifiedTime.setTimeInMillis(logFile.lastModified());
+
+                        // If the file was modified more that 36 hours ago, purge the file.
+                        // We use instead of 24 to account for day-365 followed by day-1
+                        modifiedTime.add(Calendar.HOUR, 36);
+                        append = cal.before(modifiedTime)
+                                && logFile.length() < MAX_LOG_FILE_SIZE
+                                && hasHeader(logFile);
+                    }
+                    mCurrentChannel = new FileOutputStream(logFile, append).getChannel();
+                    mDefinedTags.clear();
+                    if (!append) {
+                        FileLogBuffer.writeHeader(mCurrentChannel);
+                    }
+                }
+
+                sBuffer.write(mCurrentChannel, batch, mDefinedTags);
+
+                // Auto close file stream after some time.
+                sHandler.removeMessages(MSG_CLOSE);
+                sHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
+            } catch (Exception e) {
+                Log.e("FileLog", "Error writing logs to file", e);
+                // Close stream, will try reopening during next log
+                closeWriter();
+            } finally {
+                sBuffer.recycle(batch);
+            }
         }
 
         @Override
         public boolean handleMessage(Message msg) {
             if (sLogsDirectory == null || !ENABLED) {
+                // Discard the buffered logs, as there is nowhere to write them
+                sBuffer.recycle(sBuffer.drain());
                 return true;
             }
             switch (msg.what) {
                 case MSG_WRITE: {
-                    Calendar cal = Calendar.getInstance();
-                    // suffix with 0 or 1 based on the day of the year.
-                    String fileName = FILE_NAME_PREFIX + (cal.get(Calendar.DAY_OF_YEAR) % LOG_DAYS);
-
-                    if (!fileName.equals(mCurrentFileName)) {
-                        closeWriter();
-                    }
-
-                    try {
-                        if (mCurrentWriter == null) {
-                            mCurrentFileName = fileName;
-
-                            boolean append = false;
-                            File logFile = new File(sLogsDirectory, fileName);
-                            if (logFile.exists()) {
-                                Calendar modifiedTime = Calendar.getInstance();
-                                modifiedTime.setTimeInMillis(logFile.lastModified());
-
-                                // If the file was modified more that 36 hours ago, purge the file.
-                                // We use instead of 24 to account for day-365 followed by day-1
-                                modifiedTime.add(Calendar.HOUR, 36);
-                                append = cal.before(modifiedTime)
-                                        && logFile.length() < MAX_LOG_FILE_SIZE;
-                            }
-                            mCurrentWriter = new PrintWriter(new FileWriter(logFile, append));
-                        }
-
-                        mCurrentWriter.println((String) msg.obj);
-                        mCurrentWriter.flush();
-
-                        // Auto close file stream after some time.
-                        sHandler.removeMessages(MSG_CLOSE);
-                        sHandler.sendEmptyMessageDelayed(MSG_CLOSE, CLOSE_DELAY);
-                    } catch (Exception e) {
-                        Log.e("FileLog", "Error writing logs to file", e);
-                        // Close stream, will try reopening during next log
-                        closeWriter();
-                    }
+                    writeBufferedLogs();
                     return true;
                 }
                 case MSG_CLOSE: {
@@ -192,6 +223,7 @@ public final class FileLog {
                     return true;
                 }
                 case MSG_FLUSH: {
+                    writeBufferedLogs();
                     closeWriter();
                     Pair<PrintWriter, CountDownLatch> p =
                             (Pair<PrintWriter, CountDownLatch>) msg.obj;
@@ -209,10 +241,31 @@ public final class FileLog {
         }
     }
 
+    private static boolean hasHeader(File logFile) {
+        try (RandomAccessFile file = new RandomAccessFile(logFile, "r")) {
+            ByteBuffer header = ByteBuffer.allocate(FileLogBuffer.FILE_HEADER_SIZE);
+            file.getChannel().read(header, 0);
+            header.flip();
+            return FileLogBuffer.hasHeader(header);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     private static void dumpFile(PrintWriter out, String fileName) {
         File logFile = new File(sLogsDirectory, fileName);
-        if (logFile.exists()) {
-
+        if (logFile.exists() && hasHeader(logFile)) {
+            try (RandomAccessFile file = new RandomAccessFile(logFile, "r");
+                 FileChannel channel = file.getChannel()) {
+                ByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                out.println();
+                out.println("--- logfile: " + fileName + " ---");
+                FileLogBuffer.decode(content, DATE_FORMAT, out);
+            } catch (Exception e) {
+                // ignore
+            }
+        } else if (logFile.exists()) {
+            // Log file written in the text format
             BufferedReader in = null;
             try {
                 in = new BufferedReader(new FileReader(logFile));
@@ -231,7 +284,7 @@ public final class FileLog {
     }
 
     /**
-     * Gets files used for FileLog
+     * Gets files used for FileLog. The files are in the binary format of {@link FileLogBuffer}.
      */
     public static File[] getLogFiles() {
         try {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.logging;
+
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+
+/**
+ * Binary event buffer used by {@link FileLog}.
+ *
+ * Events are appended to a preallocated direct buffer by the logging threads as
+ * (timestamp, tag id, message) records, and the writer thread swaps it with a second buffer and
+ * writes the whole batch to the log file at once. Tags are interned to ids, and the writer
+ * defines the id of a tag in the file before its first use, so that a file can be decoded on
+ * its own.
+ *
+ * File layout: the file header, followed by tag records (type, tag id, length, name) and event
+ * records (type, timestamp, tag id, length, message).
+ */
+final class FileLogBuffer {
+
+    static final int FILE_MAGIC = 0x464c4f47; // FLOG
+    static final int FILE_VERSION = 1;
+    static final int FILE_HEADER_SIZE = 8;
+
+    private static final byte TYPE_TAG = 1;
+    private static final byte TYPE_EVENT = 2;
+
+    private static final int TAG_HEADER_SIZE = 1 + 4 + 4;
+    private static final int EVENT_HEADER_SIZE = 1 + 8 + 4 + 4;
+
+    private final HashMap<String, Integer> mTagIds = new HashMap<>();
+    private final ArrayList<String> mTags = new ArrayList<>();
+
+    // Buffer receiving the new events, guarded by this
+    private ByteBuffer mActive;
+    // Buffer being written by the writer thread
+    private ByteBuffer mDraining;
+    private int mDroppedCount;
+
+    FileLogBuffer(int capacity) {
+        mActive = ByteBuffer.allocateDirect(capacity);
+        mDraining = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Appends an event to the buffer, or drops it if the buffer is full.
+     *
+     * @return true if the buffer was empty before this event, and needs to be drained
+     */
+    synchronized boolean append(long time, String tag, String msg) {
+        boolean wasEmpty = mActive.position() == 0 && mDroppedCount == 0;
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        int maxLength = mActive.capacity() / 4 - EVENT_HEADER_SIZE;
+        int length = Math.min(bytes.length, maxLength);
+        if (mActive.remaining() < EVENT_HEADER_SIZE + length) {
+            mDroppedCount++;
+            return wasEmpty;
+        }
+        mActive.put(TYPE_EVENT)
+                .putLong(time)
+                .putInt(getTagId(tag))
+                .putInt(length)
+                .put(bytes, 0, length);
+        return wasEmpty;
+    }
+
+    private int getTagId(String tag) {
+        Integer id = mTagIds.get(tag);
+        if (id == null) {
+            id = mTags.size();
+            mTags.add(tag);
+            mTagIds.put(tag, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the buffered events, ready to be written, and resets the buffer. Must only be
+     * called from the writer thread, and the result is only valid until the next call.
+     */
+    ByteBuffer drain() {
+        ByteBuffer batch;
+        int dropped;
+        synchronized (this) {
+            batch = mActive;
+            mActive = mDraining;
+            mDraining = batch;
+            dropped = mDroppedCount;
+            mDroppedCount = 0;
+        }
+        batch.flip();
+        if (dropped > 0) {
+            ByteBuffer result = ByteBuffer.allocate(batch.remaining() + EVENT_HEADER_SIZE + 64);
+            result.put(batch);
+            batch.clear();
+            byte[] msg = (dropped + " events dropped, log buffer full")
+                    .getBytes(StandardCharsets.UTF_8);
+            int tagId;
+            synchronized (this) {
+                tagId = getTagId("FileLog");
+            }
+            result.put(TYPE_EVENT).putLong(System.currentTimeMillis()).putInt(tagId)
+                    .putInt(msg.length).put(msg);
+            result.flip();
+            return result;
+        }
+        return batch;
+    }
+
+    /**
+     * Marks the drained buffer as written, so that it can be reused.
+     */
+    void recycle(ByteBuffer batch) {
+        if (batch == mDraining) {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes the {@param batch} of events to the {@param channel}, preceded by the definitions
+     * of the tags which are not in {@param definedTags} yet.
+     */
+    void write(FileChannel channel, ByteBuffer batch, BitSet definedTags) throws IOException {
+        ByteBuffer definitions = null;
+        for (int pos = batch.position(); pos < batch.limit();
+                pos += EVENT_HEADER_SIZE + batch.getInt(pos + 13)) {
+            int tagId = batch.getInt(pos + 9);
+            if (definedTags.get(tagId)) {
+                continue;
+            }
+            String tag;
+            synchronized (this) {
+                tag = mTags.get(tagId);
+            }
+            byte[] name = tag.getBytes(StandardCharsets.UTF_8);
+            if (definitions == null) {
+                definitions = ByteBuffer.allocate(1024);
+            }
+            if (definitions.remaining() < TAG_HEADER_SIZE + name.length) {
+                ByteBuffer larger = ByteBuffer.allocate(
+                        definitions.capacity() * 2 + TAG_HEADER_SIZE + name.length);
+                definitions.flip();
+                larger.put(definitions);
+                definitions = larger;
+            }
+            definitions.put(TYPE_TAG).putInt(tagId).putInt(name.length).put(name);
+            definedTags.set(tagId);
+        }
+
+        if (definitions != null) {
+            definitions.flip();
+            writeFully(channel, definitions);
+        }
+        writeFully(channel, batch);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+        writeFully(channel, header);
+    }
+
+    /**
+     * Returns true if the file content starts with a valid header
+     */
+    static boolean hasHeader(ByteBuffer content) {
+        return content.remaining() >= FILE_HEADER_SIZE
+                && content.getInt(content.position()) == FILE_MAGIC
+                && content.getInt(content.position() + 4) == FILE_VERSION;
+    }
+
+    /**
+     * Decodes the content of a log file and prints the events in a readable form. Decoding
+     * stops at the first incomplete record.
+     */
+    static void decode(ByteBuffer content, DateFormat dateFormat, PrintWriter out) {
+        content.position(content.position() + FILE_HEADER_SIZE);
+        SparseArray<String> tags = new SparseArray<>();
+        Date date = new Date();
+        while (content.remaining() >= TAG_HEADER_SIZE) {
+            byte type = content.get();
+            if (type == TYPE_TAG) {
+                int tagId = content.getInt();
+                String name = readString(content);
+                if (name == null) {
+                    return;
+                }
+                tags.put(tagId, name);
+            } else if (type == TYPE_EVENT) {
+                if (content.remaining() < EVENT_HEADER_SIZE - 1) {
+                    return;
+                }
+                date.setTime(content.getLong());
+                int tagId = content.getInt();
+                String msg = readString(content);
+                if (msg == null) {
+                    return;
+                }
+                out.println(String.format("%s %s %s",
+                        dateFormat.format(date), tags.get(tagId, "?"), msg));
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer content) {
+        int length = content.getInt();
+        if (length < 0 || length > content.remaining()) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        content.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -72,6 +72,7 @@ public class AllAppsList {
     private AppFilter mAppFilter;
 
     private boolean mDataChanged = false;
+    private int mGeneration = 0;
     private Consumer<AppInfo> mRemoveListener = NO_OP_CONSUMER;
     private AppLockHelper mAppLockHelper;
 
@@ -103,6 +104,19 @@ public class AllAppsList {
         return result;
     }
 
+    /**
+     * Returns a counter which changes whenever the list or any app title changes, so that data
+     * derived from {@link #data} can be cached until the next change.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    private void markDataChanged() {
+        mDataChanged = true;
+        mGeneration++;
+    }
+
     /**
      * Helper to checking {@link Callbacks#FLAG_HAS_SHORTCUT_PERMISSION}
      */
@@ -119,7 +133,7 @@ public class AllAppsList {
         } else {
             mFlags &= ~flagMask;
         }
-        mDataChanged = true;
+        markDataChanged();
     }
 
     /**
@@ -158,7 +172,7 @@ public class AllAppsList {
         }
 
         data.add(info);
-        mDataChanged = true;
+        markDataChanged();
     }
 
     @Nullable
@@ -184,14 +198,14 @@ public class AllAppsList {
         }
 
         data.add(promiseAppInfo);
-        mDataChanged = true;
+        markDataChanged();
 
         return promiseAppInfo;
     }
 
     public void updateSectionName(AppInfo appInfo) {
         appInfo.sectionName = mIndex.computeSectionName(appInfo.title);
-
+        mGeneration++;
     }
 
     /** Updates the given PackageInstallInfo's associated AppInfo's installation info. */
@@ -224,7 +238,7 @@ public class AllAppsList {
     private void removeApp(int index) {
         AppInfo removed = data.remove(index);
         if (removed != null) {
-            mDataChanged = true;
+            markDataChanged();
             mRemoveListener.accept(removed);
         }
     }
@@ -232,6 +246,7 @@ public class AllAppsList {
     public void clear() {
         data.clear();
         mDataChanged = false;
+        mGeneration++;
         // Reset the index as locales might have changed
         mIndex = new AlphabeticIndexCompat(LocaleList.getDefault());
     }
@@ -273,7 +288,7 @@ public class AllAppsList {
             AppInfo info = data.get(i);
             if (matcher.test(info)) {
                 info.runtimeStatusFlags = op.apply(info.runtimeStatusFlags);
-                mDataChanged = true;
+                markDataChanged();
             }
         }
     }
@@ -283,7 +298,7 @@ public class AllAppsList {
             if (info.user.equals(user) && packages.contains(info.componentName.getPackageName())) {
                 mIconCache.updateTitleAndIcon(info);
                 info.sectionName = mIndex.computeSectionName(info.title);
-                mDataChanged = true;
+                markDataChanged();
             }
         }
     }
@@ -325,7 +340,7 @@ public class AllAppsList {
                             PackageInstallInfo.STATUS_INSTALLED_DOWNLOADING);
                     applicationInfo.intent = launchIntent;
 
-                    mDataChanged = true;
+                    markDataChanged();
                 }
             }
         } else {
@@ -32,6 +32,7 @@ import com.android.launcher3.config.FeatureFlags;
 import com.android.launcher3.model.BgDataModel.Callbacks;
 import com.android.launcher3.model.BgDataModel.FixedContainerItems;
 import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.model.data.FolderInfo;
 import com.android.launcher3.model.data.ItemInfo;
 import com.android.launcher3.model.data.LauncherAppWidgetInfo;
 import com.android.launcher3.testing.shared.TestProtocol;
@@ -66,6 +67,8 @@ public abstract class BaseLauncherBinder {
     private final Callbacks[] mCallbacksList;
 
     private int mMyBindingId;
+    // Whether a workspace snapshot is bound and needs to be replaced by the loaded workspace
+    private boolean mSnapshotBound;
 
     public BaseLauncherBinder(LauncherAppState app, BgDataModel dataModel,
             AllAppsList allAppsList, Callbacks[] callbacksList, LooperExecutor uiExecutor) {
@@ -126,11 +129,79 @@ public abstract class BaseLauncherBinder {
             }
             mMyBindingId = mBgDataModel.lastBindId;
         }
+        preInflateItemViews(workspaceItems);
 
+        // Replace a bound snapshot in a single task, so that no frame is drawn in between
+        RunnableList snapshotReplacement = mSnapshotBound ? new RunnableList() : null;
+        Executor uiExecutor = snapshotReplacement == null ? mUiExecutor : snapshotReplacement::add;
         for (Callbacks cb : mCallbacksList) {
-            new UnifiedWorkspaceBinder(cb, mUiExecutor, mApp, mBgDataModel, mMyBindingId,
+            new UnifiedWorkspaceBinder(cb, uiExecutor, mApp, mBgDataModel, mMyBindingId,
                     workspaceItems, appWidgets, extraItems, orderedScreenIds).bind();
         }
+        if (snapshotReplacement != null) {
+            mSnapshotBound = false;
+            mUiExecutor.execute(snapshotReplacement::executeAllAndDestroy);
+        }
+    }
+
+    /**
+     * Binds the pages of a workspace snapshot which are bound synchronously, so that they can be
+     * shown while the workspace is loading. The workspace stays in loading state until the
+     * snapshot is replaced by the next call to {@link #bindWorkspace}.
+     */
+    public void bindWorkspaceSnapshot(WorkspaceSnapshot.Data snapshot) {
+        synchronized (mBgDataModel) {
+            mBgDataModel.lastBindId++;
+            mMyBindingId = mBgDataModel.lastBindId;
+        }
+        mSnapshotBound = true;
+        // Views for all the items are inflated while the workspace loads, the ones not used by
+        // the snapshot are then used by the actual bind
+        preInflateItemViews(snapshot.items);
+
+        final InvariantDeviceProfile idp = mApp.getInvariantDeviceProfile();
+        for (Callbacks cb : mCallbacksList) {
+            IntArray orderedScreenIds = snapshot.screenIds.clone();
+            IntSet currentScreenIds = cb.getPagesToBindSynchronously(orderedScreenIds);
+            ArrayList<ItemInfo> currentItems = new ArrayList<>();
+            filterCurrentWorkspaceItems(currentScreenIds, new ArrayList<>(snapshot.items),
+                    currentItems, new ArrayList<>());
+            sortWorkspaceItemsSpatially(idp, currentItems);
+
+            int bindingId = mMyBindingId;
+            mUiExecutor.execute(() -> {
+                if (bindingId != mBgDataModel.lastBindId) {
+                    return;
+                }
+                cb.clearPendingBinds();
+                cb.startBinding();
+                cb.bindScreens(orderedScreenIds);
+                cb.bindItems(currentItems, false);
+                cb.onInitialBindComplete(currentScreenIds, new RunnableList());
+            });
+        }
+    }
+
+    private void preInflateItemViews(List<ItemInfo> items) {
+        int iconCount = 0;
+        int folderCount = 0;
+        int folderContentCount = 0;
+        for (ItemInfo item : items) {
+            switch (item.itemType) {
+                case LauncherSettings.Favorites.ITEM_TYPE_APPLICATION:
+                case LauncherSettings.Favorites.ITEM_TYPE_SHORTCUT:
+                case LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT:
+                    iconCount++;
+                    break;
+                case LauncherSettings.Favorites.ITEM_TYPE_FOLDER:
+                    folderCount++;
+                    folderContentCount += ((FolderInfo) item).contents.size();
+                    break;
+            }
+        }
+        for (Callbacks cb : mCallbacksList) {
+            cb.preInflateItemViews(iconCount, folderCount, folderContentCount);
+        }
     }
 
     /**
@@ -390,6 +461,7 @@ public abstract class BaseLauncherBinder {
 
             workspaceItems.forEach(it -> mBoundItemIds.add(it.id));
             appWidgets.forEach(it -> mBoundItemIds.add(it.id));
+            preInflateItemViews(workspaceItems);
 
             sortWorkspaceItemsSpatially(mApp.getInvariantDeviceProfile(), workspaceItems);
 
@@ -461,6 +461,12 @@ public class BgDataModel {
         default void clearPendingBinds() { }
         default void startBinding() { }
 
+        /**
+         * Called on the model thread before workspace items are bound, with the number of views
+         * of each kind that binding them will create, so that they can be inflated ahead of time
+         */
+        default void preInflateItemViews(int iconCount, int folderCount, int folderContentCount) { }
+
         default void bindItems(List<ItemInfo> shortcuts, boolean forceAnimateIcons) { }
         default void bindScreens(IntArray orderedScreenIds) { }
         default void finishBindingItems(IntSet pagesBoundFirst) { }
@@ -30,8 +30,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Point;
 import android.util.ArrayMap;
 import android.util.Log;
+import android.util.Pair;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.android.launcher3.InvariantDeviceProfile;
 import com.android.launcher3.LauncherAppState;
@@ -44,6 +47,7 @@ import com.android.launcher3.pm.InstallSessionHelper;
 import com.android.launcher3.provider.LauncherDbUtils.SQLiteTransaction;
 import com.android.launcher3.util.GridOccupancy;
 import com.android.launcher3.util.IntArray;
+import com.android.launcher3.util.IntSparseArrayMap;
 import com.android.launcher3.widget.LauncherAppWidgetProviderInfo;
 import com.android.launcher3.widget.WidgetManagerHelper;
 
@@ -187,14 +191,132 @@ public class GridSizeMigrationUtil {
             final int destHotseatSize, @NonNull final Point targetSize,
             @NonNull final DeviceGridState srcDeviceState,
             @NonNull final DeviceGridState destDeviceState) {
+        MigrationPlan plan = planMigration(context, srcReader, destReader, destHotseatSize,
+                targetSize, srcDeviceState, destDeviceState);
+        srcReader.removeInvalidEntries();
+        destReader.removeInvalidEntries();
+        if (!plan.mToBeRemoved.isEmpty()) {
+            removeEntryFromDb(destReader.mDb, destReader.mTableName, plan.mToBeRemoved);
+        }
+        if (!plan.mHasItemsToAdd) {
+            return false;
+        }
+        insertEntriesInDb(db, context, plan.mPlacedEntries, srcReader.mTableName,
+                destReader.mTableName);
+        return true;
+    }
+
+    /**
+     * Returns the workspace and hotseat items as they would be after migrating to {@param idp},
+     * without changing the current layout. This can be used to preview the result of a grid
+     * change.
+     *
+     * Like {@link #migrateGridIfNeeded(Context, InvariantDeviceProfile)}, this first copies the
+     * layout of {@param idp} into {@link LauncherSettings.Favorites#PREVIEW_TABLE_NAME}, which is
+     * rebuilt for every preview. Nothing else is written.
+     *
+     * @return an empty list if no migration is needed or if the planning failed.
+     */
+    public static List<ItemInfo> planGridMigration(Context context, InvariantDeviceProfile idp) {
+        DeviceGridState srcDeviceState = new DeviceGridState(context);
+        DeviceGridState destDeviceState = new DeviceGridState(idp);
+        if (!needsToMigrate(srcDeviceState, destDeviceState)
+                || !LauncherSettings.Settings.call(
+                        context.getContentResolver(),
+                        LauncherSettings.Settings.METHOD_PREP_FOR_PREVIEW,
+                        destDeviceState.getDbFile()).getBoolean(
+                        LauncherSettings.Settings.EXTRA_VALUE)) {
+            return Collections.emptyList();
+        }
+
+        HashSet<String> validPackages = getValidPackages(context);
+        // The transaction is never committed, the readers only need a consistent view of the db
+        try (SQLiteTransaction t = (SQLiteTransaction) LauncherSettings.Settings.call(
+                context.getContentResolver(),
+                LauncherSettings.Settings.METHOD_NEW_TRANSACTION).getBinder(
+                LauncherSettings.Settings.EXTRA_VALUE)) {
+            DbReader srcReader = new DbReader(t.getDb(), LauncherSettings.Favorites.TABLE_NAME,
+                    context, validPackages);
+            DbReader destReader = new DbReader(t.getDb(),
+                    LauncherSettings.Favorites.PREVIEW_TABLE_NAME, context, validPackages);
+            MigrationPlan plan = planMigration(context, srcReader, destReader,
+                    destDeviceState.getNumHotseat(),
+                    new Point(destDeviceState.getColumns(), destDeviceState.getRows()),
+                    srcDeviceState, destDeviceState);
+            return new ArrayList<>(plan.mLayout);
+        } catch (Exception e) {
+            Log.e(TAG, "Error while planning grid migration", e);
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Loads the source and destination layouts once, and solves the placement of all the missing
+     * items in memory.
+     *
+     * This does not write to the database: the invalid items found while loading are only
+     * collected by the readers, see {@link DbReader#removeInvalidEntries()}.
+     */
+    @VisibleForTesting
+    static MigrationPlan planMigration(
+            @NonNull final Context context,
+            @NonNull final DbReader srcReader, @NonNull final DbReader destReader,
+            final int destHotseatSize, @NonNull final Point targetSize,
+            @NonNull final DeviceGridState srcDeviceState,
+            @NonNull final DeviceGridState destDeviceState) {
 
         final List<DbEntry> srcHotseatItems = srcReader.loadHotseatEntries();
         final List<DbEntry> srcWorkspaceItems = srcReader.loadAllWorkspaceEntries();
         final List<DbEntry> dstHotseatItems = destReader.loadHotseatEntries();
         final List<DbEntry> dstWorkspaceItems = destReader.loadAllWorkspaceEntries();
+
+        final boolean canPreservePages = FeatureFlags.ENABLE_NEW_MIGRATION_LOGIC.get()
+                && destDeviceState.compareTo(srcDeviceState) >= 0
+                && destDeviceState.getColumns() - srcDeviceState.getColumns() <= 2;
+        MigrationPlan plan = solveMigration(srcHotseatItems, srcWorkspaceItems, dstHotseatItems,
+                dstWorkspaceItems, destReader.mWorkspaceEntriesByScreenId,
+                destReader.mLastScreenId, destHotseatSize, targetSize,
+                Utilities.showQuickspace(context), canPreservePages);
+
+        // The destination items which are kept, followed by the newly placed ones
+        for (DbEntry entry : dstHotseatItems) {
+            if (!plan.mToBeRemoved.contains(entry.id)) {
+                plan.mLayout.add(entry);
+            }
+        }
+        for (DbEntry entry : dstWorkspaceItems) {
+            if (!plan.mToBeRemoved.contains(entry.id)) {
+                plan.mLayout.add(entry);
+            }
+        }
+        plan.mLayout.addAll(plan.mPlacedEntries);
+        return plan;
+    }
+
+    /**
+     * Computes the diff between the source and destination layouts and places the missing items
+     * on the destination hotseat and workspace, in reading order.
+     *
+     * @param dstEntriesByScreenId the destination workspace items, keyed on their screen id
+     * @param dstLastScreenId the last screen id of the destination workspace
+     * @param firstScreenHasQsb true if the first row of the first screen is taken by the QSB
+     * @param canPreservePages true if the items can keep their screen when the destination
+     *                         workspace is empty
+     */
+    @VisibleForTesting
+    static MigrationPlan solveMigration(
+            @NonNull final List<DbEntry> srcHotseatItems,
+            @NonNull final List<DbEntry> srcWorkspaceItems,
+            @NonNull final List<DbEntry> dstHotseatItems,
+            @NonNull final List<DbEntry> dstWorkspaceItems,
+            @NonNull final Map<Integer, ? extends List<DbEntry>> dstEntriesByScreenId,
+            final int dstLastScreenId, final int destHotseatSize,
+            @NonNull final Point targetSize, final boolean firstScreenHasQsb,
+            final boolean canPreservePages) {
         final List<DbEntry> hotseatToBeAdded = new ArrayList<>(1);
         final List<DbEntry> workspaceToBeAdded = new ArrayList<>(1);
-        final IntArray toBeRemoved = new IntArray();
+        final MigrationPlan plan = new MigrationPlan();
+        final IntArray toBeRemoved = plan.mToBeRemoved;
 
         calcDiff(srcHotseatItems, dstHotseatItems, hotseatToBeAdded, toBeRemoved);
         calcDiff(srcWorkspaceItems, dstWorkspaceItems, workspaceToBeAdded, toBeRemoved);
@@ -222,41 +344,36 @@ public class GridSizeMigrationUtil {
                     Collectors.joining(",\n", "[", "]"))
             );
         }
-        if (!toBeRemoved.isEmpty()) {
-            removeEntryFromDb(destReader.mDb, destReader.mTableName, toBeRemoved);
-        }
         if (hotseatToBeAdded.isEmpty() && workspaceToBeAdded.isEmpty()) {
-            return false;
+            return plan;
         }
+        plan.mHasItemsToAdd = true;
 
         // Sort the items by the reading order.
         Collections.sort(hotseatToBeAdded);
         Collections.sort(workspaceToBeAdded);
 
         // Migrate hotseat
-        solveHotseatPlacement(db, srcReader,
-                destReader, context, destHotseatSize, dstHotseatItems, hotseatToBeAdded);
+        solveHotseatPlacement(destHotseatSize, dstHotseatItems, hotseatToBeAdded,
+                plan.mPlacedEntries);
 
         // Migrate workspace.
         // First we create a collection of the screens
         List<Integer> screens = new ArrayList<>();
-        for (int screenId = 0; screenId <= destReader.mLastScreenId; screenId++) {
+        for (int screenId = 0; screenId <= dstLastScreenId; screenId++) {
             screens.add(screenId);
         }
 
-        boolean preservePages = false;
-        if (screens.isEmpty() && FeatureFlags.ENABLE_NEW_MIGRATION_LOGIC.get()) {
-            preservePages = destDeviceState.compareTo(srcDeviceState) >= 0
-                    && destDeviceState.getColumns() - srcDeviceState.getColumns() <= 2;
-        }
+        boolean preservePages = screens.isEmpty() && canPreservePages;
 
         // Then we place the items on the screens
         for (int screenId : screens) {
             if (DEBUG) {
                 Log.d(TAG, "Migrating " + screenId);
             }
-            solveGridPlacement(db, srcReader,
-                    destReader, context, screenId, trgX, trgY, workspaceToBeAdded, false);
+            solveGridPlacement(dstEntriesByScreenId.get(screenId),
+                    screenId == 0 && firstScreenHasQsb, screenId, trgX, trgY,
+                    workspaceToBeAdded, false, plan.mPlacedEntries);
             if (workspaceToBeAdded.isEmpty()) {
                 break;
             }
@@ -264,14 +381,15 @@ public class GridSizeMigrationUtil {
 
         // In case the new grid is smaller, there might be some leftover items that don't fit on
         // any of the screens, in this case we add them to new screens until all of them are placed.
-        int screenId = destReader.mLastScreenId + 1;
+        int screenId = dstLastScreenId + 1;
         while (!workspaceToBeAdded.isEmpty()) {
-            solveGridPlacement(db, srcReader,
-                    destReader, context, screenId, trgX, trgY, workspaceToBeAdded, preservePages);
+            solveGridPlacement(dstEntriesByScreenId.get(screenId),
+                    screenId == 0 && firstScreenHasQsb, screenId, trgX, trgY,
+                    workspaceToBeAdded, preservePages, plan.mPlacedEntries);
             screenId++;
         }
 
-        return true;
+        return plan;
     }
 
     /**
@@ -298,50 +416,62 @@ public class GridSizeMigrationUtil {
         });
     }
 
-    private static void insertEntryInDb(SQLiteDatabase db, Context context, DbEntry entry,
-            String srcTableName, String destTableName) {
-        int id = copyEntryAndUpdate(db, context, entry, srcTableName, destTableName);
-
-        if (entry.itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER) {
+    /**
+     * Copies the {@param entries} and the contents of the folders among them from the source
+     * table to the destination table, at their new position. The source rows are read with a
+     * single query.
+     */
+    private static void insertEntriesInDb(SQLiteDatabase db, Context context,
+            List<DbEntry> entries, String srcTableName, String destTableName) {
+        IntArray ids = new IntArray(entries.size());
+        for (DbEntry entry : entries) {
+            ids.add(entry.id);
             for (Set<Integer> itemIds : entry.mFolderItems.values()) {
-                for (int itemId : itemIds) {
-                    copyEntryAndUpdate(db, context, itemId, id, srcTableName, destTableName);
-                }
+                itemIds.forEach(ids::add);
             }
         }
-    }
 
-    private static int copyEntryAndUpdate(SQLiteDatabase db, Context context,
-            DbEntry entry, String srcTableName, String destTableName) {
-        return copyEntryAndUpdate(db, context, entry, -1, -1, srcTableName, destTableName);
-    }
-
-    private static int copyEntryAndUpdate(SQLiteDatabase db, Context context,
-            int id, int folderId, String srcTableName, String destTableName) {
-        return copyEntryAndUpdate(db, context, null, id, folderId, srcTableName, destTableName);
-    }
+        IntSparseArrayMap<ContentValues> srcRows = new IntSparseArrayMap<>();
+        try (Cursor c = db.query(srcTableName, null,
+                Utilities.createDbSelectionQuery(LauncherSettings.Favorites._ID, ids),
+                null, null, null, null)) {
+            int indexId = c.getColumnIndexOrThrow(LauncherSettings.Favorites._ID);
+            while (c.moveToNext()) {
+                ContentValues values = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(c, values);
+                srcRows.put(c.getInt(indexId), values);
+            }
+        }
 
-    private static int copyEntryAndUpdate(SQLiteDatabase db, Context context,
-            DbEntry entry, int id, int folderId, String srcTableName, String destTableName) {
-        int newId = -1;
-        Cursor c = db.query(srcTableName, null,
-                LauncherSettings.Favorites._ID + " = '" + (entry != null ? entry.id : id) + "'",
-                null, null, null, null);
-        while (c.moveToNext()) {
-            ContentValues values = new ContentValues();
-            DatabaseUtils.cursorRowToContentValues(c, values);
-            if (entry != null) {
-                entry.updateContentValues(values);
-            } else {
-                values.put(LauncherSettings.Favorites.CONTAINER, folderId);
+        for (DbEntry entry : entries) {
+            ContentValues values = srcRows.get(entry.id);
+            if (values == null) {
+                continue;
+            }
+            entry.updateContentValues(values);
+            int folderId = insertWithNewId(db, context, values, destTableName);
+
+            if (entry.itemType == LauncherSettings.Favorites.ITEM_TYPE_FOLDER) {
+                for (Set<Integer> itemIds : entry.mFolderItems.values()) {
+                    for (int itemId : itemIds) {
+                        ContentValues itemValues = srcRows.get(itemId);
+                        if (itemValues != null) {
+                            itemValues.put(LauncherSettings.Favorites.CONTAINER, folderId);
+                            insertWithNewId(db, context, itemValues, destTableName);
+                        }
+                    }
+                }
             }
-            newId = LauncherSettings.Settings.call(context.getContentResolver(),
-                    LauncherSettings.Settings.METHOD_NEW_ITEM_ID).getInt(
-                    LauncherSettings.Settings.EXTRA_VALUE);
-            values.put(LauncherSettings.Favorites._ID, newId);
-            db.insert(destTableName, null, values);
         }
-        c.close();
+    }
+
+    private static int insertWithNewId(SQLiteDatabase db, Context context, ContentValues values,
+            String destTableName) {
+        int newId = LauncherSettings.Settings.call(context.getContentResolver(),
+                LauncherSettings.Settings.METHOD_NEW_ITEM_ID).getInt(
+                LauncherSettings.Settings.EXTRA_VALUE);
+        values.put(LauncherSettings.Favorites._ID, newId);
+        db.insert(destTableName, null, values);
         return newId;
     }
 
@@ -367,15 +497,13 @@ public class GridSizeMigrationUtil {
         return validPackages;
     }
 
-    private static void solveGridPlacement(@NonNull final SQLiteDatabase db,
-            @NonNull final DbReader srcReader, @NonNull final DbReader destReader,
-            @NonNull final Context context, final int screenId, final int trgX, final int trgY,
-            @NonNull final List<DbEntry> sortedItemsToPlace, final boolean matchingScreenIdOnly) {
+    private static void solveGridPlacement(@Nullable final List<DbEntry> existedEntries,
+            final boolean skipFirstRow, final int screenId, final int trgX, final int trgY,
+            @NonNull final List<DbEntry> sortedItemsToPlace, final boolean matchingScreenIdOnly,
+            @NonNull final List<DbEntry> placedEntries) {
         final GridOccupancy occupied = new GridOccupancy(trgX, trgY);
         final Point trg = new Point(trgX, trgY);
-        final Point next = new Point(0, screenId == 0 && Utilities.showQuickspace(context)
-                ? 1 /* smartspace */ : 0);
-        List<DbEntry> existedEntries = destReader.mWorkspaceEntriesByScreenId.get(screenId);
+        final Point next = new Point(0, skipFirstRow ? 1 /* smartspace */ : 0);
         if (existedEntries != null) {
             for (DbEntry entry : existedEntries) {
                 occupied.markCells(entry, true);
@@ -391,7 +519,7 @@ public class GridSizeMigrationUtil {
                 continue;
             }
             if (findPlacementForEntry(entry, next, trg, occupied, screenId)) {
-                insertEntryInDb(db, context, entry, srcReader.mTableName, destReader.mTableName);
+                placedEntries.add(entry);
                 iterator.remove();
             }
         }
@@ -401,38 +529,40 @@ public class GridSizeMigrationUtil {
      * Search for the next possible placement of an icon. (mNextStartX, mNextStartY) serves as
      * a memoization of last placement, we can start our search for next placement from there
      * to speed up the search.
+     *
+     * Each row is checked at once using the occupancy bitmasks: the first position where either
+     * the span or the min span of the entry fits is used.
      */
     private static boolean findPlacementForEntry(@NonNull final DbEntry entry,
             @NonNull final Point next, @NonNull final Point trg,
             @NonNull final GridOccupancy occupied, final int screenId) {
+        long columns = GridOccupancy.spanMask(trg.x);
         for (int y = next.y; y <  trg.y; y++) {
-            for (int x = next.x; x < trg.x; x++) {
-                boolean fits = occupied.isRegionVacant(x, y, entry.spanX, entry.spanY);
-                boolean minFits = occupied.isRegionVacant(x, y, entry.minSpanX,
-                        entry.minSpanY);
-                if (minFits) {
+            long candidates = (occupied.getVacantPositions(y, entry.spanX, entry.spanY)
+                    | occupied.getVacantPositions(y, entry.minSpanX, entry.minSpanY))
+                    & columns & ~GridOccupancy.spanMask(next.x);
+            if (candidates != 0) {
+                int x = Long.numberOfTrailingZeros(candidates);
+                if (occupied.isRegionVacant(x, y, entry.minSpanX, entry.minSpanY)) {
                     entry.spanX = entry.minSpanX;
                     entry.spanY = entry.minSpanY;
                 }
-                if (fits || minFits) {
-                    entry.screenId = screenId;
-                    entry.cellX = x;
-                    entry.cellY = y;
-                    occupied.markCells(entry, true);
-                    next.set(x + entry.spanX, y);
-                    return true;
-                }
+                entry.screenId = screenId;
+                entry.cellX = x;
+                entry.cellY = y;
+                occupied.markCells(entry, true);
+                next.set(x + entry.spanX, y);
+                return true;
             }
             next.set(0, next.y);
         }
         return false;
     }
 
-    private static void solveHotseatPlacement(@NonNull final SQLiteDatabase db,
-            @NonNull final DbReader srcReader, @NonNull final DbReader destReader,
-            @NonNull final Context context, final int hotseatSize,
+    private static void solveHotseatPlacement(final int hotseatSize,
             @NonNull final  List<DbEntry> placedHotseatItems,
-            @NonNull final List<DbEntry> itemsToPlace) {
+            @NonNull final List<DbEntry> itemsToPlace,
+            @NonNull final List<DbEntry> placedEntries) {
 
         final boolean[] occupied = new boolean[hotseatSize];
         for (DbEntry entry : placedHotseatItems) {
@@ -447,7 +577,7 @@ public class GridSizeMigrationUtil {
                 // to something other than -1.
                 entry.cellX = i;
                 entry.cellY = 0;
-                insertEntryInDb(db, context, entry, srcReader.mTableName, destReader.mTableName);
+                placedEntries.add(entry);
                 occupied[entry.screenId] = true;
             }
         }
@@ -461,9 +591,16 @@ public class GridSizeMigrationUtil {
         private final Set<String> mValidPackages;
         private int mLastScreenId = -1;
 
+        // Ids of the items which can't be restored, removed by removeInvalidEntries()
+        private final IntArray mInvalidEntries = new IntArray();
+
         private final Map<Integer, ArrayList<DbEntry>> mWorkspaceEntriesByScreenId =
                 new ArrayMap<>();
 
+        // Ids and intents of the folder items, keyed on the folder id. Loaded with a single
+        // query when the first folder is read.
+        private IntSparseArrayMap<ArrayList<Pair<Integer, String>>> mFolderContents;
+
         DbReader(SQLiteDatabase db, String tableName, Context context,
                 Set<String> validPackages) {
             mDb = db;
@@ -473,6 +610,7 @@ public class GridSizeMigrationUtil {
         }
 
         protected List<DbEntry> loadHotseatEntries() {
+            mFolderContents = null;
             final List<DbEntry> hotseatEntries = new ArrayList<>();
             Cursor c = queryWorkspace(
                     new String[]{
@@ -488,10 +626,10 @@ public class GridSizeMigrationUtil {
             final int indexIntent = c.getColumnIndexOrThrow(LauncherSettings.Favorites.INTENT);
             final int indexScreen = c.getColumnIndexOrThrow(LauncherSettings.Favorites.SCREEN);
 
-            IntArray entriesToRemove = new IntArray();
             while (c.moveToNext()) {
                 DbEntry entry = new DbEntry();
                 entry.id = c.getInt(indexId);
+                entry.container = LauncherSettings.Favorites.CONTAINER_HOTSEAT;
                 entry.itemType = c.getInt(indexItemType);
                 entry.screenId = c.getInt(indexScreen);
 
@@ -519,17 +657,17 @@ public class GridSizeMigrationUtil {
                     if (DEBUG) {
                         Log.d(TAG, "Removing item " + entry.id, e);
                     }
-                    entriesToRemove.add(entry.id);
+                    mInvalidEntries.add(entry.id);
                     continue;
                 }
                 hotseatEntries.add(entry);
             }
-            removeEntryFromDb(mDb, mTableName, entriesToRemove);
             c.close();
             return hotseatEntries;
         }
 
         protected List<DbEntry> loadAllWorkspaceEntries() {
+            mFolderContents = null;
             final List<DbEntry> workspaceEntries = new ArrayList<>();
             Cursor c = queryWorkspace(
                     new String[]{
@@ -558,11 +696,11 @@ public class GridSizeMigrationUtil {
             final int indexAppWidgetId = c.getColumnIndexOrThrow(
                     LauncherSettings.Favorites.APPWIDGET_ID);
 
-            IntArray entriesToRemove = new IntArray();
             WidgetManagerHelper widgetManagerHelper = new WidgetManagerHelper(mContext);
             while (c.moveToNext()) {
                 DbEntry entry = new DbEntry();
                 entry.id = c.getInt(indexId);
+                entry.container = LauncherSettings.Favorites.CONTAINER_DESKTOP;
                 entry.itemType = c.getInt(indexItemType);
                 entry.screenId = c.getInt(indexScreen);
                 mLastScreenId = Math.max(mLastScreenId, entry.screenId);
@@ -617,7 +755,7 @@ public class GridSizeMigrationUtil {
                     if (DEBUG) {
                         Log.d(TAG, "Removing item " + entry.id, e);
                     }
-                    entriesToRemove.add(entry.id);
+                    mInvalidEntries.add(entry.id);
                     continue;
                 }
                 workspaceEntries.add(entry);
@@ -626,35 +764,65 @@ public class GridSizeMigrationUtil {
                 }
                 mWorkspaceEntriesByScreenId.get(entry.screenId).add(entry);
             }
-            removeEntryFromDb(mDb, mTableName, entriesToRemove);
             c.close();
             return workspaceEntries;
         }
 
         private int getFolderItemsCount(DbEntry entry) {
-            Cursor c = queryWorkspace(
-                    new String[]{LauncherSettings.Favorites._ID, LauncherSettings.Favorites.INTENT},
-                    LauncherSettings.Favorites.CONTAINER + " = " + entry.id);
+            if (mFolderContents == null) {
+                mFolderContents = loadFolderContents();
+            }
+            ArrayList<Pair<Integer, String>> contents = mFolderContents.get(entry.id);
+            if (contents == null) {
+                return 0;
+            }
 
             int total = 0;
-            while (c.moveToNext()) {
+            for (Pair<Integer, String> item : contents) {
                 try {
-                    int id = c.getInt(0);
-                    String intent = c.getString(1);
-                    verifyIntent(intent);
+                    verifyIntent(item.second);
                     total++;
-                    if (!entry.mFolderItems.containsKey(intent)) {
-                        entry.mFolderItems.put(intent, new HashSet<>());
+                    if (!entry.mFolderItems.containsKey(item.second)) {
+                        entry.mFolderItems.put(item.second, new HashSet<>());
                     }
-                    entry.mFolderItems.get(intent).add(id);
+                    entry.mFolderItems.get(item.second).add(item.first);
                 } catch (Exception e) {
-                    removeEntryFromDb(mDb, mTableName, IntArray.wrap(c.getInt(0)));
+                    mInvalidEntries.add(item.first);
                 }
             }
-            c.close();
             return total;
         }
 
+        /** Removes the items which were found invalid while loading the entries. */
+        void removeInvalidEntries() {
+            if (!mInvalidEntries.isEmpty()) {
+                removeEntryFromDb(mDb, mTableName, mInvalidEntries);
+                mInvalidEntries.clear();
+            }
+        }
+
+        private IntSparseArrayMap<ArrayList<Pair<Integer, String>>> loadFolderContents() {
+            IntSparseArrayMap<ArrayList<Pair<Integer, String>>> contents =
+                    new IntSparseArrayMap<>();
+            // Folder ids are positive, unlike the desktop and hotseat containers
+            try (Cursor c = queryWorkspace(
+                    new String[]{LauncherSettings.Favorites._ID,
+                            LauncherSettings.Favorites.INTENT,
+                            LauncherSettings.Favorites.CONTAINER},
+                    LauncherSettings.Favorites.CONTAINER + " >= 0")) {
+                while (c.moveToNext()) {
+                    int container = c.getInt(2);
+                    ArrayList<Pair<Integer, String>> items = contents.get(container);
+                    if (items == null) {
+                        items = new ArrayList<>();
+                        contents.put(container, items);
+                    }
+                    items.add(Pair.create(c.getInt(0), c.getString(1)));
+                }
+            }
+            return contents;
+        }
+
         private Cursor queryWorkspace(String[] columns, String where) {
             return mDb.query(mTableName, columns, where, null, null, null, null);
         }
@@ -681,10 +849,25 @@ public class GridSizeMigrationUtil {
         }
     }
 
+    /**
+     * Result of {@link #planMigration}: the items to remove from the destination, the items
+     * to add to it at their new position, in insertion order, and the resulting layout.
+     */
+    @VisibleForTesting
+    static class MigrationPlan {
+
+        final IntArray mToBeRemoved = new IntArray();
+        final List<DbEntry> mPlacedEntries = new ArrayList<>();
+        final List<DbEntry> mLayout = new ArrayList<>();
+        boolean mHasItemsToAdd;
+    }
+
     protected static class DbEntry extends ItemInfo implements Comparable<DbEntry> {
 
-        private String mIntent;
-        private String mProvider;
+        @VisibleForTesting
+        String mIntent;
+        @VisibleForTesting
+        String mProvider;
         private Map<String, Set<Integer>> mFolderItems = new HashMap<>();
 
         /** Comparator according to the reading order */
@@ -110,7 +110,7 @@ public class ItemInstallQueue {
         ensureQueueLoaded();
         if (!mItems.contains(info)) {
             mItems.add(info);
-            mStorage.write(mContext, mItems);
+            mStorage.add(mContext, info);
         }
     }
 
@@ -160,9 +160,13 @@ public class ItemInstallQueue {
             return;
         }
         ensureQueueLoaded();
-        if (mItems.removeIf(item ->
-                item.user.equals(user) && packageNames.contains(getIntentPackage(item.intent)))) {
-            mStorage.write(mContext, mItems);
+        List<PendingInstallShortcutInfo> removedItems = mItems.stream()
+                .filter(item -> item.user.equals(user)
+                        && packageNames.contains(getIntentPackage(item.intent)))
+                .collect(Collectors.toList());
+        if (!removedItems.isEmpty()) {
+            mItems.removeAll(removedItems);
+            mStorage.remove(mContext, removedItems, mItems);
         }
     }
 
@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.ArrayMap;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Startup metrics of {@link LoaderTask}, aggregated over all the successful loads.
+ *
+ * Each metric is a histogram with logarithmic buckets, of the duration of a loader stage in ms
+ * or of a count. The histograms are persisted, so that they survive process restarts and reboots,
+ * and exposed through dumpsys and {@link com.android.launcher3.LauncherProvider#call}.
+ */
+public class LoaderMetrics {
+
+    private static final String TAG = "LoaderMetrics";
+
+    // Durations, named after the loader splits
+    public static final String STAGE_LOAD_WORKSPACE = "loadWorkspace";
+    public static final String STAGE_BIND_WORKSPACE = "bindWorkspace";
+    public static final String STAGE_LOAD_ALL_APPS = "loadAllApps";
+    public static final String STAGE_UPDATE_ICON_CACHE = "update icon cache";
+    public static final String STAGE_LOAD_WIDGETS = "load widgets";
+    public static final String STAGE_TOTAL = "total";
+
+    // Counts
+    public static final String COUNT_DB_ROWS = "db rows";
+    public static final String COUNT_ITEMS_BOUND = "items bound";
+    public static final String COUNT_ICON_CACHE_HITS = "icon cache hits";
+    public static final String COUNT_ICON_CACHE_MISSES = "icon cache misses";
+
+    private static final String[] METRICS = {
+            STAGE_LOAD_WORKSPACE, STAGE_BIND_WORKSPACE, STAGE_LOAD_ALL_APPS,
+            STAGE_UPDATE_ICON_CACHE, STAGE_LOAD_WIDGETS, STAGE_TOTAL,
+            COUNT_DB_ROWS, COUNT_ITEMS_BOUND, COUNT_ICON_CACHE_HITS, COUNT_ICON_CACHE_MISSES
+    };
+
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_MAX = "max";
+    public static final String KEY_MEAN = "mean";
+    public static final String KEY_P50 = "p50";
+    public static final String KEY_P90 = "p90";
+    public static final String KEY_P99 = "p99";
+
+    private static final String FILE_NAME = "loader_metrics";
+    private static final int MAGIC = 0x4c4d5452; // LMTR
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mFile;
+
+    // Guarded by this, loaded lazily from the file
+    private ArrayMap<String, Histogram> mHistograms;
+
+    public LoaderMetrics(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    @VisibleForTesting
+    LoaderMetrics(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Adds the values of a successful load to the histograms and saves them. Values of unknown
+     * metrics are ignored.
+     */
+    @WorkerThread
+    public void recordLoad(Map<String, Long> values) {
+        byte[] content;
+        synchronized (this) {
+            ensureLoaded();
+            for (Map.Entry<String, Long> entry : values.entrySet()) {
+                Histogram histogram = mHistograms.get(entry.getKey());
+                if (histogram != null) {
+                    histogram.record(entry.getValue());
+                }
+            }
+            try {
+                content = encode();
+            } catch (IOException e) {
+                Log.e(TAG, "Unable to encode loader metrics", e);
+                return;
+            }
+        }
+
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            fos.write(content);
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write loader metrics", e);
+            if (fos != null) {
+                atomicFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Returns a summary of every metric, keyed by metric name.
+     */
+    public synchronized Bundle toBundle() {
+        ensureLoaded();
+        Bundle result = new Bundle();
+        for (int i = 0; i < mHistograms.size(); i++) {
+            Histogram histogram = mHistograms.valueAt(i);
+            Bundle summary = new Bundle();
+            summary.putLong(KEY_COUNT, histogram.getCount());
+            summary.putLong(KEY_MAX, histogram.getMax());
+            summary.putLong(KEY_MEAN, histogram.getMean());
+            summary.putLong(KEY_P50, histogram.getPercentile(50));
+            summary.putLong(KEY_P90, histogram.getPercentile(90));
+            summary.putLong(KEY_P99, histogram.getPercentile(99));
+            result.putBundle(mHistograms.keyAt(i), summary);
+        }
+        return result;
+    }
+
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        ensureLoaded();
+        writer.println(prefix + "Loader metrics:");
+        for (String metric : METRICS) {
+            Histogram histogram = mHistograms.get(metric);
+            writer.println(prefix + "  " + metric + ": count=" + histogram.getCount()
+                    + " mean=" + histogram.getMean()
+                    + " p50=" + histogram.getPercentile(50)
+                    + " p90=" + histogram.getPercentile(90)
+                    + " p99=" + histogram.getPercentile(99)
+                    + " max=" + histogram.getMax());
+        }
+    }
+
+    private void ensureLoaded() {
+        if (mHistograms != null) {
+            return;
+        }
+        mHistograms = new ArrayMap<>();
+        for (String metric : METRICS) {
+            mHistograms.put(metric, new Histogram());
+        }
+        try {
+            decode(new AtomicFile(mFile).readFully());
+        } catch (FileNotFoundException e) {
+            // No metrics yet
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Unable to read loader metrics, resetting", e);
+            mHistograms.values().forEach(Histogram::clear);
+        }
+    }
+
+    private byte[] encode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(mHistograms.size());
+        for (int i = 0; i < mHistograms.size(); i++) {
+            out.writeUTF(mHistograms.keyAt(i));
+            mHistograms.valueAt(i).writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private void decode(byte[] content) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+            return;
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            Histogram histogram = new Histogram();
+            histogram.readFrom(in);
+            // Metrics which are no longer tracked are dropped
+            if (mHistograms.containsKey(name)) {
+                mHistograms.put(name, histogram);
+            }
+        }
+    }
+
+    /**
+     * Histogram of non-negative values, with buckets of exponentially increasing size, each
+     * power of two being split in {@link #SUB_BUCKET_COUNT} buckets. Reported percentiles are
+     * within 1 / {@link #SUB_BUCKET_COUNT} of the actual values.
+     */
+    @VisibleForTesting
+    static class Histogram {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        // Larger values are recorded in the last bucket
+        @VisibleForTesting
+        static final long MAX_VALUE = (1L << 24) - 1;
+        private static final int BUCKET_COUNT = getBucketIndex(MAX_VALUE) + 1;
+
+        private final int[] mBuckets = new int[BUCKET_COUNT];
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        void record(long value) {
+            value = Math.max(0, value);
+            mBuckets[getBucketIndex(Math.min(value, MAX_VALUE))]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getMax() {
+            return mMax;
+        }
+
+        long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * Returns the lowest value of the bucket containing the percentile, or 0 if there are
+         * no values.
+         */
+        long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (mCount * percentile + 99) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(getBucketStart(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        void clear() {
+            Arrays.fill(mBuckets, 0);
+            mCount = 0;
+            mSum = 0;
+            mMax = 0;
+        }
+
+        @VisibleForTesting
+        static int getBucketIndex(long value) {
+            if (value < SUB_BUCKET_COUNT) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        @VisibleForTesting
+        static long getBucketStart(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKET_COUNT;
+            return (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeLong(mCount);
+            out.writeLong(mSum);
+            out.writeLong(mMax);
+            int used = 0;
+            for (int count : mBuckets) {
+                if (count != 0) {
+                    used++;
+                }
+            }
+            out.writeInt(used);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (mBuckets[i] != 0) {
+                    out.writeShort(i);
+                    out.writeInt(mBuckets[i]);
+                }
+            }
+        }
+
+        void readFrom(DataInputStream in) throws IOException {
+            mCount = in.readLong();
+            mSum = in.readLong();
+            mMax = in.readLong();
+            int used = in.readInt();
+            for (int i = 0; i < used; i++) {
+                int index = in.readShort();
+                int count = in.readInt();
+                if (index < 0 || index >= BUCKET_COUNT) {
+                    throw new IOException("Invalid bucket " + index);
+                }
+                mBuckets[index] = count;
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.PackageManagerHelper.hasShortcutsPermission;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.Context;
+import android.content.pm.LauncherActivityInfo;
+import android.content.pm.LauncherApps;
+import android.content.pm.ShortcutInfo;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.launcher3.pm.UserCache;
+import com.android.launcher3.shortcuts.ShortcutRequest;
+import com.android.launcher3.util.Executors.SimpleThreadFactory;
+import com.android.launcher3.widget.WidgetManagerHelper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues the system queries needed by the later steps of {@link LoaderTask} on a bounded
+ * background pool, so that they run while the workspace is being loaded and bound on the model
+ * thread. None of the queries touch the model, so they have no dependency on the workspace.
+ * Work reading or updating the model must stay on the model thread.
+ *
+ * Every getter returns null if the query is not available (eg, it failed or the user state
+ * changed), in which case the caller is expected to run the query itself.
+ */
+public class LoaderPrefetcher {
+
+    private static final String TAG = "LoaderPrefetcher";
+
+    private static final int POOL_SIZE = 3;
+    private static final int KEEP_ALIVE = 1;
+
+    private static final ThreadPoolExecutor PREFETCH_EXECUTOR = createExecutor();
+
+    private final List<Stage<?>> mStages = new ArrayList<>();
+
+    private final Stage<Map<UserHandle, List<LauncherActivityInfo>>> mActivityLists;
+    private final Stage<Map<UserHandle, List<ShortcutInfo>>> mDeepShortcuts;
+    private final Stage<List<AppWidgetProviderInfo>> mWidgetProviders;
+
+    public LoaderPrefetcher(Context context) {
+        List<UserHandle> profiles = UserCache.INSTANCE.get(context).getUserProfiles();
+        LauncherApps launcherApps = context.getSystemService(LauncherApps.class);
+        UserManager userManager = context.getSystemService(UserManager.class);
+
+        mActivityLists = submit("activity list", () -> {
+            Map<UserHandle, List<LauncherActivityInfo>> result = new ArrayMap<>();
+            for (UserHandle user : profiles) {
+                result.put(user, launcherApps.getActivityList(null, user));
+            }
+            return result;
+        });
+        mDeepShortcuts = submit("deep shortcuts", () -> {
+            Map<UserHandle, List<ShortcutInfo>> result = new ArrayMap<>();
+            if (hasShortcutsPermission(context)) {
+                for (UserHandle user : profiles) {
+                    if (userManager.isUserUnlocked(user)) {
+                        result.put(user,
+                                new ShortcutRequest(context, user).query(ShortcutRequest.ALL));
+                    }
+                }
+            }
+            return result;
+        });
+        mWidgetProviders = submit("widget providers",
+                () -> new WidgetManagerHelper(context).getAllProviders(null));
+    }
+
+    private <T> Stage<T> submit(String name, Callable<T> query) {
+        Stage<T> stage = new Stage<>(name, query);
+        stage.mFuture = PREFETCH_EXECUTOR.submit(stage);
+        mStages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Returns the activities for the {@param user} or null if they were not prefetched
+     */
+    @Nullable
+    public List<LauncherActivityInfo> getActivityList(UserHandle user) {
+        Map<UserHandle, List<LauncherActivityInfo>> lists = mActivityLists.getOrNull();
+        return lists == null ? null : lists.get(user);
+    }
+
+    /**
+     * Returns all the deep shortcuts for the {@param user} or null if they were not prefetched
+     */
+    @Nullable
+    public List<ShortcutInfo> getDeepShortcuts(UserHandle user) {
+        Map<UserHandle, List<ShortcutInfo>> shortcuts = mDeepShortcuts.getOrNull();
+        return shortcuts == null ? null : shortcuts.get(user);
+    }
+
+    /**
+     * Returns all the widget providers across all profiles or null if they were not prefetched
+     */
+    @Nullable
+    public List<AppWidgetProviderInfo> getWidgetProviders() {
+        return mWidgetProviders.getOrNull();
+    }
+
+    /**
+     * Cancels all queries which have not started yet
+     */
+    public void cancel() {
+        for (Stage<?> stage : mStages) {
+            stage.mFuture.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the wall and cpu time of every completed stage, in submission order
+     */
+    public List<String> getStageTimes() {
+        List<String> result = new ArrayList<>();
+        for (Stage<?> stage : mStages) {
+            if (stage.mFuture.isDone() && !stage.mFuture.isCancelled()) {
+                result.add(stage.toString());
+            }
+        }
+        return result;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new SimpleThreadFactory("launcher-loader-prefetch-",
+                        Process.THREAD_PRIORITY_DEFAULT));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static class Stage<T> implements Callable<T> {
+
+        private final String mName;
+        private final Callable<T> mQuery;
+
+        private Future<T> mFuture;
+        private volatile long mWallTimeMs;
+        private volatile long mCpuTimeMs;
+
+        Stage(String name, Callable<T> query) {
+            mName = name;
+            mQuery = query;
+        }
+
+        @Override
+        public T call() throws Exception {
+            long startWall = SystemClock.elapsedRealtime();
+            long startCpu = SystemClock.currentThreadTimeMillis();
+            try {
+                return mQuery.call();
+            } finally {
+                mWallTimeMs = SystemClock.elapsedRealtime() - startWall;
+                mCpuTimeMs = SystemClock.currentThreadTimeMillis() - startCpu;
+            }
+        }
+
+        @Nullable
+        T getOrNull() {
+            try {
+                return mFuture.get();
+            } catch (InterruptedException | CancellationException e) {
+                return null;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to prefetch " + mName, e.getCause());
+                return null;
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "prefetch " + mName + ": wall=" + mWallTimeMs + "ms, cpu=" + mCpuTimeMs + "ms";
+        }
+    }
+}
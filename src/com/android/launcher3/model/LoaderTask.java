@@ -43,6 +43,7 @@ import android.content.pm.ShortcutInfo;
 import android.graphics.Point;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -140,6 +141,12 @@ public class LoaderTask implements Runnable {
     protected final Map<ComponentKey, AppWidgetProviderInfo> mWidgetProvidersMap = new ArrayMap<>();
 
     private boolean mStopped;
+    @Nullable
+    private LoaderPrefetcher mPrefetcher;
+    private long mLastSplitCpuTimeMs;
+    private long mLastSplitWallTimeMs;
+    // Stage durations and counts of this load, reported to LoaderMetrics if it succeeds
+    private final Map<String, Long> mMetrics = new ArrayMap<>();
 
     private final Set<PackageUserKey> mPendingPackages = new HashSet<>();
     private boolean mItemsDeleted = false;
@@ -190,6 +197,51 @@ public class LoaderTask implements Runnable {
         mFirstScreenBroadcast.sendBroadcasts(mApp.getContext(), firstScreenItems);
     }
 
+    /**
+     * Saves the icons of the first screen and the hotseat in the icon atlas, so that the next
+     * load does not need to query and decode them.
+     */
+    private void saveFirstScreenIcons() {
+        if (!mApp.getModel().isModelLoaded()) {
+            return;
+        }
+        ArrayList<ItemInfo> firstScreenItems = new ArrayList<>();
+        ArrayList<WorkspaceItemInfo> firstScreenApps = new ArrayList<>();
+        synchronized (mBgDataModel) {
+            IntArray allScreens = mBgDataModel.collectWorkspaceScreens();
+            filterCurrentWorkspaceItems(IntSet.wrap(allScreens.get(0)),
+                    mBgDataModel.getAllWorkspaceItems(), firstScreenItems,
+                    new ArrayList<>() /* otherScreenItems are ignored */);
+            for (ItemInfo info : firstScreenItems) {
+                if (info instanceof FolderInfo) {
+                    firstScreenApps.addAll(((FolderInfo) info).contents);
+                } else if (info instanceof WorkspaceItemInfo) {
+                    firstScreenApps.add((WorkspaceItemInfo) info);
+                }
+            }
+        }
+        mIconCache.saveIconAtlas(firstScreenApps);
+    }
+
+    /**
+     * Binds the snapshot of the workspace saved by the previous load, if any, so that the first
+     * pages are shown while the workspace is loaded. They are replaced when the loaded workspace
+     * is bound.
+     */
+    private void bindWorkspaceSnapshot() {
+        WorkspaceSnapshot snapshot = mApp.getModel().getWorkspaceSnapshot();
+        if (snapshot == null || FeatureFlags.ENABLE_WORKSPACE_LOADING_OPTIMIZATION.get()) {
+            // The optimized loading already binds the items of the first pages as they are loaded
+            return;
+        }
+        WorkspaceSnapshot.Data data = snapshot.read(mApp.getInvariantDeviceProfile());
+        if (data == null) {
+            return;
+        }
+        verifyNotStopped();
+        mLauncherBinder.bindWorkspaceSnapshot(data);
+    }
+
     public void run() {
         synchronized (this) {
             // Skip fast if we are already stopped.
@@ -200,8 +252,21 @@ public class LoaderTask implements Runnable {
 
         Object traceToken = TraceHelper.INSTANCE.beginSection(TAG);
         TimingLogger timingLogger = new TimingLogger(TAG, "run");
+        mLastSplitCpuTimeMs = SystemClock.currentThreadTimeMillis();
+        mLastSplitWallTimeMs = SystemClock.uptimeMillis();
+        final long startTimeMs = mLastSplitWallTimeMs;
+        final int iconCacheHits = mIconCache.getBulkLoadHitCount();
+        final int iconCacheMisses = mIconCache.getBulkLoadMissCount();
         LoaderMemoryLogger memoryLogger = new LoaderMemoryLogger();
         try (LauncherModel.LoaderTransaction transaction = mApp.getModel().beginLoader(this)) {
+            // Start the queries for the later steps, so that they overlap with the workspace
+            synchronized (this) {
+                verifyNotStopped();
+                mPrefetcher = new LoaderPrefetcher(mApp.getContext());
+            }
+            bindWorkspaceSnapshot();
+            logASplit(timingLogger, "bindWorkspaceSnapshot");
+
             List<ShortcutInfo> allShortcuts = new ArrayList<>();
             Trace.beginSection("LoadWorkspace");
             try {
@@ -223,6 +288,10 @@ public class LoaderTask implements Runnable {
             }
 
             verifyNotStopped();
+            synchronized (mBgDataModel) {
+                mMetrics.put(LoaderMetrics.COUNT_ITEMS_BOUND,
+                        (long) mBgDataModel.itemsIdMap.size());
+            }
             mLauncherBinder.bindWorkspace(true /* incrementBindId */);
             logASplit(timingLogger, "bindWorkspace");
 
@@ -287,8 +356,8 @@ public class LoaderTask implements Runnable {
             verifyNotStopped();
 
             // fourth step
-            List<ComponentWithLabelAndIcon> allWidgetsList =
-                    mBgDataModel.widgetsModel.update(mApp, null);
+            List<ComponentWithLabelAndIcon> allWidgetsList = mBgDataModel.widgetsModel.update(
+                    mApp, null, mPrefetcher.getWidgetProviders());
             logASplit(timingLogger, "load widgets");
 
             verifyNotStopped();
@@ -303,12 +372,29 @@ public class LoaderTask implements Runnable {
 
             // fifth step
             loadFolderNames();
+            logASplit(timingLogger, "loadFolderNames");
 
             verifyNotStopped();
             updateHandler.finish();
             logASplit(timingLogger, "finish icon update");
 
             mModelDelegate.modelLoadComplete();
+            mMetrics.put(LoaderMetrics.STAGE_TOTAL, SystemClock.uptimeMillis() - startTimeMs);
+            mMetrics.put(LoaderMetrics.COUNT_ICON_CACHE_HITS,
+                    (long) (mIconCache.getBulkLoadHitCount() - iconCacheHits));
+            mMetrics.put(LoaderMetrics.COUNT_ICON_CACHE_MISSES,
+                    (long) (mIconCache.getBulkLoadMissCount() - iconCacheMisses));
+            LoaderMetrics loaderMetrics = mApp.getModel().getLoaderMetrics();
+            if (loaderMetrics != null) {
+                loaderMetrics.recordLoad(mMetrics);
+            }
+            WorkspaceSnapshot snapshot = mApp.getModel().getWorkspaceSnapshot();
+            if (snapshot != null && mApp.getInvariantDeviceProfile().dbFile.equals(mDbName)) {
+                snapshot.write(mApp.getInvariantDeviceProfile());
+                logASplit(timingLogger, "writeWorkspaceSnapshot");
+            }
+            // Queued after the tasks updating the icons which changed while launcher was dead
+            MODEL_EXECUTOR.execute(this::saveFirstScreenIcons);
             transaction.commit();
             memoryLogger.clearLogs();
         } catch (CancellationException e) {
@@ -318,6 +404,10 @@ public class LoaderTask implements Runnable {
             memoryLogger.printLogs();
             throw e;
         } finally {
+            if (mPrefetcher != null) {
+                mPrefetcher.cancel();
+                mPrefetcher.getStageTimes().forEach(timingLogger::addSplit);
+            }
             timingLogger.dumpToLog();
         }
         TraceHelper.INSTANCE.endSection(traceToken);
@@ -325,6 +415,9 @@ public class LoaderTask implements Runnable {
 
     public synchronized void stopLocked() {
         mStopped = true;
+        if (mPrefetcher != null) {
+            mPrefetcher.cancel();
+        }
         this.notify();
     }
 
@@ -382,6 +475,7 @@ public class LoaderTask implements Runnable {
                     mApp, mUserManagerState);
             final Bundle extras = c.getExtras();
             mDbName = extras == null ? null : extras.getString(Settings.EXTRA_DB_NAME);
+            mMetrics.put(LoaderMetrics.COUNT_DB_ROWS, (long) c.getCount());
             try {
                 final LongSparseArray<Boolean> unlockedUsers = new LongSparseArray<>();
 
@@ -938,7 +1032,10 @@ public class LoaderTask implements Runnable {
         List<IconRequestInfo<AppInfo>> iconRequestInfos = new ArrayList<>();
         for (UserHandle user : profiles) {
             // Query for the set of apps
-            final List<LauncherActivityInfo> apps = mLauncherApps.getActivityList(null, user);
+            List<LauncherActivityInfo> prefetchedApps =
+                    mPrefetcher == null ? null : mPrefetcher.getActivityList(user);
+            final List<LauncherActivityInfo> apps = prefetchedApps != null
+                    ? prefetchedApps : mLauncherApps.getActivityList(null, user);
             // Fail if we don't have any apps
             // TODO: Fix this. Only fail for the current user.
             if (apps == null || apps.isEmpty()) {
@@ -1007,8 +1104,12 @@ public class LoaderTask implements Runnable {
         if (mBgAllAppsList.hasShortcutHostPermission()) {
             for (UserHandle user : mUserCache.getUserProfiles()) {
                 if (mUserManager.isUserUnlocked(user)) {
-                    List<ShortcutInfo> shortcuts = new ShortcutRequest(mApp.getContext(), user)
-                            .query(ShortcutRequest.ALL);
+                    List<ShortcutInfo> shortcuts =
+                            mPrefetcher == null ? null : mPrefetcher.getDeepShortcuts(user);
+                    if (shortcuts == null) {
+                        shortcuts = new ShortcutRequest(mApp.getContext(), user)
+                                .query(ShortcutRequest.ALL);
+                    }
                     allShortcuts.addAll(shortcuts);
                     mBgDataModel.updateDeepShortcutCounts(null, user, shortcuts);
                 }
@@ -1085,8 +1186,14 @@ public class LoaderTask implements Runnable {
         FileLog.d(TAG, widgetDimension.toString());
     }
 
-    private static void logASplit(@Nullable TimingLogger timingLogger, String label) {
+    private void logASplit(@Nullable TimingLogger timingLogger, String label) {
         if (timingLogger != null) {
+            long cpuTimeMs = SystemClock.currentThreadTimeMillis();
+            long wallTimeMs = SystemClock.uptimeMillis();
+            mMetrics.put(label, wallTimeMs - mLastSplitWallTimeMs);
+            mLastSplitWallTimeMs = wallTimeMs;
+            label += " (cpu=" + (cpuTimeMs - mLastSplitCpuTimeMs) + "ms)";
+            mLastSplitCpuTimeMs = cpuTimeMs;
             timingLogger.addSplit(label);
             if (DEBUG) {
                 Log.d(TAG, label);
@@ -22,12 +22,14 @@ import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
-import android.net.Uri;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
 import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.LauncherModel;
@@ -48,15 +50,18 @@ import com.android.launcher3.model.data.LauncherAppWidgetInfo;
 import com.android.launcher3.model.data.WorkspaceItemInfo;
 import com.android.launcher3.util.ContentWriter;
 import com.android.launcher3.util.Executors;
+import com.android.launcher3.util.IntSparseArrayMap;
 import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.LooperExecutor;
 import com.android.launcher3.widget.LauncherWidgetHolder;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -85,6 +90,16 @@ public class ModelWriter {
     private boolean mPreparingToUndo;
     private final CellPosMapper mCellPosMapper;
 
+    // Writes waiting to be applied on the model thread, one list per flush posted to the model
+    // executor, in the order of the flushes. Guarded by itself.
+    private final ArrayDeque<ArrayList<Runnable>> mPendingWrites = new ArrayDeque<>();
+    // Value of MODEL_EXECUTOR.getPostedCount() when the last flush was posted
+    private long mLastFlushPostedCount;
+    // Batch collecting the database operations of the writes being applied, only accessed on
+    // the model thread
+    @Nullable
+    private WriteBatch mActiveBatch;
+
     public ModelWriter(Context context, LauncherModel model, BgDataModel dataModel,
             boolean hasVerticalHotseat, boolean verifyChanges, CellPosMapper cellPosMapper,
             @Nullable Callbacks owner) {
@@ -219,7 +234,7 @@ public class ModelWriter {
         item.spanY = spanY;
         notifyItemModified(item);
 
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () ->
+        executeWrite(new UpdateItemRunnable(item, () ->
                 new ContentWriter(mContext)
                         .put(Favorites.CONTAINER, item.container)
                         .put(Favorites.CELLX, item.cellX)
@@ -235,7 +250,7 @@ public class ModelWriter {
      */
     public void updateItemInDatabase(ItemInfo item) {
         notifyItemModified(item);
-        MODEL_EXECUTOR.execute(new UpdateItemRunnable(item, () -> {
+        executeWrite(new UpdateItemRunnable(item, () -> {
             ContentWriter writer = new ContentWriter(mContext);
             item.onAddToDatabase(writer);
             return writer;
@@ -260,20 +275,20 @@ public class ModelWriter {
 
         ModelVerifier verifier = new ModelVerifier();
         final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-        MODEL_EXECUTOR.execute(() -> {
+        executeWrite(() -> {
             // Write the item on background thread, as some properties might have been updated in
             // the background.
             final ContentWriter writer = new ContentWriter(mContext);
             item.onAddToDatabase(writer);
             writer.put(Favorites._ID, item.id);
 
-            cr.insert(Favorites.CONTENT_URI, writer.getValues(mContext));
-
-            synchronized (mBgDataModel) {
-                checkItemInfoLocked(item.id, item, stackTrace);
-                mBgDataModel.addItem(mContext, item, true);
-                verifier.verifyModel();
-            }
+            mActiveBatch.insert(item.id, writer.getValues(mContext), () -> {
+                synchronized (mBgDataModel) {
+                    checkItemInfoLocked(item.id, item, stackTrace);
+                    mBgDataModel.addItem(mContext, item, true);
+                    verifier.verifyModel();
+                }
+            });
         });
     }
 
@@ -307,11 +322,10 @@ public class ModelWriter {
         notifyDelete(items);
         enqueueDeleteRunnable(() -> {
             for (ItemInfo item : items) {
-                final Uri uri = Favorites.getContentUri(item.id);
-                mContext.getContentResolver().delete(uri, null, null);
-
-                mBgDataModel.removeItem(mContext, item);
-                verifier.verifyModel();
+                mActiveBatch.delete(item.id, () -> {
+                    mBgDataModel.removeItem(mContext, item);
+                    verifier.verifyModel();
+                });
             }
         });
     }
@@ -324,15 +338,14 @@ public class ModelWriter {
         notifyDelete(Collections.singleton(info));
 
         enqueueDeleteRunnable(() -> {
-            ContentResolver cr = mContext.getContentResolver();
-            cr.delete(LauncherSettings.Favorites.CONTENT_URI,
-                    LauncherSettings.Favorites.CONTAINER + "=" + info.id, null);
-            mBgDataModel.removeItem(mContext, info.contents);
-            info.contents.clear();
-
-            cr.delete(LauncherSettings.Favorites.getContentUri(info.id), null, null);
-            mBgDataModel.removeItem(mContext, info);
-            verifier.verifyModel();
+            mActiveBatch.deleteWhere(LauncherSettings.Favorites.CONTAINER + "=" + info.id, () -> {
+                mBgDataModel.removeItem(mContext, info.contents);
+                info.contents.clear();
+            });
+            mActiveBatch.delete(info.id, () -> {
+                mBgDataModel.removeItem(mContext, info);
+                verifier.verifyModel();
+            });
         });
     }
 
@@ -379,18 +392,106 @@ public class ModelWriter {
         if (mPreparingToUndo) {
             mDeleteRunnables.add(r);
         } else {
-            MODEL_EXECUTOR.execute(r);
+            executeWrite(r);
         }
     }
 
     public void commitDelete() {
         mPreparingToUndo = false;
         for (Runnable runnable : mDeleteRunnables) {
-            MODEL_EXECUTOR.execute(runnable);
+            executeWrite(runnable);
         }
         mDeleteRunnables.clear();
     }
 
+    /**
+     * Runs the write {@param r} on the model thread. Writes posted one after the other, with
+     * nothing else posted to the model thread in between, are coalesced and applied to the
+     * database in one transaction, so that they stay ordered with the other model tasks.
+     */
+    private void executeWrite(Runnable r) {
+        if (MODEL_EXECUTOR.getLooper().isCurrentThread()) {
+            applyWrites(Collections.singletonList(r));
+            return;
+        }
+        synchronized (mPendingWrites) {
+            ArrayList<Runnable> lastWrites = mPendingWrites.peekLast();
+            if (lastWrites != null
+                    && MODEL_EXECUTOR.getPostedCount() == mLastFlushPostedCount) {
+                // The last flush is still the last task on the model thread
+                lastWrites.add(r);
+                return;
+            }
+            ArrayList<Runnable> writes = new ArrayList<>();
+            writes.add(r);
+            mPendingWrites.add(writes);
+            mLastFlushPostedCount =
+                    MODEL_EXECUTOR.postAndGetCount(() -> applyPendingWrites(writes));
+        }
+    }
+
+    /**
+     * Applies all the writes which have been posted so far, and waits for them to be committed to
+     * the database. This should be used by callers which need the database to be up to date,
+     * eg, before reading it directly. Deletes held for undo are not applied until
+     * {@link #commitDelete()} is called.
+     */
+    public void flushPendingWrites() {
+        if (MODEL_EXECUTOR.getLooper().isCurrentThread()) {
+            ArrayList<Runnable> writes;
+            while ((writes = pollPendingWrites(null)) != null) {
+                applyWrites(writes);
+            }
+            return;
+        }
+        try {
+            // Flushes are posted in order, so they have all run once this task runs
+            MODEL_EXECUTOR.submit(() -> { }).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Error waiting for pending writes", e);
+        }
+    }
+
+    @WorkerThread
+    private void applyPendingWrites(ArrayList<Runnable> writes) {
+        if (pollPendingWrites(writes) != null) {
+            applyWrites(writes);
+        }
+    }
+
+    /**
+     * Removes the oldest writes waiting for a flush and returns them, or returns null if there
+     * are none, or if they are not {@param expected} when it is not null. Writes which have been
+     * removed can no longer be joined by new writes.
+     */
+    @Nullable
+    private ArrayList<Runnable> pollPendingWrites(@Nullable ArrayList<Runnable> expected) {
+        synchronized (mPendingWrites) {
+            ArrayList<Runnable> writes = mPendingWrites.peekFirst();
+            if (writes == null || (expected != null && writes != expected)) {
+                // Already applied by flushPendingWrites
+                return null;
+            }
+            return mPendingWrites.pollFirst();
+        }
+    }
+
+    @WorkerThread
+    private void applyWrites(List<Runnable> writes) {
+        // Writes can be flushed from within a model callback of an outer batch
+        WriteBatch outerBatch = mActiveBatch;
+        WriteBatch batch = new WriteBatch();
+        mActiveBatch = batch;
+        try {
+            for (Runnable write : writes) {
+                write.run();
+            }
+        } finally {
+            mActiveBatch = outerBatch;
+            batch.apply();
+        }
+    }
+
     /**
      * Aborts a previous delete operation pending commit
      */
@@ -429,10 +530,8 @@ public class ModelWriter {
 
         @Override
         public void run() {
-            Uri uri = Favorites.getContentUri(mItemId);
-            mContext.getContentResolver().update(uri, mWriter.get().getValues(mContext),
-                    null, null);
-            updateItemArrays(mItem, mItemId);
+            mActiveBatch.update(mItemId, mWriter.get().getValues(mContext),
+                    () -> updateItemArrays(mItem, mItemId));
         }
     }
 
@@ -447,22 +546,112 @@ public class ModelWriter {
 
         @Override
         public void run() {
-            ArrayList<ContentProviderOperation> ops = new ArrayList<>();
             int count = mItems.size();
             for (int i = 0; i < count; i++) {
                 ItemInfo item = mItems.get(i);
                 final int itemId = item.id;
-                final Uri uri = Favorites.getContentUri(itemId);
-                ContentValues values = mValues.get(i);
+                mActiveBatch.update(itemId, mValues.get(i), () -> updateItemArrays(item, itemId));
+            }
+        }
+    }
+
+    /**
+     * Database operations of a set of writes, applied in a single transaction. Writes to an item
+     * which is already part of the batch are merged into the pending operation, with the later
+     * values winning, so that an item is written at most once between two deletes.
+     */
+    private class WriteBatch {
+
+        private final ArrayList<PendingOp> mOps = new ArrayList<>();
+        // Pending insert or update for an item id, since the last delete
+        private final IntSparseArrayMap<PendingOp> mOpsById = new IntSparseArrayMap<>();
+        // Model updates to run once the operations have been applied
+        private final ArrayList<Runnable> mCallbacks = new ArrayList<>();
+
+        void insert(int itemId, ContentValues values, Runnable callback) {
+            PendingOp op = new PendingOp(
+                    ContentProviderOperation.newInsert(Favorites.CONTENT_URI), true, values);
+            mOps.add(op);
+            mOpsById.put(itemId, op);
+            mCallbacks.add(callback);
+        }
+
+        void update(int itemId, ContentValues values, Runnable callback) {
+            PendingOp op = mOpsById.get(itemId);
+            if (op != null) {
+                op.values.putAll(values);
+            } else {
+                op = new PendingOp(ContentProviderOperation.newUpdate(
+                        Favorites.getContentUri(itemId)), false, new ContentValues(values));
+                mOps.add(op);
+                mOpsById.put(itemId, op);
+            }
+            mCallbacks.add(callback);
+        }
 
-                ops.add(ContentProviderOperation.newUpdate(uri).withValues(values).build());
-                updateItemArrays(item, itemId);
+        void delete(int itemId, Runnable callback) {
+            PendingOp op = mOpsById.get(itemId);
+            if (op != null && !op.mIsInsert) {
+                // The row is deleted anyway, no need to update it
+                mOps.remove(op);
             }
-            try {
-                mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
-            } catch (Exception e) {
-                e.printStackTrace();
+            mOps.add(new PendingOp(ContentProviderOperation.newDelete(
+                    Favorites.getContentUri(itemId)), false, null));
+            // Later writes need to be ordered after the delete
+            mOpsById.clear();
+            mCallbacks.add(callback);
+        }
+
+        void deleteWhere(String selection, Runnable callback) {
+            mOps.add(new PendingOp(ContentProviderOperation.newDelete(Favorites.CONTENT_URI)
+                    .withSelection(selection, null), false, null));
+            mOpsById.clear();
+            mCallbacks.add(callback);
+        }
+
+        void apply() {
+            if (!mOps.isEmpty()) {
+                ArrayList<ContentProviderOperation> ops = new ArrayList<>(mOps.size());
+                for (PendingOp op : mOps) {
+                    ops.add(op.build());
+                }
+                try {
+                    mContext.getContentResolver().applyBatch(LauncherProvider.AUTHORITY, ops);
+                } catch (RemoteException | OperationApplicationException e) {
+                    // The batch is applied in one transaction, so none of the operations were
+                    // written. Reload the model from the database instead of updating it with
+                    // changes which are not there.
+                    Log.e(TAG, "Error applying " + ops.size() + " database operations", e);
+                    mModel.forceReload();
+                    return;
+                }
             }
+            // Lock on mBgLock *after* the db operations
+            for (Runnable callback : mCallbacks) {
+                callback.run();
+            }
+
+            if (!mOps.isEmpty()) {
+                mModel.onWorkspaceChanged();
+            }
+        }
+    }
+
+    private static class PendingOp {
+        private final ContentProviderOperation.Builder mBuilder;
+        private final boolean mIsInsert;
+        @Nullable
+        final ContentValues values;
+
+        PendingOp(ContentProviderOperation.Builder builder, boolean isInsert,
+                @Nullable ContentValues values) {
+            mBuilder = builder;
+            mIsInsert = isInsert;
+            this.values = values;
+        }
+
+        ContentProviderOperation build() {
+            return (values == null ? mBuilder : mBuilder.withValues(values)).build();
         }
     }
 
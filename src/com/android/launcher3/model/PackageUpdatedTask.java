@@ -55,6 +55,7 @@ import com.android.launcher3.util.ItemInfoMatcher;
 import com.android.launcher3.util.PackageManagerHelper;
 import com.android.launcher3.util.PackageUserKey;
 import com.android.launcher3.util.SafeCloseable;
+import com.android.launcher3.widget.WidgetPreviewCache;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -205,6 +206,14 @@ public class PackageUpdatedTask extends BaseModelUpdateTask {
 
         bindApplicationsIfNeeded();
 
+        if (mOp == OP_ADD || mOp == OP_UPDATE || mOp == OP_REMOVE) {
+            // Widget previews rendered for a previous install of the package are no longer valid
+            WidgetPreviewCache previewCache = WidgetPreviewCache.INSTANCE.get(context);
+            for (int i = 0; i < N; i++) {
+                previewCache.removePackage(packages[i], mUser);
+            }
+        }
+
         final IntSet removedShortcuts = new IntSet();
         // Shortcuts to keep even if the corresponding app was removed
         final IntSet forceKeepShortcuts = new IntSet();
@@ -383,9 +392,10 @@ public class PackageUpdatedTask extends BaseModelUpdateTask {
                     .removeFromInstallQueue(removedPackages, mUser);
         }
 
-        if (mOp == OP_ADD) {
-            // Load widgets for the new package. Changes due to app updates are handled through
-            // AppWidgetHost events, this is just to initialize the long-press options.
+        if (mOp == OP_ADD || mOp == OP_REMOVE) {
+            // Load or clear the widgets of the changed packages only. Changes due to app updates
+            // are handled through AppWidgetHost events, this is just to initialize the long-press
+            // options.
             for (int i = 0; i < N; i++) {
                 dataModel.widgetsModel.update(app, new PackageUserKey(packages[i], mUser));
             }
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_FOLDER;
+import static com.android.launcher3.model.data.ItemInfoWithIcon.FLAG_DISABLED_MASK;
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+
+import android.content.Intent;
+import android.os.UserHandle;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.LauncherAppState;
+import com.android.launcher3.LauncherModel;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.IconRequestInfo;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.pm.UserCache;
+import com.android.launcher3.util.IntArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted copy of the bound workspace, used to bind the first pages immediately on the next
+ * start while {@link LoaderTask} loads the actual workspace.
+ *
+ * Only applications and folders of applications are part of the snapshot, with their resolved
+ * titles. Icons are not stored, they are looked up in the low-res icon cache when the snapshot
+ * is read. The snapshot is written after each successful load, and deleted as soon as the
+ * workspace is modified, then written again once the changes settle.
+ *
+ * Layout: header (magic, version, db file, grid size), screen ids, then the items, each folder
+ * being followed by its contents.
+ */
+public class WorkspaceSnapshot {
+
+    private static final String TAG = "WorkspaceSnapshot";
+
+    private static final String FILE_NAME = "workspace_snapshot";
+    private static final int MAGIC = 0x57534e50; // WSNP
+    private static final int FORMAT_VERSION = 1;
+
+    // Delay before writing the snapshot again after the workspace was modified
+    private static final long REWRITE_DELAY_MS = 5000;
+
+    private final LauncherAppState mApp;
+    private final LauncherModel mModel;
+    private final BgDataModel mBgDataModel;
+    private final File mFile;
+
+    // Whether the file matches the model, only accessed on the model thread
+    private boolean mUpToDate;
+
+    private final Runnable mRewriteRunnable = this::rewrite;
+
+    public WorkspaceSnapshot(LauncherAppState app, LauncherModel model, BgDataModel dataModel) {
+        mApp = app;
+        mModel = model;
+        mBgDataModel = dataModel;
+        mFile = new File(app.getContext().getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * Reads the snapshot, returning null if it is missing, invalid or was written for a different
+     * grid. The icons of the items are loaded from the low-res icon cache.
+     */
+    @WorkerThread
+    @Nullable
+    public Data read(InvariantDeviceProfile idp) {
+        byte[] content;
+        try {
+            content = new AtomicFile(mFile).readFully();
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read workspace snapshot", e);
+            return null;
+        }
+
+        UserCache userCache = UserCache.INSTANCE.get(mApp.getContext());
+        Data data;
+        try {
+            data = decode(content, idp, userCache::getUserForSerialNumber);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Invalid workspace snapshot", e);
+            data = null;
+        }
+        if (data == null) {
+            return null;
+        }
+
+        List<IconRequestInfo<WorkspaceItemInfo>> iconRequests = new ArrayList<>();
+        for (ItemInfo item : data.items) {
+            if (item instanceof FolderInfo) {
+                ((FolderInfo) item).contents.forEach(
+                        i -> iconRequests.add(new IconRequestInfo<>(i, null, true)));
+            } else {
+                iconRequests.add(new IconRequestInfo<>((WorkspaceItemInfo) item, null, true));
+            }
+        }
+        mApp.getIconCache().getTitlesAndIconsInBulk(iconRequests);
+        return data;
+    }
+
+    /**
+     * Writes the current content of the model to the snapshot file.
+     */
+    @WorkerThread
+    public void write(InvariantDeviceProfile idp) {
+        MODEL_EXECUTOR.getHandler().removeCallbacks(mRewriteRunnable);
+        byte[] content;
+        try {
+            synchronized (mBgDataModel) {
+                content = encode(idp, mBgDataModel.collectWorkspaceScreens(),
+                        mBgDataModel.workspaceItems,
+                        UserCache.INSTANCE.get(mApp.getContext())::getSerialNumberForUser);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to encode workspace snapshot", e);
+            return;
+        }
+
+        AtomicFile atomicFile = new AtomicFile(mFile);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            fos.write(content);
+            atomicFile.finishWrite(fos);
+            mUpToDate = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write workspace snapshot", e);
+            if (fos != null) {
+                atomicFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * Called after the workspace was modified. The outdated snapshot is deleted right away, and
+     * a new one is written once there are no more changes.
+     */
+    @WorkerThread
+    public void onWorkspaceChanged() {
+        if (mUpToDate) {
+            mUpToDate = false;
+            mFile.delete();
+        }
+        MODEL_EXECUTOR.getHandler().removeCallbacks(mRewriteRunnable);
+        MODEL_EXECUTOR.getHandler().postDelayed(mRewriteRunnable, REWRITE_DELAY_MS);
+    }
+
+    private void rewrite() {
+        if (!mUpToDate && mModel.isModelLoaded()) {
+            write(mApp.getInvariantDeviceProfile());
+        }
+    }
+
+    @VisibleForTesting
+    static byte[] encode(InvariantDeviceProfile idp, IntArray screenIds, List<ItemInfo> items,
+            UserSerialProvider userSerials) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(idp.dbFile);
+        out.writeInt(idp.numColumns);
+        out.writeInt(idp.numRows);
+        out.writeInt(idp.numDatabaseHotseatIcons);
+
+        out.writeInt(screenIds.size());
+        for (int i = 0; i < screenIds.size(); i++) {
+            out.writeInt(screenIds.get(i));
+        }
+
+        ArrayList<ItemInfo> supportedItems = new ArrayList<>();
+        for (ItemInfo item : items) {
+            if ((item.container == CONTAINER_DESKTOP || item.container == CONTAINER_HOTSEAT)
+                    && (item instanceof FolderInfo || isSupportedApp(item))) {
+                supportedItems.add(item);
+            }
+        }
+        out.writeInt(supportedItems.size());
+        for (ItemInfo item : supportedItems) {
+            writeItem(out, item, userSerials);
+            if (item instanceof FolderInfo) {
+                ArrayList<WorkspaceItemInfo> contents = new ArrayList<>();
+                for (WorkspaceItemInfo info : ((FolderInfo) item).contents) {
+                    if (isSupportedApp(info)) {
+                        contents.add(info);
+                    }
+                }
+                out.writeInt(contents.size());
+                for (WorkspaceItemInfo info : contents) {
+                    writeItem(out, info, userSerials);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static boolean isSupportedApp(ItemInfo item) {
+        return item.itemType == ITEM_TYPE_APPLICATION && item instanceof WorkspaceItemInfo
+                && ((WorkspaceItemInfo) item).intent != null
+                && ((WorkspaceItemInfo) item).status == 0;
+    }
+
+    private static void writeItem(DataOutputStream out, ItemInfo item,
+            UserSerialProvider userSerials) throws IOException {
+        out.writeInt(item.itemType);
+        out.writeInt(item.id);
+        out.writeInt(item.container);
+        out.writeInt(item.screenId);
+        out.writeInt(item.cellX);
+        out.writeInt(item.cellY);
+        out.writeInt(item.spanX);
+        out.writeInt(item.spanY);
+        out.writeInt(item.rank);
+        out.writeLong(userSerials.getSerialNumberForUser(item.user));
+        out.writeUTF(item.title == null ? "" : item.title.toString());
+        if (item instanceof FolderInfo) {
+            out.writeInt(((FolderInfo) item).options);
+        } else {
+            WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+            out.writeInt(info.runtimeStatusFlags & FLAG_DISABLED_MASK);
+            out.writeUTF(info.intent.toUri(0));
+        }
+    }
+
+    /**
+     * Returns the content of the snapshot, or null if it does not match the grid.
+     */
+    @VisibleForTesting
+    @Nullable
+    static Data decode(byte[] content, InvariantDeviceProfile idp, UserProvider users)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                || !idp.dbFile.equals(in.readUTF())
+                || in.readInt() != idp.numColumns
+                || in.readInt() != idp.numRows
+                || in.readInt() != idp.numDatabaseHotseatIcons) {
+            return null;
+        }
+
+        Data data = new Data();
+        int screenCount = in.readInt();
+        for (int i = 0; i < screenCount; i++) {
+            data.screenIds.add(in.readInt());
+        }
+
+        int itemCount = in.readInt();
+        for (int i = 0; i < itemCount; i++) {
+            ItemInfo item = readItem(in, users);
+            if (item instanceof FolderInfo) {
+                FolderInfo folder = (FolderInfo) item;
+                int contentCount = in.readInt();
+                for (int j = 0; j < contentCount; j++) {
+                    ItemInfo info = readItem(in, users);
+                    if (info != null) {
+                        folder.contents.add((WorkspaceItemInfo) info);
+                    }
+                }
+                if (folder.user == null) {
+                    continue;
+                }
+            }
+            if (item != null) {
+                data.items.add(item);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Reads an item, returning null if it can not be restored. Folders are always returned so
+     * that their contents can be read.
+     */
+    @Nullable
+    private static ItemInfo readItem(DataInputStream in, UserProvider users) throws IOException {
+        int itemType = in.readInt();
+        ItemInfo item;
+        if (itemType == ITEM_TYPE_FOLDER) {
+            item = new FolderInfo();
+        } else if (itemType == ITEM_TYPE_APPLICATION) {
+            item = new WorkspaceItemInfo();
+        } else {
+            throw new IOException("Unexpected item type " + itemType);
+        }
+        item.itemType = itemType;
+        item.id = in.readInt();
+        item.container = in.readInt();
+        item.screenId = in.readInt();
+        item.cellX = in.readInt();
+        item.cellY = in.readInt();
+        item.spanX = in.readInt();
+        item.spanY = in.readInt();
+        item.rank = in.readInt();
+        UserHandle user = users.getUserForSerialNumber(in.readLong());
+        item.user = user;
+        item.title = in.readUTF();
+
+        if (item instanceof FolderInfo) {
+            ((FolderInfo) item).options = in.readInt();
+            return item;
+        }
+        WorkspaceItemInfo info = (WorkspaceItemInfo) item;
+        info.runtimeStatusFlags = in.readInt();
+        String uri = in.readUTF();
+        if (user == null) {
+            return null;
+        }
+        try {
+            info.intent = Intent.parseUri(uri, 0);
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        return info;
+    }
+
+    /**
+     * Content of a snapshot
+     */
+    public static class Data {
+        public final IntArray screenIds = new IntArray();
+        // Items on the desktop and in the hotseat, folders including their contents
+        public final ArrayList<ItemInfo> items = new ArrayList<>();
+    }
+
+    @VisibleForTesting
+    interface UserSerialProvider {
+        long getSerialNumberForUser(UserHandle user);
+    }
+
+    @VisibleForTesting
+    interface UserProvider {
+        @Nullable
+        UserHandle getUserForSerialNumber(long serialNumber);
+    }
+}
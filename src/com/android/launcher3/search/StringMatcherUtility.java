@@ -20,7 +20,9 @@ import android.text.TextUtils;
 
 import com.android.launcher3.util.IntArray;
 
+import java.text.CollationElementIterator;
 import java.text.Collator;
+import java.text.RuleBasedCollator;
 import java.util.stream.IntStream;
 
 /**
@@ -65,6 +67,65 @@ public class StringMatcherUtility {
         return false;
     }
 
+    /**
+     * Returns all the positions in {@code target} where {@link #matches} would try to match a
+     * query. The result only depends on the target, so it can be computed once and reused with
+     * {@link #matches(String, String, IntArray, StringMatcher)} for every query.
+     */
+    public static IntArray getMatchStartPositions(String target, StringMatcher matcher) {
+        int targetLength = target.length();
+        IntArray positions = new IntArray();
+        if (targetLength == 0) {
+            return positions;
+        }
+
+        int lastType;
+        int thisType = Character.UNASSIGNED;
+        int nextType = Character.getType(target.codePointAt(0));
+        for (int i = 0; i < targetLength; i++) {
+            lastType = thisType;
+            thisType = nextType;
+            nextType = i < (targetLength - 1)
+                    ? Character.getType(target.codePointAt(i + 1)) : Character.UNASSIGNED;
+            if (matcher.isBreak(thisType, lastType, nextType)) {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Same as {@link #matches(String, String, StringMatcher)}, but uses the {@code positions}
+     * previously returned by {@link #getMatchStartPositions} for the {@code target}.
+     */
+    public static boolean matches(String query, String target, IntArray positions,
+            StringMatcher matcher) {
+        int queryLength = query.length();
+        int targetLength = target.length();
+
+        if (targetLength < queryLength || queryLength <= 0) {
+            return false;
+        }
+
+        if (requestSimpleFuzzySearch(query)) {
+            return target.toLowerCase().contains(query);
+        }
+
+        int end = targetLength - queryLength;
+        int count = positions.size();
+        for (int j = 0; j < count; j++) {
+            int i = positions.get(j);
+            if (i > end) {
+                // Positions are sorted
+                return false;
+            }
+            if (matcher.matches(query, target.substring(i, i + queryLength))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns a list of breakpoints wherever the string contains a break. For example:
      * "t-mobile" would have breakpoints at [0, 1]
@@ -107,7 +168,13 @@ public class StringMatcherUtility {
 
         private static final char MAX_UNICODE = '\uFFFF';
 
+        /**
+         * Returned by {@link #getPrimaryOrder} when the primary order is not known
+         */
+        public static final int NO_PRIMARY_ORDER = 0;
+
         private final Collator mCollator;
+        private CollationElementIterator mElementIterator;
 
         StringMatcher() {
             // On android N and above, Collator uses ICU implementation which has a much better
@@ -135,6 +202,34 @@ public class StringMatcherUtility {
             }
         }
 
+        /**
+         * Returns the primary collation order of the code point at {@param index} in
+         * {@param text}, or {@link #NO_PRIMARY_ORDER} if it is ignorable or cannot be computed.
+         *
+         * Since a query can only match a target if their collation elements are equal at primary
+         * strength, this can be used to bucket targets by the first character of each word.
+         */
+        public int getPrimaryOrder(String text, int index) {
+            if (!(mCollator instanceof RuleBasedCollator)) {
+                return NO_PRIMARY_ORDER;
+            }
+            String codePoint = new String(Character.toChars(text.codePointAt(index)));
+            if (mElementIterator == null) {
+                mElementIterator =
+                        ((RuleBasedCollator) mCollator).getCollationElementIterator(codePoint);
+            } else {
+                mElementIterator.setText(codePoint);
+            }
+            int element;
+            while ((element = mElementIterator.next()) != CollationElementIterator.NULLORDER) {
+                int primary = CollationElementIterator.primaryOrder(element);
+                if (primary != NO_PRIMARY_ORDER) {
+                    return primary;
+                }
+            }
+            return NO_PRIMARY_ORDER;
+        }
+
         public static StringMatcher getInstance() {
             return new StringMatcher();
         }
@@ -216,7 +311,7 @@ public class StringMatcherUtility {
     /**
      * Matching optimization to search in Chinese.
      */
-    private static boolean requestSimpleFuzzySearch(String s) {
+    public static boolean requestSimpleFuzzySearch(String s) {
         for (int i = 0; i < s.length(); ) {
             int codepoint = s.codePointAt(i);
             i += Character.charCount(codepoint);
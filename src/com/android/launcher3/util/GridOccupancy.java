@@ -2,22 +2,34 @@ package com.android.launcher3.util;
 
 import android.graphics.Rect;
 
+import androidx.annotation.Nullable;
+
 import com.android.launcher3.model.data.ItemInfo;
 
+import java.util.Arrays;
+
 /**
  * Utility object to manage the occupancy in a grid.
+ *
+ * Each row is stored as a bitmask where bit x represents the cell (x, y), so that region
+ * queries, copies and searches operate on a whole row at once.
  */
 public class GridOccupancy extends AbsGridOccupancy {
 
+    public static final int MAX_COUNT_X = Long.SIZE;
+
     private final int mCountX;
     private final int mCountY;
 
-    public final boolean[][] cells;
+    private final long[] mRows;
 
     public GridOccupancy(int countX, int countY) {
+        if (countX > MAX_COUNT_X) {
+            throw new IllegalArgumentException("Grid too wide: " + countX);
+        }
         mCountX = countX;
         mCountY = countY;
-        cells = new boolean[countX][countY];
+        mRows = new long[countY];
     }
 
     /**
@@ -30,38 +42,76 @@ public class GridOccupancy extends AbsGridOccupancy {
      * @return true if a vacant cell was found
      */
     public boolean findVacantCell(int[] vacantOut, int spanX, int spanY) {
-        return super.findVacantCell(vacantOut, cells, mCountX, mCountY, spanX, spanY);
+        return super.findVacantCell(vacantOut, mRows, mCountX, mCountY, spanX, spanY);
     }
 
     public void copyTo(GridOccupancy dest) {
-        for (int i = 0; i < mCountX; i++) {
-            for (int j = 0; j < mCountY; j++) {
-                dest.cells[i][j] = cells[i][j];
-            }
-        }
+        System.arraycopy(mRows, 0, dest.mRows, 0, mCountY);
+    }
+
+    /**
+     * Returns true if the cell (x, y) is occupied
+     */
+    public boolean isOccupied(int x, int y) {
+        return (mRows[y] & (1L << x)) != 0;
     }
 
     public boolean isRegionVacant(int x, int y, int spanX, int spanY) {
+        return isRegionVacant(x, y, spanX, spanY, null);
+    }
+
+    /**
+     * Returns true if the region is vacant, only considering the cells which are occupied in
+     * {@param blockMask}, offset by x, y. If the mask is null, all the cells are considered.
+     */
+    public boolean isRegionVacant(int x, int y, int spanX, int spanY,
+            @Nullable GridOccupancy blockMask) {
         int x2 = x + spanX - 1;
         int y2 = y + spanY - 1;
         if (x < 0 || y < 0 || x2 >= mCountX || y2 >= mCountY) {
             return false;
         }
-        for (int i = x; i <= x2; i++) {
-            for (int j = y; j <= y2; j++) {
-                if (cells[i][j]) {
-                    return false;
-                }
+        long mask = spanMask(spanX);
+        for (int j = y; j <= y2; j++) {
+            long rowMask = blockMask == null ? mask : (blockMask.mRows[j - y] & mask);
+            if (((mRows[j] >>> x) & rowMask) != 0) {
+                return false;
             }
         }
         return true;
     }
 
+    /**
+     * Returns a mask where bit x is set if the region of {@param spanX} by {@param spanY} cells
+     * starting at (x, y) is vacant and within the grid.
+     */
+    public long getVacantPositions(int y, int spanX, int spanY) {
+        if (y < 0 || spanX <= 0 || spanY <= 0 || spanX > mCountX || y + spanY > mCountY) {
+            return 0;
+        }
+        long occupied = 0;
+        for (int j = y; j < y + spanY; j++) {
+            occupied |= mRows[j];
+        }
+        long vacant = ~occupied & spanMask(mCountX);
+        long positions = vacant;
+        for (int i = 1; i < spanX && positions != 0; i++) {
+            positions &= vacant >>> i;
+        }
+        return positions;
+    }
+
     public void markCells(int cellX, int cellY, int spanX, int spanY, boolean value) {
         if (cellX < 0 || cellY < 0) return;
-        for (int x = cellX; x < cellX + spanX && x < mCountX; x++) {
-            for (int y = cellY; y < cellY + spanY && y < mCountY; y++) {
-                cells[x][y] = value;
+        int endX = Math.min(cellX + spanX, mCountX);
+        int endY = Math.min(cellY + spanY, mCountY);
+        if (endX <= cellX) return;
+        long mask = spanMask(endX - cellX) << cellX;
+        for (int y = cellY; y < endY; y++) {
+            if (value) {
+                mRows[y] |= mask;
+            } else {
+                mRows[y] &= ~mask;
             }
         }
     }
@@ -79,7 +129,17 @@ public class GridOccupancy extends AbsGridOccupancy {
     }
 
     public void clear() {
-        markCells(0, 0, mCountX, mCountY, false);
+        Arrays.fill(mRows, 0);
+    }
+
+    /**
+     * Returns a mask with the lowest {@param span} bits set
+     */
+    public static long spanMask(int span) {
+        if (span <= 0) {
+            return 0;
+        }
+        return span >= Long.SIZE ? -1L : (1L << span) - 1;
     }
 
     @Override
@@ -87,7 +147,7 @@ public class GridOccupancy extends AbsGridOccupancy {
         StringBuilder s = new StringBuilder("Grid: \n");
         for (int y = 0; y < mCountY; y++) {
             for (int x = 0; x < mCountX; x++) {
-                s.append(cells[x][y] ? 1 : 0).append(" ");
+                s.append(isOccupied(x, y) ? 1 : 0).append(" ");
             }
             s.append("\n");
         }
@@ -31,6 +31,9 @@ public class LooperExecutor extends AbstractExecutorService {
 
     private final Handler mHandler;
 
+    // Number of runnables posted through this executor, guarded by this
+    private long mPostedCount;
+
     public LooperExecutor(Looper looper) {
         mHandler = new Handler(looper);
     }
@@ -44,7 +47,7 @@ public class LooperExecutor extends AbstractExecutorService {
         if (getHandler().getLooper() == Looper.myLooper()) {
             runnable.run();
         } else {
-            getHandler().post(runnable);
+            post(runnable);
         }
     }
 
@@ -52,7 +55,24 @@ public class LooperExecutor extends AbstractExecutorService {
      * Same as execute, but never runs the action inline.
      */
     public void post(Runnable runnable) {
+        postAndGetCount(runnable);
+    }
+
+    /**
+     * Same as {@link #post}, but returns the number of runnables posted through this executor
+     * so far, including {@param runnable}. If {@link #getPostedCount()} later returns the same
+     * value, nothing was posted through this executor after {@param runnable}.
+     */
+    public synchronized long postAndGetCount(Runnable runnable) {
         getHandler().post(runnable);
+        return ++mPostedCount;
+    }
+
+    /**
+     * Returns the number of runnables posted through this executor so far
+     */
+    public synchronized long getPostedCount() {
+        return mPostedCount;
     }
 
     /**
@@ -33,8 +33,13 @@ import com.android.launcher3.pm.UserCache;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -42,13 +47,20 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.LongFunction;
 
 /**
  * Utility class to read/write a list of {@link com.android.launcher3.model.data.ItemInfo} on disk.
  * This class is not thread safe, the caller should ensure proper threading
+ *
+ * Items are stored in a binary file as a log of records: {@link #add} appends a record for the
+ * item and {@link #remove} appends a tombstone, and the file is compacted by rewriting the live
+ * items once the tombstones outnumber them. Files in the previous XML format are migrated when
+ * they are first read.
  */
 public class PersistedItemArray<T extends ItemInfo> {
 
@@ -57,55 +69,131 @@ public class PersistedItemArray<T extends ItemInfo> {
     private static final String TAG_ROOT = "items";
     private static final String TAG_ENTRY = "entry";
 
+    private static final int MAGIC = 0x50494131; // PIA1
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte RECORD_ADD = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    // Minimum number of dead records before the file is compacted
+    private static final int MIN_COMPACTION_RECORDS = 16;
+    // Upper bound of the intent of a record, anything larger is considered corrupt
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
     private final String mFileName;
+    private final String mLegacyFileName;
+
+    // Number of live items and of dead records (removed items and tombstones) in the file
+    private int mLiveCount;
+    private int mDeadCount;
 
     public PersistedItemArray(String fileName) {
-        mFileName = fileName + ".xml";
+        mFileName = fileName + ".bin";
+        mLegacyFileName = fileName + ".xml";
     }
 
     /**
-     * Writes the provided list of items on the disk
+     * Writes the provided list of items on the disk, replacing the existing ones
      */
     @WorkerThread
     public void write(Context context, List<T> items) {
+        UserCache userCache = UserCache.INSTANCE.get(context);
+        List<Record> records = new ArrayList<>(items.size());
+        for (T item : items) {
+            Record record = Record.fromItem(item, userCache);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        if (writeRecords(context, records)) {
+            // The items replace the ones which were not migrated yet
+            context.getFileStreamPath(mLegacyFileName).delete();
+        }
+    }
+
+    private boolean writeRecords(Context context, List<Record> records) {
         AtomicFile file = getFile(context);
         FileOutputStream fos;
         try {
             fos = file.startWrite();
         } catch (IOException e) {
             Log.e(TAG, "Unable to persist items in " + mFileName, e);
-            return;
+            return false;
         }
 
-        UserCache userCache = UserCache.INSTANCE.get(context);
-
         try {
-            XmlSerializer out = Xml.newSerializer();
-            out.setOutput(fos, StandardCharsets.UTF_8.name());
-            out.startDocument(null, true);
-            out.startTag(null, TAG_ROOT);
-            for (T item : items) {
-                Intent intent = item.getIntent();
-                if (intent == null) {
-                    continue;
-                }
-
-                out.startTag(null, TAG_ENTRY);
-                out.attribute(null, Favorites.ITEM_TYPE, Integer.toString(item.itemType));
-                out.attribute(null, Favorites.PROFILE_ID,
-                        Long.toString(userCache.getSerialNumberForUser(item.user)));
-                out.attribute(null, Favorites.INTENT, intent.toUri(0));
-                out.endTag(null, TAG_ENTRY);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            for (Record record : records) {
+                record.writeTo(out, RECORD_ADD);
             }
-            out.endTag(null, TAG_ROOT);
-            out.endDocument();
+            out.flush();
         } catch (IOException e) {
             file.failWrite(fos);
             Log.e(TAG, "Unable to persist items in " + mFileName, e);
-            return;
+            return false;
         }
 
         file.finishWrite(fos);
+        mLiveCount = records.size();
+        mDeadCount = 0;
+        return true;
+    }
+
+    /**
+     * Appends the {@param item} to the items on the disk
+     */
+    @WorkerThread
+    public void add(Context context, T item) {
+        if (appendRecords(context, RECORD_ADD, Collections.singletonList(item))) {
+            mLiveCount++;
+        }
+    }
+
+    /**
+     * Removes the {@param removedItems} from the items on the disk. The file is rewritten with
+     * the {@param remainingItems} if it contains too many removed entries.
+     */
+    @WorkerThread
+    public void remove(Context context, List<T> removedItems, List<T> remainingItems) {
+        if (removedItems.isEmpty()) {
+            return;
+        }
+        int removedCount = removedItems.size();
+        mLiveCount = Math.max(0, mLiveCount - removedCount);
+        mDeadCount += 2 * removedCount;
+        if (mDeadCount >= MIN_COMPACTION_RECORDS && mDeadCount > mLiveCount) {
+            write(context, remainingItems);
+        } else if (!appendRecords(context, RECORD_REMOVE, removedItems)) {
+            write(context, remainingItems);
+        }
+    }
+
+    private boolean appendRecords(Context context, byte type, List<T> items) {
+        if (!migrateLegacyFile(context)) {
+            return false;
+        }
+        File file = getFile(context).getBaseFile();
+        boolean exists = file.exists();
+        UserCache userCache = UserCache.INSTANCE.get(context);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true /* append */)))) {
+            if (!exists) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+            }
+            for (T item : items) {
+                Record record = Record.fromItem(item, userCache);
+                if (record != null) {
+                    record.writeTo(out, type);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to persist items in " + mFileName, e);
+            return false;
+        }
     }
 
     /**
@@ -122,8 +210,136 @@ public class PersistedItemArray<T extends ItemInfo> {
      */
     @WorkerThread
     public List<T> read(Context context, ItemFactory<T> factory, LongFunction<UserHandle> userFn) {
+        if (!migrateLegacyFile(context)) {
+            // Keep the XML file until its items can be migrated
+            mLiveCount = mDeadCount = 0;
+            return createItems(readLegacyRecords(context.getFileStreamPath(mLegacyFileName)),
+                    factory, userFn);
+        }
+
+        AtomicFile file = getFile(context);
+        ArrayList<Record> records = new ArrayList<>();
+        int deadCount = 0;
+        boolean truncated = false;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            boolean validHeader;
+            try {
+                validHeader = in.readInt() == MAGIC && in.readInt() == FORMAT_VERSION;
+            } catch (EOFException e) {
+                validHeader = false;
+            }
+            if (!validHeader) {
+                // Delete the file, so that new records are not appended to it
+                Log.e(TAG, "Invalid file format in " + mFileName);
+                file.delete();
+                mLiveCount = mDeadCount = 0;
+                return new ArrayList<>();
+            }
+            while (true) {
+                int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                Record record;
+                try {
+                    int itemType = in.readInt();
+                    long userSerial = in.readLong();
+                    int length = in.readInt();
+                    if ((type != RECORD_ADD && type != RECORD_REMOVE)
+                            || length < 0 || length > MAX_RECORD_BYTES) {
+                        Log.e(TAG, "Invalid record in " + mFileName);
+                        truncated = true;
+                        break;
+                    }
+                    byte[] intentUri = new byte[length];
+                    in.readFully(intentUri);
+                    record = new Record(itemType, userSerial, intentUri);
+                } catch (EOFException e) {
+                    // The last record was not fully written
+                    truncated = true;
+                    break;
+                }
+                if (type == RECORD_ADD) {
+                    records.add(record);
+                } else {
+                    // A tombstone removes the oldest matching item
+                    deadCount++;
+                    int index = records.indexOf(record);
+                    if (index >= 0) {
+                        records.remove(index);
+                        deadCount++;
+                    }
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Ignore
+            mLiveCount = mDeadCount = 0;
+            return new ArrayList<>();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read items in " + mFileName, e);
+            return Collections.emptyList();
+        }
+
+        List<T> result = createItems(records, factory, userFn);
+        mLiveCount = records.size();
+        mDeadCount = deadCount;
+        if (truncated) {
+            // Rewrite the file so that new records are not appended after a partial or
+            // unreadable one
+            write(context, result);
+        }
+        return result;
+    }
+
+    private List<T> createItems(List<Record> records, ItemFactory<T> factory,
+            LongFunction<UserHandle> userFn) {
         List<T> result = new ArrayList<>();
-        try (FileInputStream fis = getFile(context).openRead()) {
+        for (Record record : records) {
+            try {
+                UserHandle user = userFn.apply(record.userSerial);
+                Intent intent = Intent.parseUri(
+                        new String(record.intentUri, StandardCharsets.UTF_8), 0);
+                if (user != null && intent != null) {
+                    T item = factory.createInfo(record.itemType, user, intent);
+                    if (item != null) {
+                        result.add(item);
+                    }
+                }
+            } catch (Exception e) {
+                // Ignore this entry
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the items of a file in the XML format used previously to the binary file. The XML
+     * file is only deleted once its items are persisted.
+     *
+     * @return false if there are items which could not be migrated
+     */
+    private boolean migrateLegacyFile(Context context) {
+        File legacyFile = context.getFileStreamPath(mLegacyFileName);
+        if (!legacyFile.exists()) {
+            return true;
+        }
+        // If the binary file already exists, the items were migrated but the XML file was not
+        // deleted
+        if (!getFile(context).getBaseFile().exists()
+                && !writeRecords(context, readLegacyRecords(legacyFile))) {
+            return false;
+        }
+        legacyFile.delete();
+        return true;
+    }
+
+    /**
+     * Reads the entries of a file in the XML format used previously
+     */
+    private List<Record> readLegacyRecords(File legacyFile) {
+        List<Record> result = new ArrayList<>();
+        try (FileInputStream fis = new AtomicFile(legacyFile).openRead()) {
             XmlPullParser parser = Xml.newPullParser();
             parser.setInput(new InputStreamReader(fis, StandardCharsets.UTF_8));
 
@@ -137,28 +353,17 @@ public class PersistedItemArray<T extends ItemInfo> {
                     continue;
                 }
                 try {
-                    int itemType = Integer.parseInt(
-                            parser.getAttributeValue(null, Favorites.ITEM_TYPE));
-                    UserHandle user = userFn.apply(Long.parseLong(
-                            parser.getAttributeValue(null, Favorites.PROFILE_ID)));
-                    Intent intent = Intent.parseUri(
-                            parser.getAttributeValue(null, Favorites.INTENT), 0);
-
-                    if (user != null && intent != null) {
-                        T item = factory.createInfo(itemType, user, intent);
-                        if (item != null) {
-                            result.add(item);
-                        }
-                    }
+                    result.add(new Record(
+                            Integer.parseInt(parser.getAttributeValue(null, Favorites.ITEM_TYPE)),
+                            Long.parseLong(parser.getAttributeValue(null, Favorites.PROFILE_ID)),
+                            parser.getAttributeValue(null, Favorites.INTENT)
+                                    .getBytes(StandardCharsets.UTF_8)));
                 } catch (Exception e) {
                     // Ignore this entry
                 }
             }
-        } catch (FileNotFoundException e) {
-            // Ignore
         } catch (IOException | XmlPullParserException e) {
-            Log.e(TAG, "Unable to read items in " + mFileName, e);
-            return Collections.emptyList();
+            Log.e(TAG, "Unable to read items in " + mLegacyFileName, e);
         }
         return result;
     }
@@ -181,4 +386,50 @@ public class PersistedItemArray<T extends ItemInfo> {
         @Nullable
         T createInfo(int itemType, UserHandle user, Intent intent);
     }
+
+    private static class Record {
+
+        final int itemType;
+        final long userSerial;
+        final byte[] intentUri;
+
+        Record(int itemType, long userSerial, byte[] intentUri) {
+            this.itemType = itemType;
+            this.userSerial = userSerial;
+            this.intentUri = intentUri;
+        }
+
+        @Nullable
+        static Record fromItem(ItemInfo item, UserCache userCache) {
+            Intent intent = item.getIntent();
+            if (intent == null) {
+                return null;
+            }
+            return new Record(item.itemType, userCache.getSerialNumberForUser(item.user),
+                    intent.toUri(0).getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeTo(DataOutputStream out, byte type) throws IOException {
+            out.writeByte(type);
+            out.writeInt(itemType);
+            out.writeLong(userSerial);
+            out.writeInt(intentUri.length);
+            out.write(intentUri);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Record)) {
+                return false;
+            }
+            Record other = (Record) obj;
+            return itemType == other.itemType && userSerial == other.userSerial
+                    && Arrays.equals(intentUri, other.intentUri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(itemType, userSerial, Arrays.hashCode(intentUri));
+        }
+    }
 }
@@ -15,21 +15,38 @@
  */
 package com.android.launcher3.util;
 
+import static com.android.launcher3.util.Executors.THREAD_POOL_EXECUTOR;
+
 import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
 import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
 import com.android.launcher3.R;
 
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Utility class to cache views at an activity level
  */
 public class ViewCache {
 
+    private static final String TAG = "ViewCache";
+
     protected final SparseArray<CacheEntry> mCache = new SparseArray();
 
+    // Views inflated ahead of time on a background thread, guarded by itself
+    private final SparseArray<PreInflatedViews> mPreInflated = new SparseArray<>();
+
     public void setCacheSize(int layoutId, int size) {
         mCache.put(layoutId, new CacheEntry(size));
     }
@@ -47,12 +64,70 @@ public class ViewCache {
             result = (T) entry.mViews[entry.mCurrentSize];
             entry.mViews[entry.mCurrentSize] = null;
         } else {
-            result = (T) LayoutInflater.from(context).inflate(layoutId, parent, false);
+            PreInflatedViews preInflated = getPreInflatedViews(layoutId);
+            result = preInflated == null ? null : (T) preInflated.take(context);
+            if (result == null) {
+                long startTime = System.nanoTime();
+                result = (T) LayoutInflater.from(context).inflate(layoutId, parent, false);
+                if (preInflated != null) {
+                    preInflated.onInflatedOnCaller(System.nanoTime() - startTime);
+                }
+            }
             result.setTag(R.id.cache_entry_tag_id, entry);
         }
         return result;
     }
 
+    /**
+     * Inflates views of {@param layoutId} on a background thread, so that the next
+     * {@param count} calls to {@link #getView} with the same context do not need to inflate it.
+     * Calling it again raises the number of views to inflate.
+     *
+     * Views are inflated without a parent, and should not depend on their layout params being set
+     * by {@link #getView}.
+     */
+    @AnyThread
+    public void preInflate(int layoutId, Context context, int count) {
+        PreInflatedViews views;
+        synchronized (mPreInflated) {
+            views = mPreInflated.get(layoutId);
+            if (views == null) {
+                views = new PreInflatedViews(layoutId, context);
+                mPreInflated.put(layoutId, views);
+            }
+        }
+        views.request(context, count);
+    }
+
+    /**
+     * Drops the views inflated ahead of time, for example when the device profile used by these
+     * views changed.
+     */
+    @AnyThread
+    public void clearPreInflated() {
+        synchronized (mPreInflated) {
+            for (int i = 0; i < mPreInflated.size(); i++) {
+                mPreInflated.valueAt(i).clear();
+            }
+        }
+    }
+
+    @Nullable
+    private PreInflatedViews getPreInflatedViews(int layoutId) {
+        synchronized (mPreInflated) {
+            return mPreInflated.get(layoutId);
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        synchronized (mPreInflated) {
+            writer.println(prefix + "ViewCache pre-inflated views:");
+            for (int i = 0; i < mPreInflated.size(); i++) {
+                mPreInflated.valueAt(i).dump(prefix + "  ", writer);
+            }
+        }
+    }
+
     public void recycleView(int layoutId, View view) {
         CacheEntry entry = mCache.get(layoutId);
         if (entry != view.getTag(R.id.cache_entry_tag_id)) {
@@ -80,4 +155,123 @@ public class ViewCache {
             mCurrentSize = 0;
         }
     }
+
+    private static class PreInflatedViews {
+
+        private final int mLayoutId;
+        private final Context mContext;
+        // Only used by the inflation thread, as LayoutInflater is not thread safe
+        private final LayoutInflater mInflater;
+
+        // Guarded by this
+        private final ArrayDeque<View> mViews = new ArrayDeque<>();
+        private int mRequestedCount;
+        private boolean mInflating;
+        private boolean mFailed;
+        private int mGeneration;
+
+        // Stats, guarded by this
+        private int mHitCount;
+        private int mMissCount;
+        private int mInflatedCount;
+        private long mInflationNanos;
+        private long mCallerInflationNanos;
+
+        PreInflatedViews(int layoutId, Context context) {
+            mLayoutId = layoutId;
+            mContext = context;
+            mInflater = LayoutInflater.from(context).cloneInContext(context);
+        }
+
+        synchronized void request(Context context, int count) {
+            if (context != mContext || mFailed) {
+                return;
+            }
+            mRequestedCount = Math.max(mRequestedCount, count);
+            if (!mInflating && mViews.size() < mRequestedCount) {
+                mInflating = true;
+                // Inflate on a non looper thread, which fails early on views which need a Handler
+                THREAD_POOL_EXECUTOR.execute(this::inflateViews);
+            }
+        }
+
+        @WorkerThread
+        private void inflateViews() {
+            while (true) {
+                int generation;
+                synchronized (this) {
+                    if (mViews.size() >= mRequestedCount) {
+                        mInflating = false;
+                        return;
+                    }
+                    generation = mGeneration;
+                }
+
+                long startTime = System.nanoTime();
+                View view;
+                try {
+                    view = mInflater.inflate(mLayoutId, null, false);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Unable to inflate layout in the background", e);
+                    synchronized (this) {
+                        mFailed = true;
+                        mInflating = false;
+                    }
+                    return;
+                }
+                long duration = System.nanoTime() - startTime;
+
+                synchronized (this) {
+                    mInflatedCount++;
+                    mInflationNanos += duration;
+                    // Views inflated before the cache was cleared are dropped
+                    if (generation == mGeneration) {
+                        mViews.add(view);
+                    }
+                }
+            }
+        }
+
+        @Nullable
+        synchronized View take(Context context) {
+            if (context != mContext) {
+                return null;
+            }
+            mRequestedCount = Math.max(0, mRequestedCount - 1);
+            View view = mViews.poll();
+            if (view != null) {
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+            return view;
+        }
+
+        synchronized void onInflatedOnCaller(long durationNanos) {
+            mCallerInflationNanos += durationNanos;
+        }
+
+        synchronized void clear() {
+            mGeneration++;
+            mViews.clear();
+            mRequestedCount = 0;
+        }
+
+        synchronized void dump(String prefix, PrintWriter writer) {
+            String name;
+            try {
+                name = mContext.getResources().getResourceEntryName(mLayoutId);
+            } catch (Resources.NotFoundException e) {
+                name = Integer.toHexString(mLayoutId);
+            }
+            long averageNanos = mInflatedCount == 0 ? 0 : mInflationNanos / mInflatedCount;
+            writer.println(prefix + name
+                    + ": hits=" + mHitCount
+                    + " misses=" + mMissCount
+                    + " available=" + mViews.size()
+                    + " failed=" + mFailed
+                    + " savedMs=" + TimeUnit.NANOSECONDS.toMillis(averageNanos * mHitCount)
+                    + " missInflationMs=" + TimeUnit.NANOSECONDS.toMillis(mCallerInflationNanos));
+        }
+    }
 }
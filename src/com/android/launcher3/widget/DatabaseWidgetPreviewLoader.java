@@ -68,8 +68,8 @@ public class DatabaseWidgetPreviewLoader {
     }
 
     /**
-     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}. Must be
-     * called on UI thread.
+     * Generates the widget preview on {@link AsyncTask#THREAD_POOL_EXECUTOR}, or loads it from
+     * {@link WidgetPreviewCache} if it was previously generated. Must be called on UI thread.
      *
      * @return a request id which can be used to cancel the request.
      */
@@ -80,7 +80,9 @@ public class DatabaseWidgetPreviewLoader {
             @NonNull Consumer<Bitmap> callback) {
         Handler handler = Executors.UI_HELPER_EXECUTOR.getHandler();
         HandlerRunnable<Bitmap> request = new HandlerRunnable<>(handler,
-                () -> generatePreview(item, previewSize.getWidth(), previewSize.getHeight()),
+                () -> WidgetPreviewCache.INSTANCE.get(mContext).getPreview(mContext, item,
+                        previewSize, () -> generatePreview(
+                                item, previewSize.getWidth(), previewSize.getHeight())),
                 MAIN_EXECUTOR,
                 callback);
         Utilities.postAsyncCallback(handler, request);
@@ -0,0 +1,419 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget;
+
+import static android.os.Process.THREAD_PRIORITY_BACKGROUND;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.UserHandle;
+import android.util.Log;
+import android.util.LruCache;
+import android.util.Size;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.Utilities;
+import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.pm.UserCache;
+import com.android.launcher3.util.Executors.SimpleThreadFactory;
+import com.android.launcher3.util.MainThreadInitializedObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Two level cache for the widget previews generated by {@link DatabaseWidgetPreviewLoader}.
+ *
+ * Previews are kept in memory and persisted as files in the cache directory, both bounded by
+ * bytes and evicted in LRU order. An entry is keyed on the provider component, user, preview
+ * size, the provider package version and the configuration used to render it, so that a stale
+ * preview is never returned. Files of a package are also removed when it changes.
+ *
+ * The lock only guards the in-memory state. Files are listed, written and deleted in order on a
+ * background thread, and decoded by the caller outside of the lock, so that package changes do
+ * not wait on disk I/O.
+ */
+public class WidgetPreviewCache {
+
+    public static final MainThreadInitializedObject<WidgetPreviewCache> INSTANCE =
+            new MainThreadInitializedObject<>(WidgetPreviewCache::new);
+
+    private static final String TAG = "WidgetPreviewCache";
+
+    private static final String CACHE_DIR_NAME = "widget_previews";
+    private static final String FILE_EXTENSION = ".png";
+    private static final String TMP_FILE_EXTENSION = ".tmp";
+
+    private static final int MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 32 * 1024 * 1024;
+
+    private static final ExecutorService DISK_EXECUTOR = Executors.newSingleThreadExecutor(
+            new SimpleThreadFactory("WidgetPreviewCache-", THREAD_PRIORITY_BACKGROUND));
+
+    private final Context mContext;
+    private final File mCacheDir;
+
+    private final LruCache<String, Bitmap> mMemoryCache =
+            new LruCache<String, Bitmap>(MAX_MEMORY_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return value.getAllocationByteCount();
+                }
+            };
+
+    // Map of file name to file size, in access order. Lazily loaded.
+    private LinkedHashMap<String, Long> mDiskEntries;
+    private long mDiskBytes;
+    // Map of package and user to the number of times its previews were invalidated, so that disk
+    // reads and writes which started before do not add stale previews back to the cache.
+    private final Map<String, Integer> mPackageGenerations = new HashMap<>();
+
+    // Map of package and user to the package version, cleared on package changes
+    private final Map<String, String> mPackageVersions = new HashMap<>();
+
+    private WidgetPreviewCache(Context context) {
+        mContext = context;
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    /**
+     * Returns the preview for the {@param item} from the cache, or generates it using
+     * {@param generator} and caches the result.
+     *
+     * @param context the context used to render the preview
+     */
+    @WorkerThread
+    public Bitmap getPreview(Context context, WidgetItem item, Size size,
+            Supplier<Bitmap> generator) {
+        String prefix = getPackagePrefix(item.componentName.getPackageName(), item.user);
+        String key = getKey(context, item, size, prefix);
+        if (key == null || !ensureDiskEntriesLoaded()) {
+            return generator.get();
+        }
+
+        Bitmap preview;
+        boolean isOnDisk;
+        int generation;
+        synchronized (this) {
+            preview = mMemoryCache.get(key);
+            isOnDisk = preview == null && mDiskEntries.get(key) != null;
+            generation = getGenerationLocked(prefix);
+        }
+        if (isOnDisk) {
+            preview = readFromDisk(key, prefix, generation);
+        }
+        if (preview != null) {
+            return preview;
+        }
+
+        preview = generator.get();
+        if (preview != null) {
+            final Bitmap result = preview;
+            synchronized (this) {
+                if (generation != getGenerationLocked(prefix)) {
+                    return result;
+                }
+                mMemoryCache.put(key, result);
+            }
+            DISK_EXECUTOR.execute(() -> writeToDisk(key, prefix, result, generation));
+        }
+        return preview;
+    }
+
+    /**
+     * Removes all the previews for the {@param packageName} and {@param user}
+     */
+    public void removePackage(String packageName, UserHandle user) {
+        String prefix = getPackagePrefix(packageName, user);
+        synchronized (this) {
+            mPackageGenerations.put(prefix, getGenerationLocked(prefix) + 1);
+            mPackageVersions.remove(prefix);
+            for (String key : mMemoryCache.snapshot().keySet()) {
+                if (key.startsWith(prefix)) {
+                    mMemoryCache.remove(key);
+                }
+            }
+            removeDiskEntriesLocked(prefix);
+        }
+
+        // The files are no longer referenced, delete them after the pending writes
+        DISK_EXECUTOR.execute(() -> {
+            synchronized (this) {
+                // The entries may have been listed since
+                removeDiskEntriesLocked(prefix);
+            }
+            File[] files = mCacheDir.listFiles((dir, name) -> name.startsWith(prefix));
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Clears the in-memory previews, keeping the ones persisted on disk
+     */
+    public synchronized void clearMemoryCache() {
+        mMemoryCache.evictAll();
+    }
+
+    @Nullable
+    private String getKey(Context context, WidgetItem item, Size size, String prefix) {
+        String version;
+        synchronized (this) {
+            version = mPackageVersions.get(prefix);
+        }
+        if (version == null) {
+            version = getPackageVersion(item.componentName.getPackageName());
+            if (version == null) {
+                return null;
+            }
+            synchronized (this) {
+                mPackageVersions.put(prefix, version);
+            }
+        }
+
+        Configuration config = context.getResources().getConfiguration();
+        StringBuilder description = new StringBuilder()
+                .append(item.componentName.flattenToString())
+                .append(',').append(item.widgetInfo != null ? "widget" : "shortcut")
+                .append(',').append(size.getWidth()).append('x').append(size.getHeight())
+                .append(',').append(version)
+                .append(',').append(config.densityDpi)
+                .append(',').append(config.uiMode & Configuration.UI_MODE_NIGHT_MASK);
+        if (Utilities.ATLEAST_S) {
+            // Previews can use dynamic colors
+            description.append(',').append(
+                    context.getColor(android.R.color.system_accent1_500));
+        }
+        return prefix + UUID.nameUUIDFromBytes(
+                description.toString().getBytes(StandardCharsets.UTF_8)) + FILE_EXTENSION;
+    }
+
+    private String getPackagePrefix(String packageName, UserHandle user) {
+        return packageName + "-"
+                + UserCache.INSTANCE.get(mContext).getSerialNumberForUser(user) + "-";
+    }
+
+    private int getGenerationLocked(String prefix) {
+        Integer generation = mPackageGenerations.get(prefix);
+        return generation == null ? 0 : generation;
+    }
+
+    @Nullable
+    private String getPackageVersion(String packageName) {
+        try {
+            PackageInfo info = mContext.getPackageManager().getPackageInfo(
+                    packageName, PackageManager.MATCH_UNINSTALLED_PACKAGES);
+            long versionCode = Utilities.ATLEAST_P ? info.getLongVersionCode() : info.versionCode;
+            return versionCode + "-" + info.lastUpdateTime;
+        } catch (NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the preview persisted for {@param key}, and adds it to the memory cache unless the
+     * previews of the package {@param prefix} were invalidated since {@param generation}.
+     */
+    @Nullable
+    private Bitmap readFromDisk(String key, String prefix, int generation) {
+        File file = new File(mCacheDir, key);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.HARDWARE;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            boolean removed;
+            synchronized (this) {
+                removed = generation == getGenerationLocked(prefix)
+                        && removeDiskEntryLocked(key);
+            }
+            if (removed) {
+                file.delete();
+            }
+            return null;
+        }
+
+        synchronized (this) {
+            if (generation != getGenerationLocked(prefix)) {
+                return bitmap;
+            }
+            mMemoryCache.put(key, bitmap);
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    @WorkerThread
+    private void writeToDisk(String key, String prefix, Bitmap preview, int generation) {
+        Bitmap software = preview.getConfig() == Bitmap.Config.HARDWARE
+                ? preview.copy(Bitmap.Config.ARGB_8888, false) : preview;
+        if (software == null) {
+            return;
+        }
+        synchronized (this) {
+            if (generation != getGenerationLocked(prefix) || mDiskEntries.containsKey(key)) {
+                return;
+            }
+        }
+        if (!mCacheDir.exists() && !mCacheDir.mkdirs()) {
+            Log.e(TAG, "Unable to create cache directory");
+            return;
+        }
+
+        // Write to a temporary file first, so that readers never see a partial preview
+        File file = new File(mCacheDir, key);
+        File tmpFile;
+        try {
+            tmpFile = File.createTempFile(key, TMP_FILE_EXTENSION, mCacheDir);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create preview file " + key, e);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(tmpFile)) {
+            software.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write preview " + key, e);
+            tmpFile.delete();
+            return;
+        }
+        long size = tmpFile.length();
+        if (!tmpFile.renameTo(file)) {
+            Log.e(TAG, "Unable to write preview " + key);
+            tmpFile.delete();
+            return;
+        }
+
+        ArrayList<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (generation != getGenerationLocked(prefix)) {
+                // The package changed while writing, the preview may be stale
+                evicted.add(key);
+            } else if (!mDiskEntries.containsKey(key)) {
+                mDiskEntries.put(key, size);
+                mDiskBytes += size;
+
+                // Evict the least recently used entries
+                Iterator<Map.Entry<String, Long>> itr = mDiskEntries.entrySet().iterator();
+                while (mDiskBytes > MAX_DISK_BYTES && itr.hasNext()) {
+                    Map.Entry<String, Long> entry = itr.next();
+                    evicted.add(entry.getKey());
+                    mDiskBytes -= entry.getValue();
+                    itr.remove();
+                }
+            }
+        }
+        for (String name : evicted) {
+            new File(mCacheDir, name).delete();
+        }
+    }
+
+    private boolean removeDiskEntryLocked(String key) {
+        Long size = mDiskEntries.remove(key);
+        if (size == null) {
+            return false;
+        }
+        mDiskBytes -= size;
+        return true;
+    }
+
+    private void removeDiskEntriesLocked(String prefix) {
+        if (mDiskEntries == null) {
+            return;
+        }
+        Iterator<Map.Entry<String, Long>> itr = mDiskEntries.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<String, Long> entry = itr.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mDiskBytes -= entry.getValue();
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Lists the persisted previews on the disk executor if needed, so that the listing is ordered
+     * with the pending writes and deletions.
+     *
+     * @return false if the persisted previews could not be listed.
+     */
+    private boolean ensureDiskEntriesLoaded() {
+        synchronized (this) {
+            if (mDiskEntries != null) {
+                return true;
+            }
+        }
+        try {
+            DISK_EXECUTOR.submit(this::loadDiskEntries).get();
+            return true;
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(TAG, "Unable to list the cached previews", e);
+            return false;
+        }
+    }
+
+    @WorkerThread
+    private void loadDiskEntries() {
+        synchronized (this) {
+            if (mDiskEntries != null) {
+                return;
+            }
+        }
+
+        LinkedHashMap<String, Long> entries =
+                new LinkedHashMap<>(16, 0.75f, true /* accessOrder */);
+        long bytes = 0;
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File file : files) {
+                if (!file.getName().endsWith(FILE_EXTENSION)) {
+                    // Left over from an interrupted write
+                    file.delete();
+                    continue;
+                }
+                long size = file.length();
+                entries.put(file.getName(), size);
+                bytes += size;
+            }
+        }
+        synchronized (this) {
+            mDiskEntries = entries;
+            mDiskBytes = bytes;
+        }
+    }
+}
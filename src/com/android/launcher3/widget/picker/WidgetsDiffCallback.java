@@ -58,7 +58,8 @@ public class WidgetsDiffCallback extends Callback {
 
     @Override
     public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-        // Always update all entries since the icon may have changed
-        return false;
+        // The widgets model creates new entries for the packages which changed, including when
+        // their icon changed, and keeps the same instances for the others
+        return mOldEntries.get(oldItemPosition) == mNewEntries.get(newItemPosition);
     }
 }
@@ -25,6 +25,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.android.launcher3.ExtendedEditText;
+import com.android.launcher3.LauncherAppState;
 import com.android.launcher3.R;
 import com.android.launcher3.popup.PopupDataProvider;
 
@@ -53,7 +54,9 @@ public class LauncherWidgetsSearchBar extends LinearLayout implements WidgetsSea
     @Override
     public void initialize(PopupDataProvider dataProvider, SearchModeListener searchModeListener) {
         mController = new WidgetsSearchBarController(
-                new SimpleWidgetsSearchAlgorithm(dataProvider),
+                new SimpleWidgetsSearchAlgorithm(dataProvider,
+                        LauncherAppState.getInstance(getContext()).getModel()
+                                .getWidgetsSearchIndex()),
                 mEditText, mCancelButton, searchModeListener);
     }
 
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget.picker.search;
+
+import static com.android.launcher3.search.StringMatcherUtility.StringMatcher.NO_PRIMARY_ORDER;
+import static com.android.launcher3.search.StringMatcherUtility.getMatchStartPositions;
+import static com.android.launcher3.search.StringMatcherUtility.requestSimpleFuzzySearch;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.search.StringMatcherUtility;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+import com.android.launcher3.util.IntArray;
+import com.android.launcher3.util.IntSet;
+import com.android.launcher3.widget.model.WidgetsListBaseEntry;
+import com.android.launcher3.widget.model.WidgetsListContentEntry;
+import com.android.launcher3.widget.model.WidgetsListHeaderEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed search data for the widgets shown in the widget picker, so that each keystroke
+ * does not need to recompute the word breaks of every app title and widget label.
+ *
+ * Every package is indexed by the primary collation order of the first character of each word
+ * of its title, widget labels and widget descriptions, so that a query is only compared against
+ * the packages sharing the primary order of its first character. The index is updated on the
+ * model thread whenever the picker entries are rebuilt, and only the packages whose entries
+ * changed are indexed again. The index of the launcher is owned by the widgets model.
+ *
+ * @see com.android.launcher3.LauncherModel#getWidgetsSearchIndex()
+ */
+public class WidgetsSearchIndex {
+
+    // Packages are ranked by their best match
+    private static final int RANK_TITLE = 0;
+    private static final int RANK_LABEL = 1;
+    private static final int RANK_DESCRIPTION = 2;
+
+    // Immutable once published, only replaced on the model thread
+    private volatile Map<WidgetsListHeaderEntry, PackageData> mPackages = Collections.emptyMap();
+
+    /**
+     * Updates the index with the entries bound to the widget picker. Entries are indexed by
+     * instance, so that the packages whose entries were not recreated are not indexed again.
+     *
+     * @param context used to load the widget descriptions, which are not indexed if null
+     */
+    @WorkerThread
+    public void update(@Nullable Context context, List<WidgetsListBaseEntry> entries) {
+        Map<WidgetsListHeaderEntry, PackageData> current = mPackages;
+        Map<WidgetsListHeaderEntry, PackageData> updated = new IdentityHashMap<>();
+        StringMatcher matcher = StringMatcher.getInstance();
+        for (WidgetsListBaseEntry entry : entries) {
+            if (!(entry instanceof WidgetsListHeaderEntry)) {
+                continue;
+            }
+            WidgetsListHeaderEntry header = (WidgetsListHeaderEntry) entry;
+            PackageData data = current.get(header);
+            updated.put(header, data != null ? data : new PackageData(header, context, matcher));
+        }
+        mPackages = updated;
+    }
+
+    /**
+     * Returns the widgets of {@param entries} matching the {@param query}. Packages whose title
+     * matches come first, with all their widgets, followed by the packages with matching widget
+     * labels and then the packages with matching widget descriptions.
+     *
+     * @param previous if not null, the result of a previous query on the same entries. If its
+     *                 query is a prefix of {@param query} using the same match mode, only its
+     *                 matches are considered.
+     */
+    public Result query(List<WidgetsListBaseEntry> entries, String query,
+            @Nullable Result previous) {
+        StringMatcher matcher = StringMatcher.getInstance();
+        List<PackageData> candidates;
+        if (previous != null && previous.mSource == entries && !previous.mQuery.isEmpty()
+                && query.startsWith(previous.mQuery)
+                // HAN queries are matched anywhere in the text instead of at word starts, so a
+                // longer query can match targets which the previous query did not
+                && requestSimpleFuzzySearch(query) == requestSimpleFuzzySearch(previous.mQuery)) {
+            candidates = previous.mMatchedPackages;
+        } else {
+            candidates = getPackages(entries, matcher);
+        }
+
+        int order = NO_PRIMARY_ORDER;
+        if (!query.isEmpty() && !requestSimpleFuzzySearch(query)) {
+            order = matcher.getPrimaryOrder(query, 0);
+        }
+
+        ArrayList<Match> matches = new ArrayList<>();
+        for (PackageData data : candidates) {
+            if (order != NO_PRIMARY_ORDER && !data.mHasUnorderedWords
+                    && !data.mPrimaryOrders.contains(order)) {
+                continue;
+            }
+            Match match = data.match(query, matcher);
+            if (match != null) {
+                matches.add(match);
+            }
+        }
+        // Stable, so packages with the same rank stay in the picker order
+        matches.sort((a, b) -> Integer.compare(a.mRank, b.mRank));
+
+        ArrayList<PackageData> matchedPackages = new ArrayList<>(matches.size());
+        ArrayList<WidgetsListBaseEntry> results = new ArrayList<>(matches.size() * 2);
+        for (Match match : matches) {
+            WidgetsListHeaderEntry header = match.mData.mHeader;
+            matchedPackages.add(match.mData);
+            results.add(WidgetsListHeaderEntry.createForSearch(header.mPkgItem,
+                    header.mTitleSectionName, match.mItems));
+            results.add(new WidgetsListContentEntry(header.mPkgItem,
+                    header.mTitleSectionName, match.mItems));
+        }
+        return new Result(entries, query, matchedPackages, results);
+    }
+
+    private List<PackageData> getPackages(List<WidgetsListBaseEntry> entries,
+            StringMatcher matcher) {
+        Map<WidgetsListHeaderEntry, PackageData> packages = mPackages;
+        ArrayList<PackageData> result = new ArrayList<>();
+        for (WidgetsListBaseEntry entry : entries) {
+            if (!(entry instanceof WidgetsListHeaderEntry)) {
+                continue;
+            }
+            WidgetsListHeaderEntry header = (WidgetsListHeaderEntry) entry;
+            PackageData data = packages.get(header);
+            if (data == null) {
+                // Not indexed yet, descriptions are not loaded on the calling thread
+                data = new PackageData(header, null, matcher);
+            }
+            result.add(data);
+        }
+        return result;
+    }
+
+    /**
+     * Result of a query, which can be used to refine the next query
+     */
+    public static class Result {
+
+        private final List<WidgetsListBaseEntry> mSource;
+        private final String mQuery;
+        private final List<PackageData> mMatchedPackages;
+        private final ArrayList<WidgetsListBaseEntry> mEntries;
+
+        private Result(List<WidgetsListBaseEntry> source, String query,
+                List<PackageData> matchedPackages, ArrayList<WidgetsListBaseEntry> entries) {
+            mSource = source;
+            mQuery = query;
+            mMatchedPackages = matchedPackages;
+            mEntries = entries;
+        }
+
+        /**
+         * Returns a header entry followed by a content entry for each matched package
+         */
+        public ArrayList<WidgetsListBaseEntry> getEntries() {
+            return mEntries;
+        }
+    }
+
+    private static class Match {
+
+        final PackageData mData;
+        final int mRank;
+        final List<WidgetItem> mItems;
+
+        Match(PackageData data, int rank, List<WidgetItem> items) {
+            mData = data;
+            mRank = rank;
+            mItems = items;
+        }
+    }
+
+    private static class PackageData {
+
+        final WidgetsListHeaderEntry mHeader;
+        final SearchTarget mTitle;
+        final SearchTarget[] mLabels;
+        // Null for the widgets without description
+        final SearchTarget[] mDescriptions;
+
+        // Primary orders of the first character of every word
+        final IntSet mPrimaryOrders = new IntSet();
+        boolean mHasUnorderedWords;
+
+        PackageData(WidgetsListHeaderEntry header, @Nullable Context context,
+                StringMatcher matcher) {
+            mHeader = header;
+            CharSequence title = header.mPkgItem.title;
+            mTitle = newTarget(title, matcher);
+
+            List<WidgetItem> widgets = header.mWidgets;
+            mLabels = new SearchTarget[widgets.size()];
+            mDescriptions = new SearchTarget[widgets.size()];
+            for (int i = 0; i < widgets.size(); i++) {
+                WidgetItem item = widgets.get(i);
+                mLabels[i] = newTarget(item.label, matcher);
+                if (context != null && item.widgetInfo != null) {
+                    CharSequence description = item.widgetInfo.loadDescription(context);
+                    if (description != null) {
+                        mDescriptions[i] = newTarget(description, matcher);
+                    }
+                }
+            }
+        }
+
+        private SearchTarget newTarget(@Nullable CharSequence text, StringMatcher matcher) {
+            SearchTarget target = new SearchTarget(text == null ? "" : text.toString(), matcher);
+            for (int i = 0; i < target.mStarts.size(); i++) {
+                int order = matcher.getPrimaryOrder(target.mText, target.mStarts.get(i));
+                if (order == NO_PRIMARY_ORDER) {
+                    mHasUnorderedWords = true;
+                } else {
+                    mPrimaryOrders.add(order);
+                }
+            }
+            return target;
+        }
+
+        @Nullable
+        Match match(String query, StringMatcher matcher) {
+            List<WidgetItem> widgets = mHeader.mWidgets;
+            if (mTitle.matches(query, matcher)) {
+                return new Match(this, RANK_TITLE, widgets);
+            }
+
+            int rank = RANK_DESCRIPTION;
+            ArrayList<WidgetItem> items = new ArrayList<>();
+            for (int i = 0; i < widgets.size(); i++) {
+                if (mLabels[i].matches(query, matcher)) {
+                    rank = RANK_LABEL;
+                    items.add(widgets.get(i));
+                } else if (mDescriptions[i] != null && mDescriptions[i].matches(query, matcher)) {
+                    items.add(widgets.get(i));
+                }
+            }
+            return items.isEmpty() ? null : new Match(this, rank, items);
+        }
+    }
+
+    private static class SearchTarget {
+
+        final String mText;
+        final IntArray mStarts;
+
+        SearchTarget(String text, StringMatcher matcher) {
+            mText = text;
+            mStarts = getMatchStartPositions(text, matcher);
+        }
+
+        boolean matches(String query, StringMatcher matcher) {
+            return StringMatcherUtility.matches(query, mText, mStarts, matcher);
+        }
+    }
+}
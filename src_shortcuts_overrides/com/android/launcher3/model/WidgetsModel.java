@@ -13,7 +13,9 @@ import static java.util.stream.Collectors.toList;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.os.LocaleList;
 import android.os.UserHandle;
 import android.util.Log;
 import android.util.Pair;
@@ -41,15 +43,19 @@ import com.android.launcher3.widget.WidgetSections;
 import com.android.launcher3.widget.model.WidgetsListBaseEntry;
 import com.android.launcher3.widget.model.WidgetsListContentEntry;
 import com.android.launcher3.widget.model.WidgetsListHeaderEntry;
+import com.android.launcher3.widget.picker.WidgetsListAdapter.WidgetListBaseRowEntryComparator;
+import com.android.launcher3.widget.picker.search.WidgetsSearchIndex;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Set;
 import java.util.function.Predicate;
 
@@ -70,26 +76,86 @@ public class WidgetsModel {
     /* Map of widgets and shortcuts that are tracked per package. */
     private final Map<PackageItemInfo, List<WidgetItem>> mWidgetsList = new HashMap<>();
 
+    // Entries of the picker, sorted by package, kept across updates so that only the entries of
+    // the packages in mChangedPackages need to be created again.
+    private final ArrayList<WidgetsListBaseEntry> mPickerEntries = new ArrayList<>();
+    private final Set<PackageItemInfo> mChangedPackages = new HashSet<>();
+    private final WidgetListBaseRowEntryComparator mEntryComparator =
+            new WidgetListBaseRowEntryComparator();
+    @Nullable
+    private AlphabeticIndexCompat mIndexer;
+    @Nullable
+    private LocaleList mIndexerLocales;
+
+    private final WidgetsSearchIndex mSearchIndex = new WidgetsSearchIndex();
+
     /**
-     * Returns a list of {@link WidgetsListBaseEntry}. All {@link WidgetItem} in a single row
-     * are sorted (based on label and user), but the overall list of
-     * {@link WidgetsListBaseEntry}s is not sorted.
+     * Returns a list of {@link WidgetsListBaseEntry}, sorted by package, with the header entry of
+     * a package right before its content entry. All {@link WidgetItem} in a single row are sorted
+     * (based on label and user).
+     *
+     * Entries of packages which did not change since the last call are the same instances.
      *
      * @see com.android.launcher3.widget.picker.WidgetsListAdapter#setWidgets(List)
      */
-    public synchronized ArrayList<WidgetsListBaseEntry> getWidgetsListForPicker(Context context) {
-        ArrayList<WidgetsListBaseEntry> result = new ArrayList<>();
-        AlphabeticIndexCompat indexer = new AlphabeticIndexCompat(context);
-
-        for (Map.Entry<PackageItemInfo, List<WidgetItem>> entry : mWidgetsList.entrySet()) {
-            PackageItemInfo pkgItem = entry.getKey();
-            List<WidgetItem> widgetItems = entry.getValue();
-            String sectionName = (pkgItem.title == null) ? "" :
-                    indexer.computeSectionName(pkgItem.title);
-            result.add(WidgetsListHeaderEntry.create(pkgItem, sectionName, widgetItems));
-            result.add(new WidgetsListContentEntry(pkgItem, sectionName, widgetItems));
+    public ArrayList<WidgetsListBaseEntry> getWidgetsListForPicker(Context context) {
+        ArrayList<WidgetsListBaseEntry> entries = buildPickerEntries(context);
+        // Only the new entries are indexed, outside of the lock as descriptions are loaded
+        mSearchIndex.update(context, entries);
+        return entries;
+    }
+
+    /**
+     * Returns the search index of the entries last returned by {@link #getWidgetsListForPicker}
+     */
+    public WidgetsSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
+    private synchronized ArrayList<WidgetsListBaseEntry> buildPickerEntries(Context context) {
+        LocaleList locales = context.getResources().getConfiguration().getLocales();
+        if (mIndexer == null || !locales.equals(mIndexerLocales)) {
+            // Section names depend on the locale, create all the entries again
+            mIndexer = new AlphabeticIndexCompat(context);
+            mIndexerLocales = locales;
+            mPickerEntries.clear();
+            mChangedPackages.addAll(mWidgetsList.keySet());
+        }
+
+        if (!mChangedPackages.isEmpty()) {
+            mPickerEntries.removeIf(entry -> mChangedPackages.contains(entry.mPkgItem));
+            for (Map.Entry<PackageItemInfo, List<WidgetItem>> entry : mWidgetsList.entrySet()) {
+                PackageItemInfo pkgItem = entry.getKey();
+                if (!mChangedPackages.contains(pkgItem)) {
+                    continue;
+                }
+                List<WidgetItem> widgetItems = entry.getValue();
+                String sectionName = (pkgItem.title == null) ? "" :
+                        mIndexer.computeSectionName(pkgItem.title);
+                insertPickerEntry(WidgetsListHeaderEntry.create(pkgItem, sectionName, widgetItems));
+                insertPickerEntry(new WidgetsListContentEntry(pkgItem, sectionName, widgetItems));
+            }
+            mChangedPackages.clear();
+        }
+        return new ArrayList<>(mPickerEntries);
+    }
+
+    /**
+     * Inserts {@param entry} after all the entries which are sorted equal to it, so that the
+     * content entry of a package stays after its header entry.
+     */
+    private void insertPickerEntry(WidgetsListBaseEntry entry) {
+        int low = 0;
+        int high = mPickerEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mEntryComparator.compare(mPickerEntries.get(mid), entry) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        return result;
+        mPickerEntries.add(low, entry);
     }
 
     /** Returns a mapping of packages to their widgets without static shortcuts. */
@@ -114,6 +180,16 @@ public class WidgetsModel {
      */
     public List<ComponentWithLabelAndIcon> update(
             LauncherAppState app, @Nullable PackageUserKey packageUser) {
+        return update(app, packageUser, null);
+    }
+
+    /**
+     * Same as {@link #update(LauncherAppState, PackageUserKey)}, but uses {@param providers}
+     * instead of querying all widget providers again, if they are already available.
+     */
+    public List<ComponentWithLabelAndIcon> update(LauncherAppState app,
+            @Nullable PackageUserKey packageUser,
+            @Nullable List<AppWidgetProviderInfo> providers) {
         Preconditions.assertWorkerThread();
 
         Context context = app.getContext();
@@ -125,7 +201,10 @@ public class WidgetsModel {
 
             // Widgets
             WidgetManagerHelper widgetManager = new WidgetManagerHelper(context);
-            for (AppWidgetProviderInfo widgetInfo : widgetManager.getAllProviders(packageUser)) {
+            if (providers == null || packageUser != null) {
+                providers = widgetManager.getAllProviders(packageUser);
+            }
+            for (AppWidgetProviderInfo widgetInfo : providers) {
                 LauncherAppWidgetProviderInfo launcherWidgetInfo =
                         LauncherAppWidgetProviderInfo.fromProviderInfo(context, widgetInfo);
 
@@ -165,32 +244,147 @@ public class WidgetsModel {
         // {@link mPackageItemInfos} to locate the key to be used for {@link #mWidgetsList}
         PackageItemInfoCache packageItemInfoCache = new PackageItemInfoCache();
 
+        Map<PackageItemInfo, List<WidgetItem>> newWidgets = rawWidgetsShortcuts.stream()
+                .filter(new WidgetValidityCheck(app))
+                .flatMap(widgetItem -> getPackageUserKeys(app.getContext(), widgetItem).stream()
+                        .map(key -> new Pair<>(packageItemInfoCache.getOrCreate(key), widgetItem)))
+                .collect(groupingBy(pair -> pair.first, mapping(pair -> pair.second, toList())));
+
         if (packageUser == null) {
-            // Clear the list if this is an update on all widgets and shortcuts.
-            mWidgetsList.clear();
+            // This is an update on all widgets and shortcuts, clear the packages which are gone.
+            Iterator<PackageItemInfo> oldPackages = mWidgetsList.keySet().iterator();
+            while (oldPackages.hasNext()) {
+                PackageItemInfo pkgItem = oldPackages.next();
+                if (!newWidgets.containsKey(pkgItem)) {
+                    oldPackages.remove();
+                    mChangedPackages.add(pkgItem);
+                }
+            }
+            // Packages whose widgets did not change keep their existing items and entries.
+            newWidgets.entrySet().removeIf(entry -> {
+                List<WidgetItem> oldItems = mWidgetsList.get(entry.getKey());
+                return oldItems != null && isSameWidgets(oldItems, entry.getValue());
+            });
+            newWidgets.keySet().forEach(mWidgetsList::remove);
         } else {
-            // Otherwise, only clear the widgets and shortcuts for the changed package.
-            mWidgetsList.remove(packageItemInfoCache.getOrCreate(packageUser));
+            // Otherwise, only clear the widgets and shortcuts for the changed package, which can
+            // also be listed under widget categories.
+            Iterator<Entry<PackageItemInfo, List<WidgetItem>>> iterator =
+                    mWidgetsList.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<PackageItemInfo, List<WidgetItem>> entry = iterator.next();
+                PackageItemInfo pkgItem = entry.getKey();
+                if (!pkgItem.user.equals(packageUser.mUser)) {
+                    continue;
+                }
+                if (pkgItem.packageName.equals(packageUser.mPackageName)) {
+                    iterator.remove();
+                    mChangedPackages.add(pkgItem);
+                } else if (pkgItem.widgetCategory != NO_CATEGORY) {
+                    List<WidgetItem> otherItems = entry.getValue().stream()
+                            .filter(item -> !item.componentName.getPackageName()
+                                    .equals(packageUser.mPackageName))
+                            .collect(toList());
+                    if (otherItems.size() != entry.getValue().size()) {
+                        mChangedPackages.add(pkgItem);
+                        if (otherItems.isEmpty()) {
+                            iterator.remove();
+                        } else {
+                            entry.setValue(otherItems);
+                        }
+                    }
+                }
+            }
+            // Widgets of the package listed under a category are merged with the other widgets
+            // of that category.
+            for (Entry<PackageItemInfo, List<WidgetItem>> entry : newWidgets.entrySet()) {
+                List<WidgetItem> categoryItems = mWidgetsList.remove(entry.getKey());
+                if (categoryItems != null) {
+                    entry.getValue().addAll(categoryItems);
+                }
+            }
         }
 
         // add and update.
-        mWidgetsList.putAll(rawWidgetsShortcuts.stream()
-                .filter(new WidgetValidityCheck(app))
-                .flatMap(widgetItem -> getPackageUserKeys(app.getContext(), widgetItem).stream()
-                        .map(key -> new Pair<>(packageItemInfoCache.getOrCreate(key), widgetItem)))
-                .collect(groupingBy(pair -> pair.first, mapping(pair -> pair.second, toList()))));
+        mWidgetsList.putAll(newWidgets);
+        mChangedPackages.addAll(newWidgets.keySet());
 
-        // Update each package entry
+        // Update each changed package entry
         IconCache iconCache = app.getIconCache();
-        for (PackageItemInfo p : packageItemInfoCache.values()) {
+        for (PackageItemInfo p : newWidgets.keySet()) {
             iconCache.getTitleAndIconForApp(p, true /* userLowResIcon */);
         }
     }
 
-    public void onPackageIconsUpdated(Set<String> packageNames, UserHandle user,
+    /**
+     * Returns whether the widgets of a package are the same after an update, in which case the
+     * existing items and picker entries are kept.
+     */
+    private static boolean isSameWidgets(List<WidgetItem> oldItems, List<WidgetItem> newItems) {
+        if (oldItems.size() != newItems.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldItems.size(); i++) {
+            WidgetItem oldItem = oldItems.get(i);
+            WidgetItem newItem = newItems.get(i);
+            if (!oldItem.equals(newItem)
+                    || !Objects.equals(oldItem.label, newItem.label)
+                    || oldItem.spanX != newItem.spanX
+                    || oldItem.spanY != newItem.spanY
+                    || !oldItem.hasSameType(newItem)
+                    || (oldItem.widgetInfo != null
+                            && !isSameProvider(oldItem.widgetInfo, newItem.widgetInfo))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the provider info used by the picker and when adding the widget is the
+     * same. Resources like the preview or the description can change with the same id when the
+     * package is updated, so the providers also need to come from the same package install.
+     */
+    private static boolean isSameProvider(LauncherAppWidgetProviderInfo oldInfo,
+            LauncherAppWidgetProviderInfo newInfo) {
+        if (!Objects.equals(oldInfo.configure, newInfo.configure)
+                || oldInfo.minWidth != newInfo.minWidth
+                || oldInfo.minHeight != newInfo.minHeight
+                || oldInfo.minResizeWidth != newInfo.minResizeWidth
+                || oldInfo.minResizeHeight != newInfo.minResizeHeight
+                || oldInfo.resizeMode != newInfo.resizeMode
+                || oldInfo.widgetCategory != newInfo.widgetCategory
+                || oldInfo.getWidgetFeatures() != newInfo.getWidgetFeatures()
+                || oldInfo.initialLayout != newInfo.initialLayout
+                || oldInfo.previewImage != newInfo.previewImage
+                || oldInfo.icon != newInfo.icon
+                || oldInfo.minSpanX != newInfo.minSpanX
+                || oldInfo.minSpanY != newInfo.minSpanY
+                || oldInfo.maxSpanX != newInfo.maxSpanX
+                || oldInfo.maxSpanY != newInfo.maxSpanY) {
+            return false;
+        }
+        if (Utilities.ATLEAST_S && (oldInfo.maxResizeWidth != newInfo.maxResizeWidth
+                || oldInfo.maxResizeHeight != newInfo.maxResizeHeight
+                || oldInfo.targetCellWidth != newInfo.targetCellWidth
+                || oldInfo.targetCellHeight != newInfo.targetCellHeight
+                || oldInfo.previewLayout != newInfo.previewLayout
+                || oldInfo.descriptionRes != newInfo.descriptionRes)) {
+            return false;
+        }
+        ApplicationInfo oldApp = oldInfo.providerInfo == null
+                ? null : oldInfo.providerInfo.applicationInfo;
+        ApplicationInfo newApp = newInfo.providerInfo == null
+                ? null : newInfo.providerInfo.applicationInfo;
+        return oldApp == null || newApp == null
+                ? oldApp == newApp : Objects.equals(oldApp.sourceDir, newApp.sourceDir);
+    }
+
+    public synchronized void onPackageIconsUpdated(Set<String> packageNames, UserHandle user,
             LauncherAppState app) {
         for (Entry<PackageItemInfo, List<WidgetItem>> entry : mWidgetsList.entrySet()) {
             if (packageNames.contains(entry.getKey().packageName)) {
+                mChangedPackages.add(entry.getKey());
                 List<WidgetItem> items = entry.getValue();
                 int count = items.size();
                 for (int i = 0; i < count; i++) {
@@ -26,28 +26,30 @@ public abstract class AbsGridOccupancy {
      * Find the first vacant cell, if there is one.
      *
      * @param vacantOut Holds the x and y coordinate of the vacant cell
+     * @param rows Occupancy of each row, where bit x represents the cell x
      * @param spanX Horizontal cell span.
      * @param spanY Vertical cell span.
      *
      * @return true if a vacant cell was found
      */
-    protected boolean findVacantCell(int[] vacantOut, boolean[][] cells, int countX, int countY,
+    protected boolean findVacantCell(int[] vacantOut, long[] rows, int countX, int countY,
             int spanX, int spanY) {
+        long fullRow = GridOccupancy.spanMask(countX);
         for (int y = 0; (y + spanY) <= countY; y++) {
-            for (int x = 0; (x + spanX) <= countX; x++) {
-                boolean available = !cells[x][y];
-                out:
-                for (int i = x; i < x + spanX; i++) {
-                    for (int j = y; j < y + spanY; j++) {
-                        available = available && !cells[i][j];
-                        if (!available) break out;
-                    }
-                }
-                if (available) {
-                    vacantOut[0] = x;
-                    vacantOut[1] = y;
-                    return true;
+            // Bit x is set if the cells x to x + spanX - 1 are vacant in all the rows
+            long available = fullRow;
+            for (int j = y; j < y + spanY && available != 0; j++) {
+                long vacant = ~rows[j] & fullRow;
+                long rowAvailable = vacant;
+                for (int i = 1; i < spanX; i++) {
+                    rowAvailable &= vacant >>> i;
                 }
+                available &= rowAvailable;
+            }
+            if (available != 0) {
+                vacantOut[0] = Long.numberOfTrailingZeros(available);
+                vacantOut[1] = y;
+                return true;
             }
         }
         return false;
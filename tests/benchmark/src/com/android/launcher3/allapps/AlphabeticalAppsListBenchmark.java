@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import static org.mockito.Mockito.mock;
+
+import android.content.Context;
+
+import com.android.launcher3.benchmark.BenchmarkFixtures;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.pm.UserCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmarks for {@link AlphabeticalAppsList}, covering the sort and the adapter items rebuild
+ * which run every time the set of apps changes. Both run in the background in the app, so they
+ * are measured directly rather than through {@link AllAppsStore#setApps}.
+ */
+@State(Scope.Benchmark)
+public class AlphabeticalAppsListBenchmark {
+
+    private static final int NUM_ALL_APPS_COLUMNS = 5;
+
+    @Param({"50", "500", "5000"})
+    public int appCount;
+
+    private AppInfoComparator mComparator;
+    private AppInfo[] mApps;
+    private AppInfo[] mUpdatedApps;
+    private List<AppInfo> mSortedApps;
+
+    @Setup
+    public void setup() {
+        UserCache.INSTANCE.initializeForTesting(mock(UserCache.class));
+        Context context = mock(Context.class);
+
+        mApps = BenchmarkFixtures.createApps(appCount).toArray(new AppInfo[0]);
+        mComparator = BenchmarkFixtures.withMyUserHandle(() -> new AppInfoComparator(context));
+        mSortedApps = AlphabeticalAppsList.sortApps(mApps, null, mComparator, null);
+
+        // Same apps with one of them renamed, as after a package update
+        mUpdatedApps = mApps.clone();
+        AppInfo renamed = BenchmarkFixtures.withMyUserHandle(() -> new AppInfo());
+        renamed.componentName = mApps[0].componentName;
+        renamed.user = mApps[0].user;
+        renamed.title = "Renamed";
+        renamed.sectionName = "R";
+        mUpdatedApps[0] = renamed;
+    }
+
+    @Benchmark
+    public List<AppInfo> sortApps() {
+        return AlphabeticalAppsList.sortApps(mUpdatedApps, null, mComparator, null);
+    }
+
+    @Benchmark
+    public List<AppInfo> sortAppsIncremental() {
+        return AlphabeticalAppsList.sortApps(mUpdatedApps, null, mComparator, mSortedApps);
+    }
+
+    @Benchmark
+    public int buildAdapterItems() {
+        return new AlphabeticalAppsList.AdapterItems(
+                Collections.emptyList(), mSortedApps, NUM_ALL_APPS_COLUMNS).numAppRows;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import com.android.launcher3.benchmark.BenchmarkFixtures;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Benchmarks for the all apps title search, both the linear scan and the prebuilt index
+ */
+@State(Scope.Benchmark)
+public class AppSearchBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int appCount;
+
+    @Param({"c", "cal", "play m", "tube", "zzz", "电"})
+    public String query;
+
+    private List<AppInfo> mApps;
+    private AppSearchIndex mIndex;
+
+    @Setup
+    public void setup() {
+        mApps = BenchmarkFixtures.createApps(appCount);
+        mIndex = new AppSearchIndex(mApps, 0, StringMatcher.getInstance());
+    }
+
+    @Benchmark
+    public Object getTitleMatchResult() {
+        return DefaultAppSearchAlgorithm.getTitleMatchResult(mApps, query);
+    }
+
+    @Benchmark
+    public Object queryIndex() {
+        return mIndex.query(query, null);
+    }
+
+    @Benchmark
+    public Object buildIndex() {
+        return new AppSearchIndex(mApps, 0, StringMatcher.getInstance());
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.benchmark;
+
+import static org.mockito.Mockito.mockStatic;
+
+import android.content.ComponentName;
+import android.os.Process;
+import android.os.UserHandle;
+
+import com.android.launcher3.model.data.AppInfo;
+
+import org.mockito.MockedStatic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Synthetic fixtures shared by the benchmarks. All the data is generated from a fixed seed so
+ * that results are comparable between runs.
+ */
+public final class BenchmarkFixtures {
+
+    private static final long SEED = 0x4c61756e636865L;
+
+    private static final String[] WORDS = {"Play", "Store", "Calculator", "Camera", "Clock",
+            "Maps", "Music", "Photos", "Mail", "Calendar", "Notes", "Weather", "Files", "Drive",
+            "YouTube", "WhatsApp", "Messenger", "Bank", "Wallet", "Fit", "Keep", "News", "Radio",
+            "Podcast", "Translate", "Élan", "Über", "T-Mobile", "2FA", "电子邮件", "相机", "Ölçer"};
+
+    private BenchmarkFixtures() { }
+
+    /**
+     * Returns {@param count} app titles made of one to three words
+     */
+    public static String[] createTitles(int count) {
+        Random random = new Random(SEED);
+        String[] titles = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            int extraWords = random.nextInt(3);
+            for (int j = 0; j < extraWords; j++) {
+                title.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            titles[i] = title.toString();
+        }
+        return titles;
+    }
+
+    /**
+     * Returns {@param count} apps with unique components, in creation order
+     */
+    public static List<AppInfo> createApps(int count) {
+        String[] titles = createTitles(count);
+        return withMyUserHandle(() -> {
+            List<AppInfo> apps = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                AppInfo info = new AppInfo();
+                info.title = titles[i];
+                info.sectionName = titles[i].substring(0, 1).toUpperCase(Locale.US);
+                info.componentName = new ComponentName("com.example.app" + i, "MainActivity");
+                apps.add(info);
+            }
+            return apps;
+        });
+    }
+
+    /**
+     * Runs {@param supplier} with {@link Process#myUserHandle()} returning the system user.
+     * The call is backed by a native method on the device, which is not available on the JVM,
+     * so any fixture creating an {@link com.android.launcher3.model.data.ItemInfo} must go
+     * through this method.
+     */
+    public static <T> T withMyUserHandle(Supplier<T> supplier) {
+        try (MockedStatic<Process> process = mockStatic(Process.class)) {
+            process.when(Process::myUserHandle).thenReturn(UserHandle.SYSTEM);
+            return supplier.get();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.folder;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.benchmark.BenchmarkFixtures;
+import com.android.launcher3.model.data.AppInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+
+/**
+ * Benchmarks for {@link FolderGridOrganizer}, as used when a folder is bound or its contents
+ * are reordered.
+ */
+@State(Scope.Benchmark)
+public class FolderGridOrganizerBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int appCount;
+
+    private List<AppInfo> mContents;
+    private InvariantDeviceProfile mProfile;
+
+    @Setup
+    public void setup() {
+        mContents = BenchmarkFixtures.createApps(appCount);
+        mProfile = new InvariantDeviceProfile();
+        mProfile.numFolderColumns = 4;
+        mProfile.numFolderRows = 4;
+    }
+
+    @Benchmark
+    public int updateRanks() {
+        FolderGridOrganizer organizer = new FolderGridOrganizer(mProfile)
+                .setContentSize(mContents.size());
+        int changed = 0;
+        for (int rank = 0; rank < mContents.size(); rank++) {
+            // Shift every item by one, as when an item is added at the start of the folder
+            if (organizer.updateRankAndPos(mContents.get(rank), rank + (changed & 1))) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public void previewItems(Blackhole bh) {
+        FolderGridOrganizer organizer = new FolderGridOrganizer(mProfile);
+        // Grow the folder one item at a time, as when items are dropped into it
+        for (int size = 1; size <= mContents.size(); size++) {
+            organizer.setContentSize(size);
+            bh.consume(organizer.previewItemsForPage(0, mContents));
+        }
+    }
+}
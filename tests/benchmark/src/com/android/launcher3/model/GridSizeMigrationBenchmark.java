@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPWIDGET;
+
+import static org.mockito.Mockito.mockStatic;
+
+import android.graphics.Point;
+import android.util.Log;
+
+import com.android.launcher3.benchmark.BenchmarkFixtures;
+import com.android.launcher3.model.GridSizeMigrationUtil.DbEntry;
+import com.android.launcher3.util.GridOccupancy;
+
+import org.mockito.MockedStatic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Benchmarks the in-memory part of {@link GridSizeMigrationUtil#migrate}, the diff between the
+ * source and destination grids and the placement of the new items, on a synthetic database of
+ * apps and widgets migrating from a 5x5 grid to a 4x4 grid. It runs
+ * {@link GridSizeMigrationUtil#solveMigration}, the same code as the migration, but the database
+ * reads and writes are not included.
+ */
+@State(Scope.Benchmark)
+public class GridSizeMigrationBenchmark {
+
+    private static final int SRC_COUNT_X = 5;
+    private static final int SRC_COUNT_Y = 5;
+    private static final int TRG_COUNT_X = 4;
+    private static final int TRG_COUNT_Y = 4;
+
+    @Param({"50", "500", "5000"})
+    public int itemCount;
+
+    private List<DbEntry> mSrcItems;
+    private List<DbEntry> mDstItems;
+    private final Map<Integer, List<DbEntry>> mDstItemsByScreenId = new HashMap<>();
+    private int mDstLastScreenId = -1;
+    private int[] mSrcPositions;
+
+    // The migration logs its progress, which is backed by a native method on the device
+    private MockedStatic<Log> mLog;
+
+    @Setup
+    public void setup() {
+        mLog = mockStatic(Log.class);
+        mSrcItems = BenchmarkFixtures.withMyUserHandle(() -> createEntries(SRC_COUNT_X,
+                SRC_COUNT_Y, itemCount));
+        // The destination grid already contains every third item of the source
+        mDstItems = new ArrayList<>();
+        for (int i = 0; i < mSrcItems.size(); i += 3) {
+            DbEntry entry = mSrcItems.get(i);
+            mDstItems.add(entry);
+            mDstItemsByScreenId.computeIfAbsent(entry.screenId, id -> new ArrayList<>())
+                    .add(entry);
+            mDstLastScreenId = Math.max(mDstLastScreenId, entry.screenId);
+        }
+        mSrcPositions = new int[mSrcItems.size() * 5];
+        for (int i = 0; i < mSrcItems.size(); i++) {
+            DbEntry entry = mSrcItems.get(i);
+            mSrcPositions[i * 5] = entry.screenId;
+            mSrcPositions[i * 5 + 1] = entry.cellX;
+            mSrcPositions[i * 5 + 2] = entry.cellY;
+            mSrcPositions[i * 5 + 3] = entry.spanX;
+            mSrcPositions[i * 5 + 4] = entry.spanY;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mLog.close();
+    }
+
+    @Benchmark
+    public int migrate() {
+        resetPositions();
+
+        GridSizeMigrationUtil.MigrationPlan plan = GridSizeMigrationUtil.solveMigration(
+                Collections.emptyList(), mSrcItems, Collections.emptyList(), mDstItems,
+                mDstItemsByScreenId, mDstLastScreenId, TRG_COUNT_X,
+                new Point(TRG_COUNT_X, TRG_COUNT_Y), false /* firstScreenHasQsb */,
+                false /* canPreservePages */);
+        return plan.mPlacedEntries.size() + plan.mToBeRemoved.size();
+    }
+
+    private void resetPositions() {
+        for (int i = 0; i < mSrcItems.size(); i++) {
+            DbEntry entry = mSrcItems.get(i);
+            entry.screenId = mSrcPositions[i * 5];
+            entry.cellX = mSrcPositions[i * 5 + 1];
+            entry.cellY = mSrcPositions[i * 5 + 2];
+            entry.spanX = mSrcPositions[i * 5 + 3];
+            entry.spanY = mSrcPositions[i * 5 + 4];
+        }
+    }
+
+    /**
+     * Fills screens of the given size in reading order, with one widget for every ten items
+     */
+    private static List<DbEntry> createEntries(int countX, int countY, int count) {
+        Random random = new Random(count);
+        List<DbEntry> entries = new ArrayList<>(count);
+        GridOccupancy occupied = new GridOccupancy(countX, countY);
+        int screenId = 0;
+        int[] cell = new int[2];
+        for (int i = 0; i < count; i++) {
+            DbEntry entry = new DbEntry();
+            entry.id = i;
+            entry.container = CONTAINER_DESKTOP;
+            if (i % 10 == 9) {
+                entry.itemType = ITEM_TYPE_APPWIDGET;
+                entry.mProvider = "com.example.widget" + i + "/.Provider";
+                entry.spanX = 2 + random.nextInt(countX - 1);
+                entry.spanY = 1 + random.nextInt(2);
+                entry.minSpanX = 2;
+            } else {
+                entry.itemType = ITEM_TYPE_APPLICATION;
+                entry.mIntent = "#Intent;action=android.intent.action.MAIN;"
+                        + "category=android.intent.category.LAUNCHER;"
+                        + "component=com.example.app" + i + "/.MainActivity;end";
+                entry.spanX = 1;
+                entry.spanY = 1;
+            }
+            if (!occupied.findVacantCell(cell, entry.spanX, entry.spanY)) {
+                occupied.clear();
+                screenId++;
+                occupied.findVacantCell(cell, entry.spanX, entry.spanY);
+            }
+            entry.screenId = screenId;
+            entry.cellX = cell[0];
+            entry.cellY = cell[1];
+            occupied.markCells(entry, true);
+            entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.search;
+
+import com.android.launcher3.benchmark.BenchmarkFixtures;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for {@link StringMatcherUtility#matches(String, String, StringMatcher)}
+ */
+@State(Scope.Benchmark)
+public class StringMatcherBenchmark {
+
+    @Param({"50", "500", "5000"})
+    public int appCount;
+
+    @Param({"c", "cal", "play m", "tube", "zzz", "电"})
+    public String query;
+
+    private String[] mTitles;
+    private StringMatcher mMatcher;
+
+    @Setup
+    public void setup() {
+        mTitles = BenchmarkFixtures.createTitles(appCount);
+        mMatcher = StringMatcher.getInstance();
+    }
+
+    @Benchmark
+    public void matchAllTitles(Blackhole bh) {
+        String query = this.query;
+        for (String title : mTitles) {
+            bh.consume(StringMatcherUtility.matches(query, title.toLowerCase(), mMatcher));
+        }
+    }
+}
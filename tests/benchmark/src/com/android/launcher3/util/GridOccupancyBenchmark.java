@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+
+/**
+ * Benchmarks for {@link GridOccupancy}, covering the operations the reorder algorithms and the
+ * workspace loader run in their inner loops.
+ */
+@State(Scope.Benchmark)
+public class GridOccupancyBenchmark {
+
+    @Param({"4x5", "6x6", "10x12"})
+    public String gridSize;
+
+    /** Percentage of cells which are occupied */
+    @Param({"25", "75"})
+    public int fill;
+
+    private int mCountX;
+    private int mCountY;
+    private GridOccupancy mOccupied;
+    private GridOccupancy mTmpOccupied;
+    private GridOccupancy mBlockMask;
+    private final int[] mResult = new int[2];
+
+    @Setup
+    public void setup() {
+        String[] size = gridSize.split("x");
+        mCountX = Integer.parseInt(size[0]);
+        mCountY = Integer.parseInt(size[1]);
+        mOccupied = new GridOccupancy(mCountX, mCountY);
+        mTmpOccupied = new GridOccupancy(mCountX, mCountY);
+
+        Random random = new Random(mCountX * 31 + mCountY);
+        for (int y = 0; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                mOccupied.markCells(x, y, 1, 1, random.nextInt(100) < fill);
+            }
+        }
+
+        mBlockMask = new GridOccupancy(2, 2);
+        mBlockMask.markCells(0, 0, 2, 1, true);
+    }
+
+    @Benchmark
+    public void findVacantCell(Blackhole bh) {
+        for (int spanY = 1; spanY <= 2; spanY++) {
+            for (int spanX = 1; spanX <= 3; spanX++) {
+                bh.consume(mOccupied.findVacantCell(mResult, spanX, spanY));
+            }
+        }
+    }
+
+    @Benchmark
+    public int scanRegions() {
+        int vacant = 0;
+        for (int y = 0; y < mCountY; y++) {
+            for (int x = 0; x < mCountX; x++) {
+                if (mOccupied.isRegionVacant(x, y, 2, 2)) {
+                    vacant++;
+                }
+                if (mOccupied.isRegionVacant(x, y, 2, 2, mBlockMask)) {
+                    vacant++;
+                }
+            }
+        }
+        return vacant;
+    }
+
+    @Benchmark
+    public GridOccupancy copyAndMark() {
+        mOccupied.copyTo(mTmpOccupied);
+        for (int y = 0; y < mCountY; y += 2) {
+            mTmpOccupied.markCells(0, y, mCountX, 1, false);
+            mTmpOccupied.markCells(1, y, 2, 2, true);
+        }
+        return mTmpOccupied;
+    }
+}
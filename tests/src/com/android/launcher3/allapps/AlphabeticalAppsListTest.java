@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ComponentName;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.util.LabelComparator;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Unit tests for {@link AlphabeticalAppsList}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AlphabeticalAppsListTest {
+
+    private static final LabelComparator LABEL_COMPARATOR = new LabelComparator();
+    private static final Comparator<AppInfo> COMPARATOR = (a, b) -> {
+        int result = LABEL_COMPARATOR.compare(a.title.toString(), b.title.toString());
+        return result != 0 ? result : a.componentName.compareTo(b.componentName);
+    };
+
+    @Test
+    public void testSortAppsWithFilter() {
+        AppInfo[] apps = createApps("Maps", "Clock", "Camera", "Play Store", "Calculator");
+        List<AppInfo> sorted = AlphabeticalAppsList.sortApps(apps,
+                info -> !info.title.toString().startsWith("P"), COMPARATOR, null);
+        assertEquals(Arrays.asList("Calculator", "Camera", "Clock", "Maps"), getTitles(sorted));
+    }
+
+    @Test
+    public void testSortAppsUpdatesPreviousOrder() {
+        AppInfo[] apps = createApps("Maps", "Clock", "Camera", "Play Store", "Calculator");
+        List<AppInfo> previous = AlphabeticalAppsList.sortApps(apps, null, COMPARATOR, null);
+
+        // Rename one app, remove one and add a new one
+        AppInfo[] newApps = createApps("Maps", "Alarm", "Camera", "Play Store", "Drive");
+        newApps[1].componentName = apps[1].componentName;
+        newApps[4].componentName = new ComponentName("com.example", "Drive");
+
+        List<AppInfo> sorted = AlphabeticalAppsList.sortApps(newApps, null, COMPARATOR, previous);
+        assertEquals(Arrays.asList("Alarm", "Camera", "Drive", "Maps", "Play Store"),
+                getTitles(sorted));
+        assertEquals(AlphabeticalAppsList.sortApps(newApps, null, COMPARATOR, null), sorted);
+    }
+
+    private static AppInfo[] createApps(String... titles) {
+        AppInfo[] apps = new AppInfo[titles.length];
+        for (int i = 0; i < titles.length; i++) {
+            apps[i] = new AppInfo();
+            apps[i].title = titles[i];
+            apps[i].componentName = new ComponentName("com.example", "App" + i);
+        }
+        return apps;
+    }
+
+    private static List<String> getTitles(List<AppInfo> apps) {
+        List<String> titles = new ArrayList<>();
+        for (AppInfo app : apps) {
+            titles.add(app.title.toString());
+        }
+        return titles;
+    }
+}
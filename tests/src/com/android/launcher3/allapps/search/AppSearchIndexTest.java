@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.allapps.search;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.launcher3.allapps.BaseAllAppsAdapter.AdapterItem;
+import com.android.launcher3.model.data.AppInfo;
+import com.android.launcher3.search.StringMatcherUtility.StringMatcher;
+import com.android.launcher3.util.IntArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link AppSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class AppSearchIndexTest {
+
+    private static final String[] TITLES = {"Play Store", "YouTube", "Calculator", "Camera",
+            "Clock", "WhatsApp", "T-Mobile", "Élan", "2+43", "电子邮件", "", "Google Play Music"};
+
+    private final List<AppInfo> mApps = new ArrayList<>();
+    private AppSearchIndex mIndex;
+
+    @Before
+    public void setup() {
+        for (String title : TITLES) {
+            AppInfo info = new AppInfo();
+            info.title = title;
+            mApps.add(info);
+        }
+        mIndex = new AppSearchIndex(mApps, 0, StringMatcher.getInstance());
+    }
+
+    @Test
+    public void testQueryMatchesLinearScan() {
+        String[] queries = {"p", "play", "tube", "ca", "cam", "app", "mob", "-", "el", "ela", "43",
+                "3", "子", "邮件", "music", "x", ""};
+        for (String query : queries) {
+            assertEquals(query, getLinearScanResult(query), mIndex.query(query, null));
+        }
+    }
+
+    @Test
+    public void testQueryRefinesPreviousResult() {
+        IntArray previous = mIndex.query("c", null);
+        assertEquals(IntArray.wrap(2, 3, 4), previous);
+        assertEquals(IntArray.wrap(2), mIndex.query("cal", previous));
+        assertEquals(getLinearScanResult("cal"), mIndex.query("cal", previous));
+    }
+
+    private IntArray getLinearScanResult(String query) {
+        ArrayList<AdapterItem> items = DefaultAppSearchAlgorithm.getTitleMatchResult(mApps, query);
+        IntArray result = new IntArray();
+        for (AdapterItem item : items) {
+            result.add(mApps.indexOf(item.itemInfo));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.graphics;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.graphics.PreviewCache.LoadedModel;
+import com.android.launcher3.graphics.PreviewCache.RenderKey;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for {@link PreviewCache}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PreviewCacheTest {
+
+    private static final String GRID_NAME = "test_grid";
+
+    private int mModelGeneration = 1;
+    private int mLoadCount = 0;
+
+    private final PreviewCache mCache = new PreviewCache(getApplicationContext(),
+            () -> mModelGeneration, idp -> {
+                mLoadCount++;
+                return new LoadedModel();
+            });
+
+    @Test
+    public void testModel_reusedForSameGeneration() {
+        LoadedModel model = mCache.getOrLoadModel(null, GRID_NAME);
+
+        assertSame(model, mCache.getOrLoadModel(null, GRID_NAME));
+        assertEquals(1, mLoadCount);
+    }
+
+    @Test
+    public void testModel_reloadedAfterModelChange() {
+        LoadedModel model = mCache.getOrLoadModel(null, GRID_NAME);
+        mModelGeneration++;
+
+        assertNotSame(model, mCache.getOrLoadModel(null, GRID_NAME));
+        assertEquals(2, mLoadCount);
+    }
+
+    @Test
+    public void testBitmap_notReturnedAfterModelChange() {
+        Bitmap bitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        mCache.putBitmap(newRenderKey(mModelGeneration), bitmap);
+
+        assertSame(bitmap, mCache.getBitmap(newRenderKey(mModelGeneration)));
+        assertNull(mCache.getBitmap(newRenderKey(mModelGeneration + 1)));
+    }
+
+    private static RenderKey newRenderKey(int modelGeneration) {
+        return new RenderKey(GRID_NAME, modelGeneration, 0 /* displayId */, 100, 200,
+                null /* wallpaperColors */, false /* hideBottomRow */, false /* themedIcons */);
+    }
+}
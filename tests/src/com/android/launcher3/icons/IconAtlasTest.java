@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.icons;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.icons.IconAtlas.IconRecord;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link IconAtlas}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class IconAtlasTest {
+
+    private static final int ICON_SIZE = 8;
+    private static final long USER_SERIAL = 0;
+
+    private static final ComponentName APP_1 = new ComponentName("com.example.one", "Main");
+    private static final ComponentName APP_2 = new ComponentName("com.example.two", "Main");
+
+    private File mFile;
+
+    @Before
+    public void setup() {
+        mFile = new File(getApplicationContext().getCacheDir(), "icon_atlas_test");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testIcons_persisted() {
+        new IconAtlas(mFile, ICON_SIZE).putIcons(List.of(
+                newRecord(APP_1, "state", Color.RED), newRecord(APP_2, "state", Color.BLUE)));
+
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        IconAtlas.Icon icon = atlas.getIcon(APP_1, USER_SERIAL, "state");
+        assertNotNull(icon);
+        assertEquals("Title com.example.one", icon.title);
+        assertEquals(Color.RED, icon.bitmap.color);
+        assertEquals(Color.RED, icon.bitmap.icon.getPixel(3, 5));
+        assertEquals(Color.BLUE, atlas.getIcon(APP_2, USER_SERIAL, "state").bitmap.color);
+        assertNull(atlas.getIcon(APP_1, USER_SERIAL + 1, "state"));
+    }
+
+    @Test
+    public void testDifferentSystemState_ignored() {
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        atlas.putIcons(List.of(newRecord(APP_1, "state", Color.RED)));
+
+        assertNull(atlas.getIcon(APP_1, USER_SERIAL, "other state"));
+        assertNull(new IconAtlas(mFile, ICON_SIZE * 2).getIcon(APP_1, USER_SERIAL, "state"));
+    }
+
+    @Test
+    public void testUpdatedIcon_replacesOldIcon() {
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        atlas.putIcons(List.of(newRecord(APP_1, "state", Color.RED)));
+        atlas.putIcons(List.of(newRecord(APP_1, "new state", Color.GREEN)));
+
+        IconAtlas.Icon icon = new IconAtlas(mFile, ICON_SIZE).getIcon(
+                APP_1, USER_SERIAL, "new state");
+        assertNotNull(icon);
+        assertEquals(Color.GREEN, icon.bitmap.icon.getPixel(0, 0));
+    }
+
+    @Test
+    public void testRemovePackages() {
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        atlas.putIcons(List.of(
+                newRecord(APP_1, "state", Color.RED), newRecord(APP_2, "state", Color.BLUE)));
+        atlas.removePackages(Collections.singleton(APP_1.getPackageName()), USER_SERIAL);
+
+        atlas = new IconAtlas(mFile, ICON_SIZE);
+        assertNull(atlas.getIcon(APP_1, USER_SERIAL, "state"));
+        assertNotNull(atlas.getIcon(APP_2, USER_SERIAL, "state"));
+
+        // Adding the icon again after it was removed
+        atlas.putIcons(List.of(
+                newRecord(APP_1, "state", Color.RED), newRecord(APP_2, "state", Color.BLUE)));
+        assertNotNull(new IconAtlas(mFile, ICON_SIZE).getIcon(APP_1, USER_SERIAL, "state"));
+    }
+
+    @Test
+    public void testPartiallyWrittenRecord_ignored() throws Exception {
+        new IconAtlas(mFile, ICON_SIZE).putIcons(List.of(newRecord(APP_1, "state", Color.RED)));
+        try (FileOutputStream out = new FileOutputStream(mFile, true)) {
+            out.write(new byte[] {0, 0, 1, 0, 1, 2});
+        }
+
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        assertNotNull(atlas.getIcon(APP_1, USER_SERIAL, "state"));
+        atlas.putIcons(List.of(
+                newRecord(APP_1, "state", Color.RED), newRecord(APP_2, "state", Color.BLUE)));
+        assertNotNull(new IconAtlas(mFile, ICON_SIZE).getIcon(APP_2, USER_SERIAL, "state"));
+    }
+
+    @Test
+    public void testUnusedIcons_compacted() {
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        atlas.putIcons(List.of(newRecord(APP_1, "state", Color.RED)));
+        long length = mFile.length();
+        for (int i = 0; i < 10; i++) {
+            atlas.putIcons(List.of(newRecord(APP_1, "state " + i, Color.RED)));
+        }
+
+        assertTrue(mFile.length() <= 2 * length);
+        assertNotNull(new IconAtlas(mFile, ICON_SIZE).getIcon(APP_1, USER_SERIAL, "state 9"));
+    }
+
+    @Test
+    public void testPutIcon_keepsOtherIcons() {
+        IconAtlas atlas = new IconAtlas(mFile, ICON_SIZE);
+        atlas.putIcon(newRecord(APP_1, "state", Color.RED));
+        atlas.putIcon(newRecord(APP_2, "state", Color.BLUE));
+        long length = mFile.length();
+        for (int i = 0; i < 10; i++) {
+            atlas.putIcon(newRecord(APP_1, "state " + i, Color.GREEN));
+        }
+
+        assertTrue(mFile.length() <= 2 * length);
+        atlas = new IconAtlas(mFile, ICON_SIZE);
+        assertEquals(Color.BLUE, atlas.getIcon(APP_2, USER_SERIAL, "state").bitmap.color);
+        assertEquals(Color.GREEN,
+                atlas.getIcon(APP_1, USER_SERIAL, "state 9").bitmap.icon.getPixel(1, 1));
+        assertNull(atlas.getIcon(APP_1, USER_SERIAL, "state"));
+    }
+
+    private static IconRecord newRecord(ComponentName cn, String state, int color) {
+        Bitmap icon = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        icon.eraseColor(color);
+        return new IconRecord(cn, USER_SERIAL, state, "Title " + cn.getPackageName(), null,
+                icon, color);
+    }
+}
@@ -0,0 +1,112 @@
+package com.android.launcher3.logging;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DateFormat;
+import java.util.BitSet;
+
+/**
+ * Tests for {@link FileLogBuffer}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class FileLogBufferTest {
+
+    private static final DateFormat DATE_FORMAT =
+            DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("log-buffer-test", null,
+                getApplicationContext().getCacheDir());
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testWriteAndDecode() throws Exception {
+        FileLogBuffer buffer = new FileLogBuffer(1024);
+        assertTrue(buffer.append(1000, "TagA", "first"));
+        assertFalse(buffer.append(2000, "TagB", "second"));
+        assertFalse(buffer.append(3000, "TagA", "third"));
+
+        BitSet definedTags = new BitSet();
+        try (FileChannel channel = new FileOutputStream(mFile).getChannel()) {
+            FileLogBuffer.writeHeader(channel);
+            writeBatch(buffer, channel, definedTags);
+
+            // Tags are only defined once per file
+            assertTrue(buffer.append(4000, "TagB", "fourth"));
+            writeBatch(buffer, channel, definedTags);
+        }
+
+        String[] lines = decode().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].endsWith("TagA first"));
+        assertTrue(lines[1].endsWith("TagB second"));
+        assertTrue(lines[2].endsWith("TagA third"));
+        assertTrue(lines[3].endsWith("TagB fourth"));
+    }
+
+    @Test
+    public void testDroppedEventsReported() throws Exception {
+        FileLogBuffer buffer = new FileLogBuffer(256);
+        for (int i = 0; i < 20; i++) {
+            buffer.append(1000, "Tag", "message " + i);
+        }
+
+        try (FileChannel channel = new FileOutputStream(mFile).getChannel()) {
+            FileLogBuffer.writeHeader(channel);
+            writeBatch(buffer, channel, new BitSet());
+        }
+
+        String log = decode();
+        assertTrue(log.contains("Tag message 0"));
+        assertFalse(log.contains("Tag message 19"));
+        assertTrue(log.contains("events dropped"));
+    }
+
+    private static void writeBatch(FileLogBuffer buffer, FileChannel channel, BitSet definedTags)
+            throws Exception {
+        ByteBuffer batch = buffer.drain();
+        buffer.write(channel, batch, definedTags);
+        buffer.recycle(batch);
+    }
+
+    private String decode() throws Exception {
+        StringWriter writer = new StringWriter();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            ByteBuffer content = file.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, file.length());
+            assertTrue(FileLogBuffer.hasHeader(content));
+            PrintWriter out = new PrintWriter(writer);
+            FileLogBuffer.decode(content, DATE_FORMAT, out);
+            out.flush();
+        }
+        return writer.toString();
+    }
+}
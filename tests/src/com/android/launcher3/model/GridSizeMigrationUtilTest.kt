@@ -744,6 +744,65 @@ class GridSizeMigrationUtilTest {
         assertThat(locMap[testPackage5]).isEqualTo(0)
     }
 
+    @Test
+    @Throws(Exception::class)
+    fun planMigration_doesNotWriteToDatabase() {
+        val invalidPackage = "com.android.launcher3.invalidpackage"
+        // Src hotseat and grid icons, one of which can't be restored
+        modelHelper.addItem(APP_ICON, 0, HOTSEAT, 0, 0, testPackage1, 1, TMP_CONTENT_URI)
+        modelHelper.addItem(APP_ICON, 0, DESKTOP, 0, 1, testPackage2, 2, TMP_CONTENT_URI)
+        modelHelper.addItem(APP_ICON, 0, DESKTOP, 1, 1, invalidPackage, 3, TMP_CONTENT_URI)
+        // Dest grid icons, one of which can't be restored
+        modelHelper.addItem(APP_ICON, 0, DESKTOP, 2, 2, testPackage10)
+        modelHelper.addItem(APP_ICON, 0, DESKTOP, 0, 0, invalidPackage)
+
+        idp.numDatabaseHotseatIcons = 4
+        idp.numColumns = 4
+        idp.numRows = 4
+        val srcReader = DbReader(db, TMP_TABLE, context, validPackages)
+        val destReader = DbReader(db, TABLE_NAME, context, validPackages)
+        val plan =
+            GridSizeMigrationUtil.planMigration(
+                context,
+                srcReader,
+                destReader,
+                idp.numDatabaseHotseatIcons,
+                Point(idp.numColumns, idp.numRows),
+                DeviceGridState(context),
+                DeviceGridState(idp)
+            )
+
+        // The invalid items are still in both tables
+        assertThat(countItems(TMP_TABLE)).isEqualTo(3)
+        assertThat(countItems(TABLE_NAME)).isEqualTo(2)
+
+        // The planned layout has the kept dest icon and the placed src icons
+        val layout = plan.mLayout.associateBy { Intent.parseUri(it.mIntent, 0).getPackage() }
+        assertThat(layout.keys).containsExactly(testPackage1, testPackage2, testPackage10)
+        assertThat(layout[testPackage1]!!.container).isEqualTo(CONTAINER_HOTSEAT)
+        assertThat(layout[testPackage2]!!.container).isEqualTo(CONTAINER_DESKTOP)
+        assertThat(layout[testPackage10]!!.container).isEqualTo(CONTAINER_DESKTOP)
+        assertThat(Point(layout[testPackage10]!!.cellX, layout[testPackage10]!!.cellY))
+            .isEqualTo(Point(2, 2))
+
+        // The actual migration still removes the invalid items
+        GridSizeMigrationUtil.migrate(
+            context,
+            db,
+            DbReader(db, TMP_TABLE, context, validPackages),
+            DbReader(db, TABLE_NAME, context, validPackages),
+            idp.numDatabaseHotseatIcons,
+            Point(idp.numColumns, idp.numRows),
+            DeviceGridState(context),
+            DeviceGridState(idp)
+        )
+        assertThat(countItems(TMP_TABLE)).isEqualTo(2)
+        assertThat(countItems(TABLE_NAME)).isEqualTo(3)
+    }
+
+    private fun countItems(table: String): Int =
+        db.query(table, null, null, null, null, null, null).use { it.count }
+
     private fun enableNewMigrationLogic(srcGridSize: String) {
         LauncherPrefs.get(context).putSync(WORKSPACE_SIZE.to(srcGridSize))
     }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.model.LoaderMetrics.COUNT_DB_ROWS;
+import static com.android.launcher3.model.LoaderMetrics.KEY_COUNT;
+import static com.android.launcher3.model.LoaderMetrics.KEY_MAX;
+import static com.android.launcher3.model.LoaderMetrics.KEY_P50;
+import static com.android.launcher3.model.LoaderMetrics.KEY_P99;
+import static com.android.launcher3.model.LoaderMetrics.STAGE_LOAD_WORKSPACE;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.util.ArrayMap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.LoaderMetrics.Histogram;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Tests for {@link LoaderMetrics}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class LoaderMetricsTest {
+
+    private File mFile;
+
+    @Before
+    public void setup() {
+        mFile = new File(getApplicationContext().getCacheDir(), "loader_metrics_test");
+        mFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value = 0; value < 5000; value++) {
+            long start = Histogram.getBucketStart(Histogram.getBucketIndex(value));
+            assertTrue(value + " starts at " + start, start <= value);
+            assertTrue(value + " starts at " + start, value - start <= value / 8);
+        }
+    }
+
+    @Test
+    public void testLargeValuesAreClamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(Histogram.MAX_VALUE * 4);
+        assertEquals(Histogram.MAX_VALUE * 4, histogram.getMax());
+        assertTrue(histogram.getPercentile(50) <= Histogram.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50, histogram.getMean());
+        assertEquals(48, histogram.getPercentile(50));
+        assertEquals(96, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testRecordLoad_persisted() {
+        LoaderMetrics metrics = new LoaderMetrics(mFile);
+        Map<String, Long> values = new ArrayMap<>();
+        values.put(STAGE_LOAD_WORKSPACE, 120L);
+        values.put(COUNT_DB_ROWS, 42L);
+        values.put("unknown stage", 10L);
+        metrics.recordLoad(values);
+
+        values.put(STAGE_LOAD_WORKSPACE, 80L);
+        metrics.recordLoad(values);
+
+        Bundle result = new LoaderMetrics(mFile).toBundle();
+        Bundle loadWorkspace = result.getBundle(STAGE_LOAD_WORKSPACE);
+        assertEquals(2, loadWorkspace.getLong(KEY_COUNT));
+        assertEquals(120, loadWorkspace.getLong(KEY_MAX));
+        assertEquals(80, loadWorkspace.getLong(KEY_P50));
+        assertEquals(120, loadWorkspace.getLong(KEY_P99));
+        assertEquals(2, result.getBundle(COUNT_DB_ROWS).getLong(KEY_COUNT));
+        assertNull(result.getBundle("unknown stage"));
+    }
+}
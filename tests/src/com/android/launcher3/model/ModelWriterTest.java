@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.util.Executors.MODEL_EXECUTOR;
+import static com.android.launcher3.util.LauncherModelHelper.TEST_ACTIVITY;
+import static com.android.launcher3.util.LauncherModelHelper.TEST_PACKAGE;
+
+import static org.junit.Assert.assertEquals;
+
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.LauncherSettings.Favorites;
+import com.android.launcher3.celllayout.CellPosMapper;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.util.LauncherLayoutBuilder;
+import com.android.launcher3.util.LauncherModelHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for {@link ModelWriter}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ModelWriterTest {
+
+    private LauncherModelHelper mModelHelper;
+    private ModelWriter mWriter;
+    private ItemInfo mItem;
+
+    // Blocks the model thread until it is counted down
+    private final CountDownLatch mModelThreadBlocker = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        mModelHelper = new LauncherModelHelper();
+        mModelHelper.setupDefaultLayoutProvider(new LauncherLayoutBuilder()
+                .atWorkspace(1, 1, 0).putApp(TEST_PACKAGE, TEST_ACTIVITY))
+                .loadModelSync();
+        mItem = mModelHelper.getBgDataModel().workspaceItems.get(0);
+        mWriter = mModelHelper.getModel().getWriter(false /* hasVerticalHotseat */,
+                false /* verifyChanges */, CellPosMapper.DEFAULT, null /* owner */);
+    }
+
+    @After
+    public void tearDown() {
+        mModelThreadBlocker.countDown();
+        mModelHelper.destroy();
+    }
+
+    @Test
+    public void flushPendingWrites_waitsForWrites() {
+        blockModelThread();
+        mWriter.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 3, 2);
+        assertEquals(1, getCellX());
+
+        mModelThreadBlocker.countDown();
+        mWriter.flushPendingWrites();
+        assertEquals(3, getCellX());
+    }
+
+    @Test
+    public void writes_stayOrderedWithOtherModelTasks() {
+        blockModelThread();
+        mWriter.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 2, 2);
+        int[] cellXBetweenWrites = new int[1];
+        MODEL_EXECUTOR.post(() -> cellXBetweenWrites[0] = getCellX());
+        mWriter.moveItemInDatabase(mItem, Favorites.CONTAINER_DESKTOP, 0, 3, 2);
+
+        mModelThreadBlocker.countDown();
+        mWriter.flushPendingWrites();
+        // The second write was not coalesced with the first one, ahead of the task in between
+        assertEquals(2, cellXBetweenWrites[0]);
+        assertEquals(3, getCellX());
+    }
+
+    private void blockModelThread() {
+        MODEL_EXECUTOR.post(() -> {
+            try {
+                mModelThreadBlocker.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private int getCellX() {
+        try (Cursor c = mModelHelper.sandboxContext.getContentResolver().query(
+                Favorites.getContentUri(mItem.id), new String[] {Favorites.CELLX},
+                null, null, null)) {
+            c.moveToFirst();
+            return c.getInt(0);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.model;
+
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_DESKTOP;
+import static com.android.launcher3.LauncherSettings.Favorites.CONTAINER_HOTSEAT;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_DEEP_SHORTCUT;
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_FOLDER;
+import static com.android.launcher3.model.data.ItemInfoWithIcon.FLAG_DISABLED_SUSPENDED;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Process;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.model.data.FolderInfo;
+import com.android.launcher3.model.data.ItemInfo;
+import com.android.launcher3.model.data.LauncherAppWidgetInfo;
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+import com.android.launcher3.util.IntArray;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+/**
+ * Tests for {@link WorkspaceSnapshot}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WorkspaceSnapshotTest {
+
+    private static final UserHandle USER = Process.myUserHandle();
+
+    private InvariantDeviceProfile mIdp;
+
+    @Before
+    public void setup() {
+        mIdp = new InvariantDeviceProfile();
+        mIdp.dbFile = "launcher_4_by_4.db";
+        mIdp.numColumns = 4;
+        mIdp.numRows = 4;
+        mIdp.numDatabaseHotseatIcons = 4;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        WorkspaceItemInfo app = newApp(1, CONTAINER_DESKTOP, 0, "App");
+        app.cellX = 2;
+        app.cellY = 3;
+        app.runtimeStatusFlags = FLAG_DISABLED_SUSPENDED;
+        items.add(app);
+        items.add(newApp(2, CONTAINER_HOTSEAT, 1, "Hotseat app"));
+
+        FolderInfo folder = new FolderInfo();
+        folder.id = 3;
+        folder.itemType = ITEM_TYPE_FOLDER;
+        folder.container = CONTAINER_DESKTOP;
+        folder.screenId = 1;
+        folder.title = "Folder";
+        folder.options = FolderInfo.FLAG_MULTI_PAGE_ANIMATION;
+        folder.user = USER;
+        folder.contents.add(newApp(4, 3, 0, "In folder"));
+        items.add(folder);
+
+        WorkspaceSnapshot.Data data = WorkspaceSnapshot.decode(
+                WorkspaceSnapshot.encode(mIdp, IntArray.wrap(0, 1), items, u -> 7),
+                mIdp, serial -> serial == 7 ? USER : null);
+
+        assertNotNull(data);
+        assertEquals(IntArray.wrap(0, 1), data.screenIds);
+        assertEquals(3, data.items.size());
+
+        WorkspaceItemInfo restoredApp = (WorkspaceItemInfo) data.items.get(0);
+        assertEquals(1, restoredApp.id);
+        assertEquals(2, restoredApp.cellX);
+        assertEquals(3, restoredApp.cellY);
+        assertEquals("App", restoredApp.title);
+        assertEquals(USER, restoredApp.user);
+        assertEquals(FLAG_DISABLED_SUSPENDED, restoredApp.runtimeStatusFlags);
+        assertEquals(app.getTargetComponent(), restoredApp.getTargetComponent());
+
+        assertEquals(CONTAINER_HOTSEAT, data.items.get(1).container);
+
+        FolderInfo restoredFolder = (FolderInfo) data.items.get(2);
+        assertEquals("Folder", restoredFolder.title);
+        assertEquals(FolderInfo.FLAG_MULTI_PAGE_ANIMATION, restoredFolder.options);
+        assertEquals(1, restoredFolder.contents.size());
+        assertEquals("In folder", restoredFolder.contents.get(0).title);
+        assertEquals(3, restoredFolder.contents.get(0).container);
+    }
+
+    @Test
+    public void testUnsupportedItemsAreSkipped() throws Exception {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        items.add(newApp(1, CONTAINER_DESKTOP, 0, "App"));
+
+        WorkspaceItemInfo shortcut = newApp(2, CONTAINER_DESKTOP, 0, "Shortcut");
+        shortcut.itemType = ITEM_TYPE_DEEP_SHORTCUT;
+        items.add(shortcut);
+
+        WorkspaceItemInfo pending = newApp(3, CONTAINER_DESKTOP, 0, "Pending");
+        pending.status = WorkspaceItemInfo.FLAG_RESTORED_ICON;
+        items.add(pending);
+
+        LauncherAppWidgetInfo widget = new LauncherAppWidgetInfo(5,
+                new ComponentName("com.example", "Provider"));
+        widget.id = 4;
+        widget.container = CONTAINER_DESKTOP;
+        widget.user = USER;
+        items.add(widget);
+
+        WorkspaceSnapshot.Data data = WorkspaceSnapshot.decode(
+                WorkspaceSnapshot.encode(mIdp, IntArray.wrap(0), items, u -> 0),
+                mIdp, serial -> USER);
+
+        assertNotNull(data);
+        assertEquals(1, data.items.size());
+        assertEquals(1, data.items.get(0).id);
+    }
+
+    @Test
+    public void testItemsOfRemovedUsersAreSkipped() throws Exception {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        items.add(newApp(1, CONTAINER_DESKTOP, 0, "App"));
+
+        WorkspaceSnapshot.Data data = WorkspaceSnapshot.decode(
+                WorkspaceSnapshot.encode(mIdp, IntArray.wrap(0), items, u -> 10),
+                mIdp, serial -> null);
+
+        assertNotNull(data);
+        assertTrue(data.items.isEmpty());
+    }
+
+    @Test
+    public void testDifferentGridIsIgnored() throws Exception {
+        ArrayList<ItemInfo> items = new ArrayList<>();
+        items.add(newApp(1, CONTAINER_DESKTOP, 0, "App"));
+        byte[] content = WorkspaceSnapshot.encode(mIdp, IntArray.wrap(0), items, u -> 0);
+
+        mIdp.numColumns = 5;
+        assertNull(WorkspaceSnapshot.decode(content, mIdp, serial -> USER));
+
+        mIdp.numColumns = 4;
+        mIdp.dbFile = "launcher.db";
+        assertNull(WorkspaceSnapshot.decode(content, mIdp, serial -> USER));
+    }
+
+    private static WorkspaceItemInfo newApp(int id, int container, int screenId, String title) {
+        WorkspaceItemInfo info = new WorkspaceItemInfo();
+        info.id = id;
+        info.itemType = ITEM_TYPE_APPLICATION;
+        info.container = container;
+        info.screenId = screenId;
+        info.spanX = info.spanY = 1;
+        info.title = title;
+        info.user = USER;
+        info.intent = new Intent(Intent.ACTION_MAIN)
+                .addCategory(Intent.CATEGORY_LAUNCHER)
+                .setComponent(new ComponentName("com.example", "Activity" + id));
+        return info;
+    }
+}
@@ -16,6 +16,7 @@
 package com.android.launcher3.search;
 
 import static com.android.launcher3.search.StringMatcherUtility.getListOfBreakpoints;
+import static com.android.launcher3.search.StringMatcherUtility.getMatchStartPositions;
 import static com.android.launcher3.search.StringMatcherUtility.matches;
 
 import static org.junit.Assert.assertEquals;
@@ -99,6 +100,31 @@ public class StringMatcherUtilityTest {
         assertFalse(matches("åç", "abc", MATCHER));
     }
 
+    @Test
+    public void testMatchesWithStartPositions() {
+        String[] targets = {"white cow", "whiteCow", "white2cow", "whitecow", "cats&Dogs",
+                "2+43", "  Q", "Elephant", "电子邮件", "다운로드 드라이브", "abc", ""};
+        String[] queries = {"white", "white c", "cow", "dog", "&", "43", "3", "q", "el",
+                "phant", "子", "ㄷ", "åbç", "åç", "elephants"};
+        for (String target : targets) {
+            IntArray positions = getMatchStartPositions(target, MATCHER);
+            IntArray spacePositions = getMatchStartPositions(target, MATCHER_SPACE);
+            for (String query : queries) {
+                assertEquals(query + " in " + target, matches(query, target, MATCHER),
+                        matches(query, target, positions, MATCHER));
+                assertEquals(query + " in " + target, matches(query, target, MATCHER_SPACE),
+                        matches(query, target, spacePositions, MATCHER_SPACE));
+            }
+        }
+    }
+
+    @Test
+    public void testPrimaryOrderIgnoresCaseAndAccents() {
+        assertEquals(MATCHER.getPrimaryOrder("a", 0), MATCHER.getPrimaryOrder("Å", 0));
+        assertEquals(MATCHER.getPrimaryOrder("ㄷ", 0), MATCHER.getPrimaryOrder("다운로드", 0));
+        assertFalse(MATCHER.getPrimaryOrder("a", 0) == MATCHER.getPrimaryOrder("b", 0));
+    }
+
     @Test
     public void testMatchesWithSpaceBreakOnly() {
         assertTrue(matches("white", "white cow", MATCHER_SPACE));
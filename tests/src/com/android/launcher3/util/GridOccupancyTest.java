@@ -55,13 +55,65 @@ public class GridOccupancyTest {
         assertFalse(grid.isRegionVacant(0, 0, 2, 1));
     }
 
+    @Test
+    public void testIsRegionVacantWithBlockMask() {
+        GridOccupancy grid = initGrid(3,
+                1, 0, 0,
+                0, 0, 1,
+                0, 0, 0
+        );
+        GridOccupancy mask = initGrid(2,
+                0, 1,
+                1, 0
+        );
+
+        assertFalse(grid.isRegionVacant(0, 0, 2, 2));
+        assertTrue(grid.isRegionVacant(0, 0, 2, 2, mask));
+        assertFalse(grid.isRegionVacant(1, 0, 2, 2, mask));
+    }
+
+    @Test
+    public void testGetVacantPositions() {
+        GridOccupancy grid = initGrid(3,
+                1, 0, 0, 0, 1,
+                0, 0, 1, 0, 0,
+                0, 0, 0, 0, 0
+        );
+
+        assertEquals(0b01110, grid.getVacantPositions(0, 1, 1));
+        assertEquals(0b00110, grid.getVacantPositions(0, 2, 1));
+        assertEquals(0b01010, grid.getVacantPositions(0, 1, 2));
+        assertEquals(0b11011, grid.getVacantPositions(1, 1, 2));
+        assertEquals(0, grid.getVacantPositions(1, 3, 2));
+        assertEquals(0, grid.getVacantPositions(2, 1, 2));
+    }
+
+    @Test
+    public void testWideGrid() {
+        GridOccupancy grid = new GridOccupancy(GridOccupancy.MAX_COUNT_X, 2);
+        grid.markCells(0, 0, GridOccupancy.MAX_COUNT_X - 1, 2, true);
+        assertTrue(grid.isOccupied(62, 1));
+        assertFalse(grid.isOccupied(63, 1));
+
+        int[] vacant = new int[2];
+        assertTrue(grid.findVacantCell(vacant, 1, 2));
+        assertEquals(63, vacant[0]);
+        assertEquals(0, vacant[1]);
+
+        GridOccupancy copy = new GridOccupancy(GridOccupancy.MAX_COUNT_X, 2);
+        grid.copyTo(copy);
+        assertFalse(copy.isRegionVacant(62, 0, 2, 1));
+        grid.clear();
+        assertTrue(grid.isRegionVacant(0, 0, GridOccupancy.MAX_COUNT_X, 2));
+    }
+
     private GridOccupancy initGrid(int rows, int... cells) {
         int cols = cells.length / rows;
         int i = 0;
         GridOccupancy grid = new GridOccupancy(cols, rows);
         for (int y = 0; y < rows; y++) {
             for (int x = 0; x < cols; x++) {
-                grid.cells[x][y] = cells[i] != 0;
+                grid.markCells(x, y, 1, 1, cells[i] != 0);
                 i++;
             }
         }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.util;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.LauncherSettings.Favorites.ITEM_TYPE_APPLICATION;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Process;
+import android.os.UserHandle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.model.data.WorkspaceItemInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link PersistedItemArray}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PersistedItemArrayTest {
+
+    private static final String FILE_NAME = "persisted_item_array_test";
+
+    private Context mContext;
+    private PersistedItemArray<WorkspaceItemInfo> mArray;
+
+    @Before
+    public void setUp() {
+        mContext = getApplicationContext();
+        mArray = new PersistedItemArray<>(FILE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mArray.getFile(mContext).delete();
+        mContext.getFileStreamPath(FILE_NAME + ".xml").delete();
+    }
+
+    @Test
+    public void writeAndRead() {
+        mArray.write(mContext, Arrays.asList(createItem("a"), createItem("b")));
+        assertEquals(Arrays.asList("a", "b"), readPackages());
+    }
+
+    @Test
+    public void addAndRemove_appendsRecords() {
+        mArray.write(mContext, new ArrayList<>());
+        List<WorkspaceItemInfo> items = new ArrayList<>();
+        for (String pkg : new String[] {"a", "b", "c"}) {
+            WorkspaceItemInfo item = createItem(pkg);
+            items.add(item);
+            mArray.add(mContext, item);
+        }
+        WorkspaceItemInfo removed = items.remove(1);
+        mArray.remove(mContext, Arrays.asList(removed), items);
+
+        assertEquals(Arrays.asList("a", "c"), readPackages());
+    }
+
+    @Test
+    public void remove_compactsFile() {
+        List<WorkspaceItemInfo> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            items.add(createItem("pkg" + i));
+        }
+        mArray.write(mContext, items);
+        long initialSize = mArray.getFile(mContext).getBaseFile().length();
+
+        List<WorkspaceItemInfo> removed = new ArrayList<>(items.subList(0, 19));
+        items.removeAll(removed);
+        mArray.remove(mContext, removed, items);
+
+        assertEquals(Arrays.asList("pkg19"), readPackages());
+        assertTrue(mArray.getFile(mContext).getBaseFile().length() < initialSize);
+    }
+
+    @Test
+    public void read_migratesLegacyXml() throws Exception {
+        long serial = UserCache.INSTANCE.get(mContext)
+                .getSerialNumberForUser(Process.myUserHandle());
+        File legacyFile = mContext.getFileStreamPath(FILE_NAME + ".xml");
+        try (FileWriter writer = new FileWriter(legacyFile)) {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?><items>"
+                    + "<entry itemType=\"" + ITEM_TYPE_APPLICATION + "\" profileId=\"" + serial
+                    + "\" intent=\"" + createItem("legacy").getIntent().toUri(0)
+                    .replace("&", "&amp;").replace("\"", "&quot;") + "\" />"
+                    + "</items>");
+        }
+
+        assertEquals(Arrays.asList("legacy"), readPackages());
+        assertFalse(legacyFile.exists());
+        assertTrue(mArray.getFile(mContext).getBaseFile().exists());
+    }
+
+    @Test
+    public void read_deletesFileWithInvalidHeader() throws Exception {
+        File file = mArray.getFile(mContext).getBaseFile();
+        try (FileWriter writer = new FileWriter(file)) {
+            writer.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?><items/>");
+        }
+
+        assertEquals(new ArrayList<>(), readPackages());
+        assertFalse(file.exists());
+
+        mArray.add(mContext, createItem("a"));
+        assertEquals(Arrays.asList("a"), readPackages());
+    }
+
+    private List<String> readPackages() {
+        List<String> packages = new ArrayList<>();
+        for (WorkspaceItemInfo item : new PersistedItemArray<WorkspaceItemInfo>(FILE_NAME)
+                .read(mContext, this::createInfo)) {
+            packages.add(item.getIntent().getPackage());
+        }
+        return packages;
+    }
+
+    private WorkspaceItemInfo createInfo(int itemType, UserHandle user, Intent intent) {
+        WorkspaceItemInfo info = new WorkspaceItemInfo();
+        info.itemType = itemType;
+        info.user = user;
+        info.intent = intent;
+        return info;
+    }
+
+    private WorkspaceItemInfo createItem(String packageName) {
+        return createInfo(ITEM_TYPE_APPLICATION, Process.myUserHandle(),
+                new Intent(Intent.ACTION_MAIN).setPackage(packageName));
+    }
+}
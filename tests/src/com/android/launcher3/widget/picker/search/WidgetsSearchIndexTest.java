@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.launcher3.widget.picker.search;
+
+import static androidx.test.core.app.ApplicationProvider.getApplicationContext;
+
+import static com.android.launcher3.util.WidgetUtils.createAppWidgetProviderInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import android.appwidget.AppWidgetProviderInfo;
+import android.content.ComponentName;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import com.android.launcher3.InvariantDeviceProfile;
+import com.android.launcher3.icons.BitmapInfo;
+import com.android.launcher3.icons.ComponentWithLabel;
+import com.android.launcher3.icons.IconCache;
+import com.android.launcher3.model.WidgetItem;
+import com.android.launcher3.model.data.PackageItemInfo;
+import com.android.launcher3.widget.LauncherAppWidgetProviderInfo;
+import com.android.launcher3.widget.model.WidgetsListBaseEntry;
+import com.android.launcher3.widget.model.WidgetsListContentEntry;
+import com.android.launcher3.widget.model.WidgetsListHeaderEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link WidgetsSearchIndex}
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class WidgetsSearchIndexTest {
+
+    @Mock private IconCache mIconCache;
+
+    private InvariantDeviceProfile mTestProfile;
+    private Context mContext;
+
+    private WidgetsListHeaderEntry mCalendarHeaderEntry;
+    private WidgetsListHeaderEntry mClockHeaderEntry;
+    private WidgetsListHeaderEntry mStudioHeaderEntry;
+    private List<WidgetsListBaseEntry> mEntries;
+
+    private WidgetsSearchIndex mSearchIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doAnswer(invocation -> {
+            ComponentWithLabel componentWithLabel = (ComponentWithLabel) invocation.getArgument(0);
+            return componentWithLabel.getComponent().getShortClassName();
+        }).when(mIconCache).getTitleNoCache(any());
+        mTestProfile = new InvariantDeviceProfile();
+        mTestProfile.numRows = 5;
+        mTestProfile.numColumns = 5;
+        mContext = getApplicationContext();
+
+        mCalendarHeaderEntry = createWidgetsHeaderEntry("com.example.android.Calendar",
+                "Calendar", 2);
+        mClockHeaderEntry = createWidgetsHeaderEntry("com.example.android.Clock", "Clock", 3);
+        mStudioHeaderEntry = createWidgetsHeaderEntry("com.example.android.Studio",
+                "Widget1 Studio", 1);
+        mEntries = List.of(
+                mCalendarHeaderEntry, createContentEntry(mCalendarHeaderEntry),
+                mClockHeaderEntry, createContentEntry(mClockHeaderEntry),
+                mStudioHeaderEntry, createContentEntry(mStudioHeaderEntry));
+
+        mSearchIndex = new WidgetsSearchIndex();
+        mSearchIndex.update(null /* context */, mEntries);
+    }
+
+    @Test
+    public void query_titleMatchesRankedFirst() {
+        List<WidgetsListBaseEntry> result =
+                mSearchIndex.query(mEntries, "Widget1", null).getEntries();
+
+        assertEquals(List.of(
+                WidgetsListHeaderEntry.createForSearch(
+                        mStudioHeaderEntry.mPkgItem,
+                        mStudioHeaderEntry.mTitleSectionName,
+                        mStudioHeaderEntry.mWidgets),
+                createContentEntry(mStudioHeaderEntry),
+                WidgetsListHeaderEntry.createForSearch(
+                        mCalendarHeaderEntry.mPkgItem,
+                        mCalendarHeaderEntry.mTitleSectionName,
+                        mCalendarHeaderEntry.mWidgets.subList(1, 2)),
+                new WidgetsListContentEntry(
+                        mCalendarHeaderEntry.mPkgItem,
+                        mCalendarHeaderEntry.mTitleSectionName,
+                        mCalendarHeaderEntry.mWidgets.subList(1, 2)),
+                WidgetsListHeaderEntry.createForSearch(
+                        mClockHeaderEntry.mPkgItem,
+                        mClockHeaderEntry.mTitleSectionName,
+                        mClockHeaderEntry.mWidgets.subList(1, 2)),
+                new WidgetsListContentEntry(
+                        mClockHeaderEntry.mPkgItem,
+                        mClockHeaderEntry.mTitleSectionName,
+                        mClockHeaderEntry.mWidgets.subList(1, 2))),
+                result);
+    }
+
+    @Test
+    public void query_refinedQuery_matchesFullQuery() {
+        WidgetsSearchIndex.Result previous = mSearchIndex.query(mEntries, "C", null);
+        assertEquals(4, previous.getEntries().size());
+
+        assertEquals(mSearchIndex.query(mEntries, "Cal", null).getEntries(),
+                mSearchIndex.query(mEntries, "Cal", previous).getEntries());
+    }
+
+    @Test
+    public void query_unrelatedQuery_ignoresPreviousResult() {
+        WidgetsSearchIndex.Result previous = mSearchIndex.query(mEntries, "Cal", null);
+
+        List<WidgetsListBaseEntry> result =
+                mSearchIndex.query(mEntries, "Clock", previous).getEntries();
+
+        assertEquals(2, result.size());
+        assertEquals(mClockHeaderEntry.mPkgItem, result.get(0).mPkgItem);
+    }
+
+    @Test
+    public void query_hanQueryRefiningOtherQuery_ignoresPreviousResult() {
+        WidgetsListHeaderEntry header = createWidgetsHeaderEntry("com.example.android.Data",
+                "Data\u4e2d\u6587", 1);
+        List<WidgetsListBaseEntry> entries = List.of(header, createContentEntry(header));
+        mSearchIndex.update(null /* context */, entries);
+
+        // Not a word start, but HAN queries are matched anywhere in the title
+        WidgetsSearchIndex.Result previous = mSearchIndex.query(entries, "t", null);
+        assertTrue(previous.getEntries().isEmpty());
+        List<WidgetsListBaseEntry> result =
+                mSearchIndex.query(entries, "ta\u4e2d", previous).getEntries();
+
+        assertEquals(2, result.size());
+        assertEquals(header.mPkgItem, result.get(0).mPkgItem);
+    }
+
+    @Test
+    public void query_entriesNotIndexed_stillMatched() {
+        WidgetsListHeaderEntry header = createWidgetsHeaderEntry("com.example.android.Camera",
+                "Camera", 1);
+        List<WidgetsListBaseEntry> entries = List.of(header, createContentEntry(header));
+
+        List<WidgetsListBaseEntry> result =
+                mSearchIndex.query(entries, "Cam", null).getEntries();
+
+        assertEquals(2, result.size());
+        assertEquals(header.mPkgItem, result.get(0).mPkgItem);
+        assertTrue(mSearchIndex.query(entries, "Cal", null).getEntries().isEmpty());
+    }
+
+    private WidgetsListHeaderEntry createWidgetsHeaderEntry(String packageName, String appName,
+            int numOfWidgets) {
+        List<WidgetItem> widgetItems = generateWidgetItems(packageName, numOfWidgets);
+        PackageItemInfo pInfo = new PackageItemInfo(packageName, widgetItems.get(0).user);
+        pInfo.title = appName;
+        pInfo.bitmap = BitmapInfo.of(Bitmap.createBitmap(10, 10, Bitmap.Config.ALPHA_8), 0);
+        return WidgetsListHeaderEntry.create(pInfo, /* titleSectionName= */ "", widgetItems);
+    }
+
+    private static WidgetsListContentEntry createContentEntry(WidgetsListHeaderEntry header) {
+        return new WidgetsListContentEntry(header.mPkgItem, header.mTitleSectionName,
+                header.mWidgets);
+    }
+
+    private List<WidgetItem> generateWidgetItems(String packageName, int numOfWidgets) {
+        ArrayList<WidgetItem> widgetItems = new ArrayList<>();
+        for (int i = 0; i < numOfWidgets; i++) {
+            ComponentName cn = ComponentName.createRelative(packageName, ".SampleWidget" + i);
+            AppWidgetProviderInfo widgetInfo = createAppWidgetProviderInfo(cn);
+
+            WidgetItem widgetItem = new WidgetItem(
+                    LauncherAppWidgetProviderInfo.fromProviderInfo(mContext, widgetInfo),
+                    mTestProfile, mIconCache);
+            widgetItems.add(widgetItem);
+        }
+        return widgetItems;
+    }
+}